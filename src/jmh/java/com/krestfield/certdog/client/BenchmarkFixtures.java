@@ -0,0 +1,132 @@
+package com.krestfield.certdog.client;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BenchmarkFixtures
+ *
+ * A throwaway CA, with a leaf certificate and its P12, for the benchmarks and the stub server
+ */
+class BenchmarkFixtures
+{
+    static final String P12_PASSWORD = "password";
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final AtomicLong SERIAL = new AtomicLong(System.currentTimeMillis());
+
+    final KeyPair caKeys;
+    final X509Certificate caCert;
+    final KeyPair leafKeys;
+    final X509Certificate leafCert;
+    final String leafPem;
+    final String chainPem;
+    final String p12B64;
+
+    BenchmarkFixtures() throws Exception
+    {
+        caKeys = KeyType.RSA_2048.generate();
+        caCert = Issue("CN=Certdog Benchmark CA", caKeys, "CN=Certdog Benchmark CA", caKeys.getPrivate(), true, null);
+
+        leafKeys = KeyType.RSA_2048.generate();
+        leafCert = Issue("CN=localhost", leafKeys, "CN=Certdog Benchmark CA", caKeys.getPrivate(), false,
+                new GeneralNames(new GeneralName[] {
+                        new GeneralName(GeneralName.dNSName, "localhost"),
+                        new GeneralName(GeneralName.iPAddress, "127.0.0.1") }));
+
+        leafPem = ToPem(leafCert);
+        chainPem = leafPem + ToPem(caCert);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        toKeyStore("PKCS12").store(out, P12_PASSWORD.toCharArray());
+        p12B64 = Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+    /**
+     * @return a key store holding the leaf key and chain, for the HTTPS stub server
+     */
+    KeyStore toKeyStore(String type) throws Exception
+    {
+        KeyStore ks = KeyStore.getInstance(type);
+        ks.load(null, null);
+        ks.setKeyEntry("certdog", leafKeys.getPrivate(), P12_PASSWORD.toCharArray(), new Certificate[] { leafCert, caCert });
+
+        return ks;
+    }
+
+    /**
+     * @return a server SSLContext presenting the leaf certificate
+     */
+    SSLContext serverSslContext() throws Exception
+    {
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(toKeyStore("JKS"), P12_PASSWORD.toCharArray());
+
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(kmf.getKeyManagers(), null, null);
+
+        return ctx;
+    }
+
+    /**
+     * @return a client SSLContext trusting only the benchmark CA
+     */
+    SSLContext clientSslContext() throws Exception
+    {
+        KeyStore trust = KeyStore.getInstance("JKS");
+        trust.load(null, null);
+        trust.setCertificateEntry("ca", caCert);
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trust);
+
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(null, tmf.getTrustManagers(), null);
+
+        return ctx;
+    }
+
+    private static X509Certificate Issue(String subject, KeyPair subjectKeys, String issuer, PrivateKey issuerKey,
+                                         boolean ca, GeneralNames sans) throws Exception
+    {
+        long now = System.currentTimeMillis();
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(new X500Name(issuer),
+                BigInteger.valueOf(SERIAL.incrementAndGet()), new Date(now - DAY), new Date(now + 365 * DAY),
+                new X500Name(subject), subjectKeys.getPublic());
+        builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+        if (sans != null)
+            builder.addExtension(Extension.subjectAlternativeName, false, sans);
+
+        return new JcaX509CertificateConverter().getCertificate(
+                builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKey)));
+    }
+
+    private static String ToPem(X509Certificate cert) throws Exception
+    {
+        StringBuilder sb = new StringBuilder();
+        Pem.Encode(Pem.CERTIFICATE, cert.getEncoded(), sb);
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package com.krestfield.certdog.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ClientBenchmark
+ *
+ * End-to-end calls through CertdogClient against the in-process stub server. The stub answers
+ * immediately, so the time measured is the client's own: serialization, HTTP handling and parsing
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientBenchmark
+{
+    private static final List<String> SANS = Arrays.asList("DNS:domain.com", "DNS:www.domain.com");
+
+    private StubCertdogServer server;
+    private CertdogClient client;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        server = new StubCertdogServer(new BenchmarkFixtures(), false);
+        client = new CertdogClient(CertdogClientConfig.builder(server.apiUrl())
+                .connector(CertdogClientConfig.Connector.POOLED)
+                .build());
+        client.login("benchmark", "benchmark");
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public String requestCertP12() throws Exception
+    {
+        return client.requestCert("Certdog TLS", "RSA2048", "Test Team", "CN=domain.com",
+                BenchmarkFixtures.P12_PASSWORD, SANS, null, null, CertdogClient.ResponseFormat.PKCS12);
+    }
+
+    @Benchmark
+    public String requestCertPem() throws Exception
+    {
+        return client.requestCert("Certdog TLS", "RSA2048", "Test Team", "CN=domain.com",
+                BenchmarkFixtures.P12_PASSWORD, SANS, null, null, CertdogClient.ResponseFormat.PEM);
+    }
+
+    @Benchmark
+    public List<X509Certificate> getIssuerChain() throws Exception
+    {
+        return client.getIssuerChain("Certdog TLS");
+    }
+}
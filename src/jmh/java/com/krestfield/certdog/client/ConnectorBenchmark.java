@@ -0,0 +1,66 @@
+package com.krestfield.certdog.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ConnectorBenchmark
+ *
+ * Small HTTPS calls with the default connector against the pooled connector, which keeps
+ * connections (and so TLS sessions) open between calls
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ConnectorBenchmark
+{
+    @Param({ "DEFAULT", "POOLED" })
+    public CertdogClientConfig.Connector connector;
+
+    private StubCertdogServer server;
+    private CertdogClient client;
+    private String token;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        BenchmarkFixtures fixtures = new BenchmarkFixtures();
+        server = new StubCertdogServer(fixtures, true);
+        client = new CertdogClient(CertdogClientConfig.builder(server.apiUrl())
+                .connector(connector)
+                .sslContext(fixtures.clientSslContext())
+                .build());
+        token = client.loginExt("benchmark", "benchmark");
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public List<String> getTeams() throws Exception
+    {
+        return client.getTeams(token);
+    }
+}
@@ -0,0 +1,75 @@
+package com.krestfield.certdog.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.krestfield.certdog.client.model.GetCertRequest;
+import com.krestfield.certdog.client.model.GetCertResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JsonBenchmark
+ *
+ * Jackson serialization of the certificate request and response bodies, with a default ObjectMapper and with
+ * the shared one the client registers (JsonMapperResolver)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark
+{
+    @Param({ "default", "shared" })
+    public String mapperType;
+
+    private ObjectMapper mapper;
+    private GetCertRequest request;
+    private byte[] responseJson;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        BenchmarkFixtures fixtures = new BenchmarkFixtures();
+        mapper = "shared".equals(mapperType) ? JsonMapperResolver.CreateMapper() : new ObjectMapper();
+
+        request = new GetCertRequest();
+        request.setCaName("Certdog TLS");
+        request.setCsrGeneratorName("RSA2048");
+        request.setTeamName("Test Team");
+        request.setDn("CN=domain.com,O=Some org");
+        request.setSubjectAltNames(new String[] { "DNS:domain.com", "DNS:www.domain.com", "IP:10.0.0.1" });
+        request.setP12Password(BenchmarkFixtures.P12_PASSWORD);
+        request.setExtraInfo("benchmark");
+        request.setExtraEmails(new String[] { "admin@domain.com" });
+
+        GetCertResponse response = new GetCertResponse();
+        response.setId(StubCertdogServer.CERT_ID);
+        response.setPemCert(fixtures.leafPem);
+        response.setP12Data(fixtures.p12B64);
+        responseJson = mapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public byte[] writeGetCertRequest() throws Exception
+    {
+        return mapper.writeValueAsBytes(request);
+    }
+
+    @Benchmark
+    public GetCertResponse readGetCertResponse() throws Exception
+    {
+        return mapper.readValue(responseJson, GetCertResponse.class);
+    }
+}
@@ -0,0 +1,91 @@
+package com.krestfield.certdog.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jdk.jfr.Recording;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MetricsBenchmark
+ *
+ * The cost of the instrumentation: on its own (instrument, in nanoseconds) and as part of a call
+ * through CertdogClient to the in-process stub server (getIssuerChain, in microseconds). "none" has no
+ * metrics and no Flight Recorder recording, "jfr" records CertdogCallEvents to an in-memory recording
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsBenchmark
+{
+    @Param({"none", "micrometer", "jfr"})
+    public String metrics;
+
+    private StubCertdogServer server;
+    private CertdogClient client;
+    private Instrumentation instrumentation;
+    private Recording recording;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        CertdogMetrics m = metrics.equals("micrometer") ? new MicrometerMetrics(new SimpleMeterRegistry()) : CertdogMetrics.NONE;
+        instrumentation = new Instrumentation(m);
+
+        if (metrics.equals("jfr"))
+        {
+            recording = new Recording();
+            recording.enable(CertdogCallEvent.class);
+            recording.setToDisk(false);
+            recording.start();
+        }
+
+        server = new StubCertdogServer(new BenchmarkFixtures(), false);
+        client = new CertdogClient(CertdogClientConfig.builder(server.apiUrl())
+                .connector(CertdogClientConfig.Connector.POOLED)
+                .metrics(m)
+                .build());
+        client.login("benchmark", "benchmark");
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        client.close();
+        server.close();
+        if (recording != null)
+            recording.close();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Instrumentation.Span instrument()
+    {
+        Instrumentation.Span span = instrumentation.start(CertdogEndpoints.CERT_REQ, "Certdog TLS", "Test Team");
+        span.end(200, 4096);
+
+        return span;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<X509Certificate> getIssuerChain() throws Exception
+    {
+        return client.getIssuerChain("Certdog TLS");
+    }
+}
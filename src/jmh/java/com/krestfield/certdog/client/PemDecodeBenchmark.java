@@ -0,0 +1,79 @@
+package com.krestfield.certdog.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PemDecodeBenchmark
+ *
+ * GetCertFromData against the decoder it replaced, which made five String.replace passes and
+ * created a CertificateFactory on each call
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PemDecodeBenchmark
+{
+    private String pem;
+    private String chainPem;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        BenchmarkFixtures fixtures = new BenchmarkFixtures();
+        pem = fixtures.leafPem;
+        chainPem = fixtures.chainPem;
+    }
+
+    @Benchmark
+    public X509Certificate getCertFromData() throws Exception
+    {
+        return CertdogClient.GetCertFromData(pem);
+    }
+
+    @Benchmark
+    public X509Certificate getCertFromDataLegacy() throws Exception
+    {
+        return LegacyGetCertFromData(pem);
+    }
+
+    @Benchmark
+    public List<X509Certificate> getCertsFromPemBundle() throws Exception
+    {
+        return CertdogClient.GetCertsFromPem(chainPem);
+    }
+
+    /**
+     * The implementation of GetCertFromData before the single pass decoder
+     */
+    private static X509Certificate LegacyGetCertFromData(String certData) throws Exception
+    {
+        certData = certData.replace(CertdogClient.CERT_HEADER, "");
+        certData = certData.replace(CertdogClient.CERT_FOOTER, "");
+        certData = certData.replace("\r", "");
+        certData = certData.replace("\n", "");
+        certData = certData.replace(" ", "");
+        byte[] binaryCertData = Base64.getDecoder().decode(certData);
+        CertificateFactory cf = CertificateFactory.getInstance("X.509");
+
+        return (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(binaryCertData));
+    }
+}
@@ -0,0 +1,75 @@
+package com.krestfield.certdog.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PemEncodeBenchmark
+ *
+ * The PEM encoding used by SaveCert, against the regex line wrapping it replaced, and SaveCert itself
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PemEncodeBenchmark
+{
+    private X509Certificate cert;
+    private byte[] der;
+    private File file;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        cert = new BenchmarkFixtures().leafCert;
+        der = cert.getEncoded();
+        file = File.createTempFile("certdog-benchmark", ".cer");
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    @Benchmark
+    public String encode()
+    {
+        StringBuilder sb = new StringBuilder(2048);
+        Pem.Encode(Pem.CERTIFICATE, der, sb, System.lineSeparator());
+
+        return sb.toString();
+    }
+
+    @Benchmark
+    public String encodeLegacy()
+    {
+        String nl = System.lineSeparator();
+
+        return CertdogClient.CERT_HEADER + nl
+                + Base64.getEncoder().encodeToString(der).replaceAll("(.{64})", "$1" + nl)
+                + nl + CertdogClient.CERT_FOOTER + nl;
+    }
+
+    @Benchmark
+    public void saveCert() throws Exception
+    {
+        CertdogClient.SaveCert(cert, file.getPath());
+    }
+}
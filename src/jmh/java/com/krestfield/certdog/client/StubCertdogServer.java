@@ -0,0 +1,171 @@
+package com.krestfield.certdog.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.krestfield.certdog.client.model.GetCertResponse;
+import com.krestfield.certdog.client.model.LoginResponse;
+import com.krestfield.certdog.client.model.TeamsResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StubCertdogServer
+ *
+ * An in-process server answering the certdog endpoints the benchmarks call with fixed responses,
+ * so that the client's own overhead can be measured without a network or a CA in the way
+ */
+class StubCertdogServer implements AutoCloseable
+{
+    static final String CERT_ID = "benchmark";
+    static final String TOKEN = "benchmark-token";
+
+    static
+    {
+        // Without this the server's separate header and body writes stall on delayed ACKs
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    // Enough for thousands of connections to be opened at once
+    private static final int BACKLOG = 4096;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(8, r ->
+    {
+        Thread t = new Thread(r, "certdog-stub");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ScheduledExecutorService delayer = Executors.newScheduledThreadPool(2, r ->
+    {
+        Thread t = new Thread(r, "certdog-stub-delay");
+        t.setDaemon(true);
+        return t;
+    });
+    private final long latencyMillis;
+
+    /**
+     * @param fixtures the certificates to return
+     * @param https true to serve HTTPS with the fixtures' leaf certificate
+     */
+    StubCertdogServer(BenchmarkFixtures fixtures, boolean https) throws Exception
+    {
+        this(fixtures, https, 0);
+    }
+
+    /**
+     * @param fixtures the certificates to return
+     * @param https true to serve HTTPS with the fixtures' leaf certificate
+     * @param latencyMillis how long to wait before answering, as a CA would. The responses are scheduled
+     *                      rather than slept on, so any number of calls can be waiting at once
+     */
+    StubCertdogServer(BenchmarkFixtures fixtures, boolean https, long latencyMillis) throws Exception
+    {
+        this.latencyMillis = latencyMillis;
+        ObjectMapper mapper = new ObjectMapper();
+
+        LoginResponse login = new LoginResponse();
+        login.setUsername("benchmark");
+        login.setToken(TOKEN);
+
+        GetCertResponse cert = new GetCertResponse();
+        cert.setId(CERT_ID);
+        cert.setPemCert(fixtures.leafPem);
+        cert.setP12Data(fixtures.p12B64);
+
+        TeamsResponse team = new TeamsResponse();
+        team.setName("Benchmark Team");
+
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 0);
+        if (https)
+        {
+            HttpsServer s = HttpsServer.create(address, BACKLOG);
+            s.setHttpsConfigurator(new HttpsConfigurator(fixtures.serverSslContext()));
+            server = s;
+        }
+        else
+        {
+            server = HttpServer.create(address, BACKLOG);
+        }
+
+        json("/api/" + CertdogEndpoints.LOGIN, mapper.writeValueAsBytes(login));
+        json("/api/" + CertdogEndpoints.CERT_REQ, mapper.writeValueAsBytes(cert));
+        json("/api/" + CertdogEndpoints.CERT_REQ_CSR, mapper.writeValueAsBytes(cert));
+        json("/api/" + String.format(CertdogEndpoints.CERT_PEM_DATA, CERT_ID), fixtures.chainPem.getBytes(StandardCharsets.UTF_8));
+        json("/api/" + String.format(CertdogEndpoints.CERT_JKS_DATA, CERT_ID), fixtures.p12B64.getBytes(StandardCharsets.UTF_8));
+        json("/api/" + CertdogEndpoints.MY_TEAMS, mapper.writeValueAsBytes(Collections.singletonList(team)));
+        json("/api/" + String.format(CertdogEndpoints.ISSUER_CHAIN, ""),
+                mapper.writeValueAsBytes(Collections.singletonList(fixtures.chainPem)));
+
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return the API URL to pass to CertdogClient
+     */
+    String apiUrl()
+    {
+        String scheme = server instanceof HttpsServer ? "https" : "http";
+        return scheme + "://127.0.0.1:" + server.getAddress().getPort() + "/api";
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+        delayer.shutdownNow();
+    }
+
+    private void json(String path, byte[] body)
+    {
+        server.createContext(path, exchange ->
+        {
+            if (latencyMillis <= 0)
+            {
+                respond(exchange, body);
+                return;
+            }
+
+            delayer.schedule(() ->
+            {
+                try
+                {
+                    respond(exchange, body);
+                }
+                catch (IOException e)
+                {
+                    exchange.close();
+                }
+            }, latencyMillis, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException
+    {
+        // Drain the request so the connection can be reused
+        try (InputStream in = exchange.getRequestBody())
+        {
+            byte[] buf = new byte[4096];
+            while (in.read(buf) >= 0)
+            {
+            }
+        }
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+}
@@ -0,0 +1,98 @@
+package com.krestfield.certdog.client;
+
+import com.krestfield.certdog.client.model.GetCertRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * VirtualThreadBenchmark
+ *
+ * A batch of thousands of issuances, all in flight at once, against the stub server answering after a CA's
+ * latency. Run with each AsyncExecutor: PLATFORM needs a thread per call in flight, VIRTUAL runs them on
+ * the 4 carrier threads the fork is limited to. The peak number of platform threads is printed after each
+ * iteration. VIRTUAL needs Java 21 or later, and fails on earlier JDKs. The DEFAULT connector is used, as the
+ * POOLED connector pins the carriers while releasing connections, and with only 4 of them can deadlock
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Djdk.virtualThreadScheduler.parallelism=4", "-Djdk.virtualThreadScheduler.maxPoolSize=4" })
+public class VirtualThreadBenchmark
+{
+    private static final long CA_LATENCY_MILLIS = 200;
+
+    @Param({ "PLATFORM", "VIRTUAL" })
+    public CertdogClientConfig.AsyncExecutor executor;
+
+    @Param({ "2000" })
+    public int requests;
+
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private StubCertdogServer server;
+    private CertdogClient client;
+    private List<GetCertRequest> batch;
+    private BatchOptions options;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        server = new StubCertdogServer(new BenchmarkFixtures(), false, CA_LATENCY_MILLIS);
+        client = new CertdogClient(CertdogClientConfig.builder(server.apiUrl())
+                .asyncExecutor(executor)
+                .build());
+        client.login("benchmark", "benchmark");
+
+        batch = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++)
+        {
+            GetCertRequest req = new GetCertRequest();
+            req.setCaName("Certdog TLS");
+            req.setCsrGeneratorName("RSA2048");
+            req.setTeamName("Test Team");
+            req.setDn("CN=domain" + i + ".com");
+            req.setP12Password(BenchmarkFixtures.P12_PASSWORD);
+            batch.add(req);
+        }
+        options = BatchOptions.builder().concurrency(requests).build();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public List<BatchResult> requestCerts() throws Exception
+    {
+        threadBean.resetPeakThreadCount();
+        List<BatchResult> results = client.requestCerts(batch, options);
+        for (BatchResult result : results)
+        {
+            if (!result.isSuccess())
+                throw result.getError();
+        }
+        System.out.println("Peak platform threads: " + threadBean.getPeakThreadCount());
+
+        return results;
+    }
+}
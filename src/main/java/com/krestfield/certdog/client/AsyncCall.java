@@ -0,0 +1,360 @@
+package com.krestfield.certdog.client;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.AsyncInvoker;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A future for a single logical certdog operation that may span more than one HTTP call
+ * (e.g. a certificate request followed by a fetch of the PEM/JKS data)
+ *
+ * Each HTTP call is made via the Jersey async invoker. The call currently in flight is tracked
+ * so that cancelling this future cancels it and no further calls are made. Each call is reported
+ * to the client's Instrumentation
+ */
+class AsyncCall<T> extends CompletableFuture<T>
+{
+    /**
+     * Handles a successful HTTP response, either completing the call or sending the next request
+     */
+    interface ResponseHandler
+    {
+        void handle(Response resp) throws Exception;
+    }
+
+    /**
+     * Maps any failure to the CertdogException the caller will see
+     */
+    interface ErrorMapper
+    {
+        CertdogException map(Exception e);
+    }
+
+    /**
+     * One HTTP call. Ended exactly once: by the callback, by a failure to send, or by cancel()
+     */
+    private static class Attempt
+    {
+        final Instrumentation.Span span;
+        final CircuitBreaker breaker;
+        final AtomicBoolean ended = new AtomicBoolean();
+
+        Attempt(Instrumentation.Span span, CircuitBreaker breaker)
+        {
+            this.span = span;
+            this.breaker = breaker;
+        }
+
+        void end(int status, long length, Boolean failed)
+        {
+            if (!ended.compareAndSet(false, true))
+                return;
+
+            span.end(status, length);
+            if (breaker != null)
+                breaker.onResult(failed);
+        }
+    }
+
+    /**
+     * A call waiting for its rate limit permit. Claimed exactly once: by the scheduled send or by cancel()
+     */
+    private static class Waiting
+    {
+        final CircuitBreaker breaker;
+        final RateLimiter.Reservation permit;
+        final AtomicBoolean claimed = new AtomicBoolean();
+
+        Waiting(CircuitBreaker breaker, RateLimiter.Reservation permit)
+        {
+            this.breaker = breaker;
+            this.permit = permit;
+        }
+
+        boolean claim()
+        {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+
+    private final Instrumentation instrumentation;
+    private final Resilience resilience;
+    private final Hedging hedging;
+    private final RateLimiter rateLimiter;
+    private final ErrorMapper errorMapper;
+    private volatile Future<?> inFlight = null;
+    private volatile Attempt inFlightAttempt = null;
+    private volatile Waiting waiting = null;
+
+    AsyncCall(ErrorMapper errorMapper)
+    {
+        this(Instrumentation.NONE, null, null, null, errorMapper);
+    }
+
+    AsyncCall(Instrumentation instrumentation, Resilience resilience, Hedging hedging, RateLimiter rateLimiter,
+              ErrorMapper errorMapper)
+    {
+        this.instrumentation = instrumentation;
+        this.resilience = resilience;
+        this.hedging = hedging;
+        this.rateLimiter = rateLimiter;
+        this.errorMapper = errorMapper;
+    }
+
+    /**
+     * Sends a request, passing the response to the handler once it has been received. If resilience is
+     * enabled the endpoint's circuit breaker is checked first and idempotent calls that fail with a
+     * transient error are retried. If hedging is enabled slow GETs are hedged. Calls that reach the CA
+     * are sent once a permit is due from the rate limiter, if there is one
+     *
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @param issuerName the issuer the request is for, or null
+     * @param teamName the team the request is for, or null
+     * @param invoker the async invoker for the target
+     * @param method the HTTP method
+     * @param entity the request entity or null
+     * @param handler called with the response if the status is successful
+     */
+    void send(String endpoint, String issuerName, String teamName, AsyncInvoker invoker, String method,
+              Entity<?> entity, ResponseHandler handler)
+    {
+        send(endpoint, issuerName, teamName, invoker, method, entity, handler, 1, 0);
+    }
+
+    private void send(String endpoint, String issuerName, String teamName, AsyncInvoker invoker, String method,
+                      Entity<?> entity, ResponseHandler handler, int attemptNumber, long previousBackoff)
+    {
+        if (isDone())
+            return;
+
+        // The breaker is checked first so that a call it rejects takes no permit
+        CircuitBreaker breaker;
+        try
+        {
+            breaker = resilience != null ? resilience.acquire(endpoint) : null;
+        }
+        catch (CircuitOpenException e)
+        {
+            fail(e);
+            return;
+        }
+
+        RateLimiter.Reservation permit = null;
+        if (rateLimiter != null && RateLimiter.IsLimited(endpoint))
+        {
+            try
+            {
+                permit = rateLimiter.reserve(issuerName);
+            }
+            catch (RateLimitedException e)
+            {
+                release(breaker, null);
+                fail(e);
+                return;
+            }
+
+            if (permit.getWaitNanos() > 0)
+            {
+                Waiting waiting = new Waiting(breaker, permit);
+                this.waiting = waiting;
+                try
+                {
+                    track(rateLimiter.schedule(() ->
+                    {
+                        if (waiting.claim())
+                            dispatch(endpoint, issuerName, teamName, invoker, method, entity, handler, breaker,
+                                    waiting.permit, attemptNumber, previousBackoff);
+                    }, permit.getWaitNanos()));
+
+                    // Cancelled before the wait was recorded
+                    if (isDone() && waiting.claim())
+                        release(breaker, permit);
+                }
+                catch (RejectedExecutionException e)
+                {
+                    if (waiting.claim())
+                        release(breaker, permit);
+                    fail(e);
+                }
+                return;
+            }
+        }
+
+        dispatch(endpoint, issuerName, teamName, invoker, method, entity, handler, breaker, permit, attemptNumber,
+                previousBackoff);
+    }
+
+    private void dispatch(String endpoint, String issuerName, String teamName, AsyncInvoker invoker, String method,
+                          Entity<?> entity, ResponseHandler handler, CircuitBreaker breaker,
+                          RateLimiter.Reservation permit, int attemptNumber, long previousBackoff)
+    {
+        if (isDone())
+        {
+            release(breaker, permit);
+            return;
+        }
+
+        int maxAttempts = resilience != null ? resilience.maxAttempts(endpoint, method) : 1;
+        boolean canRetry = attemptNumber < maxAttempts;
+        Attempt attempt = new Attempt(instrumentation.start(endpoint, issuerName, teamName), breaker);
+        this.inFlightAttempt = attempt;
+
+        // Sends the next attempt after the backoff
+        Runnable retry = () ->
+        {
+            long delay = resilience.backoff(previousBackoff);
+            track(resilience.schedule(() -> send(endpoint, issuerName, teamName, invoker, method, entity, handler,
+                    attemptNumber + 1, delay), delay));
+        };
+
+        InvocationCallback<Response> callback = new InvocationCallback<Response>()
+        {
+            @Override
+            public void completed(Response resp)
+            {
+                int status = resp.getStatus();
+                if (canRetry && Resilience.IsRetryable(status))
+                {
+                    CertdogClient.BufferError(resp);
+                    attempt.end(status, resp.getLength(), true);
+                    retryOrFail(retry, new WebApplicationException(resp));
+                    return;
+                }
+
+                try
+                {
+                    CertdogClient.checkStatus(resp);
+                    handler.handle(resp);
+                }
+                catch (Exception e)
+                {
+                    fail(e);
+                }
+                finally
+                {
+                    attempt.end(status, resp.getLength(), Resilience.IsFailure(status));
+                }
+            }
+
+            @Override
+            public void failed(Throwable throwable)
+            {
+                Exception e = throwable instanceof Exception ? (Exception) throwable : new Exception(throwable);
+                boolean retryable = Resilience.IsRetryable(throwable);
+                attempt.end(0, -1, retryable);
+                if (canRetry && retryable)
+                    retryOrFail(retry, e);
+                else
+                    fail(e);
+            }
+        };
+
+        try
+        {
+            if (hedging != null && entity == null && hedging.isHedged(endpoint, method))
+            {
+                CompletableFuture<Response> hedged = hedging.send(endpoint, invoker);
+                track(hedged);
+                hedged.whenComplete((resp, error) ->
+                {
+                    if (resp != null)
+                        callback.completed(resp);
+                    else
+                        callback.failed(error instanceof CompletionException ? error.getCause() : error);
+                });
+            }
+            else
+            {
+                track(entity == null
+                        ? invoker.method(method, callback)
+                        : invoker.method(method, entity, callback));
+            }
+        }
+        catch (Exception e)
+        {
+            attempt.end(0, -1, null);
+            fail(e);
+        }
+    }
+
+    /**
+     * Ends a call that was not sent: the breaker has no outcome for it and the permit is given back
+     *
+     * @param breaker the breaker that allowed the call, or null
+     * @param permit the rate limit permit taken for the call, or null
+     */
+    private void release(CircuitBreaker breaker, RateLimiter.Reservation permit)
+    {
+        if (breaker != null)
+            breaker.onResult(null);
+        if (permit != null)
+            rateLimiter.refund(permit);
+    }
+
+    private void retryOrFail(Runnable retry, Exception e)
+    {
+        try
+        {
+            retry.run();
+        }
+        catch (RejectedExecutionException re)
+        {
+            // The client has been closed
+            fail(e);
+        }
+    }
+
+    /**
+     * Records the future for the step now in flight, so cancelling this call cancels it
+     *
+     * @param f the future for the step
+     */
+    void track(Future<?> f)
+    {
+        this.inFlight = f;
+
+        // Cancelled while the step was being submitted
+        if (isCancelled())
+            f.cancel(true);
+    }
+
+    /**
+     * Fails the call, mapping the exception to a CertdogException
+     *
+     * @param e the failure
+     */
+    void fail(Exception e)
+    {
+        if (isDone())
+            return;
+
+        completeExceptionally(errorMapper.map(e));
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+        Future<?> f = this.inFlight;
+        if (f != null)
+            f.cancel(true);
+
+        Attempt attempt = this.inFlightAttempt;
+        if (attempt != null)
+            attempt.end(0, -1, null);
+
+        Waiting waiting = this.waiting;
+        if (waiting != null && waiting.claim())
+            release(waiting.breaker, waiting.permit);
+
+        return cancelled;
+    }
+}
@@ -0,0 +1,175 @@
+package com.krestfield.certdog.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes files so that readers see either the old file or the complete new one. The data is written to a
+ * temporary file in the same directory, forced to the disk unless the durability is NONE, then renamed
+ * over the target. Without the force some file systems can commit the rename before the data, leaving an
+ * empty or partial file after a system crash
+ */
+final class AtomicFile
+{
+    // A multiple of 4, so each chunk but the last decodes on its own
+    private static final int CHUNK_CHARS = 16384;
+
+    /**
+     * Writes the content of a file to its channel
+     */
+    interface Content
+    {
+        void writeTo(FileChannel channel) throws IOException;
+    }
+
+    private AtomicFile()
+    {
+    }
+
+    /**
+     * Writes data to a file
+     *
+     * @param target the file to write
+     * @param data the data
+     * @param durability how much is forced to the disk before returning
+     * @throws IOException if the file cannot be written. The target is unchanged
+     */
+    static void Write(Path target, byte[] data, SaveOptions.Durability durability) throws IOException
+    {
+        Write(target, durability, channel -> WriteFully(channel, ByteBuffer.wrap(data)));
+    }
+
+    /**
+     * Base64 decodes data into a file a chunk at a time, without decoding it all in memory first
+     *
+     * @param target the file to write
+     * @param b64Data the base64 data
+     * @param durability how much is forced to the disk before returning
+     * @throws IOException if the file cannot be written. The target is unchanged
+     * @throws IllegalArgumentException if the data is not valid base64. The target is unchanged
+     */
+    static void WriteBase64(Path target, String b64Data, SaveOptions.Durability durability) throws IOException
+    {
+        Base64.Decoder decoder = Base64.getDecoder();
+        Write(target, durability, channel ->
+        {
+            byte[] chunk = new byte[CHUNK_CHARS];
+            byte[] decoded = new byte[CHUNK_CHARS / 4 * 3];
+            int length = b64Data.length();
+            for (int start = 0; start < length; start += CHUNK_CHARS)
+            {
+                int count = Math.min(CHUNK_CHARS, length - start);
+                byte[] src = count == CHUNK_CHARS ? chunk : new byte[count];
+                for (int i = 0; i < count; i++)
+                {
+                    char c = b64Data.charAt(start + i);
+                    if (c > 0x7f)
+                        throw new IllegalArgumentException("Illegal base64 character " + Integer.toHexString(c));
+                    src[i] = (byte) c;
+                }
+
+                WriteFully(channel, ByteBuffer.wrap(decoded, 0, decoder.decode(src, decoded)));
+            }
+        });
+    }
+
+    /**
+     * Writes a file through a temporary file
+     *
+     * @param target the file to write
+     * @param durability how much is forced to the disk before returning
+     * @param content writes the data
+     * @throws IOException if the file cannot be written. The target is unchanged
+     */
+    static void Write(Path target, SaveOptions.Durability durability, Content content) throws IOException
+    {
+        Path dir = target.toAbsolutePath().getParent();
+        Path tmp = dir.resolve("." + target.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+
+        try
+        {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+            {
+                content.writeTo(channel);
+                if (durability != SaveOptions.Durability.NONE)
+                    channel.force(true);
+            }
+            CopyPermissions(target, tmp);
+            Move(tmp, target);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            try
+            {
+                Files.deleteIfExists(tmp);
+            }
+            catch (IOException ignored)
+            {
+            }
+            throw e;
+        }
+
+        if (durability == SaveOptions.Durability.DATA_AND_DIRECTORY)
+            SyncDirectory(dir);
+    }
+
+    /**
+     * Renames a file over another, atomically if the file system allows
+     */
+    static void Move(Path from, Path to) throws IOException
+    {
+        try
+        {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static void WriteFully(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Gives the new file the permissions of the one it replaces, so a key store readable only by its owner
+     * stays that way
+     */
+    private static void CopyPermissions(Path from, Path to) throws IOException
+    {
+        if (!Files.exists(from) || Files.getFileAttributeView(to, PosixFileAttributeView.class) == null)
+            return;
+
+        Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+    }
+
+    /**
+     * Forces a rename in a directory to the disk
+     */
+    private static void SyncDirectory(Path dir)
+    {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ))
+        {
+            channel.force(true);
+        }
+        catch (IOException e)
+        {
+            // Directories cannot be opened on some platforms, such as Windows
+        }
+    }
+}
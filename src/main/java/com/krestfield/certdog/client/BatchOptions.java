@@ -0,0 +1,119 @@
+package com.krestfield.certdog.client;
+
+/**
+ * BatchOptions
+ *
+ * Options for CertdogClient.requestCerts. Create with BatchOptions.builder()
+ */
+public class BatchOptions
+{
+    private final int concurrency;
+    private final CertdogClient.ResponseFormat format;
+    private final BatchProgressListener progressListener;
+    private final boolean binary;
+
+    private BatchOptions(Builder builder)
+    {
+        this.concurrency = builder.concurrency;
+        this.format = builder.format;
+        this.progressListener = builder.progressListener;
+        this.binary = builder.binary;
+    }
+
+    /**
+     * @return a builder with the default options
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public int getConcurrency()
+    {
+        return concurrency;
+    }
+
+    public CertdogClient.ResponseFormat getFormat()
+    {
+        return format;
+    }
+
+    public BatchProgressListener getProgressListener()
+    {
+        return progressListener;
+    }
+
+    public boolean isBinary()
+    {
+        return binary;
+    }
+
+    /**
+     * Builder for BatchOptions
+     */
+    public static class Builder
+    {
+        private int concurrency = 8;
+        private CertdogClient.ResponseFormat format = CertdogClient.ResponseFormat.PKCS12;
+        private BatchProgressListener progressListener = null;
+        private boolean binary = false;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * @param concurrency the maximum number of requests in flight at once. Default 8
+         * @return this builder
+         */
+        public Builder concurrency(int concurrency)
+        {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * @param format the format the certificates are returned in. Default PKCS12
+         * @return this builder
+         */
+        public Builder format(CertdogClient.ResponseFormat format)
+        {
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * @param progressListener called as each request completes
+         * @return this builder
+         */
+        public Builder progressListener(BatchProgressListener progressListener)
+        {
+            this.progressListener = progressListener;
+            return this;
+        }
+
+        /**
+         * @param binary true to decode the PKCS12 data as each response is read and return it from
+         *               BatchResult.getBinaryData, rather than as a base64 String from getData. This holds less
+         *               than half the memory per result. Only for the PKCS12 format. Default false
+         * @return this builder
+         */
+        public Builder binary(boolean binary)
+        {
+            this.binary = binary;
+            return this;
+        }
+
+        public BatchOptions build()
+        {
+            if (concurrency < 1)
+                throw new IllegalArgumentException("The concurrency must be at least 1");
+            if (format == null)
+                throw new IllegalArgumentException("The format must be provided");
+            if (binary && format != CertdogClient.ResponseFormat.PKCS12)
+                throw new IllegalArgumentException("Binary results are only available in the PKCS12 format");
+
+            return new BatchOptions(this);
+        }
+    }
+}
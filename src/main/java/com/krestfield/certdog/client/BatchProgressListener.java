@@ -0,0 +1,18 @@
+package com.krestfield.certdog.client;
+
+/**
+ * Receives progress of a batch started with CertdogClient.requestCerts
+ *
+ * Called from the thread that completed the request, so implementations must be thread safe
+ * and should return quickly
+ */
+public interface BatchProgressListener
+{
+    /**
+     * @param result the result of the request that has just completed
+     * @param completed the number of requests completed so far, including this one
+     * @param failed the number of requests that have failed so far
+     * @param total the number of requests in the batch
+     */
+    void onProgress(BatchResult result, int completed, int failed, int total);
+}
@@ -0,0 +1,69 @@
+package com.krestfield.certdog.client;
+
+import com.krestfield.certdog.client.model.GetCertRequest;
+
+/**
+ * BatchResult
+ *
+ * The outcome of one request in a batch started with CertdogClient.requestCerts
+ */
+public class BatchResult
+{
+    private final int index;
+    private final GetCertRequest request;
+    private final String data;
+    private final byte[] binaryData;
+    private final CertdogException error;
+
+    BatchResult(int index, GetCertRequest request, String data, byte[] binaryData, CertdogException error)
+    {
+        this.index = index;
+        this.request = request;
+        this.data = data;
+        this.binaryData = binaryData;
+        this.error = error;
+    }
+
+    /**
+     * @return the position of the request in the batch
+     */
+    public int getIndex()
+    {
+        return index;
+    }
+
+    public GetCertRequest getRequest()
+    {
+        return request;
+    }
+
+    /**
+     * @return the certificate data as returned from requestCert, or null if the request failed or the
+     * batch was binary
+     */
+    public String getData()
+    {
+        return data;
+    }
+
+    /**
+     * @return the PKCS12 data if the batch was binary (see BatchOptions.binary), otherwise null
+     */
+    public byte[] getBinaryData()
+    {
+        return binaryData;
+    }
+
+    /**
+     * @return the reason the request failed, or null if it succeeded
+     */
+    public CertdogException getError()
+    {
+        return error;
+    }
+
+    public boolean isSuccess()
+    {
+        return error == null;
+    }
+}
@@ -0,0 +1,220 @@
+package com.krestfield.certdog.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * BulkRevocation
+ *
+ * Runs the revocations for CertdogClient.revokeCerts. Entries are grouped by issuer and each issuer
+ * has its own set of lanes, so a slow issuer does not hold up revocations against the others. Each
+ * lane revokes one entry at a time, retrying transient failures with exponential backoff
+ */
+class BulkRevocation
+{
+    private static class Item
+    {
+        final int index;
+        final RevocationEntry entry;
+        int attempts = 0;
+
+        Item(int index, RevocationEntry entry)
+        {
+            this.index = index;
+            this.entry = entry;
+        }
+    }
+
+    private final BulkRevocationOptions options;
+    private final Function<RevocationEntry, CompletableFuture<Void>> revoke;
+    private final RevocationResult[] results;
+    private final CountDownLatch done;
+    private final ScheduledExecutorService retryScheduler;
+    private final Set<CompletableFuture<Void>> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param entries the entries to revoke
+     * @param options the options
+     * @param revoke revokes a single entry
+     */
+    private BulkRevocation(List<RevocationEntry> entries, BulkRevocationOptions options,
+                           Function<RevocationEntry, CompletableFuture<Void>> revoke)
+    {
+        this.options = options;
+        this.revoke = revoke;
+        this.results = new RevocationResult[entries.size()];
+        this.done = new CountDownLatch(entries.size());
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread t = new Thread(r, "certdog-revocation-retry");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Revokes the entries, returning once all have succeeded or failed
+     *
+     * @param entries the entries to revoke
+     * @param options the options
+     * @param revoke revokes a single entry
+     * @return the report
+     * @throws CertdogException if interrupted while waiting
+     */
+    static RevocationReport Run(List<RevocationEntry> entries, BulkRevocationOptions options,
+                                Function<RevocationEntry, CompletableFuture<Void>> revoke) throws CertdogException
+    {
+        return new BulkRevocation(entries, options, revoke).run(entries);
+    }
+
+    private RevocationReport run(List<RevocationEntry> entries) throws CertdogException
+    {
+        long start = System.currentTimeMillis();
+
+        Map<String, Queue<Item>> byIssuer = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size(); i++)
+        {
+            RevocationEntry entry = entries.get(i);
+            byIssuer.computeIfAbsent(entry.getIssuerName(), k -> new ConcurrentLinkedQueue<>()).add(new Item(i, entry));
+        }
+
+        try
+        {
+            for (Queue<Item> queue : byIssuer.values())
+            {
+                int lanes = Math.min(options.getPerIssuerConcurrency(), queue.size());
+                for (int l = 0; l < lanes; l++)
+                {
+                    next(queue);
+                }
+            }
+
+            done.await();
+        }
+        catch (InterruptedException e)
+        {
+            // Start nothing more and cancel the revocations in flight
+            cancelled = true;
+            for (CompletableFuture<Void> f : inFlight)
+            {
+                f.cancel(true);
+            }
+
+            Thread.currentThread().interrupt();
+            throw new CertdogException("Interrupted waiting for the revocations to complete", e);
+        }
+        finally
+        {
+            retryScheduler.shutdownNow();
+        }
+
+        return new RevocationReport(new ArrayList<>(Arrays.asList(results)), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Runs entries for the issuer on this lane until one is left in progress or there are none left.
+     * Entries that complete at once are handled in the loop rather than from their callbacks, so a run of
+     * synchronous failures does not grow the stack
+     */
+    private void next(Queue<Item> queue)
+    {
+        Item item;
+        while (!cancelled && (item = queue.poll()) != null)
+        {
+            if (attempt(item, queue))
+                return;
+        }
+    }
+
+    /**
+     * Makes an attempt at revoking the entry
+     *
+     * @return true if the entry is still in progress and will carry on with the lane when it is done, false
+     * if it completed at once
+     */
+    private boolean attempt(Item item, Queue<Item> queue)
+    {
+        item.attempts++;
+
+        CompletableFuture<Void> f;
+        try
+        {
+            f = revoke.apply(item.entry);
+        }
+        catch (RuntimeException e)
+        {
+            f = new CompletableFuture<>();
+            f.completeExceptionally(e);
+        }
+
+        if (f.isDone())
+            return !complete(item, queue, f.handle((v, error) -> error).join());
+
+        CompletableFuture<Void> call = f;
+        inFlight.add(call);
+        call.whenComplete((v, error) ->
+        {
+            inFlight.remove(call);
+            if (complete(item, queue, error))
+                next(queue);
+        });
+
+        return true;
+    }
+
+    /**
+     * Records the outcome of an attempt, or schedules a retry if the failure was transient
+     *
+     * @return true if the outcome was recorded, false if a retry was scheduled
+     */
+    private boolean complete(Item item, Queue<Item> queue, Throwable error)
+    {
+        CertdogException ce = error != null ? CertdogClient.AsCertdogException(error) : null;
+        if (ce != null && ce.isTransient() && item.attempts < options.getMaxAttempts() && !cancelled)
+        {
+            long delay = backoff(item.attempts);
+            try
+            {
+                retryScheduler.schedule(() ->
+                {
+                    if (!attempt(item, queue))
+                        next(queue);
+                }, delay, TimeUnit.MILLISECONDS);
+                return false;
+            }
+            catch (Exception e)
+            {
+                // Scheduler shut down - record the failure
+            }
+        }
+
+        results[item.index] = new RevocationResult(item.entry, ce, item.attempts);
+        done.countDown();
+
+        return true;
+    }
+
+    /**
+     * Exponential backoff with jitter: a random delay between half and all of base * 2^(attempt - 1)
+     */
+    private long backoff(int attempt)
+    {
+        long max = options.getRetryBackoffMillis() << Math.min(attempt - 1, 16);
+        return max / 2 + ThreadLocalRandom.current().nextLong(max / 2 + 1);
+    }
+}
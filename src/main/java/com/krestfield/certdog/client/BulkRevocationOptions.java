@@ -0,0 +1,99 @@
+package com.krestfield.certdog.client;
+
+/**
+ * BulkRevocationOptions
+ *
+ * Options for CertdogClient.revokeCerts. Create with BulkRevocationOptions.builder()
+ */
+public class BulkRevocationOptions
+{
+    private final int perIssuerConcurrency;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+
+    private BulkRevocationOptions(Builder builder)
+    {
+        this.perIssuerConcurrency = builder.perIssuerConcurrency;
+        this.maxAttempts = builder.maxAttempts;
+        this.retryBackoffMillis = builder.retryBackoffMillis;
+    }
+
+    /**
+     * @return a builder with the default options
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public int getPerIssuerConcurrency()
+    {
+        return perIssuerConcurrency;
+    }
+
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    public long getRetryBackoffMillis()
+    {
+        return retryBackoffMillis;
+    }
+
+    /**
+     * Builder for BulkRevocationOptions
+     */
+    public static class Builder
+    {
+        private int perIssuerConcurrency = 4;
+        private int maxAttempts = 3;
+        private long retryBackoffMillis = 500;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * @param perIssuerConcurrency the maximum revocations in flight at once for each issuer. Default 4
+         * @return this builder
+         */
+        public Builder perIssuerConcurrency(int perIssuerConcurrency)
+        {
+            this.perIssuerConcurrency = perIssuerConcurrency;
+            return this;
+        }
+
+        /**
+         * @param maxAttempts the number of times a revocation that fails with a transient error is attempted. Default 3
+         * @return this builder
+         */
+        public Builder maxAttempts(int maxAttempts)
+        {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param retryBackoffMillis the delay before the first retry, doubled for each retry after. Default 500
+         * @return this builder
+         */
+        public Builder retryBackoff(long retryBackoffMillis)
+        {
+            this.retryBackoffMillis = retryBackoffMillis;
+            return this;
+        }
+
+        public BulkRevocationOptions build()
+        {
+            if (perIssuerConcurrency < 1)
+                throw new IllegalArgumentException("The per issuer concurrency must be at least 1");
+            if (maxAttempts < 1)
+                throw new IllegalArgumentException("The maximum attempts must be at least 1");
+            if (retryBackoffMillis < 0)
+                throw new IllegalArgumentException("The retry backoff cannot be negative");
+
+            return new BulkRevocationOptions(this);
+        }
+    }
+}
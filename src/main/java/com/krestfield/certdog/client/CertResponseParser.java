@@ -0,0 +1,159 @@
+package com.krestfield.certdog.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.cert.CertificateException;
+
+/**
+ * Reads the JSON returned by certs/request and certs/requestp10 with the Jackson streaming parser
+ *
+ * The base64 p12Data is decoded as it is read, into a byte[] or straight to an OutputStream, so it is never
+ * held as a String. Fields that are not needed are skipped without being decoded
+ */
+final class CertResponseParser
+{
+    private static final JsonFactory FACTORY = new JsonFactory()
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    // A body with more than this left unread is not worth reading just to keep the connection
+    private static final int MAX_DRAIN = 64 * 1024;
+
+    private CertResponseParser()
+    {
+    }
+
+    /**
+     * Reads a response
+     *
+     * @param in the response body. It is read to its end, so a pooled connection can be reused, but not closed
+     * @param sink where to write the decoded p12Data, or null to return it in the result
+     * @param readData false to skip the p12Data, as when only the certificate is wanted
+     * @return the id, the certificate if pemCert was returned, and the data unless it was written to the sink
+     * @throws IOException if the JSON cannot be read or the sink cannot be written
+     * @throws CertificateException if the pemCert is not a valid certificate
+     */
+    static IssuedKeyStore Read(InputStream in, OutputStream sink, boolean readData) throws IOException, CertificateException
+    {
+        return Read(in, sink, readData, false);
+    }
+
+    /**
+     * Reads a response
+     *
+     * @param in the response body. It is read to its end, so a pooled connection can be reused, but not closed
+     * @param sink where to write the decoded p12Data, or null to return it in the result
+     * @param readData false to skip the p12Data, as when only the certificate is wanted
+     * @param copyIfNoCert true to also return the data written to the sink if no pemCert was returned, so the
+     *                     certificate can be read from it. A copy is only kept while the data is read if the
+     *                     pemCert has not been read before it, and is dropped if the pemCert follows
+     * @return the id, the certificate if pemCert was returned, and the data unless it was written to the sink
+     * @throws IOException if the JSON cannot be read or the sink cannot be written
+     * @throws CertificateException if the pemCert is not a valid certificate
+     */
+    static IssuedKeyStore Read(InputStream in, OutputStream sink, boolean readData, boolean copyIfNoCert)
+            throws IOException, CertificateException
+    {
+        String id = null;
+        String pemCert = null;
+        byte[] data = null;
+        ByteArrayOutputStream copy = null;
+
+        try (JsonParser parser = FACTORY.createParser(in))
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new JsonParseException(parser, "Expected a JSON object");
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String field = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.VALUE_NULL)
+                    continue;
+
+                if ("id".equals(field))
+                {
+                    id = parser.getText();
+                }
+                else if ("pemCert".equals(field))
+                {
+                    pemCert = parser.getText();
+                }
+                else if ("p12Data".equals(field) && readData)
+                {
+                    if (sink == null)
+                    {
+                        data = parser.getBinaryValue();
+                    }
+                    else if (copyIfNoCert && pemCert == null)
+                    {
+                        copy = new ByteArrayOutputStream();
+                        parser.readBinaryValue(Tee(sink, copy));
+                    }
+                    else
+                    {
+                        parser.readBinaryValue(sink);
+                    }
+                }
+                else
+                {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        Drain(in);
+        if (sink != null)
+            sink.flush();
+        if (copy != null && pemCert == null)
+            data = copy.toByteArray();
+
+        return new IssuedKeyStore(id, pemCert != null ? Pem.DecodeCertificate(pemCert) : null, data);
+    }
+
+    /**
+     * Returns a stream that writes to both out and copy. Closing it does not close out
+     */
+    private static OutputStream Tee(OutputStream out, ByteArrayOutputStream copy)
+    {
+        return new FilterOutputStream(out)
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                out.write(b);
+                copy.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                out.write(b, off, len);
+                copy.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                flush();
+            }
+        };
+    }
+
+    private static void Drain(InputStream in) throws IOException
+    {
+        byte[] buf = new byte[256];
+        int drained = 0;
+        int n;
+        while (drained < MAX_DRAIN && (n = in.read(buf)) >= 0)
+        {
+            drained += n;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.krestfield.certdog.client;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for each HTTP call made to certdog
+ *
+ * Recorded whenever a recording is running, e.g. started with -XX:StartFlightRecording. It can be
+ * disabled or given a threshold in the recording settings. Only referenced through Instrumentation, and
+ * only if jdk.jfr is present, so the client still runs on JVMs without Flight Recorder
+ */
+@Name("com.krestfield.certdog.Call")
+@Label("Certdog API Call")
+@Description("An HTTP call made by CertdogClient to the certdog API")
+@Category({"Certdog"})
+@StackTrace(false)
+class CertdogCallEvent extends Event
+{
+    private static final EventType TYPE = EventType.getEventType(CertdogCallEvent.class);
+
+    @Label("Endpoint")
+    @Description("The API endpoint, e.g. certs/request or certs/%s/pem")
+    String endpoint;
+
+    @Label("Issuer")
+    String issuer;
+
+    @Label("Team")
+    String team;
+
+    @Label("Status")
+    @Description("The HTTP status, or 0 if no response was received")
+    int status;
+
+    @Label("Outcome")
+    @Description("success, failure (an HTTP error status) or no response")
+    String outcome;
+
+    @Label("Response Size")
+    @Description("The Content-Length of the response, or -1 if unknown")
+    @DataAmount
+    long responseSize;
+
+    /**
+     * @return the started event, or null if no recording has the event enabled
+     */
+    static Object Begin(String endpoint, String issuerName, String teamName)
+    {
+        if (!TYPE.isEnabled())
+            return null;
+
+        CertdogCallEvent event = new CertdogCallEvent();
+        event.endpoint = endpoint;
+        event.issuer = issuerName;
+        event.team = teamName;
+        event.begin();
+
+        return event;
+    }
+
+    /**
+     * Ends and commits an event returned from Begin, if it passes the recording's threshold
+     */
+    static void End(Object started, int status, long responseSize)
+    {
+        CertdogCallEvent event = (CertdogCallEvent) started;
+        event.end();
+        if (!event.shouldCommit())
+            return;
+
+        event.status = status;
+        event.outcome = status == 0 ? "no response" : status >= 200 && status < 300 ? "success" : "failure";
+        event.responseSize = responseSize;
+        event.commit();
+    }
+}
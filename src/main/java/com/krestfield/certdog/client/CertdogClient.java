@@ -9,26 +9,43 @@ import com.krestfield.certdog.client.model.LoginResponse;
 import com.krestfield.certdog.client.model.RevokeCertRequest;
 import com.krestfield.certdog.client.model.TeamsResponse;
 
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.AsyncInvoker;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import javax.xml.bind.DatatypeConverter;
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.security.cert.CertificateFactory;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -62,11 +79,20 @@ import java.util.stream.Collectors;
  * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
  * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-public class CertdogClient
+public class CertdogClient implements AutoCloseable
 {
-    String authToken = null;
     WebTarget target = null;
-    boolean loggedIn = false;
+    Transport transport = null;
+    CertdogSession session = null;
+    MetadataCache metadataCache = null;
+    IssuerChainCache issuerChainCache = null;
+    boolean localFormatConversion = true;
+    KeyPairPool keyPairPool = null;
+    Instrumentation instrumentation = Instrumentation.NONE;
+    Resilience resilience = null;
+    Hedging hedging = null;
+    RateLimiter rateLimiter = null;
+    IssuanceIndex issuanceIndex = null;
 
     public static final String CERT_HEADER = "-----BEGIN CERTIFICATE-----";
     public static final String CERT_FOOTER = "-----END CERTIFICATE-----";
@@ -113,13 +139,111 @@ public class CertdogClient
      */
     public CertdogClient(String apiUrl)
     {
-        Client client = ClientBuilder.newClient();
-        this.target = client.target(apiUrl);
+        this(CertdogClientConfig.builder(apiUrl).build());
+    }
+
+    /**
+     * Constructor
+     * Use this to select a pooled connector and set timeouts
+     *
+     * @param config - the client configuration
+     */
+    public CertdogClient(CertdogClientConfig config)
+    {
+        this.transport = config.createTransport();
+        this.target = transport.getClient().target(config.getApiUrl());
+        this.session = new CertdogSession(this::loginExt, config.getTokenRefreshSkewMillis());
+        this.localFormatConversion = config.isLocalFormatConversion();
+        this.keyPairPool = config.getKeyPairPool();
+        this.issuanceIndex = config.getIssuanceIndex();
+        this.instrumentation = new Instrumentation(config.getMetrics());
+        if (config.getResilience() != null)
+            this.resilience = new Resilience(config.getResilience());
+        if (config.getHedging() != null)
+            this.hedging = new Hedging(config.getHedging());
+        if (config.getRateLimit() != null)
+            this.rateLimiter = new RateLimiter(config.getRateLimit());
+
+        if (config.getMetadataCacheTtlMillis() > 0)
+        {
+            this.metadataCache = new MetadataCache(config.getMetadataCacheTtlMillis(),
+                    config.getMetadataRefreshAheadFraction(), config.getMetadataStaleWaitMillis(),
+                    config.getMetadataMaxStaleMillis());
+        }
+
+        if (config.getIssuerChainCacheSize() > 0)
+            this.issuerChainCache = new IssuerChainCache(config.getIssuerChainCacheSize(), config.getIssuerChainMaxAgeMillis());
+    }
+
+    /**
+     * Closes the underlying HTTP client and any pooled connections
+     * The client cannot be used after this is called
+     */
+    @Override
+    public void close()
+    {
+        session.close();
+        if (metadataCache != null)
+            metadataCache.close();
+        if (resilience != null)
+            resilience.close();
+        if (hedging != null)
+            hedging.close();
+        if (rateLimiter != null)
+            rateLimiter.close();
+
+        transport.close();
+    }
+
+    /**
+     * Discards any cached teams, issuers and generators so the next call fetches them from certdog
+     * Has no effect unless the metadata cache is enabled in CertdogClientConfig
+     */
+    public void invalidateMetadataCache()
+    {
+        if (metadataCache != null)
+            metadataCache.invalidate();
+    }
+
+    /**
+     * Returns whether calls to an endpoint are currently failing fast because its circuit breaker is open
+     * Always false unless resilience is enabled in CertdogClientConfig
+     *
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @return true if the breaker is open
+     */
+    public boolean isCircuitOpen(String endpoint)
+    {
+        return resilience != null && resilience.getState(endpoint) == CircuitBreaker.State.OPEN;
+    }
+
+    /**
+     * Returns the current usage of a rate limit set in CertdogClientConfig
+     *
+     * @param issuerName the issuer, or null for the global limit
+     * @return the usage, or null if there is no such limit
+     */
+    public RateLimitUsage getRateLimitUsage(String issuerName)
+    {
+        return rateLimiter != null ? rateLimiter.getUsage(issuerName) : null;
+    }
+
+    /**
+     * Returns the current usage of every rate limit set in CertdogClientConfig: the global limit, if any,
+     * then each issuer limit that has been used
+     *
+     * @return the usage, empty if there are no limits
+     */
+    public List<RateLimitUsage> getRateLimitUsage()
+    {
+        return rateLimiter != null ? rateLimiter.getUsage() : Collections.emptyList();
     }
 
     /**
      * Login to the API
-     * This will retain the JWT for future calls
+     * This will retain the JWT for future calls. The client may then be shared between threads: the JWT is
+     * refreshed shortly before it expires and if certdog rejects it, with a single login made on behalf
+     * of all threads
      *
      * @param username - the certdog username
      * @param password - the certdog password
@@ -127,9 +251,8 @@ public class CertdogClient
      */
     public void login(String username, String password) throws CertdogException
     {
-        this.loggedIn = false;
-        this.authToken = loginExt(username, password);
-        this.loggedIn = true;
+        session.login(username, password);
+        invalidateMetadataCache();
     }
 
     /**
@@ -150,16 +273,14 @@ public class CertdogClient
             login.setUsername(username);
             login.setPassword(password);
 
-            LoginResponse resp = target
-                    .path(CertdogEndpoints.LOGIN)
-                    .request(MediaType.APPLICATION_JSON)
-                    .post(Entity.entity(login, MediaType.APPLICATION_JSON), LoginResponse.class);
+            LoginResponse resp = invoke(CertdogEndpoints.LOGIN, null, null, CertdogEndpoints.LOGIN, null, HttpMethod.POST,
+                    Entity.entity(login, MediaType.APPLICATION_JSON), ReadAs(LoginResponse.class));
 
             return resp.getToken();
         }
         catch (Exception e)
         {
-            throw new CertdogException("Login to the certdog API failed. " + e.getMessage());
+            throw new CertdogException("Login to the certdog API failed. " + e.getMessage(), e, GetStatusCode(e));
         }
     }
 
@@ -170,10 +291,12 @@ public class CertdogClient
      */
     public void logout() throws CertdogException
     {
-        if (!this.loggedIn)
+        String authToken = session.logout();
+        invalidateMetadataCache();
+        if (authToken == null)
             return;
 
-        logout(this.authToken);
+        logout(authToken);
     }
 
     /**
@@ -184,14 +307,25 @@ public class CertdogClient
      */
     public void logout(String authToken) throws CertdogException
     {
-        Response resp = target.path(CertdogEndpoints.LOGOUT)
-                .request(MediaType.APPLICATION_JSON)
-                .header("Authorization", "Bearer " + authToken)
-                .get(Response.class);
-
-        if (resp.getStatus() != 200)
+        try
+        {
+            invoke(CertdogEndpoints.LOGOUT, null, null, CertdogEndpoints.LOGOUT, authToken, HttpMethod.GET, null, resp ->
+            {
+                if (resp.getStatus() != 200)
+                {
+                    throw new CertdogException(resp.readEntity(String.class), resp.getStatus());
+                }
+                resp.close();
+                return null;
+            });
+        }
+        catch (CertdogException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
         {
-            throw new CertdogException(resp.readEntity(String.class));
+            throw new CertdogException("Logout of the certdog API failed. " + e.getMessage(), e);
         }
     }
 
@@ -204,10 +338,10 @@ public class CertdogClient
      */
     public List<String> getTeams() throws CertdogException
     {
-        if (!this.loggedIn)
-            throw new CertdogException("Not logged in. Call login");
+        if (metadataCache != null)
+            return metadataCache.get(CertdogEndpoints.MY_TEAMS, () -> session.call(token -> getTeams(token)));
 
-        return getTeams(this.authToken);
+        return session.call(token -> getTeams(token));
     }
 
     /**
@@ -220,15 +354,19 @@ public class CertdogClient
      */
     public List<String> getTeams(String authToken) throws CertdogException
     {
-        List<TeamsResponse> teams = target
-                .path(CertdogEndpoints.MY_TEAMS)
-                .request(MediaType.APPLICATION_JSON)
-                .header("Authorization", "Bearer " + authToken)
-                .get(new GenericType<List<TeamsResponse>>(){});
+        try
+        {
+            List<TeamsResponse> teams = invoke(CertdogEndpoints.MY_TEAMS, null, null, CertdogEndpoints.MY_TEAMS, authToken,
+                    HttpMethod.GET, null, ReadAs(new GenericType<List<TeamsResponse>>(){}));
 
-        List<String> teamNames = teams.stream().map(x -> x.getName()).collect(Collectors.toList());
+            List<String> teamNames = teams.stream().map(x -> x.getName()).collect(Collectors.toList());
 
-        return teamNames;
+            return teamNames;
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Obtaining teams failed. " + e.getMessage(), e, GetStatusCode(e));
+        }
     }
 
     /**
@@ -240,10 +378,10 @@ public class CertdogClient
      */
     public List<String> getIssuers() throws CertdogException
     {
-        if (!this.loggedIn)
-            throw new CertdogException("Not logged in. Call login");
+        if (metadataCache != null)
+            return metadataCache.get(CertdogEndpoints.MY_ISSUERS, () -> session.call(token -> getIssuers(token)));
 
-        return getIssuers(this.authToken);
+        return session.call(token -> getIssuers(token));
     }
 
     /**
@@ -256,13 +394,17 @@ public class CertdogClient
      */
     public List<String> getIssuers(String authToken) throws CertdogException
     {
-        List<String> issuerNames = target
-                .path(CertdogEndpoints.MY_ISSUERS)
-                .request(MediaType.APPLICATION_JSON)
-                .header("Authorization", "Bearer " + authToken)
-                .get(new GenericType<List<String>>(){});
+        try
+        {
+            List<String> issuerNames = invoke(CertdogEndpoints.MY_ISSUERS, null, null, CertdogEndpoints.MY_ISSUERS, authToken,
+                    HttpMethod.GET, null, ReadAs(new GenericType<List<String>>(){}));
 
-        return issuerNames;
+            return issuerNames;
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Obtaining issuers failed. " + e.getMessage(), e, GetStatusCode(e));
+        }
     }
 
     /**
@@ -274,10 +416,10 @@ public class CertdogClient
      */
     public List<String> getGenerators() throws CertdogException
     {
-        if (!this.loggedIn)
-            throw new CertdogException("Not logged in. Call login");
+        if (metadataCache != null)
+            return metadataCache.get(CertdogEndpoints.CSR_GENERATORS, () -> session.call(token -> getGenerators(token)));
 
-        return getGenerators(this.authToken);
+        return session.call(token -> getGenerators(token));
     }
 
     /**
@@ -290,16 +432,19 @@ public class CertdogClient
      */
     public List<String> getGenerators(String authToken) throws CertdogException
     {
+        try
+        {
+            List<GeneratorsResponse> generators = invoke(CertdogEndpoints.CSR_GENERATORS, null, null, CertdogEndpoints.CSR_GENERATORS,
+                    authToken, HttpMethod.GET, null, ReadAs(new GenericType<List<GeneratorsResponse>>(){}));
 
-        List<GeneratorsResponse> generators = target
-                .path(CertdogEndpoints.CSR_GENERATORS)
-                .request(MediaType.APPLICATION_JSON)
-                .header("Authorization", "Bearer " + authToken)
-                .get(new GenericType<List<GeneratorsResponse>>(){});
-
-        List<String> generatorNames = generators.stream().map(x -> x.getName()).collect(Collectors.toList());
+            List<String> generatorNames = generators.stream().map(x -> x.getName()).collect(Collectors.toList());
 
-        return generatorNames;
+            return generatorNames;
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Obtaining CSR generators failed. " + e.getMessage(), e, GetStatusCode(e));
+        }
     }
 
     /**
@@ -321,7 +466,7 @@ public class CertdogClient
                               String dn, String password, List<String> sans,
                               ResponseFormat format) throws CertdogException
     {
-        return requestCert(this.authToken, issuerName, generatorName, teamName, dn, password, sans, format);
+        return requestCert(issuerName, generatorName, teamName, dn, password, sans, null, null, format);
     }
 
     /**
@@ -368,10 +513,10 @@ public class CertdogClient
                               String dn, String password, List<String> sans,
                               String extraInfo, List<String> extraEmails, ResponseFormat format) throws CertdogException
     {
-        if (!this.loggedIn)
-            throw new CertdogException("Not logged in. Call login");
-
-        return requestCert(this.authToken, issuerName, generatorName, teamName, dn, password, sans, extraInfo, extraEmails, format);
+        // Each call is retried on its own after a 401, so a rejected fetch does not issue the certificate again
+        GetCertResponse resp = session.call(token -> issueCert(token, issuerName, generatorName, teamName, dn, password,
+                sans, extraInfo, extraEmails));
+        return session.call(token -> toFormat(token, resp, issuerName, teamName, dn, password, format));
     }
 
     /**
@@ -395,285 +540,1599 @@ public class CertdogClient
     public String requestCert(String authToken, String issuerName, String generatorName, String teamName,
                               String dn, String password, List<String> sans,
                               String extraInfo, List<String> extraEmails, ResponseFormat format) throws CertdogException
+    {
+        GetCertResponse resp = issueCert(authToken, issuerName, generatorName, teamName, dn, password, sans, extraInfo, extraEmails);
+        return toFormat(authToken, resp, issuerName, teamName, dn, password, format);
+    }
+
+    /**
+     * Sends a request from a DN and records the issued certificate
+     */
+    private GetCertResponse issueCert(String authToken, String issuerName, String generatorName, String teamName,
+                                      String dn, String password, List<String> sans,
+                                      String extraInfo, List<String> extraEmails) throws CertdogException
     {
         try
         {
-            GetCertRequest certReq = new GetCertRequest();
-            certReq.setCaName(issuerName);
-            certReq.setCsrGeneratorName(generatorName);
-            certReq.setDn(dn);
-            certReq.setSubjectAltNames(sans != null ? sans.toArray(new String[]{}) : null);
-            certReq.setTeamName(teamName);
-            certReq.setExtraInfo(extraInfo);
-            certReq.setExtraEmails(extraEmails != null ? extraEmails.toArray(new String[]{}) : null);
-            certReq.setP12Password(password);
-
-            GetCertResponse resp = target
-                    .path(CertdogEndpoints.CERT_REQ)
-                    .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", "Bearer " + authToken)
-                    .post(Entity.entity(certReq, MediaType.APPLICATION_JSON), GetCertResponse.class);
-
-            // P12 data is returned by default. If we want another format we make a separate GET call
-            // to get the required format
-            if (format == ResponseFormat.PKCS12)
-                return resp.getP12Data();
-            else
-            {
-                // Provide the certId to get the data in the required format
-                String urlEndPoint = CertdogEndpoints.CERT_JKS_DATA;
-                if (format == ResponseFormat.PEM)
-                    urlEndPoint = CertdogEndpoints.CERT_PEM_DATA;
-                String path = String.format(urlEndPoint, resp.getId());
-
-                String data = target
-                        .path(path)
-                        .request(MediaType.APPLICATION_JSON)
-                        .header("Authorization", "Bearer " + authToken)
-                        .get(String.class);
-
-                return data;
-            }
+            GetCertRequest certReq = buildCertRequest(issuerName, generatorName, teamName, dn, password,
+                    sans, extraInfo, extraEmails);
+
+            GetCertResponse resp = invoke(CertdogEndpoints.CERT_REQ, issuerName, teamName, CertdogEndpoints.CERT_REQ, authToken,
+                    HttpMethod.POST, Entity.entity(certReq, MediaType.APPLICATION_JSON), ReadAs(GetCertResponse.class));
+            recordIssuance(resp, issuerName, teamName, password);
+
+            return resp;
         }
         catch (Exception e)
         {
-            throw new CertdogException("Requesting certificate with DN '" + dn + "' failed. " + e.getMessage());
+            throw new CertdogException("Requesting certificate with DN '" + dn + "' failed. " + e.getMessage(), e, GetStatusCode(e));
         }
     }
 
     /**
-     * Requests a certificate from a pre-generated CSR
-     *
-     * @param issuerName the cert issuer to process the request
-     * @param teamName the team this certificate will be associated with
-     * @param csrData the CSR data
-     * @return An X509Certificate
-     * @throws CertdogException if there is an error obtaining the cert
+     * Returns an issued certificate in the format required
      */
-    public X509Certificate requestCertFromCsr(String issuerName, String teamName, String csrData) throws CertdogException
+    private String toFormat(String authToken, GetCertResponse resp, String issuerName, String teamName, String dn,
+                            String password, ResponseFormat format) throws CertdogException
     {
-        return requestCertFromCsr(this.authToken, issuerName, teamName, csrData);
-    }
+        // P12 data is returned by default. If we want another format we convert it locally, or if
+        // that is not possible, make a separate GET call to get the required format
+        if (format == ResponseFormat.PKCS12)
+            return resp.getP12Data();
 
-    /**
-     * Requests a certificate from a pre-generated CSR
-     *
-     * @param authToken the JWT authentication token, returned from loginExt
-     * @param issuerName the cert issuer to process the request
-     * @param teamName the team this certificate will be associated with
-     * @param csrData the CSR data
-     * @return An X509Certificate
-     * @throws CertdogException if there is an error obtaining the cert
-     */
-    public X509Certificate requestCertFromCsr(String authToken, String issuerName, String teamName, String csrData) throws CertdogException
-    {
-        return requestCertFromCsr(authToken, issuerName, teamName, csrData, null, null);
+        String converted = convertLocally(resp, password, format);
+        if (converted != null)
+            return converted;
+
+        try
+        {
+            // Provide the certId to get the data in the required format
+            return invoke(FormatEndpoint(format), issuerName, teamName, formatPath(format, resp.getId()), authToken,
+                    HttpMethod.GET, null, ReadAs(String.class));
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Requesting certificate with DN '" + dn + "' failed. " + e.getMessage(), e, GetStatusCode(e));
+        }
     }
 
     /**
-     * Requests a certificate from a pre-generated CSR
+     * Request a certificate from a DN without blocking the calling thread
+     * Note: This will use certdog to generate a CSR. If you want to generate the CSR locally and send to
+     * certdog for processing, use the RequestCertFromCsrAsync method instead
      *
      * @param issuerName the cert issuer to process the request
+     * @param generatorName the CSR generator to create the CSR
      * @param teamName the team this certificate will be associated with
-     * @param csrData the CSR data
+     * @param dn the requested Dn
+     * @param password the password that will protect the P12/JKS/PEM
+     * @param sans An array of Subject Alternative Names. In the form DNS:[dns name],EMAIL:[email],IP:[ip address]
      * @param extraInfo Any extra free text to be associated with the certificate
      * @param extraEmails Additional emails to send renewal reminders and issue emails
-     * @return An X509Certificate
-     * @throws CertdogException if there is an error obtaining the cert
+     * @param format The return format - PKCS12/JKS or PEM
+     * @return a future that completes with the data as returned by requestCert, or with a CertdogException.
+     * Cancelling the future cancels the HTTP call in flight
      */
-    public X509Certificate requestCertFromCsr(String issuerName, String teamName, String csrData,
-                                              String extraInfo, List<String> extraEmails) throws CertdogException
+    public CompletableFuture<String> requestCertAsync(String issuerName, String generatorName, String teamName,
+                                                      String dn, String password, List<String> sans,
+                                                      String extraInfo, List<String> extraEmails, ResponseFormat format)
     {
-        if (!this.loggedIn)
-            throw new CertdogException("Not logged in. Call login");
-
-        return requestCertFromCsr(this.authToken, issuerName, teamName, csrData, extraInfo, extraEmails);
+        // Each call is retried on its own after a 401, so a rejected fetch does not issue the certificate again
+        return Then(session.callAsync(token -> issueCertAsync(token, issuerName, generatorName, teamName, dn, password,
+                sans, extraInfo, extraEmails)),
+                resp -> session.callAsync(token -> toFormatAsync(token, resp, issuerName, teamName, dn, password, format)));
     }
 
     /**
-     * Requests a certificate from a pre-generated CSR
+     * Request a certificate from a DN, providing the authentication token, without blocking the calling thread
+     * Note: This will use certdog to generate a CSR. If you want to generate the CSR locally and send to
+     * certdog for processing, use the RequestCertFromCsrAsync method instead
      *
      * @param authToken the JWT authentication token, returned from loginExt
      * @param issuerName the cert issuer to process the request
+     * @param generatorName the CSR generator to create the CSR
      * @param teamName the team this certificate will be associated with
-     * @param csrData the CSR data
+     * @param dn the requested Dn
+     * @param password the password that will protect the P12/JKS/PEM
+     * @param sans An array of Subject Alternative Names. In the form DNS:[dns name],EMAIL:[email],IP:[ip address]
      * @param extraInfo Any extra free text to be associated with the certificate
      * @param extraEmails Additional emails to send renewal reminders and issue emails
-     * @return An X509Certificate
-     * @throws CertdogException if there is an error obtaining the cert
+     * @param format The return format - PKCS12/JKS or PEM
+     * @return a future that completes with the data as returned by requestCert, or with a CertdogException.
+     * Cancelling the future cancels the HTTP call in flight
      */
-    public X509Certificate requestCertFromCsr(String authToken, String issuerName, String teamName, String csrData,
-                                     String extraInfo, List<String> extraEmails) throws CertdogException
+    public CompletableFuture<String> requestCertAsync(String authToken, String issuerName, String generatorName, String teamName,
+                                                      String dn, String password, List<String> sans,
+                                                      String extraInfo, List<String> extraEmails, ResponseFormat format)
     {
+        return Then(issueCertAsync(authToken, issuerName, generatorName, teamName, dn, password, sans, extraInfo, extraEmails),
+                resp -> toFormatAsync(authToken, resp, issuerName, teamName, dn, password, format));
+    }
 
-        try
-        {
-            GetCertFromCsrRequest certReq = new GetCertFromCsrRequest();
-            certReq.setCaName(issuerName);
-            certReq.setCsr(csrData);
-            certReq.setTeamName(teamName);
-            certReq.setExtraInfo(extraInfo);
-            certReq.setExtraEmails(extraEmails != null ? extraEmails.toArray(new String[]{}) : null);
+    /**
+     * Sends a request from a DN without blocking and records the issued certificate
+     */
+    private CompletableFuture<GetCertResponse> issueCertAsync(String authToken, String issuerName, String generatorName,
+                                                              String teamName, String dn, String password, List<String> sans,
+                                                              String extraInfo, List<String> extraEmails)
+    {
+        AsyncCall<GetCertResponse> call = new AsyncCall<>(instrumentation, resilience, hedging, rateLimiter, e ->
+                new CertdogException("Requesting certificate with DN '" + dn + "' failed. " + e.getMessage(), e, GetStatusCode(e)));
 
-            GetCertResponse resp = target
-                    .path(CertdogEndpoints.CERT_REQ_CSR)
-                    .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", "Bearer " + authToken)
-                    .post(Entity.entity(certReq, MediaType.APPLICATION_JSON), GetCertResponse.class);
+        GetCertRequest certReq = buildCertRequest(issuerName, generatorName, teamName, dn, password,
+                sans, extraInfo, extraEmails);
 
-            return GetCertFromData(resp.getPemCert());
-        }
-        catch (Exception e)
+        call.send(CertdogEndpoints.CERT_REQ, issuerName, teamName, asyncInvoker(authToken, CertdogEndpoints.CERT_REQ), HttpMethod.POST,
+                Entity.entity(certReq, MediaType.APPLICATION_JSON), resp ->
         {
-            throw new CertdogException("Requesting certificate from CSR failed. " + e.getMessage());
-        }
+            GetCertResponse certResp = resp.readEntity(GetCertResponse.class);
+            recordIssuance(certResp, issuerName, teamName, password);
+            call.complete(certResp);
+        });
+
+        return call;
     }
 
     /**
-     * Gets the cert chain for the cert issuer
-     *
-     * @param issuerName the name of the cert issuer
-     * @return an array of X509Certificate - intermediate and root CAs
-     * @throws CertdogException if there is an error obtaining the certificates
+     * Returns an issued certificate in the format required without blocking
      */
-    public List<X509Certificate> getIssuerChain(String issuerName) throws CertdogException
+    private CompletableFuture<String> toFormatAsync(String authToken, GetCertResponse resp, String issuerName, String teamName,
+                                                    String dn, String password, ResponseFormat format)
     {
-        if (!this.loggedIn)
-            throw new CertdogException("Not logged in. Call login");
+        if (format == ResponseFormat.PKCS12)
+            return CompletableFuture.completedFuture(resp.getP12Data());
+
+        String converted = convertLocally(resp, password, format);
+        if (converted != null)
+            return CompletableFuture.completedFuture(converted);
+
+        AsyncCall<String> call = new AsyncCall<>(instrumentation, resilience, hedging, rateLimiter, e ->
+                new CertdogException("Requesting certificate with DN '" + dn + "' failed. " + e.getMessage(), e, GetStatusCode(e)));
+        call.send(FormatEndpoint(format), issuerName, teamName, asyncInvoker(authToken, formatPath(format, resp.getId())),
+                HttpMethod.GET, null,
+                dataResp -> call.complete(dataResp.readEntity(String.class)));
 
-        return getIssuerChain(this.authToken, issuerName);
+        return call;
     }
 
     /**
-     * Gets the cert chain for the cert issuer
+     * Runs one step of a call after another, as thenCompose does, except that cancelling the future returned
+     * cancels whichever step is in flight and the next step is not started
      *
-     * @param authToken the JWT authentication token, returned from loginExt
-     * @param issuerName the name of the cert issuer
-     * @return an array of X509Certificate - intermediate and root CAs
-     * @throws CertdogException if there is an error obtaining the certificates
+     * @param first the first step
+     * @param next starts the next step with the result of the first
+     * @return a future that completes with the result of the next step
      */
-    public List<X509Certificate> getIssuerChain(String authToken, String issuerName) throws CertdogException
+    private static <A, B> CompletableFuture<B> Then(CompletableFuture<A> first, Function<A, CompletableFuture<B>> next)
     {
-        String path = String.format(CertdogEndpoints.ISSUER_CHAIN, issuerName);
-
-        List<String> certs = target
-                .path(path)
-                .request(MediaType.APPLICATION_JSON)
-                .header("Authorization", "Bearer " + authToken)
-                .get(new GenericType<List<String>>(){});
-
-        List<X509Certificate> x509Certs = new ArrayList<>();
-        for (String cert : certs)
+        AsyncCall<B> call = new AsyncCall<>(CertdogClient::AsCertdogException);
+        call.track(first);
+        first.whenComplete((value, error) ->
         {
-            x509Certs.add(GetCertFromData(cert));
-        }
+            if (error != null)
+            {
+                call.fail(AsCertdogException(error));
+                return;
+            }
+            if (call.isDone())
+                return;
 
-        return x509Certs;
+            CompletableFuture<B> second = next.apply(value);
+            call.track(second);
+            second.whenComplete((result, secondError) ->
+            {
+                if (secondError == null)
+                    call.complete(result);
+                else
+                    call.fail(AsCertdogException(secondError));
+            });
+        });
+
+        return call;
     }
 
     /**
-     * Revokes a cert given the certificate and issuer
+     * Request a certificate from a DN, returning the PKCS12 data as bytes
+     * The response is read with a streaming parser that decodes the base64 data as it arrives, so the data is
+     * never held as a String. Use requestCertTo to write the data to a stream or file instead
      *
-     * @param issuerName the cert issuer name - must be the same as the cert was issued from
-     * @param cert the certificate
-     * @param reason the revocation reason
-     * @throws CertdogException if there is an error revoking
+     * @param issuerName the cert issuer to process the request
+     * @param generatorName the CSR generator to create the CSR
+     * @param teamName the team this certificate will be associated with
+     * @param dn the requested Dn
+     * @param password the password that will protect the P12
+     * @param sans An array of Subject Alternative Names. In the form DNS:[dns name],EMAIL:[email],IP:[ip address]
+     * @param extraInfo Any extra free text to be associated with the certificate
+     * @param extraEmails Additional emails to send renewal reminders and issue emails
+     * @return the certificate id, the certificate and the PKCS12 data
+     * @throws CertdogException if there is an error obtaining the cert
      */
-    public void revokeCert(String issuerName, X509Certificate cert, RevocationReason reason) throws CertdogException
+    public IssuedKeyStore requestCertBinary(String issuerName, String generatorName, String teamName,
+                                            String dn, String password, List<String> sans,
+                                            String extraInfo, List<String> extraEmails) throws CertdogException
     {
-        revokeCert(this.authToken, issuerName, cert, reason);
+        return session.call(token -> requestCertBinary(token, issuerName, generatorName, teamName, dn, password, sans, extraInfo, extraEmails));
     }
-    public void revokeCert(String authToken, String issuerName, X509Certificate cert, RevocationReason reason) throws CertdogException
+
+    /**
+     * Request a certificate from a DN, providing the authentication token, returning the PKCS12 data as bytes
+     * The response is read with a streaming parser that decodes the base64 data as it arrives, so the data is
+     * never held as a String. Use requestCertTo to write the data to a stream or file instead
+     *
+     * @param authToken the JWT authentication token, returned from loginExt
+     * @param issuerName the cert issuer to process the request
+     * @param generatorName the CSR generator to create the CSR
+     * @param teamName the team this certificate will be associated with
+     * @param dn the requested Dn
+     * @param password the password that will protect the P12
+     * @param sans An array of Subject Alternative Names. In the form DNS:[dns name],EMAIL:[email],IP:[ip address]
+     * @param extraInfo Any extra free text to be associated with the certificate
+     * @param extraEmails Additional emails to send renewal reminders and issue emails
+     * @return the certificate id, the certificate and the PKCS12 data
+     * @throws CertdogException if there is an error obtaining the cert
+     */
+    public IssuedKeyStore requestCertBinary(String authToken, String issuerName, String generatorName, String teamName,
+                                            String dn, String password, List<String> sans,
+                                            String extraInfo, List<String> extraEmails) throws CertdogException
     {
-        revokeCert(issuerName, cert.getSerialNumber().toString(16), reason);
+        return requestCertStreaming(authToken, issuerName, generatorName, teamName, dn, password, sans, extraInfo, extraEmails, null);
     }
 
     /**
-     * Revokes a cert given the certificate serial number and issuer
+     * Request a certificate from a DN, writing the PKCS12 data to a stream as the response is read
+     * The data is decoded from base64 as it arrives, so neither the base64 nor the decoded data is held in memory
      *
-     * @param issuerName the cert issuer name - must be the same as the cert was issued from
-     * @param serialNumber the serial number in ASCII HEX format
-     * @param reason the revocation reason
-     * @throws CertdogException if there is an error revoking
+     * @param issuerName the cert issuer to process the request
+     * @param generatorName the CSR generator to create the CSR
+     * @param teamName the team this certificate will be associated with
+     * @param dn the requested Dn
+     * @param password the password that will protect the P12
+     * @param sans An array of Subject Alternative Names. In the form DNS:[dns name],EMAIL:[email],IP:[ip address]
+     * @param extraInfo Any extra free text to be associated with the certificate
+     * @param extraEmails Additional emails to send renewal reminders and issue emails
+     * @param out where to write the PKCS12 data. It is flushed but not closed
+     * @return the certificate id and the certificate. The data is null
+     * @throws CertdogException if there is an error obtaining the cert or writing it. Part of the data may
+     * have been written
      */
-    public void revokeCert(String issuerName, String serialNumber, RevocationReason reason) throws CertdogException
+    public IssuedKeyStore requestCertTo(String issuerName, String generatorName, String teamName,
+                                        String dn, String password, List<String> sans,
+                                        String extraInfo, List<String> extraEmails, OutputStream out) throws CertdogException
     {
-        if (!this.loggedIn)
-            throw new CertdogException("Not logged in. Call login");
-
-        revokeCert(this.authToken, issuerName, serialNumber, reason);
+        return session.call(token -> requestCertTo(token, issuerName, generatorName, teamName, dn, password, sans, extraInfo, extraEmails, out));
     }
 
     /**
-     * Revokes a cert given the certificate serial number and issuer
+     * Request a certificate from a DN, providing the authentication token, writing the PKCS12 data to a stream
+     * as the response is read
+     * The data is decoded from base64 as it arrives, so neither the base64 nor the decoded data is held in memory
      *
      * @param authToken the JWT authentication token, returned from loginExt
-     * @param issuerName the cert issuer name - must be the same as the cert was issued from
-     * @param serialNumber the serial number in ASCII HEX format
-     * @param reason the revocation reason
-     * @throws CertdogException if there is an error revoking
+     * @param issuerName the cert issuer to process the request
+     * @param generatorName the CSR generator to create the CSR
+     * @param teamName the team this certificate will be associated with
+     * @param dn the requested Dn
+     * @param password the password that will protect the P12
+     * @param sans An array of Subject Alternative Names. In the form DNS:[dns name],EMAIL:[email],IP:[ip address]
+     * @param extraInfo Any extra free text to be associated with the certificate
+     * @param extraEmails Additional emails to send renewal reminders and issue emails
+     * @param out where to write the PKCS12 data. It is flushed but not closed
+     * @return the certificate id and the certificate. The data is null
+     * @throws CertdogException if there is an error obtaining the cert or writing it. Part of the data may
+     * have been written
      */
-    public void revokeCert(String authToken, String issuerName, String serialNumber, RevocationReason reason) throws CertdogException
+    public IssuedKeyStore requestCertTo(String authToken, String issuerName, String generatorName, String teamName,
+                                        String dn, String password, List<String> sans,
+                                        String extraInfo, List<String> extraEmails, OutputStream out) throws CertdogException
     {
-        try
-        {
-            RevokeCertRequest revokeReq = new RevokeCertRequest();
-            revokeReq.setCaName(issuerName);
-            revokeReq.setSerialNumber(serialNumber);
-            revokeReq.setReason(revokeReasons.get(reason.value));
-
-            Response resp = target
-                    .path(CertdogEndpoints.REVOKE_CERT)
-                    .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", "Bearer " + authToken)
-                    .post(Entity.entity(revokeReq, MediaType.APPLICATION_JSON), Response.class);
-
-            if (resp.getStatus() != 200)
-            {
-                throw new Exception(resp.readEntity(String.class));
-            }
-        }
-        catch (Exception e)
-        {
-            throw new CertdogException("Revocation of certificate with serial number " + serialNumber + " failed. " + e.getMessage());
-        }
+        if (out == null)
+            throw new IllegalArgumentException("The output stream must be provided");
 
+        return requestCertStreaming(authToken, issuerName, generatorName, teamName, dn, password, sans, extraInfo, extraEmails, out);
     }
 
-    /**
-     * Saves the data returned from RequestCert as a file - this converts the data to binary
-     * which is required for PFX files
-     *
-     * @param p12B64Data the base64 p12/pfx data
-     * @param filename the filename to save the data
-     * @throws CertdogException if there is an error saving
-     */
-    public static void SaveP12(String p12B64Data, String filename) throws CertdogException
+    private IssuedKeyStore requestCertStreaming(String authToken, String issuerName, String generatorName, String teamName,
+                                                String dn, String password, List<String> sans,
+                                                String extraInfo, List<String> extraEmails, OutputStream out) throws CertdogException
     {
         try
         {
-            byte[] p12BinData = Base64.getDecoder().decode(p12B64Data);
-            Files.write(Paths.get(filename), p12BinData);
+            GetCertRequest certReq = buildCertRequest(issuerName, generatorName, teamName, dn, password,
+                    sans, extraInfo, extraEmails);
+
+            // If certdog returns no pemCert the certificate to record is read from the data, so a copy of what
+            // is written to out is kept in that case only
+            boolean copyIfNoCert = out != null && issuanceIndex != null;
+            IssuedKeyStore issued = invoke(CertdogEndpoints.CERT_REQ, issuerName, teamName, CertdogEndpoints.CERT_REQ, authToken,
+                    HttpMethod.POST, Entity.entity(certReq, MediaType.APPLICATION_JSON), resp ->
+                    {
+                        checkStatus(resp);
+                        return ReadCertResponse(resp, out, true, copyIfNoCert);
+                    });
+            recordIssuance(issued, issued.getData(), issuerName, teamName, password);
+
+            return out != null && issued.getData() != null ? new IssuedKeyStore(issued.getId(), issued.getCertificate(), null) : issued;
         }
         catch (Exception e)
         {
-            throw new CertdogException("Unable to save p12/jks data to file: " + filename + " Error: " + e.getMessage());
+            throw new CertdogException("Requesting certificate with DN '" + dn + "' failed. " + e.getMessage(), e, GetStatusCode(e));
         }
     }
 
     /**
-     * Saves the data returned from RequestCert as a file - this converts the data to binary
-     * which is required for JKS files
+     * Request a certificate from a DN without blocking the calling thread, returning the PKCS12 data as bytes
+     * The response is read with a streaming parser that decodes the base64 data as it arrives
      *
-     * @param jksB64Data the base64 encoded JKS data
-     * @param filename the filename to save the data
-     * @throws CertdogException if there is an error saving
-     */
-    public static void SaveJks(String jksB64Data, String filename) throws CertdogException
+     * @param issuerName the cert issuer to process the request
+     * @param generatorName the CSR generator to create the CSR
+     * @param teamName the team this certificate will be associated with
+     * @param dn the requested Dn
+     * @param password the password that will protect the P12
+     * @param sans An array of Subject Alternative Names. In the form DNS:[dns name],EMAIL:[email],IP:[ip address]
+     * @param extraInfo Any extra free text to be associated with the certificate
+     * @param extraEmails Additional emails to send renewal reminders and issue emails
+     * @return a future that completes as requestCertBinary returns, or with a CertdogException.
+     * Cancelling the future cancels the HTTP call in flight
+     */
+    public CompletableFuture<IssuedKeyStore> requestCertBinaryAsync(String issuerName, String generatorName, String teamName,
+                                                                    String dn, String password, List<String> sans,
+                                                                    String extraInfo, List<String> extraEmails)
+    {
+        return session.callAsync(token -> requestCertBinaryAsync(token, issuerName, generatorName, teamName, dn, password, sans, extraInfo, extraEmails));
+    }
+
+    /**
+     * Request a certificate from a DN, providing the authentication token, without blocking the calling thread,
+     * returning the PKCS12 data as bytes
+     * The response is read with a streaming parser that decodes the base64 data as it arrives
+     *
+     * @param authToken the JWT authentication token, returned from loginExt
+     * @param issuerName the cert issuer to process the request
+     * @param generatorName the CSR generator to create the CSR
+     * @param teamName the team this certificate will be associated with
+     * @param dn the requested Dn
+     * @param password the password that will protect the P12
+     * @param sans An array of Subject Alternative Names. In the form DNS:[dns name],EMAIL:[email],IP:[ip address]
+     * @param extraInfo Any extra free text to be associated with the certificate
+     * @param extraEmails Additional emails to send renewal reminders and issue emails
+     * @return a future that completes as requestCertBinary returns, or with a CertdogException.
+     * Cancelling the future cancels the HTTP call in flight
+     */
+    public CompletableFuture<IssuedKeyStore> requestCertBinaryAsync(String authToken, String issuerName, String generatorName, String teamName,
+                                                                    String dn, String password, List<String> sans,
+                                                                    String extraInfo, List<String> extraEmails)
+    {
+        AsyncCall<IssuedKeyStore> call = new AsyncCall<>(instrumentation, resilience, hedging, rateLimiter, e ->
+                new CertdogException("Requesting certificate with DN '" + dn + "' failed. " + e.getMessage(), e, GetStatusCode(e)));
+
+        GetCertRequest certReq = buildCertRequest(issuerName, generatorName, teamName, dn, password,
+                sans, extraInfo, extraEmails);
+
+        call.send(CertdogEndpoints.CERT_REQ, issuerName, teamName, asyncInvoker(authToken, CertdogEndpoints.CERT_REQ), HttpMethod.POST,
+                Entity.entity(certReq, MediaType.APPLICATION_JSON), resp ->
+        {
+            IssuedKeyStore issued = ReadCertResponse(resp, null, true);
+            recordIssuance(issued, issued.getData(), issuerName, teamName, password);
+            call.complete(issued);
+        });
+
+        return call;
+    }
+
+    /**
+     * Requests a batch of certificates from DNs
+     * The requests are sent in parallel with no more than the concurrency set in the options in flight at
+     * once, sharing the client's connections. A failed request does not stop the batch: the result for each
+     * request holds either its data or the reason it failed
+     *
+     * @param requests the requests. The caName, csrGeneratorName, teamName, dn and p12Password should be set
+     * @param options the batch options
+     * @return a result for each request, in the order of the requests
+     * @throws CertdogException if interrupted while waiting for the batch to complete
+     */
+    public List<BatchResult> requestCerts(Collection<GetCertRequest> requests, BatchOptions options) throws CertdogException
+    {
+        return runBatch(requests, options, req -> options.isBinary()
+                ? requestCertBinaryAsync(req.getCaName(), req.getCsrGeneratorName(),
+                        req.getTeamName(), req.getDn(), req.getP12Password(), AsList(req.getSubjectAltNames()),
+                        req.getExtraInfo(), AsList(req.getExtraEmails()))
+                : requestCertAsync(req.getCaName(), req.getCsrGeneratorName(),
+                        req.getTeamName(), req.getDn(), req.getP12Password(), AsList(req.getSubjectAltNames()),
+                        req.getExtraInfo(), AsList(req.getExtraEmails()), options.getFormat()));
+    }
+
+    /**
+     * Requests a batch of certificates from DNs, providing the authentication token
+     * The requests are sent in parallel with no more than the concurrency set in the options in flight at
+     * once, sharing the client's connections. A failed request does not stop the batch: the result for each
+     * request holds either its data or the reason it failed
+     *
+     * @param authToken the JWT authentication token, returned from loginExt
+     * @param requests the requests. The caName, csrGeneratorName, teamName, dn and p12Password should be set
+     * @param options the batch options
+     * @return a result for each request, in the order of the requests
+     * @throws CertdogException if interrupted while waiting for the batch to complete
+     */
+    public List<BatchResult> requestCerts(String authToken, Collection<GetCertRequest> requests, BatchOptions options) throws CertdogException
+    {
+        return runBatch(requests, options, req -> options.isBinary()
+                ? requestCertBinaryAsync(authToken, req.getCaName(), req.getCsrGeneratorName(),
+                        req.getTeamName(), req.getDn(), req.getP12Password(), AsList(req.getSubjectAltNames()),
+                        req.getExtraInfo(), AsList(req.getExtraEmails()))
+                : requestCertAsync(authToken, req.getCaName(), req.getCsrGeneratorName(),
+                        req.getTeamName(), req.getDn(), req.getP12Password(), AsList(req.getSubjectAltNames()),
+                        req.getExtraInfo(), AsList(req.getExtraEmails()), options.getFormat()));
+    }
+
+    private List<BatchResult> runBatch(Collection<GetCertRequest> requests, BatchOptions options,
+                                       Function<GetCertRequest, CompletableFuture<?>> issue) throws CertdogException
+    {
+        int total = requests.size();
+        BatchResult[] results = new BatchResult[total];
+        Semaphore permits = new Semaphore(options.getConcurrency());
+        CountDownLatch done = new CountDownLatch(total);
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        BatchProgressListener listener = options.getProgressListener();
+        List<CompletableFuture<?>> issued = new ArrayList<>(total);
+
+        try
+        {
+            int index = 0;
+            for (GetCertRequest req : requests)
+            {
+                permits.acquire();
+
+                int i = index++;
+                CompletableFuture<?> f;
+                try
+                {
+                    f = issue.apply(req);
+                }
+                catch (RuntimeException e)
+                {
+                    f = new CompletableFuture<>();
+                    f.completeExceptionally(e);
+                }
+                issued.add(f);
+                f.whenComplete((value, error) ->
+                {
+                    // A binary batch completes with IssuedKeyStores, otherwise with the data as a String
+                    BatchResult result = value instanceof IssuedKeyStore
+                            ? new BatchResult(i, req, null, ((IssuedKeyStore) value).getData(), null)
+                            : new BatchResult(i, req, (String) value, null, error != null ? AsCertdogException(error) : null);
+                    results[i] = result;
+                    int failedCount = error != null ? failed.incrementAndGet() : failed.get();
+                    int completedCount = completed.incrementAndGet();
+                    permits.release();
+
+                    try
+                    {
+                        if (listener != null)
+                            listener.onProgress(result, completedCount, failedCount, total);
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                });
+            }
+
+            done.await();
+        }
+        catch (InterruptedException e)
+        {
+            for (CompletableFuture<?> f : issued)
+            {
+                f.cancel(true);
+            }
+
+            Thread.currentThread().interrupt();
+            throw new CertdogException("Interrupted waiting for the batch to complete", e);
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Requests a certificate from a pre-generated CSR
+     *
+     * @param issuerName the cert issuer to process the request
+     * @param teamName the team this certificate will be associated with
+     * @param csrData the CSR data
+     * @return An X509Certificate
+     * @throws CertdogException if there is an error obtaining the cert
+     */
+    public X509Certificate requestCertFromCsr(String issuerName, String teamName, String csrData) throws CertdogException
+    {
+        return session.call(token -> requestCertFromCsr(token, issuerName, teamName, csrData));
+    }
+
+    /**
+     * Requests a certificate from a pre-generated CSR
+     *
+     * @param authToken the JWT authentication token, returned from loginExt
+     * @param issuerName the cert issuer to process the request
+     * @param teamName the team this certificate will be associated with
+     * @param csrData the CSR data
+     * @return An X509Certificate
+     * @throws CertdogException if there is an error obtaining the cert
+     */
+    public X509Certificate requestCertFromCsr(String authToken, String issuerName, String teamName, String csrData) throws CertdogException
+    {
+        return requestCertFromCsr(authToken, issuerName, teamName, csrData, null, null);
+    }
+
+    /**
+     * Requests a certificate from a pre-generated CSR
+     *
+     * @param issuerName the cert issuer to process the request
+     * @param teamName the team this certificate will be associated with
+     * @param csrData the CSR data
+     * @param extraInfo Any extra free text to be associated with the certificate
+     * @param extraEmails Additional emails to send renewal reminders and issue emails
+     * @return An X509Certificate
+     * @throws CertdogException if there is an error obtaining the cert
+     */
+    public X509Certificate requestCertFromCsr(String issuerName, String teamName, String csrData,
+                                              String extraInfo, List<String> extraEmails) throws CertdogException
+    {
+        return session.call(token -> requestCertFromCsr(token, issuerName, teamName, csrData, extraInfo, extraEmails));
+    }
+
+    /**
+     * Requests a certificate from a pre-generated CSR
+     *
+     * @param authToken the JWT authentication token, returned from loginExt
+     * @param issuerName the cert issuer to process the request
+     * @param teamName the team this certificate will be associated with
+     * @param csrData the CSR data
+     * @param extraInfo Any extra free text to be associated with the certificate
+     * @param extraEmails Additional emails to send renewal reminders and issue emails
+     * @return An X509Certificate
+     * @throws CertdogException if there is an error obtaining the cert
+     */
+    public X509Certificate requestCertFromCsr(String authToken, String issuerName, String teamName, String csrData,
+                                     String extraInfo, List<String> extraEmails) throws CertdogException
+    {
+
+        try
+        {
+            GetCertFromCsrRequest certReq = buildCsrRequest(issuerName, teamName, csrData, extraInfo, extraEmails);
+
+            IssuedKeyStore issued = invoke(CertdogEndpoints.CERT_REQ_CSR, issuerName, teamName, CertdogEndpoints.CERT_REQ_CSR, authToken,
+                    HttpMethod.POST, Entity.entity(certReq, MediaType.APPLICATION_JSON), resp ->
+                    {
+                        checkStatus(resp);
+                        return ReadCertResponse(resp, null, false);
+                    });
+
+            X509Certificate cert = RequireCertificate(issued);
+            recordIssuance(issued.getId(), cert, issuerName, teamName);
+
+            return cert;
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Requesting certificate from CSR failed. " + e.getMessage(), e, GetStatusCode(e));
+        }
+    }
+
+    /**
+     * Requests a certificate from a pre-generated CSR without blocking the calling thread
+     *
+     * @param issuerName the cert issuer to process the request
+     * @param teamName the team this certificate will be associated with
+     * @param csrData the CSR data
+     * @param extraInfo Any extra free text to be associated with the certificate
+     * @param extraEmails Additional emails to send renewal reminders and issue emails
+     * @return a future that completes with the X509Certificate, or with a CertdogException.
+     * Cancelling the future cancels the HTTP call in flight
+     */
+    public CompletableFuture<X509Certificate> requestCertFromCsrAsync(String issuerName, String teamName, String csrData,
+                                                                      String extraInfo, List<String> extraEmails)
+    {
+        return session.callAsync(token -> requestCertFromCsrAsync(token, issuerName, teamName, csrData, extraInfo, extraEmails));
+    }
+
+    /**
+     * Requests a certificate from a pre-generated CSR without blocking the calling thread
+     *
+     * @param authToken the JWT authentication token, returned from loginExt
+     * @param issuerName the cert issuer to process the request
+     * @param teamName the team this certificate will be associated with
+     * @param csrData the CSR data
+     * @param extraInfo Any extra free text to be associated with the certificate
+     * @param extraEmails Additional emails to send renewal reminders and issue emails
+     * @return a future that completes with the X509Certificate, or with a CertdogException.
+     * Cancelling the future cancels the HTTP call in flight
+     */
+    public CompletableFuture<X509Certificate> requestCertFromCsrAsync(String authToken, String issuerName, String teamName,
+                                                                      String csrData, String extraInfo, List<String> extraEmails)
+    {
+        AsyncCall<X509Certificate> call = new AsyncCall<>(instrumentation, resilience, hedging, rateLimiter, e ->
+                new CertdogException("Requesting certificate from CSR failed. " + e.getMessage(), e, GetStatusCode(e)));
+
+        GetCertFromCsrRequest certReq = buildCsrRequest(issuerName, teamName, csrData, extraInfo, extraEmails);
+
+        call.send(CertdogEndpoints.CERT_REQ_CSR, issuerName, teamName, asyncInvoker(authToken, CertdogEndpoints.CERT_REQ_CSR), HttpMethod.POST,
+                Entity.entity(certReq, MediaType.APPLICATION_JSON),
+                resp ->
+        {
+            IssuedKeyStore issued = ReadCertResponse(resp, null, false);
+            X509Certificate cert = RequireCertificate(issued);
+            recordIssuance(issued.getId(), cert, issuerName, teamName);
+            call.complete(cert);
+        });
+
+        return call;
+    }
+
+    /**
+     * Requests a certificate for a key generated locally
+     * A key pair is taken from the KeyPairPool set in CertdogClientConfig (or generated if there is no pool),
+     * a CSR is created for it and sent to certdog. Requires BouncyCastle on the classpath
+     *
+     * @param issuerName the cert issuer to process the request
+     * @param teamName the team this certificate will be associated with
+     * @param dn the requested Dn
+     * @param sans Subject Alternative Names. In the form DNS:[dns name],EMAIL:[email],IP:[ip address]
+     * @param keyType the type of key to generate
+     * @return the private key and issued certificate
+     * @throws CertdogException if there is an error creating the CSR or obtaining the cert
+     */
+    public IssuedCredential requestCertWithLocalKey(String issuerName, String teamName, String dn,
+                                                    List<String> sans, KeyType keyType) throws CertdogException
+    {
+        KeyPair keyPair = takeKeyPair(keyType);
+        String csr = new CsrBuilder(dn).sans(sans).build(keyPair, keyType);
+        X509Certificate cert = requestCertFromCsr(issuerName, teamName, csr, null, null);
+
+        return new IssuedCredential(keyPair.getPrivate(), cert, csr);
+    }
+
+    /**
+     * Requests a certificate for a key generated locally, providing the authentication token
+     * A key pair is taken from the KeyPairPool set in CertdogClientConfig (or generated if there is no pool),
+     * a CSR is created for it and sent to certdog. Requires BouncyCastle on the classpath
+     *
+     * @param authToken the JWT authentication token, returned from loginExt
+     * @param issuerName the cert issuer to process the request
+     * @param teamName the team this certificate will be associated with
+     * @param dn the requested Dn
+     * @param sans Subject Alternative Names. In the form DNS:[dns name],EMAIL:[email],IP:[ip address]
+     * @param keyType the type of key to generate
+     * @return the private key and issued certificate
+     * @throws CertdogException if there is an error creating the CSR or obtaining the cert
+     */
+    public IssuedCredential requestCertWithLocalKey(String authToken, String issuerName, String teamName, String dn,
+                                                    List<String> sans, KeyType keyType) throws CertdogException
+    {
+        KeyPair keyPair = takeKeyPair(keyType);
+        String csr = new CsrBuilder(dn).sans(sans).build(keyPair, keyType);
+        X509Certificate cert = requestCertFromCsr(authToken, issuerName, teamName, csr, null, null);
+
+        return new IssuedCredential(keyPair.getPrivate(), cert, csr);
+    }
+
+    /**
+     * Requests a certificate for a key generated locally without blocking on the call to certdog
+     * A key pair is taken from the KeyPairPool set in CertdogClientConfig (or generated if there is no pool),
+     * a CSR is created for it and sent to certdog. Requires BouncyCastle on the classpath
+     *
+     * @param issuerName the cert issuer to process the request
+     * @param teamName the team this certificate will be associated with
+     * @param dn the requested Dn
+     * @param sans Subject Alternative Names. In the form DNS:[dns name],EMAIL:[email],IP:[ip address]
+     * @param keyType the type of key to generate
+     * @return a future that completes with the private key and issued certificate, or with a CertdogException
+     */
+    public CompletableFuture<IssuedCredential> requestCertWithLocalKeyAsync(String issuerName, String teamName, String dn,
+                                                                            List<String> sans, KeyType keyType)
+    {
+        KeyPair keyPair;
+        String csr;
+        try
+        {
+            keyPair = takeKeyPair(keyType);
+            csr = new CsrBuilder(dn).sans(sans).build(keyPair, keyType);
+        }
+        catch (CertdogException e)
+        {
+            CompletableFuture<IssuedCredential> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        CompletableFuture<X509Certificate> issued = requestCertFromCsrAsync(issuerName, teamName, csr, null, null);
+        AsyncCall<IssuedCredential> call = new AsyncCall<>(CertdogClient::AsCertdogException);
+        call.track(issued);
+        issued.whenComplete((cert, error) ->
+        {
+            if (error == null)
+                call.complete(new IssuedCredential(keyPair.getPrivate(), cert, csr));
+            else
+                call.fail(AsCertdogException(error));
+        });
+
+        return call;
+    }
+
+    private KeyPair takeKeyPair(KeyType keyType) throws CertdogException
+    {
+        if (keyPairPool != null)
+            return keyPairPool.take(keyType);
+
+        try
+        {
+            return keyType.generate();
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new CertdogException("Unable to generate a " + keyType + " key pair. " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the key and certificate from the data returned by requestCert and attaches the chain of the
+     * issuer (see getIssuerChain), so it can be used as a KeyStore, key manager or SSLContext without saving it
+     *
+     * @param issuerName the cert issuer that issued the certificate
+     * @param data the data as returned by requestCert
+     * @param password the password the data was requested with
+     * @param format the format of the data
+     * @return the credential
+     * @throws CertdogException if the data cannot be read or the chain cannot be obtained
+     */
+    public TlsCredential toTlsCredential(String issuerName, String data, String password, ResponseFormat format) throws CertdogException
+    {
+        return TlsCredential.fromData(data, password, format).withIssuerChain(getIssuerChain(issuerName));
+    }
+
+    /**
+     * Attaches the chain of the issuer (see getIssuerChain) to a certificate issued for a local key, so it can
+     * be used as a KeyStore, key manager or SSLContext without saving it
+     *
+     * @param issuerName the cert issuer that issued the certificate
+     * @param issued the key and certificate as returned by requestCertWithLocalKey
+     * @return the credential
+     * @throws CertdogException if the chain cannot be obtained
+     */
+    public TlsCredential toTlsCredential(String issuerName, IssuedCredential issued) throws CertdogException
+    {
+        return TlsCredential.fromIssued(issued).withIssuerChain(getIssuerChain(issuerName));
+    }
+
+    /**
+     * Gets the cert chain for the cert issuer
+     *
+     * @param issuerName the name of the cert issuer
+     * @return an array of X509Certificate - intermediate and root CAs
+     * @throws CertdogException if there is an error obtaining the certificates
+     */
+    public List<X509Certificate> getIssuerChain(String issuerName) throws CertdogException
+    {
+        if (issuerChainCache == null)
+            return session.call(token -> getIssuerChain(token, issuerName));
+
+        List<X509Certificate> chain = issuerChainCache.get(issuerName);
+        if (chain == null)
+        {
+            chain = session.call(token -> getIssuerChain(token, issuerName));
+            issuerChainCache.put(issuerName, chain);
+        }
+
+        return chain;
+    }
+
+    /**
+     * Gets the cert chain for the cert issuer
+     *
+     * @param authToken the JWT authentication token, returned from loginExt
+     * @param issuerName the name of the cert issuer
+     * @return an array of X509Certificate - intermediate and root CAs
+     * @throws CertdogException if there is an error obtaining the certificates
+     */
+    public List<X509Certificate> getIssuerChain(String authToken, String issuerName) throws CertdogException
+    {
+        try
+        {
+            String path = String.format(CertdogEndpoints.ISSUER_CHAIN, issuerName);
+
+            List<String> certs = invoke(CertdogEndpoints.ISSUER_CHAIN, issuerName, null, path, authToken, HttpMethod.GET, null,
+                    ReadAs(new GenericType<List<String>>(){}));
+
+            return GetCertsFromData(certs);
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Obtaining the chain for issuer '" + issuerName + "' failed. " + e.getMessage(), e, GetStatusCode(e));
+        }
+    }
+
+    /**
+     * Gets the cert chain for the cert issuer without blocking the calling thread
+     *
+     * @param issuerName the name of the cert issuer
+     * @return a future that completes with the intermediate and root CAs, or with a CertdogException.
+     * Cancelling the future cancels the HTTP call in flight
+     */
+    public CompletableFuture<List<X509Certificate>> getIssuerChainAsync(String issuerName)
+    {
+        if (issuerChainCache == null)
+            return session.callAsync(token -> getIssuerChainAsync(token, issuerName));
+
+        List<X509Certificate> cached = issuerChainCache.get(issuerName);
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+
+        CompletableFuture<List<X509Certificate>> chain = session.callAsync(token -> getIssuerChainAsync(token, issuerName));
+        chain.thenAccept(c -> issuerChainCache.put(issuerName, c));
+
+        return chain;
+    }
+
+    /**
+     * Fetches and caches the chains of all the issuers returned from getIssuers()
+     * The chains are fetched in parallel. Requires the issuer chain cache to be enabled in CertdogClientConfig
+     *
+     * @return the number of issuers whose chains were fetched
+     * @throws CertdogException if the cache is not enabled or any chain could not be fetched. The chains that
+     * could be fetched are still cached
+     */
+    public int prefetchIssuerChains() throws CertdogException
+    {
+        if (issuerChainCache == null)
+            throw new CertdogException("The issuer chain cache is not enabled");
+
+        Map<String, CompletableFuture<List<X509Certificate>>> pending = new LinkedHashMap<>();
+        for (String issuerName : getIssuers())
+        {
+            pending.put(issuerName, getIssuerChainAsync(issuerName));
+        }
+
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<List<X509Certificate>>> e : pending.entrySet())
+        {
+            try
+            {
+                e.getValue().get();
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                throw new CertdogException("Interrupted prefetching issuer chains", ie);
+            }
+            catch (ExecutionException ee)
+            {
+                failures.add(ee.getCause().getMessage());
+            }
+        }
+
+        if (!failures.isEmpty())
+            throw new CertdogException("Unable to prefetch all issuer chains. " + String.join(" ", failures));
+
+        return pending.size();
+    }
+
+    /**
+     * Discards all cached issuer chains
+     * Has no effect unless the issuer chain cache is enabled in CertdogClientConfig
+     */
+    public void invalidateIssuerChainCache()
+    {
+        if (issuerChainCache != null)
+            issuerChainCache.invalidate();
+    }
+
+    /**
+     * Discards the cached chain for an issuer, e.g. after the issuing CA has been renewed
+     * Has no effect unless the issuer chain cache is enabled in CertdogClientConfig
+     *
+     * @param issuerName the name of the cert issuer
+     */
+    public void invalidateIssuerChainCache(String issuerName)
+    {
+        if (issuerChainCache != null)
+            issuerChainCache.invalidate(issuerName);
+    }
+
+    /**
+     * Gets the cert chain for the cert issuer without blocking the calling thread
+     *
+     * @param authToken the JWT authentication token, returned from loginExt
+     * @param issuerName the name of the cert issuer
+     * @return a future that completes with the intermediate and root CAs, or with a CertdogException.
+     * Cancelling the future cancels the HTTP call in flight
+     */
+    public CompletableFuture<List<X509Certificate>> getIssuerChainAsync(String authToken, String issuerName)
+    {
+        AsyncCall<List<X509Certificate>> call = new AsyncCall<>(instrumentation, resilience, hedging, rateLimiter, e ->
+                new CertdogException("Obtaining the chain for issuer '" + issuerName + "' failed. " + e.getMessage(), e, GetStatusCode(e)));
+
+        String path = String.format(CertdogEndpoints.ISSUER_CHAIN, issuerName);
+        call.send(CertdogEndpoints.ISSUER_CHAIN, issuerName, null, asyncInvoker(authToken, path), HttpMethod.GET, null,
+                resp -> call.complete(GetCertsFromData(resp.readEntity(new GenericType<List<String>>(){}))));
+
+        return call;
+    }
+
+    /**
+     * Revokes a cert given the certificate and issuer
+     *
+     * @param issuerName the cert issuer name - must be the same as the cert was issued from
+     * @param cert the certificate
+     * @param reason the revocation reason
+     * @throws CertdogException if there is an error revoking
+     */
+    public void revokeCert(String issuerName, X509Certificate cert, RevocationReason reason) throws CertdogException
+    {
+        revokeCert(issuerName, cert.getSerialNumber().toString(16), reason);
+    }
+
+    /**
+     * Revokes a cert given the certificate and issuer
+     *
+     * @param authToken the JWT authentication token, returned from loginExt
+     * @param issuerName the cert issuer name - must be the same as the cert was issued from
+     * @param cert the certificate
+     * @param reason the revocation reason
+     * @throws CertdogException if there is an error revoking
+     */
+    public void revokeCert(String authToken, String issuerName, X509Certificate cert, RevocationReason reason) throws CertdogException
+    {
+        revokeCert(authToken, issuerName, cert.getSerialNumber().toString(16), reason);
+    }
+
+    /**
+     * Revokes a cert given the certificate serial number and issuer
+     *
+     * @param issuerName the cert issuer name - must be the same as the cert was issued from
+     * @param serialNumber the serial number in ASCII HEX format
+     * @param reason the revocation reason
+     * @throws CertdogException if there is an error revoking
+     */
+    public void revokeCert(String issuerName, String serialNumber, RevocationReason reason) throws CertdogException
+    {
+        session.call(token ->
+        {
+            revokeCert(token, issuerName, serialNumber, reason);
+            return null;
+        });
+    }
+
+    /**
+     * Revokes a cert given the certificate serial number and issuer
+     *
+     * @param authToken the JWT authentication token, returned from loginExt
+     * @param issuerName the cert issuer name - must be the same as the cert was issued from
+     * @param serialNumber the serial number in ASCII HEX format
+     * @param reason the revocation reason
+     * @throws CertdogException if there is an error revoking
+     */
+    public void revokeCert(String authToken, String issuerName, String serialNumber, RevocationReason reason) throws CertdogException
+    {
+        try
+        {
+            RevokeCertRequest revokeReq = buildRevokeRequest(issuerName, serialNumber, reason);
+
+            invoke(CertdogEndpoints.REVOKE_CERT, issuerName, null, CertdogEndpoints.REVOKE_CERT, authToken, HttpMethod.POST,
+                    Entity.entity(revokeReq, MediaType.APPLICATION_JSON), resp ->
+            {
+                if (resp.getStatus() != 200)
+                {
+                    throw new CertdogException(resp.readEntity(String.class), resp.getStatus());
+                }
+                resp.close();
+                return null;
+            });
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Revocation of certificate with serial number " + serialNumber + " failed. " + e.getMessage(), e, GetStatusCode(e));
+        }
+
+    }
+
+    /**
+     * Revokes a cert given the certificate and issuer without blocking the calling thread
+     *
+     * @param issuerName the cert issuer name - must be the same as the cert was issued from
+     * @param cert the certificate
+     * @param reason the revocation reason
+     * @return a future that completes when the certificate has been revoked, or with a CertdogException.
+     * Cancelling the future cancels the HTTP call in flight
+     */
+    public CompletableFuture<Void> revokeCertAsync(String issuerName, X509Certificate cert, RevocationReason reason)
+    {
+        return revokeCertAsync(issuerName, cert.getSerialNumber().toString(16), reason);
+    }
+
+    /**
+     * Revokes a cert given the certificate serial number and issuer without blocking the calling thread
+     *
+     * @param issuerName the cert issuer name - must be the same as the cert was issued from
+     * @param serialNumber the serial number in ASCII HEX format
+     * @param reason the revocation reason
+     * @return a future that completes when the certificate has been revoked, or with a CertdogException.
+     * Cancelling the future cancels the HTTP call in flight
+     */
+    public CompletableFuture<Void> revokeCertAsync(String issuerName, String serialNumber, RevocationReason reason)
+    {
+        return session.callAsync(token -> revokeCertAsync(token, issuerName, serialNumber, reason));
+    }
+
+    /**
+     * Revokes a cert given the certificate serial number and issuer without blocking the calling thread
+     *
+     * @param authToken the JWT authentication token, returned from loginExt
+     * @param issuerName the cert issuer name - must be the same as the cert was issued from
+     * @param serialNumber the serial number in ASCII HEX format
+     * @param reason the revocation reason
+     * @return a future that completes when the certificate has been revoked, or with a CertdogException.
+     * Cancelling the future cancels the HTTP call in flight
+     */
+    public CompletableFuture<Void> revokeCertAsync(String authToken, String issuerName, String serialNumber, RevocationReason reason)
+    {
+        AsyncCall<Void> call = new AsyncCall<>(instrumentation, resilience, hedging, rateLimiter, e ->
+                new CertdogException("Revocation of certificate with serial number " + serialNumber + " failed. " + e.getMessage(), e, GetStatusCode(e)));
+
+        RevokeCertRequest revokeReq = buildRevokeRequest(issuerName, serialNumber, reason);
+        call.send(CertdogEndpoints.REVOKE_CERT, issuerName, null, asyncInvoker(authToken, CertdogEndpoints.REVOKE_CERT), HttpMethod.POST,
+                Entity.entity(revokeReq, MediaType.APPLICATION_JSON), resp ->
+        {
+            resp.close();
+            call.complete(null);
+        });
+
+        return call;
+    }
+
+    /**
+     * Revokes many certificates
+     * Revocations are sent in parallel, with no more than the per issuer concurrency set in the options in
+     * flight at once against each issuer. Transient failures (timeouts, 502/503/504 etc.) are retried
+     *
+     * @param entries the certificates to revoke
+     * @param options the bulk revocation options
+     * @return a report with a result for each entry
+     * @throws CertdogException if interrupted while waiting for the revocations to complete
+     */
+    public RevocationReport revokeCerts(List<RevocationEntry> entries, BulkRevocationOptions options) throws CertdogException
+    {
+        return BulkRevocation.Run(entries, options,
+                e -> revokeCertAsync(e.getIssuerName(), e.getSerialNumber(), e.getReason()));
+    }
+
+    /**
+     * Revokes many certificates, providing the authentication token
+     * Revocations are sent in parallel, with no more than the per issuer concurrency set in the options in
+     * flight at once against each issuer. Transient failures (timeouts, 502/503/504 etc.) are retried
+     *
+     * @param authToken the JWT authentication token, returned from loginExt
+     * @param entries the certificates to revoke
+     * @param options the bulk revocation options
+     * @return a report with a result for each entry
+     * @throws CertdogException if interrupted while waiting for the revocations to complete
+     */
+    public RevocationReport revokeCerts(String authToken, List<RevocationEntry> entries, BulkRevocationOptions options) throws CertdogException
+    {
+        return BulkRevocation.Run(entries, options,
+                e -> revokeCertAsync(authToken, e.getIssuerName(), e.getSerialNumber(), e.getReason()));
+    }
+
+    private GetCertRequest buildCertRequest(String issuerName, String generatorName, String teamName,
+                                            String dn, String password, List<String> sans,
+                                            String extraInfo, List<String> extraEmails)
+    {
+        GetCertRequest certReq = new GetCertRequest();
+        certReq.setCaName(issuerName);
+        certReq.setCsrGeneratorName(generatorName);
+        certReq.setDn(dn);
+        certReq.setSubjectAltNames(sans != null ? sans.toArray(new String[]{}) : null);
+        certReq.setTeamName(teamName);
+        certReq.setExtraInfo(extraInfo);
+        certReq.setExtraEmails(extraEmails != null ? extraEmails.toArray(new String[]{}) : null);
+        certReq.setP12Password(password);
+
+        return certReq;
+    }
+
+    private GetCertFromCsrRequest buildCsrRequest(String issuerName, String teamName, String csrData,
+                                                  String extraInfo, List<String> extraEmails)
+    {
+        GetCertFromCsrRequest certReq = new GetCertFromCsrRequest();
+        certReq.setCaName(issuerName);
+        certReq.setCsr(csrData);
+        certReq.setTeamName(teamName);
+        certReq.setExtraInfo(extraInfo);
+        certReq.setExtraEmails(extraEmails != null ? extraEmails.toArray(new String[]{}) : null);
+
+        return certReq;
+    }
+
+    private RevokeCertRequest buildRevokeRequest(String issuerName, String serialNumber, RevocationReason reason)
+    {
+        RevokeCertRequest revokeReq = new RevokeCertRequest();
+        revokeReq.setCaName(issuerName);
+        revokeReq.setSerialNumber(serialNumber);
+        revokeReq.setReason(revokeReasons.get(reason.value));
+
+        return revokeReq;
+    }
+
+    /**
+     * Adds a certificate issued from a DN to the issuance index, if there is one
+     */
+    private void recordIssuance(GetCertResponse resp, String issuerName, String teamName, String password) throws CertdogException
+    {
+        if (issuanceIndex == null)
+            return;
+
+        X509Certificate cert = resp.getPemCert() != null
+                ? GetCertFromData(resp.getPemCert())
+                : KeyStoreConverter.GetCertificate(resp.getP12Data(), password, ResponseFormat.PKCS12);
+        recordIssuance(resp.getId(), cert, issuerName, teamName);
+    }
+
+    /**
+     * Adds a certificate read with the streaming parser to the issuance index, if there is one
+     *
+     * @param data the decoded PKCS12 data, used if certdog did not return the certificate on its own
+     */
+    private void recordIssuance(IssuedKeyStore issued, byte[] data, String issuerName, String teamName, String password) throws CertdogException
+    {
+        if (issuanceIndex == null)
+            return;
+
+        X509Certificate cert = issued.getCertificate() != null
+                ? issued.getCertificate()
+                : KeyStoreConverter.GetCertificate(data, password, ResponseFormat.PKCS12);
+        recordIssuance(issued.getId(), cert, issuerName, teamName);
+    }
+
+    /**
+     * Adds an issued certificate to the issuance index, if there is one
+     * If it cannot be recorded the call fails, although the certificate has been issued: the error gives its id
+     */
+    private void recordIssuance(String id, X509Certificate cert, String issuerName, String teamName) throws CertdogException
+    {
+        if (issuanceIndex != null)
+            issuanceIndex.record(id, cert, issuerName, teamName);
+    }
+
+    /**
+     * Converts the P12 data returned from a request to the required format without calling certdog again
+     *
+     * @return the converted data or null if local conversion is disabled or not possible
+     */
+    private String convertLocally(GetCertResponse resp, String password, ResponseFormat format)
+    {
+        if (!localFormatConversion || password == null || password.isEmpty() || resp.getP12Data() == null)
+            return null;
+
+        try
+        {
+            return KeyStoreConverter.Convert(resp.getP12Data(), password, format);
+        }
+        catch (CertdogException e)
+        {
+            // Fall back to fetching the data from certdog
+            return null;
+        }
+    }
+
+    /**
+     * Returns the path used to obtain an issued cert in the required format
+     */
+    private static String formatPath(ResponseFormat format, String certId)
+    {
+        return String.format(FormatEndpoint(format), certId);
+    }
+
+    /**
+     * Returns the endpoint used to obtain an issued cert in the required format
+     */
+    private static String FormatEndpoint(ResponseFormat format)
+    {
+        if (format == ResponseFormat.PEM)
+            return CertdogEndpoints.CERT_PEM_DATA;
+
+        return CertdogEndpoints.CERT_JKS_DATA;
+    }
+
+    /**
+     * Reads the result of a call from its response
+     */
+    private interface ResponseReader<T>
+    {
+        T read(Response resp) throws Exception;
+    }
+
+    /**
+     * Returns a reader that checks the status in the same way as the typed Jersey calls, then reads the entity
+     */
+    private static <T> ResponseReader<T> ReadAs(Class<T> type)
+    {
+        return resp ->
+        {
+            checkStatus(resp);
+            return resp.readEntity(type);
+        };
+    }
+
+    private static <T> ResponseReader<T> ReadAs(GenericType<T> type)
+    {
+        return resp ->
+        {
+            checkStatus(resp);
+            return resp.readEntity(type);
+        };
+    }
+
+    /**
+     * Reads a certs/request or certs/requestp10 response with the streaming parser
+     *
+     * @param sink where to write the PKCS12 data, or null to return it
+     * @param readData false to skip the PKCS12 data
+     */
+    private static IssuedKeyStore ReadCertResponse(Response resp, OutputStream sink, boolean readData) throws Exception
+    {
+        return ReadCertResponse(resp, sink, readData, false);
+    }
+
+    /**
+     * Reads a certs/request or certs/requestp10 response with the streaming parser
+     *
+     * @param sink where to write the PKCS12 data, or null to return it
+     * @param readData false to skip the PKCS12 data
+     * @param copyIfNoCert true to also return the data written to the sink if certdog returns no pemCert
+     */
+    private static IssuedKeyStore ReadCertResponse(Response resp, OutputStream sink, boolean readData, boolean copyIfNoCert) throws Exception
+    {
+        try (InputStream in = resp.readEntity(InputStream.class))
+        {
+            return CertResponseParser.Read(in, sink, readData, copyIfNoCert);
+        }
+    }
+
+    private static X509Certificate RequireCertificate(IssuedKeyStore issued) throws CertdogException
+    {
+        if (issued.getCertificate() == null)
+            throw new CertdogException("No certificate was returned for '" + issued.getId() + "'");
+
+        return issued.getCertificate();
+    }
+
+    /**
+     * Makes a blocking call to certdog. All synchronous calls go through here, so each is reported
+     * to the CertdogMetrics set in CertdogClientConfig and to Flight Recorder. If resilience is enabled
+     * the endpoint's circuit breaker is checked first and idempotent calls that fail with a transient
+     * error are retried. If hedging is enabled slow GETs are hedged, each attempt here covering both.
+     * Calls that reach the CA then take a permit from the rate limiter, if there is one
+     *
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @param issuerName the issuer the call is for, or null
+     * @param teamName the team the call is for, or null
+     * @param path the path to call
+     * @param authToken the JWT authentication token, or null to send no Authorization header
+     * @param method the HTTP method
+     * @param entity the request entity or null
+     * @param reader reads the result from the response
+     * @return the result
+     * @throws Exception if the call or the reader fails, CircuitOpenException if the breaker is open or
+     *                   RateLimitedException if no permit was available
+     */
+    private <T> T invoke(String endpoint, String issuerName, String teamName, String path, String authToken,
+                         String method, Entity<?> entity, ResponseReader<T> reader) throws Exception
+    {
+        Invocation.Builder request = target.path(path).request(MediaType.APPLICATION_JSON);
+        if (authToken != null)
+            request.header("Authorization", "Bearer " + authToken);
+
+        int maxAttempts = resilience != null ? resilience.maxAttempts(endpoint, method) : 1;
+        boolean hedged = hedging != null && entity == null && hedging.isHedged(endpoint, method);
+        boolean limited = rateLimiter != null && RateLimiter.IsLimited(endpoint);
+        long backoff = 0;
+        for (int attempt = 1; ; attempt++)
+        {
+            // The breaker is checked first so that a call it rejects takes no permit
+            CircuitBreaker breaker = resilience != null ? resilience.acquire(endpoint) : null;
+            if (limited)
+            {
+                try
+                {
+                    rateLimiter.acquire(issuerName);
+                }
+                catch (RateLimitedException | InterruptedException e)
+                {
+                    if (breaker != null)
+                        breaker.onResult(null);
+                    if (e instanceof InterruptedException)
+                        Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+
+            Instrumentation.Span span = instrumentation.start(endpoint, issuerName, teamName);
+            int status = 0;
+            long length = -1;
+            Boolean failed = null;
+            try
+            {
+                Response resp;
+                try
+                {
+                    if (hedged)
+                        resp = hedging.invoke(endpoint, request.async());
+                    else
+                        resp = entity == null ? request.method(method) : request.method(method, entity);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                catch (ProcessingException e)
+                {
+                    failed = Resilience.IsRetryable(e);
+                    if (!failed || attempt >= maxAttempts)
+                        throw e;
+                    resp = null;
+                }
+
+                if (resp != null)
+                {
+                    status = resp.getStatus();
+                    length = resp.getLength();
+                    failed = Resilience.IsFailure(status);
+                    if (!Resilience.IsRetryable(status) || attempt >= maxAttempts)
+                        return reader.read(resp);
+                    BufferError(resp);
+                }
+            }
+            finally
+            {
+                span.end(status, length);
+                if (breaker != null)
+                    breaker.onResult(failed);
+            }
+
+            backoff = resilience.backoff(backoff);
+            try
+            {
+                Thread.sleep(backoff);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+        }
+    }
+
+    private AsyncInvoker asyncInvoker(String authToken, String path)
+    {
+        return target
+                .path(path)
+                .request(MediaType.APPLICATION_JSON)
+                .header("Authorization", "Bearer " + authToken)
+                .async();
+    }
+
+    /**
+     * Returns the HTTP status behind a failure
+     *
+     * @param e the failure
+     * @return the HTTP status or 0 if the failure did not come from an HTTP response
+     */
+    static int GetStatusCode(Throwable e)
+    {
+        if (e instanceof CertdogException)
+            return ((CertdogException) e).getStatusCode();
+        if (e instanceof WebApplicationException)
+            return ((WebApplicationException) e).getResponse().getStatus();
+
+        return 0;
+    }
+
+    private static List<String> AsList(String[] values)
+    {
+        return values != null ? Arrays.asList(values) : null;
+    }
+
+    /**
+     * Returns the CertdogException behind the failure of a future
+     *
+     * @param error the failure
+     * @return the CertdogException
+     */
+    static CertdogException AsCertdogException(Throwable error)
+    {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null)
+            error = error.getCause();
+
+        if (error instanceof CertdogException)
+            return (CertdogException) error;
+        if (error instanceof CancellationException)
+            return new CertdogException("The request was cancelled", error);
+
+        return new CertdogException(error.getMessage(), error, GetStatusCode(error));
+    }
+
+    /**
+     * Throws if the response does not have a successful status, in the same way as the
+     * synchronous Jersey calls
+     *
+     * @param resp the response
+     */
+    static void checkStatus(Response resp)
+    {
+        if (resp.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL)
+        {
+            BufferError(resp);
+            throw new WebApplicationException(resp);
+        }
+    }
+
+    /**
+     * Reads the (small) body of an error response so the connection can be reused and the body is still
+     * available to the caller. Closing it unread can fail, which must not hide the status
+     *
+     * @param resp the response
+     */
+    static void BufferError(Response resp)
+    {
+        try
+        {
+            resp.bufferEntity();
+        }
+        catch (ProcessingException e)
+        {
+            try
+            {
+                resp.close();
+            }
+            catch (ProcessingException ignored)
+            {
+            }
+        }
+    }
+
+    /**
+     * Saves the data returned from RequestCert as a file - this converts the data to binary
+     * which is required for PFX files
+     * The data is decoded into a temporary file which is then renamed over the target, so a reader never
+     * sees a partly written file
+     *
+     * @param p12B64Data the base64 p12/pfx data
+     * @param filename the filename to save the data
+     * @throws CertdogException if there is an error saving
+     */
+    public static void SaveP12(String p12B64Data, String filename) throws CertdogException
+    {
+        SaveP12(p12B64Data, filename, SaveOptions.DEFAULT);
+    }
+
+    /**
+     * Saves the data returned from RequestCert as a file - this converts the data to binary
+     * which is required for PFX files
+     * The data is decoded into a temporary file which is then renamed over the target, so a reader never
+     * sees a partly written file
+     *
+     * @param p12B64Data the base64 p12/pfx data
+     * @param filename the filename to save the data
+     * @param options the save options, e.g. SaveOptions.builder().durability(SaveOptions.Durability.NONE).build()
+     *                to skip forcing the data to disk
+     * @throws CertdogException if there is an error saving
+     */
+    public static void SaveP12(String p12B64Data, String filename, SaveOptions options) throws CertdogException
+    {
+        try
+        {
+            AtomicFile.WriteBase64(Paths.get(filename), p12B64Data, options.getDurability());
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Unable to save p12/jks data to file: " + filename + " Error: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Saves the data returned from RequestCert as a file - this converts the data to binary
+     * which is required for JKS files
+     *
+     * @param jksB64Data the base64 encoded JKS data
+     * @param filename the filename to save the data
+     * @throws CertdogException if there is an error saving
+     */
+    public static void SaveJks(String jksB64Data, String filename) throws CertdogException
     {
         SaveP12(jksB64Data, filename);
     }
 
+    /**
+     * Saves the data returned from RequestCert as a file - this converts the data to binary
+     * which is required for JKS files
+     *
+     * @param jksB64Data the base64 encoded JKS data
+     * @param filename the filename to save the data
+     * @param options the save options
+     * @throws CertdogException if there is an error saving
+     */
+    public static void SaveJks(String jksB64Data, String filename, SaveOptions options) throws CertdogException
+    {
+        SaveP12(jksB64Data, filename, options);
+    }
+
+    /**
+     * Saves many P12 or JKS files at once, such as the results of requestCerts, as SaveP12 does
+     * No more files are written at once than the concurrency set in the options. A failure does not stop
+     * the other files being saved
+     *
+     * @param keyStores the base64 data as returned from RequestCert, by the filename to save it to
+     * @param options the save options
+     * @throws CertdogException if any file could not be saved. The message names them and the cause of each
+     * is a suppressed exception
+     */
+    public static void SaveKeyStores(Map<String, String> keyStores, SaveOptions options) throws CertdogException
+    {
+        if (keyStores.isEmpty())
+            return;
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(options.getConcurrency(), keyStores.size()), r ->
+        {
+            Thread t = new Thread(r, "certdog-save");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try
+        {
+            Map<String, Future<?>> saves = new LinkedHashMap<>();
+            for (Map.Entry<String, String> keyStore : keyStores.entrySet())
+            {
+                saves.put(keyStore.getKey(), pool.submit(() ->
+                {
+                    SaveP12(keyStore.getValue(), keyStore.getKey(), options);
+                    return null;
+                }));
+            }
+
+            List<String> failed = new ArrayList<>();
+            List<Throwable> causes = new ArrayList<>();
+            for (Map.Entry<String, Future<?>> save : saves.entrySet())
+            {
+                try
+                {
+                    save.getValue().get();
+                }
+                catch (ExecutionException e)
+                {
+                    failed.add(save.getKey());
+                    causes.add(e.getCause());
+                }
+            }
+
+            if (!failed.isEmpty())
+            {
+                CertdogException e = new CertdogException("Unable to save " + failed.size() + " of " + keyStores.size()
+                        + " files: " + String.join(", ", failed));
+                causes.forEach(e::addSuppressed);
+                throw e;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CertdogException("Interrupted while saving files", e);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
     /**
      * Saves the data returned from RequestCert as a file
      *
@@ -682,10 +2141,23 @@ public class CertdogClient
      * @throws CertdogException if there is an error saving
      */
     public static void SavePem(String pemData, String filename) throws CertdogException
+    {
+        SavePem(pemData, filename, SaveOptions.DEFAULT);
+    }
+
+    /**
+     * Saves the data returned from RequestCert as a file
+     *
+     * @param pemData the PEM data
+     * @param filename the filename to save the data
+     * @param options the save options
+     * @throws CertdogException if there is an error saving
+     */
+    public static void SavePem(String pemData, String filename, SaveOptions options) throws CertdogException
     {
         try
         {
-            Files.write(Paths.get(filename), pemData.getBytes(StandardCharsets.UTF_8));
+            AtomicFile.Write(Paths.get(filename), pemData.getBytes(StandardCharsets.UTF_8), options.getDurability());
         }
         catch (Exception e)
         {
@@ -704,14 +2176,10 @@ public class CertdogClient
     {
         try
         {
-            StringWriter sw = new StringWriter();
-                String nl = System.lineSeparator();
-                sw.write(CERT_HEADER + nl);
-                sw.write(DatatypeConverter.printBase64Binary(cert.getEncoded()).replaceAll("(.{64})", "$1" + nl));
-                sw.write(nl + CERT_FOOTER + nl);
-                String pemData = sw.toString();
+            StringBuilder pemData = new StringBuilder(2048);
+            Pem.Encode(Pem.CERTIFICATE, cert.getEncoded(), pemData, System.lineSeparator());
 
-            Files.write(Paths.get(filename), pemData.getBytes(StandardCharsets.UTF_8));
+            AtomicFile.Write(Paths.get(filename), pemData.toString().getBytes(StandardCharsets.UTF_8), SaveOptions.DEFAULT.getDurability());
         }
         catch (Exception e)
         {
@@ -719,6 +2187,51 @@ public class CertdogClient
         }
     }
 
+    /**
+     * Given PEM data containing one or more certificates returns the X509Certificate objects
+     *
+     * @param pemData the PEM data e.g. a certificate chain bundle
+     * @return the certificate objects, in the order they appear in the data
+     * @throws CertdogException if there is an encoding error
+     */
+    public static List<X509Certificate> GetCertsFromPem(String pemData) throws CertdogException
+    {
+        try
+        {
+            return Pem.DecodeCertificates(pemData);
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Unable to create certificates from the PEM data provided. " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Given a list of certificate data returns the X509Certificate objects
+     * An element may itself be a PEM bundle of several certificates
+     *
+     * @param certs The cert data
+     * @return The certificate objects
+     * @throws CertdogException if there is an encoding error
+     */
+    private static List<X509Certificate> GetCertsFromData(List<String> certs) throws CertdogException
+    {
+        List<X509Certificate> x509Certs = new ArrayList<>(certs.size());
+        for (String cert : certs)
+        {
+            try
+            {
+                x509Certs.addAll(Pem.DecodeCertificates(cert));
+            }
+            catch (Exception e)
+            {
+                throw new CertdogException("Unable to create a certificate from the certificate data provided. " + e.getMessage(), e);
+            }
+        }
+
+        return x509Certs;
+    }
+
     /**
      * Given the certificate data returns a X509Certificate object
      *
@@ -726,25 +2239,15 @@ public class CertdogClient
      * @return A certificate object
      * @throws CertdogException if there is an encoding error
      */
-    private static X509Certificate GetCertFromData(String certData) throws CertdogException
+    static X509Certificate GetCertFromData(String certData) throws CertdogException
     {
         try
         {
-            certData = certData.replace(CERT_HEADER, "");
-            certData = certData.replace(CERT_FOOTER, "");
-            certData = certData.replace("\r", "");
-            certData = certData.replace("\n", "");
-            certData = certData.replace(" ", "");
-            byte[] binaryCertData = Base64.getDecoder().decode(certData);
-            InputStream is = new ByteArrayInputStream(binaryCertData);
-            CertificateFactory cf = CertificateFactory.getInstance("X.509");
-            X509Certificate cert = (X509Certificate) cf.generateCertificate(is);
-
-            return cert;
+            return Pem.DecodeCertificate(certData);
         }
         catch (Exception e)
         {
-            throw new CertdogException("Unable to create a certificate from the certificate data provided. " + e.getMessage());
+            throw new CertdogException("Unable to create a certificate from the certificate data provided. " + e.getMessage(), e);
         }
     }
 }
@@ -0,0 +1,614 @@
+package com.krestfield.certdog.client;
+
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContexts;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CertdogClientConfig
+ *
+ * Settings for the HTTP transport used by CertdogClient. Create with CertdogClientConfig.builder(apiUrl)
+ *
+ * By default the JDK HttpURLConnection connector is used. Selecting the POOLED connector uses the
+ * Apache HttpClient connector with a connection pool, so connections (and their TLS sessions)
+ * are kept alive and reused across calls rather than re-established
+ */
+public class CertdogClientConfig
+{
+    /**
+     * The HTTP connector that carries the API calls
+     */
+    public enum Connector
+    {
+        // The JDK HttpURLConnection connector
+        DEFAULT,
+        // Apache HttpClient with a pool of keep-alive connections
+        POOLED
+    }
+
+    /**
+     * The threads that run the Async methods, and so the requests of a batch
+     */
+    public enum AsyncExecutor
+    {
+        // Jersey's pool of platform threads, sized with asyncThreadPoolSize
+        PLATFORM,
+        // A new virtual thread for each call. Requires Java 21 or later and the DEFAULT connector: the POOLED
+        // connector's pool releases connections while holding a monitor, which pins the carrier thread
+        VIRTUAL
+    }
+
+    private final String apiUrl;
+    private final Connector connector;
+    private final int maxConnections;
+    private final int maxConnectionsPerRoute;
+    private final long keepAliveMillis;
+    private final long idleEvictionMillis;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final int asyncThreadPoolSize;
+    private final AsyncExecutor asyncExecutor;
+    private final SSLContext sslContext;
+    private final HostnameVerifier hostnameVerifier;
+    private final long tokenRefreshSkewMillis;
+    private final long metadataCacheTtlMillis;
+    private final double metadataRefreshAheadFraction;
+    private final long metadataStaleWaitMillis;
+    private final long metadataMaxStaleMillis;
+    private final int issuerChainCacheSize;
+    private final long issuerChainMaxAgeMillis;
+    private final boolean localFormatConversion;
+    private final KeyPairPool keyPairPool;
+    private final CertdogMetrics metrics;
+    private final ResilienceOptions resilience;
+    private final HedgingOptions hedging;
+    private final RateLimitOptions rateLimit;
+    private final IssuanceIndex issuanceIndex;
+
+    private CertdogClientConfig(Builder builder)
+    {
+        this.apiUrl = builder.apiUrl;
+        this.connector = builder.connector;
+        this.maxConnections = builder.maxConnections;
+        this.maxConnectionsPerRoute = builder.maxConnectionsPerRoute;
+        this.keepAliveMillis = builder.keepAliveMillis;
+        this.idleEvictionMillis = builder.idleEvictionMillis;
+        this.connectTimeoutMillis = builder.connectTimeoutMillis;
+        this.readTimeoutMillis = builder.readTimeoutMillis;
+        this.asyncThreadPoolSize = builder.asyncThreadPoolSize;
+        this.asyncExecutor = builder.asyncExecutor;
+        this.sslContext = builder.sslContext;
+        this.hostnameVerifier = builder.hostnameVerifier;
+        this.tokenRefreshSkewMillis = builder.tokenRefreshSkewMillis;
+        this.metadataCacheTtlMillis = builder.metadataCacheTtlMillis;
+        this.metadataRefreshAheadFraction = builder.metadataRefreshAheadFraction;
+        this.metadataStaleWaitMillis = builder.metadataStaleWaitMillis;
+        this.metadataMaxStaleMillis = builder.metadataMaxStaleMillis >= 0
+                ? builder.metadataMaxStaleMillis
+                : builder.metadataCacheTtlMillis;
+        this.issuerChainCacheSize = builder.issuerChainCacheSize;
+        this.issuerChainMaxAgeMillis = builder.issuerChainMaxAgeMillis;
+        this.localFormatConversion = builder.localFormatConversion;
+        this.keyPairPool = builder.keyPairPool;
+        this.metrics = builder.metrics;
+        this.resilience = builder.resilience;
+        this.hedging = builder.hedging;
+        this.rateLimit = builder.rateLimit;
+        this.issuanceIndex = builder.issuanceIndex;
+    }
+
+    /**
+     * @param apiUrl the certdog API URL
+     * @return a builder with the default settings
+     */
+    public static Builder builder(String apiUrl)
+    {
+        return new Builder(apiUrl);
+    }
+
+    public String getApiUrl()
+    {
+        return apiUrl;
+    }
+
+    public Connector getConnector()
+    {
+        return connector;
+    }
+
+    public int getMaxConnections()
+    {
+        return maxConnections;
+    }
+
+    public int getMaxConnectionsPerRoute()
+    {
+        return maxConnectionsPerRoute;
+    }
+
+    public long getKeepAliveMillis()
+    {
+        return keepAliveMillis;
+    }
+
+    public long getIdleEvictionMillis()
+    {
+        return idleEvictionMillis;
+    }
+
+    public int getConnectTimeoutMillis()
+    {
+        return connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis()
+    {
+        return readTimeoutMillis;
+    }
+
+    public int getAsyncThreadPoolSize()
+    {
+        return asyncThreadPoolSize;
+    }
+
+    public AsyncExecutor getAsyncExecutor()
+    {
+        return asyncExecutor;
+    }
+
+    public SSLContext getSslContext()
+    {
+        return sslContext;
+    }
+
+    public HostnameVerifier getHostnameVerifier()
+    {
+        return hostnameVerifier;
+    }
+
+    public long getTokenRefreshSkewMillis()
+    {
+        return tokenRefreshSkewMillis;
+    }
+
+    public long getMetadataCacheTtlMillis()
+    {
+        return metadataCacheTtlMillis;
+    }
+
+    public double getMetadataRefreshAheadFraction()
+    {
+        return metadataRefreshAheadFraction;
+    }
+
+    public long getMetadataStaleWaitMillis()
+    {
+        return metadataStaleWaitMillis;
+    }
+
+    public long getMetadataMaxStaleMillis()
+    {
+        return metadataMaxStaleMillis;
+    }
+
+    public int getIssuerChainCacheSize()
+    {
+        return issuerChainCacheSize;
+    }
+
+    public long getIssuerChainMaxAgeMillis()
+    {
+        return issuerChainMaxAgeMillis;
+    }
+
+    public boolean isLocalFormatConversion()
+    {
+        return localFormatConversion;
+    }
+
+    public KeyPairPool getKeyPairPool()
+    {
+        return keyPairPool;
+    }
+
+    public CertdogMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    public ResilienceOptions getResilience()
+    {
+        return resilience;
+    }
+
+    public HedgingOptions getHedging()
+    {
+        return hedging;
+    }
+
+    public RateLimitOptions getRateLimit()
+    {
+        return rateLimit;
+    }
+
+    public IssuanceIndex getIssuanceIndex()
+    {
+        return issuanceIndex;
+    }
+
+    /**
+     * Creates the Jersey client for these settings
+     *
+     * @return the client and, for the POOLED connector, its connection pool
+     */
+    Transport createTransport()
+    {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.property(ClientProperties.CONNECT_TIMEOUT, connectTimeoutMillis);
+        clientConfig.property(ClientProperties.READ_TIMEOUT, readTimeoutMillis);
+        if (asyncThreadPoolSize > 0)
+            clientConfig.property(ClientProperties.ASYNC_THREADPOOL_SIZE, asyncThreadPoolSize);
+        clientConfig.register(new JsonMapperResolver());
+        if (asyncExecutor == AsyncExecutor.VIRTUAL)
+            clientConfig.register(new VirtualThreadExecutorProvider());
+
+        PoolingHttpClientConnectionManager pool = null;
+        if (connector == Connector.POOLED)
+        {
+            pool = createPool();
+            clientConfig.connectorProvider(new ApacheConnectorProvider());
+            clientConfig.property(ApacheClientProperties.CONNECTION_MANAGER, pool);
+            clientConfig.register(new DrainingReaderInterceptor());
+        }
+
+        ClientBuilder clientBuilder = ClientBuilder.newBuilder().withConfig(clientConfig);
+        if (sslContext != null)
+            clientBuilder.sslContext(sslContext);
+        if (hostnameVerifier != null)
+            clientBuilder.hostnameVerifier(hostnameVerifier);
+
+        return new Transport(clientBuilder.build(), pool, idleEvictionMillis);
+    }
+
+    private PoolingHttpClientConnectionManager createPool()
+    {
+        SSLConnectionSocketFactory sslSocketFactory = SSLConnectionSocketFactory.getSocketFactory();
+        if (sslContext != null || hostnameVerifier != null)
+        {
+            sslSocketFactory = new SSLConnectionSocketFactory(
+                    sslContext != null ? sslContext : SSLContexts.createDefault(),
+                    hostnameVerifier != null ? hostnameVerifier : SSLConnectionSocketFactory.getDefaultHostnameVerifier());
+        }
+
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", sslSocketFactory)
+                .build();
+
+        // Connections older than the keep-alive time are closed rather than reused
+        PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager(registry, null, null, null,
+                keepAliveMillis > 0 ? keepAliveMillis : -1, TimeUnit.MILLISECONDS);
+        pool.setMaxTotal(maxConnections);
+        pool.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        return pool;
+    }
+
+    /**
+     * Builder for CertdogClientConfig
+     */
+    public static class Builder
+    {
+        private final String apiUrl;
+        private Connector connector = Connector.DEFAULT;
+        private int maxConnections = 50;
+        private int maxConnectionsPerRoute = 20;
+        private long keepAliveMillis = 0;
+        private long idleEvictionMillis = 30000;
+        private int connectTimeoutMillis = 0;
+        private int readTimeoutMillis = 0;
+        private int asyncThreadPoolSize = 0;
+        private AsyncExecutor asyncExecutor = AsyncExecutor.PLATFORM;
+        private SSLContext sslContext = null;
+        private HostnameVerifier hostnameVerifier = null;
+        private long tokenRefreshSkewMillis = 60000;
+        private long metadataCacheTtlMillis = 0;
+        private double metadataRefreshAheadFraction = 0.8;
+        private long metadataStaleWaitMillis = 1000;
+        private long metadataMaxStaleMillis = -1;
+        private int issuerChainCacheSize = 0;
+        private long issuerChainMaxAgeMillis = 0;
+        private boolean localFormatConversion = true;
+        private KeyPairPool keyPairPool = null;
+        private CertdogMetrics metrics = CertdogMetrics.NONE;
+        private ResilienceOptions resilience = null;
+        private HedgingOptions hedging = null;
+        private RateLimitOptions rateLimit = null;
+        private IssuanceIndex issuanceIndex = null;
+
+        private Builder(String apiUrl)
+        {
+            this.apiUrl = apiUrl;
+        }
+
+        /**
+         * @param connector the HTTP connector. Default is DEFAULT (HttpURLConnection)
+         * @return this builder
+         */
+        public Builder connector(Connector connector)
+        {
+            this.connector = connector;
+            return this;
+        }
+
+        /**
+         * Uses the POOLED connector with the pool size given
+         *
+         * @param maxConnections the maximum connections in the pool
+         * @param maxConnectionsPerRoute the maximum connections to a single host
+         * @return this builder
+         */
+        public Builder pooled(int maxConnections, int maxConnectionsPerRoute)
+        {
+            this.connector = Connector.POOLED;
+            this.maxConnections = maxConnections;
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        /**
+         * @param keepAliveMillis the maximum time a pooled connection is reused for. 0 for no limit
+         * @return this builder
+         */
+        public Builder keepAlive(long keepAliveMillis)
+        {
+            this.keepAliveMillis = keepAliveMillis;
+            return this;
+        }
+
+        /**
+         * @param idleEvictionMillis pooled connections idle for longer than this are closed. 0 to never evict
+         * @return this builder
+         */
+        public Builder idleEviction(long idleEvictionMillis)
+        {
+            this.idleEvictionMillis = idleEvictionMillis;
+            return this;
+        }
+
+        /**
+         * @param connectTimeoutMillis the connect timeout. 0 for no timeout
+         * @return this builder
+         */
+        public Builder connectTimeout(int connectTimeoutMillis)
+        {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param readTimeoutMillis the read timeout. 0 for no timeout
+         * @return this builder
+         */
+        public Builder readTimeout(int readTimeoutMillis)
+        {
+            this.readTimeoutMillis = readTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param asyncThreadPoolSize the number of threads servicing the Async methods. 0 for the Jersey default
+         * @return this builder
+         */
+        public Builder asyncThreadPoolSize(int asyncThreadPoolSize)
+        {
+            this.asyncThreadPoolSize = asyncThreadPoolSize;
+            return this;
+        }
+
+        /**
+         * @param asyncExecutor the threads that run the Async methods and batches. VIRTUAL runs each call on
+         *                      its own virtual thread, and needs Java 21 or later and the DEFAULT connector,
+         *                      as the POOLED connector pins carrier threads. Default is PLATFORM
+         * @return this builder
+         */
+        public Builder asyncExecutor(AsyncExecutor asyncExecutor)
+        {
+            this.asyncExecutor = asyncExecutor;
+            return this;
+        }
+
+        /**
+         * @param sslContext the SSL context to use for https, e.g. one trusting a private CA
+         * @return this builder
+         */
+        public Builder sslContext(SSLContext sslContext)
+        {
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        /**
+         * @param hostnameVerifier the hostname verifier to use for https
+         * @return this builder
+         */
+        public Builder hostnameVerifier(HostnameVerifier hostnameVerifier)
+        {
+            this.hostnameVerifier = hostnameVerifier;
+            return this;
+        }
+
+        /**
+         * @param tokenRefreshSkewMillis how long before the login token expires that it is refreshed
+         * @return this builder
+         */
+        public Builder tokenRefreshSkew(long tokenRefreshSkewMillis)
+        {
+            this.tokenRefreshSkewMillis = tokenRefreshSkewMillis;
+            return this;
+        }
+
+        /**
+         * Caches the results of getTeams(), getIssuers() and getGenerators() for the logged in session
+         *
+         * @param ttlMillis how long the results are fresh for. 0 (the default) disables the cache
+         * @return this builder
+         */
+        public Builder metadataCache(long ttlMillis)
+        {
+            this.metadataCacheTtlMillis = ttlMillis;
+            return this;
+        }
+
+        /**
+         * @param fraction the fraction of the metadata cache TTL after which results are reloaded in the
+         *                 background while the cached results continue to be returned. Default 0.8
+         * @return this builder
+         */
+        public Builder metadataRefreshAhead(double fraction)
+        {
+            this.metadataRefreshAheadFraction = fraction;
+            return this;
+        }
+
+        /**
+         * @param staleWaitMillis how long a caller waits for expired metadata to be reloaded before the
+         *                        expired results are returned. Default 1000
+         * @param maxStaleMillis how long past the TTL the expired results may be returned. Defaults to the TTL
+         * @return this builder
+         */
+        public Builder metadataStaleWhileRevalidate(long staleWaitMillis, long maxStaleMillis)
+        {
+            this.metadataStaleWaitMillis = staleWaitMillis;
+            this.metadataMaxStaleMillis = maxStaleMillis;
+            return this;
+        }
+
+        /**
+         * Caches the parsed results of getIssuerChain() for the logged in session. A chain is held until
+         * the earliest notAfter of its certificates, or the maximum age if that is sooner
+         *
+         * @param maxIssuers the maximum number of issuers held. 0 (the default) disables the cache
+         * @param maxAgeMillis the maximum time a chain is held. 0 to hold until the chain expires
+         * @return this builder
+         */
+        public Builder issuerChainCache(int maxIssuers, long maxAgeMillis)
+        {
+            this.issuerChainCacheSize = maxIssuers;
+            this.issuerChainMaxAgeMillis = maxAgeMillis;
+            return this;
+        }
+
+        /**
+         * When a certificate is requested as PEM or JKS and a password is given, the PKCS12 data returned
+         * from the request is converted locally rather than fetching the required format from certdog.
+         * If the conversion fails the data is fetched from certdog
+         *
+         * @param localFormatConversion true (the default) to convert locally, false to always fetch from certdog
+         * @return this builder
+         */
+        public Builder localFormatConversion(boolean localFormatConversion)
+        {
+            this.localFormatConversion = localFormatConversion;
+            return this;
+        }
+
+        /**
+         * @param keyPairPool the pool that supplies keys to requestCertWithLocalKey. If not set, keys are
+         *                    generated when requested. The pool is not closed when the client is closed
+         * @return this builder
+         */
+        public Builder keyPairPool(KeyPairPool keyPairPool)
+        {
+            this.keyPairPool = keyPairPool;
+            return this;
+        }
+
+        /**
+         * @param metrics receives the timing and status of every call to certdog, e.g. a MicrometerMetrics.
+         *                Default is CertdogMetrics.NONE
+         * @return this builder
+         */
+        public Builder metrics(CertdogMetrics metrics)
+        {
+            this.metrics = metrics != null ? metrics : CertdogMetrics.NONE;
+            return this;
+        }
+
+        /**
+         * @param resilience the retry and circuit breaker options, e.g. ResilienceOptions.builder().build().
+         *                   Default is null: calls are made once with no circuit breaker
+         * @return this builder
+         */
+        public Builder resilience(ResilienceOptions resilience)
+        {
+            this.resilience = resilience;
+            return this;
+        }
+
+        /**
+         * @param hedging the request hedging options, e.g. HedgingOptions.builder().build().
+         *                Default is null: calls are never hedged
+         * @return this builder
+         */
+        public Builder hedging(HedgingOptions hedging)
+        {
+            this.hedging = hedging;
+            return this;
+        }
+
+        /**
+         * @param rateLimit the per issuer and global rate limits, e.g. RateLimitOptions.builder().perIssuer(5, 10).build().
+         *                  Default is null: calls are not limited
+         * @return this builder
+         */
+        public Builder rateLimit(RateLimitOptions rateLimit)
+        {
+            this.rateLimit = rateLimit;
+            return this;
+        }
+
+        /**
+         * @param issuanceIndex an index to record every certificate issued through the client in. The index
+         *                      is not closed with the client. Default is null: nothing is recorded
+         * @return this builder
+         */
+        public Builder issuanceIndex(IssuanceIndex issuanceIndex)
+        {
+            this.issuanceIndex = issuanceIndex;
+            return this;
+        }
+
+        public CertdogClientConfig build()
+        {
+            if (apiUrl == null)
+                throw new IllegalArgumentException("The API URL must be provided");
+            if (maxConnections < 1 || maxConnectionsPerRoute < 1)
+                throw new IllegalArgumentException("The pool size must be at least 1");
+            if (metadataRefreshAheadFraction <= 0 || metadataRefreshAheadFraction > 1)
+                throw new IllegalArgumentException("The metadata refresh ahead fraction must be greater than 0 and no more than 1");
+            if (asyncExecutor == null)
+                throw new IllegalArgumentException("The async executor must be provided");
+            if (asyncExecutor == AsyncExecutor.VIRTUAL && !VirtualThreads.IsSupported())
+                throw new IllegalArgumentException("Virtual threads require Java 21 or later");
+            if (asyncExecutor == AsyncExecutor.VIRTUAL && connector == Connector.POOLED)
+                throw new IllegalArgumentException("Virtual threads cannot be used with the POOLED connector, which pins carrier threads");
+
+            return new CertdogClientConfig(this);
+        }
+    }
+}
@@ -1,14 +1,131 @@
 package com.krestfield.certdog.client;
 
+import javax.net.ssl.SSLHandshakeException;
+import java.io.IOException;
+
 public class CertdogException extends Exception
 {
+    // The HTTP status returned by certdog, or 0 if the failure did not come from an HTTP response
+    private final int statusCode;
+
     public CertdogException(String message)
     {
-        super(message);
+        this(message, 0);
     }
 
     public CertdogException(String message, Throwable cause)
+    {
+        this(message, cause, 0);
+    }
+
+    public CertdogException(String message, int statusCode)
+    {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public CertdogException(String message, Throwable cause, int statusCode)
     {
         super(message, cause);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @return the HTTP status returned by certdog, or 0 if not known
+     */
+    public int getStatusCode()
+    {
+        return statusCode;
+    }
+
+    /**
+     * The broad class of a failure, from the HTTP status or, if there was no response, the exception behind it
+     */
+    public enum Kind
+    {
+        // Timeouts, throttling, gateway/unavailable responses and I/O errors. The same call may succeed if repeated
+        TRANSIENT,
+        // 401/403: the login or token was rejected, or the user does not have permission
+        AUTHENTICATION,
+        // Any other 4xx: the request was invalid and will fail again if repeated
+        REJECTED,
+        // Any other 5xx
+        SERVER,
+        // The call was not sent because the circuit breaker for the endpoint is open
+        CIRCUIT_OPEN,
+        // The call was not sent because the client side rate limit for the issuer, or the global limit, was reached
+        RATE_LIMITED,
+        // Anything else, e.g. a response that could not be read or a local error
+        OTHER
+    }
+
+    /**
+     * @return the class of this failure
+     */
+    public Kind getKind()
+    {
+        if (statusCode != 0)
+            return KindOf(statusCode);
+
+        return KindOfCause(getCause());
+    }
+
+    /**
+     * @param cause the exception behind a failure that has no HTTP status
+     * @return the class of the failure
+     */
+    static Kind KindOfCause(Throwable cause)
+    {
+        for (Throwable t = cause; t != null; t = t.getCause())
+        {
+            if (t instanceof CircuitOpenException)
+                return Kind.CIRCUIT_OPEN;
+            if (t instanceof RateLimitedException)
+                return Kind.RATE_LIMITED;
+            // A handshake failure (e.g. an untrusted certificate) will not fix itself
+            if (t instanceof SSLHandshakeException)
+                return Kind.OTHER;
+            if (t instanceof IOException)
+                return Kind.TRANSIENT;
+        }
+
+        return Kind.OTHER;
+    }
+
+    /**
+     * Returns whether the failure is likely to be temporary, so the same call may succeed if repeated:
+     * request timeouts, throttling, gateway/unavailable responses and I/O errors such as connection failures
+     *
+     * @return true if the failure is transient
+     */
+    public boolean isTransient()
+    {
+        return getKind() == Kind.TRANSIENT;
+    }
+
+    /**
+     * @param statusCode an HTTP status other than 0
+     * @return the class of a failure with that status
+     */
+    static Kind KindOf(int statusCode)
+    {
+        switch (statusCode)
+        {
+            case 408:
+            case 429:
+            case 502:
+            case 503:
+            case 504:
+                return Kind.TRANSIENT;
+            case 401:
+            case 403:
+                return Kind.AUTHENTICATION;
+            default:
+                if (statusCode >= 500)
+                    return Kind.SERVER;
+                if (statusCode >= 400)
+                    return Kind.REJECTED;
+                return Kind.OTHER;
+        }
     }
 }
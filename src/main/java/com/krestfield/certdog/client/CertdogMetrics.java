@@ -0,0 +1,47 @@
+package com.krestfield.certdog.client;
+
+/**
+ * Receives the timing and outcome of every HTTP call CertdogClient makes to certdog. Set with
+ * CertdogClientConfig.Builder.metrics(). MicrometerMetrics is provided to publish to a Micrometer
+ * MeterRegistry
+ *
+ * The endpoint passed is one of the CertdogEndpoints constants, with any placeholder left in (e.g.
+ * certs/%s/pem), so it can be used as a tag. Methods are called from the thread making or completing
+ * the call, so implementations must be thread safe and should return quickly
+ */
+public interface CertdogMetrics
+{
+    /**
+     * Records nothing. This is the default, and adds no timing calls to the request path
+     */
+    CertdogMetrics NONE = new CertdogMetrics()
+    {
+        @Override
+        public void requestStarted(String endpoint, String issuerName)
+        {
+        }
+
+        @Override
+        public void requestCompleted(String endpoint, String issuerName, int status, long durationNanos)
+        {
+        }
+    };
+
+    /**
+     * Called before a request is sent
+     *
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @param issuerName the issuer the request is for, or null if it is not for an issuer
+     */
+    void requestStarted(String endpoint, String issuerName);
+
+    /**
+     * Called once for every requestStarted, when the response has been read or the request has failed
+     *
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @param issuerName the issuer the request is for, or null if it is not for an issuer
+     * @param status the HTTP status, or 0 if no response was received (e.g. a timeout or cancellation)
+     * @param durationNanos the time from sending the request to reading the response
+     */
+    void requestCompleted(String endpoint, String issuerName, int status, long durationNanos);
+}
@@ -0,0 +1,465 @@
+package com.krestfield.certdog.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * CertdogSession
+ *
+ * Holds the authentication token for a CertdogClient that has been logged in with login() so that the
+ * client can be shared across threads
+ *
+ * The token is read without locking. When it needs to be replaced - because it is close to its expiry
+ * (from the JWT exp claim) or because certdog returned a 401 - a single login is made and all other
+ * threads needing a new token wait for that login rather than each making their own. While a token is
+ * being refreshed ahead of its expiry, other threads continue to use the current token
+ *
+ * Async calls never wait for a login on the thread that completes them. Their logins run on a thread of
+ * the session's own, and the call that needs the new token carries on once the login has completed
+ */
+class CertdogSession
+{
+    /**
+     * Performs the remote login, returning the JWT
+     */
+    interface LoginCall
+    {
+        String login(String username, String password) throws CertdogException;
+    }
+
+    /**
+     * A call made with the session token
+     */
+    interface TokenCall<T>
+    {
+        T call(String authToken) throws CertdogException;
+    }
+
+    /**
+     * An async call made with the session token
+     */
+    interface AsyncTokenCall<T>
+    {
+        CompletableFuture<T> call(String authToken);
+    }
+
+    /**
+     * The token together with the credentials that obtained it
+     */
+    private static class Token
+    {
+        final String value;
+        final long expiresAtMillis;
+        final String username;
+        final String password;
+
+        Token(String value, long expiresAtMillis, String username, String password)
+        {
+            this.value = value;
+            this.expiresAtMillis = expiresAtMillis;
+            this.username = username;
+            this.password = password;
+        }
+    }
+
+    private static final int UNAUTHORIZED = 401;
+
+    private final LoginCall loginCall;
+    private final long refreshSkewMillis;
+    private final AtomicReference<Token> token = new AtomicReference<>();
+    private final AtomicReference<CompletableFuture<Token>> pendingLogin = new AtomicReference<>();
+    private ExecutorService loginExecutor = null;
+
+    /**
+     * @param loginCall performs the login
+     * @param refreshSkewMillis how long before the token expires that it is refreshed
+     */
+    CertdogSession(LoginCall loginCall, long refreshSkewMillis)
+    {
+        this.loginCall = loginCall;
+        this.refreshSkewMillis = refreshSkewMillis;
+    }
+
+    /**
+     * Logs in with the credentials given, replacing any current token once the login succeeds
+     * The credentials are retained to refresh the token
+     *
+     * @param username the certdog username
+     * @param password the certdog password
+     * @throws CertdogException if login fails
+     */
+    void login(String username, String password) throws CertdogException
+    {
+        String jwt = loginCall.login(username, password);
+        token.set(new Token(jwt, GetExpiry(jwt), username, password));
+    }
+
+    /**
+     * Clears the token
+     *
+     * @return the token that was held, or null if not logged in
+     */
+    String logout()
+    {
+        Token t = token.getAndSet(null);
+        return t != null ? t.value : null;
+    }
+
+    boolean isLoggedIn()
+    {
+        return token.get() != null;
+    }
+
+    /**
+     * Makes a call with the current token, logging in again and retrying once if certdog
+     * rejects the token
+     *
+     * @param call the call to make
+     * @return the result of the call
+     * @throws CertdogException if not logged in or the call fails
+     */
+    <T> T call(TokenCall<T> call) throws CertdogException
+    {
+        Token t = currentToken();
+        try
+        {
+            return call.call(t.value);
+        }
+        catch (CertdogException e)
+        {
+            if (e.getStatusCode() != UNAUTHORIZED)
+                throw e;
+
+            return call.call(refresh(t).value);
+        }
+    }
+
+    /**
+     * Makes an async call with the current token, logging in again and retrying once if certdog
+     * rejects the token
+     *
+     * @param call the call to make
+     * @return a future that completes with the result of the call
+     */
+    <T> CompletableFuture<T> callAsync(AsyncTokenCall<T> call)
+    {
+        AsyncCall<T> result = new AsyncCall<>(e -> e instanceof CertdogException
+                ? (CertdogException) e
+                : new CertdogException(e.getMessage(), e));
+
+        currentTokenAsync().whenComplete((t, loginError) ->
+        {
+            if (loginError != null)
+                result.fail(unwrap(loginError));
+            else
+                callAsync(call, t, true, result);
+        });
+
+        return result;
+    }
+
+    /**
+     * Makes an async call with a token, completing result with its outcome
+     *
+     * @param retryIfRejected true to log in again and retry once if certdog rejects the token
+     */
+    private <T> void callAsync(AsyncTokenCall<T> call, Token t, boolean retryIfRejected, AsyncCall<T> result)
+    {
+        if (result.isDone())
+            return;
+
+        CompletableFuture<T> f = call.call(t.value);
+        result.track(f);
+        f.whenComplete((value, error) ->
+        {
+            if (error == null)
+            {
+                result.complete(value);
+                return;
+            }
+
+            Exception cause = unwrap(error);
+            if (!retryIfRejected || !(cause instanceof CertdogException)
+                    || ((CertdogException) cause).getStatusCode() != UNAUTHORIZED)
+            {
+                result.fail(cause);
+                return;
+            }
+
+            refreshAsync(t).whenComplete((fresh, loginError) ->
+            {
+                if (loginError != null)
+                    result.fail(unwrap(loginError));
+                else
+                    callAsync(call, fresh, false, result);
+            });
+        });
+    }
+
+    /**
+     * Returns the token to use, refreshing it if it has expired or is about to
+     */
+    private Token currentToken() throws CertdogException
+    {
+        Token t = token.get();
+        if (t == null)
+            throw new CertdogException("Not logged in. Call login");
+
+        long now = System.currentTimeMillis();
+        if (now < t.expiresAtMillis - refreshSkewMillis)
+            return t;
+
+        if (now < t.expiresAtMillis)
+        {
+            // Still valid. Refresh on this thread if no other thread is, otherwise carry on with the current token
+            if (pendingLogin.get() != null)
+                return t;
+
+            try
+            {
+                return refresh(t);
+            }
+            catch (CertdogException e)
+            {
+                return t;
+            }
+        }
+
+        return refresh(t);
+    }
+
+    /**
+     * Returns the token to use without waiting for a login on this thread. If it has expired the future
+     * completes once a new token has been obtained. If it is about to expire it is refreshed in the
+     * background and the current token is used meanwhile
+     */
+    private CompletableFuture<Token> currentTokenAsync()
+    {
+        Token t = token.get();
+        if (t == null)
+            return Failed(new CertdogException("Not logged in. Call login"));
+
+        long now = System.currentTimeMillis();
+        if (now < t.expiresAtMillis - refreshSkewMillis)
+            return CompletableFuture.completedFuture(t);
+
+        if (now < t.expiresAtMillis)
+        {
+            if (pendingLogin.get() == null)
+                refreshAsync(t);
+
+            return CompletableFuture.completedFuture(t);
+        }
+
+        return refreshAsync(t);
+    }
+
+    /**
+     * Replaces a token that is stale, logging in on this thread. If another thread is already logging in,
+     * waits for that login
+     *
+     * @param stale the token that is to be replaced
+     * @return the new token
+     * @throws CertdogException if the login fails or the session was logged out
+     */
+    private Token refresh(Token stale) throws CertdogException
+    {
+        return await(startRefresh(stale, false));
+    }
+
+    /**
+     * Replaces a token that is stale, logging in on the session's login thread. If a login is already in
+     * progress, returns it
+     *
+     * @param stale the token that is to be replaced
+     * @return a future that completes with the new token, or fails if the login fails or the session was
+     * logged out
+     */
+    private CompletableFuture<Token> refreshAsync(Token stale)
+    {
+        return startRefresh(stale, true).thenCompose(fresh -> fresh != null
+                ? CompletableFuture.completedFuture(fresh)
+                : Failed(new CertdogException("Not logged in. Call login")));
+    }
+
+    /**
+     * Starts a single-flight login to replace a stale token, unless one is in progress
+     *
+     * @param stale the token that is to be replaced
+     * @param async true to log in on the session's login thread, false to log in on this thread
+     * @return the login. It completes with null if the session was logged out
+     */
+    private CompletableFuture<Token> startRefresh(Token stale, boolean async)
+    {
+        while (true)
+        {
+            Token current = token.get();
+
+            // Logged out, or another thread has already replaced it
+            if (current != stale)
+                return CompletableFuture.completedFuture(current);
+
+            CompletableFuture<Token> pending = pendingLogin.get();
+            if (pending != null)
+                return pending;
+
+            CompletableFuture<Token> mine = new CompletableFuture<>();
+            if (!pendingLogin.compareAndSet(null, mine))
+                continue;
+
+            if (!async)
+            {
+                login(stale, mine);
+                return mine;
+            }
+
+            try
+            {
+                loginExecutor().execute(() -> login(stale, mine));
+            }
+            catch (RejectedExecutionException e)
+            {
+                pendingLogin.compareAndSet(mine, null);
+                mine.completeExceptionally(new CertdogException("The client has been closed", e));
+            }
+
+            return mine;
+        }
+    }
+
+    /**
+     * Logs in again with the credentials of a stale token, completing the pending login
+     */
+    private void login(Token stale, CompletableFuture<Token> mine)
+    {
+        try
+        {
+            // Re-check now we hold the login, in case it was replaced while we were acquiring it
+            Token current = token.get();
+            if (current != stale)
+            {
+                mine.complete(current);
+                return;
+            }
+
+            String jwt = loginCall.login(stale.username, stale.password);
+            Token fresh = new Token(jwt, GetExpiry(jwt), stale.username, stale.password);
+
+            // Do not resurrect a session that was logged out (or logged in as another user) meanwhile
+            if (!token.compareAndSet(stale, fresh))
+                fresh = token.get();
+
+            mine.complete(fresh);
+        }
+        catch (Exception e)
+        {
+            mine.completeExceptionally(e);
+        }
+        finally
+        {
+            pendingLogin.compareAndSet(mine, null);
+        }
+    }
+
+    private synchronized ExecutorService loginExecutor()
+    {
+        if (loginExecutor == null)
+        {
+            loginExecutor = Executors.newSingleThreadExecutor(r ->
+            {
+                Thread t = new Thread(r, "certdog-login");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        return loginExecutor;
+    }
+
+    /**
+     * Stops the login thread, if one was started
+     */
+    synchronized void close()
+    {
+        if (loginExecutor != null)
+            loginExecutor.shutdownNow();
+    }
+
+    private static <T> CompletableFuture<T> Failed(Exception e)
+    {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        f.completeExceptionally(e);
+
+        return f;
+    }
+
+    private static Token await(CompletableFuture<Token> pending) throws CertdogException
+    {
+        try
+        {
+            Token t = pending.get();
+            if (t == null)
+                throw new CertdogException("Not logged in. Call login");
+
+            return t;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CertdogException("Interrupted waiting for login", e);
+        }
+        catch (ExecutionException e)
+        {
+            Exception cause = unwrap(e);
+            if (cause instanceof CertdogException)
+                throw (CertdogException) cause;
+
+            throw new CertdogException("Login to the certdog API failed. " + cause.getMessage(), cause);
+        }
+    }
+
+    private static Exception unwrap(Throwable t)
+    {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null)
+            t = t.getCause();
+
+        return t instanceof Exception ? (Exception) t : new Exception(t);
+    }
+
+    /**
+     * Returns the expiry time of a JWT from its exp claim
+     *
+     * @param jwt the token
+     * @return the expiry in milliseconds since the epoch, or Long.MAX_VALUE if the token has no exp claim
+     */
+    static long GetExpiry(String jwt)
+    {
+        try
+        {
+            String[] parts = jwt.split("\\.");
+            if (parts.length < 2)
+                return Long.MAX_VALUE;
+
+            byte[] payload = Base64.getUrlDecoder().decode(parts[1]);
+            JsonNode exp = JsonMapperResolver.MAPPER.readTree(new String(payload, StandardCharsets.UTF_8)).get("exp");
+            if (exp == null || !exp.canConvertToLong())
+                return Long.MAX_VALUE;
+
+            return exp.asLong() * 1000;
+        }
+        catch (Exception e)
+        {
+            // Not a JWT we can read. Rely on a 401 to trigger a refresh
+            return Long.MAX_VALUE;
+        }
+    }
+}
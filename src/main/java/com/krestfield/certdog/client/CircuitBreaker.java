@@ -0,0 +1,119 @@
+package com.krestfield.certdog.client;
+
+/**
+ * A count-based circuit breaker for one endpoint. See ResilienceOptions for the behaviour
+ *
+ * Every call that tryAcquire allows must be followed by exactly one call to onResult
+ */
+class CircuitBreaker
+{
+    enum State
+    {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final ResilienceOptions options;
+
+    // The outcomes of the last windowSize calls while closed, true for a failure
+    private final boolean[] window;
+    private int next = 0;
+    private int calls = 0;
+    private int failures = 0;
+
+    private State state = State.CLOSED;
+    private long openedAt = 0;
+    private int trialsStarted = 0;
+    private int trialsSucceeded = 0;
+
+    CircuitBreaker(ResilienceOptions options)
+    {
+        this.options = options;
+        this.window = new boolean[options.getWindowSize()];
+    }
+
+    /**
+     * @return true if a call may be made now
+     */
+    synchronized boolean tryAcquire()
+    {
+        if (state == State.OPEN)
+        {
+            if (System.nanoTime() - openedAt < options.getOpenMillis() * 1000000L)
+                return false;
+
+            state = State.HALF_OPEN;
+            trialsStarted = 0;
+            trialsSucceeded = 0;
+        }
+
+        if (state == State.HALF_OPEN)
+        {
+            if (trialsStarted >= options.getHalfOpenCalls())
+                return false;
+            trialsStarted++;
+        }
+
+        return true;
+    }
+
+    /**
+     * @param outcome true if the call failed with a transient error, false if it did not, or null if it
+     *                ended without an outcome (e.g. was cancelled)
+     */
+    synchronized void onResult(Boolean outcome)
+    {
+        if (state == State.HALF_OPEN)
+        {
+            if (outcome == null)
+                trialsStarted--;
+            else if (outcome)
+                open();
+            else if (++trialsSucceeded >= options.getHalfOpenCalls())
+                close();
+            return;
+        }
+
+        // A call started before the breaker opened
+        if (state == State.OPEN || outcome == null)
+            return;
+
+        if (calls == window.length)
+        {
+            if (window[next])
+                failures--;
+        }
+        else
+        {
+            calls++;
+        }
+
+        window[next] = outcome;
+        if (outcome)
+            failures++;
+        next = (next + 1) % window.length;
+
+        if (calls >= options.getMinimumCalls() && failures >= options.getFailureRateThreshold() * calls)
+            open();
+    }
+
+    synchronized State getState()
+    {
+        return state;
+    }
+
+    private void open()
+    {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+
+    private void close()
+    {
+        state = State.CLOSED;
+        next = 0;
+        calls = 0;
+        failures = 0;
+    }
+}
@@ -0,0 +1,30 @@
+package com.krestfield.certdog.client;
+
+/**
+ * Thrown in place of a call to certdog when the circuit breaker for the endpoint is open. The client
+ * methods wrap it, so check for it with CertdogException.getKind() == Kind.CIRCUIT_OPEN
+ */
+public class CircuitOpenException extends CertdogException
+{
+    private final String endpoint;
+
+    public CircuitOpenException(String endpoint)
+    {
+        super("The circuit breaker for " + endpoint + " is open after repeated failures");
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * @return the endpoint, as one of the CertdogEndpoints constants
+     */
+    public String getEndpoint()
+    {
+        return endpoint;
+    }
+
+    @Override
+    public Kind getKind()
+    {
+        return Kind.CIRCUIT_OPEN;
+    }
+}
@@ -0,0 +1,120 @@
+package com.krestfield.certdog.client;
+
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequestBuilder;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CsrBuilder
+ *
+ * Creates a PKCS#10 certificate request for a DN and Subject Alternative Names, signed with a locally
+ * generated key, to pass to CertdogClient.requestCertFromCsr
+ *
+ * Requires BouncyCastle (bcpkix-jdk18on) on the classpath
+ */
+public class CsrBuilder
+{
+    public static final String CSR_TYPE = "CERTIFICATE REQUEST";
+
+    private final String dn;
+    private List<String> sans = null;
+
+    /**
+     * @param dn the requested DN e.g. CN=domain.com,O=Some org
+     */
+    public CsrBuilder(String dn)
+    {
+        this.dn = dn;
+    }
+
+    /**
+     * @param sans Subject Alternative Names. In the form DNS:[dns name],EMAIL:[email],IP:[ip address]
+     * @return this builder
+     */
+    public CsrBuilder sans(List<String> sans)
+    {
+        this.sans = sans;
+        return this;
+    }
+
+    /**
+     * Builds the CSR
+     *
+     * @param keyPair the key pair. The public key is included in the request and the private key signs it
+     * @param keyType the type of the key pair
+     * @return the PEM encoded CSR
+     * @throws CertdogException if the CSR cannot be created
+     */
+    public String build(KeyPair keyPair, KeyType keyType) throws CertdogException
+    {
+        try
+        {
+            JcaPKCS10CertificationRequestBuilder builder =
+                    new JcaPKCS10CertificationRequestBuilder(new X500Name(dn), keyPair.getPublic());
+
+            if (sans != null && !sans.isEmpty())
+            {
+                ExtensionsGenerator extensions = new ExtensionsGenerator();
+                extensions.addExtension(Extension.subjectAlternativeName, false, ToGeneralNames(sans));
+                builder.addAttribute(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest, extensions.generate());
+            }
+
+            ContentSigner signer = new JcaContentSignerBuilder(keyType.getSignatureAlgorithm()).build(keyPair.getPrivate());
+            PKCS10CertificationRequest csr = builder.build(signer);
+
+            StringBuilder pem = new StringBuilder(2048);
+            Pem.Encode(CSR_TYPE, csr.getEncoded(), pem);
+
+            return pem.toString();
+        }
+        catch (CertdogException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Unable to create a CSR for DN '" + dn + "'. " + e.getMessage(), e);
+        }
+    }
+
+    private static GeneralNames ToGeneralNames(List<String> sans) throws CertdogException
+    {
+        List<GeneralName> names = new ArrayList<>();
+        for (String san : sans)
+        {
+            int sep = san.indexOf(':');
+            if (sep < 0)
+                throw new CertdogException("Invalid Subject Alternative Name '" + san + "'. Expected DNS:, IP: or EMAIL:");
+
+            String type = san.substring(0, sep).trim().toUpperCase();
+            String value = san.substring(sep + 1).trim();
+            switch (type)
+            {
+                case "DNS":
+                    names.add(new GeneralName(GeneralName.dNSName, value));
+                    break;
+                case "IP":
+                    names.add(new GeneralName(GeneralName.iPAddress, value));
+                    break;
+                case "EMAIL":
+                    names.add(new GeneralName(GeneralName.rfc822Name, value));
+                    break;
+                default:
+                    throw new CertdogException("Invalid Subject Alternative Name '" + san + "'. Expected DNS:, IP: or EMAIL:");
+            }
+        }
+
+        return new GeneralNames(names.toArray(new GeneralName[0]));
+    }
+}
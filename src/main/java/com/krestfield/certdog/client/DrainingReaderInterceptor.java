@@ -0,0 +1,40 @@
+package com.krestfield.certdog.client;
+
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a response body to its end once the entity has been read from it
+ *
+ * Jackson stops reading at the end of the JSON without reaching the end of the stream. The Apache
+ * connector only returns a connection to the pool when the stream has been read to its end, otherwise
+ * closing the response shuts the connection down, so without this no pooled connection would be reused
+ *
+ * A body read as an InputStream is left for the caller, which reads it to its end itself
+ */
+class DrainingReaderInterceptor implements ReaderInterceptor
+{
+    // A body with more than this left unread is not worth reading just to keep the connection
+    private static final int MAX_DRAIN = 64 * 1024;
+
+    @Override
+    public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException
+    {
+        Object entity = context.proceed();
+        if (entity instanceof InputStream)
+            return entity;
+
+        InputStream in = context.getInputStream();
+        byte[] buf = new byte[256];
+        int drained = 0;
+        int n;
+        while (drained < MAX_DRAIN && (n = in.read(buf)) >= 0)
+        {
+            drained += n;
+        }
+
+        return entity;
+    }
+}
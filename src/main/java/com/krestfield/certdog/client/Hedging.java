@@ -0,0 +1,335 @@
+package com.krestfield.certdog.client;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.AsyncInvoker;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The request hedging state of a CertdogClient: the recent latency of each endpoint and the budget of
+ * hedges that may be sent. See HedgingOptions
+ */
+class Hedging
+{
+    // Budget is held in thousandths of a hedge. At most this many hedges can be saved up
+    private static final long UNIT = 1000;
+    private static final long MAX_CREDIT = 10 * UNIT;
+
+    // How often (in responses) the percentile is recalculated
+    private static final int RECALCULATE_EVERY = 16;
+
+    /**
+     * The recent latency of one endpoint. Once the current histogram holds windowSize responses a new
+     * one is started, and the delay keeps its last value until the new one holds minSamples
+     */
+    private class Latency
+    {
+        private volatile LatencyHistogram current = new LatencyHistogram();
+        private volatile long delayNanos = -1;
+
+        void record(long nanos)
+        {
+            LatencyHistogram h = current;
+            h.record(nanos / 1000);
+
+            long n = h.getCount();
+            if (n >= options.getMinSamples() && (n == options.getMinSamples() || n % RECALCULATE_EVERY == 0))
+                delayNanos = Math.max(options.getMinDelayMillis() * 1000000L, h.getPercentile(options.getPercentile()) * 1000);
+
+            if (n >= options.getWindowSize())
+            {
+                synchronized (this)
+                {
+                    if (current == h)
+                        current = new LatencyHistogram();
+                }
+            }
+        }
+    }
+
+    /**
+     * One hedged call: the first attempt and, if it is slow, a second. Completes with the first response
+     * to arrive, or fails once every attempt sent has failed
+     */
+    private class Exchange extends CompletableFuture<Response>
+    {
+        private final Latency latency;
+        private final AsyncInvoker invoker;
+        private final Future<?>[] attempts = new Future<?>[2];
+        private Future<?> timer = null;
+        private int winner = -1;
+        private int inFlight = 1;
+
+        Exchange(Latency latency, AsyncInvoker invoker)
+        {
+            this.latency = latency;
+            this.invoker = invoker;
+        }
+
+        void start()
+        {
+            long delay = latency.delayNanos;
+            Future<?> first = invoker.get(callback(0));
+
+            Future<?> t = null;
+            if (delay >= 0 && !isDone())
+            {
+                try
+                {
+                    t = schedule(this::hedge, delay);
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // The client has been closed, so the call is not hedged
+                }
+            }
+
+            synchronized (this)
+            {
+                attempts[0] = first;
+                timer = t;
+            }
+            if (isDone())
+                cancelAttempts();
+        }
+
+        private void hedge()
+        {
+            synchronized (this)
+            {
+                if (isDone() || !spend())
+                    return;
+                inFlight++;
+            }
+
+            try
+            {
+                Future<?> second = invoker.get(callback(1));
+                synchronized (this)
+                {
+                    attempts[1] = second;
+                }
+                if (isDone())
+                    cancelAttempts();
+            }
+            catch (Exception e)
+            {
+                attemptFailed(e);
+            }
+        }
+
+        private InvocationCallback<Response> callback(int index)
+        {
+            long sentAt = System.nanoTime();
+
+            return new InvocationCallback<Response>()
+            {
+                @Override
+                public void completed(Response resp)
+                {
+                    latency.record(System.nanoTime() - sentAt);
+                    boolean won;
+                    synchronized (Exchange.this)
+                    {
+                        if (winner < 0 && !isDone())
+                            winner = index;
+                        won = winner == index;
+                    }
+
+                    if (won && complete(resp))
+                        cancelAttempts();
+                    else
+                        Discard(resp);
+                }
+
+                @Override
+                public void failed(Throwable throwable)
+                {
+                    attemptFailed(throwable);
+                }
+            };
+        }
+
+        private void attemptFailed(Throwable throwable)
+        {
+            boolean last;
+            synchronized (this)
+            {
+                last = --inFlight == 0;
+                if (last && timer != null)
+                    timer.cancel(false);
+            }
+
+            // Once one attempt has failed the other, if sent, is still given the chance to answer
+            if (last)
+                completeExceptionally(throwable);
+        }
+
+        private void cancelAttempts()
+        {
+            Future<?>[] all;
+            Future<?> t;
+            int w;
+            synchronized (this)
+            {
+                all = attempts.clone();
+                t = timer;
+                w = winner;
+            }
+
+            if (t != null)
+                t.cancel(false);
+            // The winner's callback may still be running on its thread, so must not be interrupted
+            for (int i = 0; i < all.length; i++)
+            {
+                if (all[i] != null && i != w)
+                    all[i].cancel(true);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            cancelAttempts();
+
+            return cancelled;
+        }
+    }
+
+    private final HedgingOptions options;
+    private final long earnedPerCall;
+    private final AtomicLong credit = new AtomicLong();
+    private final ConcurrentMap<String, Latency> latencies = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler = null;
+
+    Hedging(HedgingOptions options)
+    {
+        this.options = options;
+        this.earnedPerCall = Math.max(1, Math.round(options.getMaxExtraLoad() * UNIT));
+    }
+
+    /**
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @param method the HTTP method
+     * @return true if calls to the endpoint are hedged: the read-only GETs
+     */
+    boolean isHedged(String endpoint, String method)
+    {
+        return HttpMethod.GET.equals(method) && !CertdogEndpoints.LOGOUT.equals(endpoint);
+    }
+
+    /**
+     * Sends a GET, hedging it if the response is slow
+     *
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @param invoker the async invoker for the target
+     * @return a future for the first response. Cancelling it cancels every attempt
+     */
+    CompletableFuture<Response> send(String endpoint, AsyncInvoker invoker)
+    {
+        earn();
+
+        Exchange exchange = new Exchange(latencies.computeIfAbsent(endpoint, e -> new Latency()), invoker);
+        exchange.start();
+
+        return exchange;
+    }
+
+    /**
+     * Sends a GET, hedging it if the response is slow, and waits for the response
+     *
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @param invoker the async invoker for the target
+     * @return the first response to arrive
+     * @throws ProcessingException if every attempt failed
+     * @throws InterruptedException if interrupted while waiting, in which case the call is cancelled
+     */
+    Response invoke(String endpoint, AsyncInvoker invoker) throws InterruptedException
+    {
+        CompletableFuture<Response> f = send(endpoint, invoker);
+        try
+        {
+            return f.get();
+        }
+        catch (InterruptedException e)
+        {
+            f.cancel(true);
+            throw e;
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof ProcessingException)
+                throw (ProcessingException) cause;
+            throw new ProcessingException(cause);
+        }
+    }
+
+    private synchronized Future<?> schedule(Runnable hedge, long delayNanos)
+    {
+        if (scheduler == null)
+        {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r ->
+            {
+                Thread t = new Thread(r, "certdog-hedge");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        return scheduler.schedule(hedge, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    synchronized void close()
+    {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+    }
+
+    private void earn()
+    {
+        long c = credit.get();
+        while (c < MAX_CREDIT && !credit.compareAndSet(c, Math.min(MAX_CREDIT, c + earnedPerCall)))
+            c = credit.get();
+    }
+
+    private boolean spend()
+    {
+        long c = credit.get();
+        while (c >= UNIT)
+        {
+            if (credit.compareAndSet(c, c - UNIT))
+                return true;
+            c = credit.get();
+        }
+
+        return false;
+    }
+
+    /**
+     * Closes a response that lost the race
+     */
+    private static void Discard(Response resp)
+    {
+        try
+        {
+            resp.close();
+        }
+        catch (ProcessingException e)
+        {
+            // Nothing more can be done with it
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.krestfield.certdog.client;
+
+/**
+ * HedgingOptions
+ *
+ * Request hedging settings for CertdogClient, set with CertdogClientConfig.Builder.hedging().
+ * Create with HedgingOptions.builder()
+ *
+ * Hedging applies only to the read-only GETs: teams, issuers, generators, issuer chains and the PEM/JKS
+ * fetch. If the response to one of these has not arrived within a percentile of the endpoint's recent
+ * latency, a second identical request is sent. Whichever answers first is used and the other is
+ * cancelled. Each call earns a fraction of a hedge and each hedge spends one, so hedging never adds
+ * more than that fraction of extra requests
+ */
+public class HedgingOptions
+{
+    private final double percentile;
+    private final long minDelayMillis;
+    private final double maxExtraLoad;
+    private final int minSamples;
+    private final int windowSize;
+
+    private HedgingOptions(Builder builder)
+    {
+        this.percentile = builder.percentile;
+        this.minDelayMillis = builder.minDelayMillis;
+        this.maxExtraLoad = builder.maxExtraLoad;
+        this.minSamples = builder.minSamples;
+        this.windowSize = builder.windowSize;
+    }
+
+    /**
+     * @return a builder with the default options
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public double getPercentile()
+    {
+        return percentile;
+    }
+
+    public long getMinDelayMillis()
+    {
+        return minDelayMillis;
+    }
+
+    public double getMaxExtraLoad()
+    {
+        return maxExtraLoad;
+    }
+
+    public int getMinSamples()
+    {
+        return minSamples;
+    }
+
+    public int getWindowSize()
+    {
+        return windowSize;
+    }
+
+    /**
+     * Builder for HedgingOptions
+     */
+    public static class Builder
+    {
+        private double percentile = 95;
+        private long minDelayMillis = 10;
+        private double maxExtraLoad = 0.1;
+        private int minSamples = 20;
+        private int windowSize = 1000;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * @param percentile the percentile of recent latency after which a hedge is sent, from 0 to 100. Default 95
+         * @return this builder
+         */
+        public Builder percentile(double percentile)
+        {
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * @param minDelayMillis the shortest time to wait before sending a hedge. Default 10
+         * @return this builder
+         */
+        public Builder minDelay(long minDelayMillis)
+        {
+            this.minDelayMillis = minDelayMillis;
+            return this;
+        }
+
+        /**
+         * @param maxExtraLoad the most hedges that may be sent, as a fraction of the hedgeable calls made
+         *                     e.g. 0.1 for no more than 10% extra requests. Default 0.1
+         * @return this builder
+         */
+        public Builder maxExtraLoad(double maxExtraLoad)
+        {
+            this.maxExtraLoad = maxExtraLoad;
+            return this;
+        }
+
+        /**
+         * @param minSamples the responses from an endpoint needed before its calls are hedged. Default 20
+         * @param windowSize the number of recent responses the latency percentile is taken from. Default 1000
+         * @return this builder
+         */
+        public Builder samples(int minSamples, int windowSize)
+        {
+            this.minSamples = minSamples;
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        public HedgingOptions build()
+        {
+            if (percentile <= 0 || percentile > 100)
+                throw new IllegalArgumentException("The percentile must be greater than 0 and at most 100");
+            if (minDelayMillis < 0)
+                throw new IllegalArgumentException("The minimum delay must be at least 0");
+            if (maxExtraLoad <= 0 || maxExtraLoad > 1)
+                throw new IllegalArgumentException("The maximum extra load must be greater than 0 and at most 1");
+            if (minSamples < 1 || windowSize < minSamples)
+                throw new IllegalArgumentException("The minimum samples must be at least 1 and no more than the window size");
+
+            return new HedgingOptions(this);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.krestfield.certdog.client;
+
+/**
+ * Reports each HTTP call to the CertdogMetrics set for the client and, when the JVM has Flight Recorder
+ * and a recording has the event enabled, as a CertdogCallEvent
+ *
+ * When neither is in use start returns a shared span without reading the clock or allocating
+ */
+class Instrumentation
+{
+    static final Instrumentation NONE = new Instrumentation(CertdogMetrics.NONE);
+
+    // jdk.jfr is in JDK 11+ and 8u262+. On older JVMs CertdogCallEvent is never loaded
+    private static final boolean JFR_AVAILABLE = IsJfrAvailable();
+
+    /**
+     * One call, from sending the request to reading the response. end must be called exactly once
+     */
+    static class Span
+    {
+        private static final Span NONE = new Span(null, null, null, 0, null);
+
+        private final CertdogMetrics metrics;
+        private final String endpoint;
+        private final String issuerName;
+        private final long startNanos;
+        private final Object event;
+
+        private Span(CertdogMetrics metrics, String endpoint, String issuerName, long startNanos, Object event)
+        {
+            this.metrics = metrics;
+            this.endpoint = endpoint;
+            this.issuerName = issuerName;
+            this.startNanos = startNanos;
+            this.event = event;
+        }
+
+        /**
+         * @param status the HTTP status or 0 if there was no response
+         * @param responseSize the Content-Length of the response, or -1 if unknown
+         */
+        void end(int status, long responseSize)
+        {
+            if (this == NONE)
+                return;
+
+            if (metrics != null)
+            {
+                long duration = System.nanoTime() - startNanos;
+                try
+                {
+                    metrics.requestCompleted(endpoint, issuerName, status, duration);
+                }
+                catch (RuntimeException e)
+                {
+                    // A failing listener must not fail the call
+                }
+            }
+
+            if (event != null)
+                CertdogCallEvent.End(event, status, responseSize);
+        }
+    }
+
+    private final CertdogMetrics metrics;
+
+    Instrumentation(CertdogMetrics metrics)
+    {
+        this.metrics = metrics != CertdogMetrics.NONE ? metrics : null;
+    }
+
+    /**
+     * Called immediately before a request is sent
+     *
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @param issuerName the issuer or null
+     * @param teamName the team or null
+     * @return the span to end once the response has been read or the call has failed
+     */
+    Span start(String endpoint, String issuerName, String teamName)
+    {
+        Object event = JFR_AVAILABLE ? CertdogCallEvent.Begin(endpoint, issuerName, teamName) : null;
+        if (metrics == null && event == null)
+            return Span.NONE;
+
+        long startNanos = 0;
+        if (metrics != null)
+        {
+            try
+            {
+                metrics.requestStarted(endpoint, issuerName);
+            }
+            catch (RuntimeException e)
+            {
+                // A failing listener must not fail the call
+            }
+            startNanos = System.nanoTime();
+        }
+
+        return new Span(metrics, endpoint, issuerName, startNanos, event);
+    }
+
+    private static boolean IsJfrAvailable()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError e)
+        {
+            return false;
+        }
+    }
+}
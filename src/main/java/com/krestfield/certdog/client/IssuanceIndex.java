@@ -0,0 +1,902 @@
+package com.krestfield.certdog.client;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.security.auth.x500.X500Principal;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * IssuanceIndex
+ *
+ * A local, persistent record of issued certificates that can be searched by id, serial number, DN and
+ * expiry. Set it with CertdogClientConfig.Builder.issuanceIndex to record every certificate the client
+ * obtains, or add records directly
+ *
+ * Records are appended to a log file. Recording an id that is already held replaces the earlier record and
+ * remove appends a marker, so the file only grows until compact is called. The indexes are kept in memory
+ * and rebuilt from the log when it is opened. They hold the keys and the position of each record in the
+ * file rather than the records, which are read from the file when found. A record left partly written
+ * when the process stopped is discarded on open, while damage anywhere else fails the open. A record may be
+ * at most 1 MB
+ *
+ * Thread safe. Only one IssuanceIndex, in any process, can have the file open at a time. This is enforced
+ * with a lock on a file beside the log, named after it with ".lock" appended, which is held until close.
+ * The lock file is left in place when the index is closed
+ */
+public class IssuanceIndex implements AutoCloseable
+{
+    private static final int MAGIC = 0x43444958;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    // The length and CRC32 before each record
+    private static final int FRAME_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private static final byte RECORD = 1;
+    private static final byte REMOVED = 2;
+
+    /**
+     * The file positions of the records with the same key. Most keys have one
+     */
+    private static class Positions
+    {
+        long[] values = new long[1];
+        int size = 0;
+
+        void add(long position)
+        {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = position;
+        }
+
+        void remove(long position)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                if (values[i] == position)
+                {
+                    System.arraycopy(values, i + 1, values, i, size - i - 1);
+                    size--;
+                    return;
+                }
+            }
+        }
+    }
+
+    private final Path file;
+    private final boolean syncWrites;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Long> byId = new HashMap<>();
+    private final Map<String, Positions> bySerial = new HashMap<>();
+    private final Map<String, Positions> byDn = new HashMap<>();
+    private final TreeMap<Long, Positions> byExpiry = new TreeMap<>();
+    private FileChannel channel = null;
+    private FileChannel lockChannel = null;
+    private FileLock fileLock = null;
+    private long end = HEADER_SIZE;
+    private boolean closed = false;
+
+    private IssuanceIndex(Path file, boolean syncWrites)
+    {
+        this.file = file;
+        this.syncWrites = syncWrites;
+    }
+
+    /**
+     * Opens the index, creating the file if it does not exist
+     *
+     * @param file the log file
+     * @return the index
+     * @throws CertdogException if the file cannot be read or is in use
+     */
+    public static IssuanceIndex open(Path file) throws CertdogException
+    {
+        return open(file, false);
+    }
+
+    /**
+     * Opens the index, creating the file if it does not exist
+     *
+     * @param file the log file
+     * @param syncWrites true to force each record to the disk before record or remove returns. When false,
+     *                   records written just before a system crash may be lost
+     * @return the index
+     * @throws CertdogException if the file cannot be read or is in use
+     */
+    public static IssuanceIndex open(Path file, boolean syncWrites) throws CertdogException
+    {
+        IssuanceIndex index = new IssuanceIndex(file, syncWrites);
+        try
+        {
+            index.lockFile();
+            index.load();
+        }
+        catch (IOException e)
+        {
+            index.closeChannel();
+            index.unlockFile();
+            throw new CertdogException("Unable to open the issuance index " + file + ". " + e.getMessage(), e);
+        }
+
+        return index;
+    }
+
+    /**
+     * Records an issued certificate, replacing any record with the same id
+     *
+     * @param id the certdog id of the certificate, as returned in GetCertResponse
+     * @param cert the certificate
+     * @param issuerName the cert issuer that issued the certificate
+     * @param teamName the team the certificate is associated with
+     * @throws CertdogException if the record cannot be written
+     */
+    public void record(String id, X509Certificate cert, String issuerName, String teamName) throws CertdogException
+    {
+        record(IssuanceRecord.from(id, cert, issuerName, teamName));
+    }
+
+    /**
+     * Records an issued certificate, replacing any record with the same id
+     *
+     * @param record the record
+     * @throws CertdogException if the record cannot be written
+     */
+    public void record(IssuanceRecord record) throws CertdogException
+    {
+        lock.writeLock().lock();
+        try
+        {
+            checkOpen();
+            long position = append(Encode(record));
+            unindex(record.getId());
+            index(record, position);
+        }
+        catch (IOException e)
+        {
+            throw new CertdogException("Unable to record certificate " + record.getId() + " in the issuance index. " + e.getMessage(), e);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a record
+     *
+     * @param id the certdog id of the certificate
+     * @return true if there was a record with the id
+     * @throws CertdogException if the removal cannot be written
+     */
+    public boolean remove(String id) throws CertdogException
+    {
+        lock.writeLock().lock();
+        try
+        {
+            checkOpen();
+            if (!byId.containsKey(id))
+                return false;
+
+            append(EncodeRemoved(id));
+            unindex(id);
+            return true;
+        }
+        catch (IOException e)
+        {
+            throw new CertdogException("Unable to remove certificate " + id + " from the issuance index. " + e.getMessage(), e);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param id the certdog id of the certificate
+     * @return the record, or null if there is none
+     * @throws CertdogException if the file cannot be read
+     */
+    public IssuanceRecord findById(String id) throws CertdogException
+    {
+        lock.readLock().lock();
+        try
+        {
+            checkOpen();
+            Long position = byId.get(id);
+            return position != null ? read(position) : null;
+        }
+        catch (IOException e)
+        {
+            throw readFailed(e);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the certificates with a serial number. Serial numbers are only unique for each issuer, so there
+     * may be more than one
+     *
+     * @param serialNumber the serial number in ASCII HEX format
+     * @return the records, oldest first
+     * @throws CertdogException if the file cannot be read
+     */
+    public List<IssuanceRecord> findBySerial(String serialNumber) throws CertdogException
+    {
+        return find(bySerial, SerialKey(serialNumber));
+    }
+
+    /**
+     * Finds the certificates issued for a DN. DNs are compared as X.500 names, ignoring differences in case
+     * and spacing and the order of the RDNs, which some CAs reverse
+     *
+     * @param dn the subject DN
+     * @return the records, oldest first
+     * @throws CertdogException if the file cannot be read
+     */
+    public List<IssuanceRecord> findByDn(String dn) throws CertdogException
+    {
+        return find(byDn, DnKey(dn));
+    }
+
+    /**
+     * Finds the certificates that expire in a period
+     *
+     * @param fromMillis the start of the period, inclusive, in milliseconds since the epoch
+     * @param toMillis the end of the period, exclusive, in milliseconds since the epoch
+     * @return the records in the order they expire
+     * @throws CertdogException if the file cannot be read
+     */
+    public List<IssuanceRecord> findExpiring(long fromMillis, long toMillis) throws CertdogException
+    {
+        lock.readLock().lock();
+        try
+        {
+            checkOpen();
+            List<IssuanceRecord> found = new ArrayList<>();
+            if (fromMillis < toMillis)
+            {
+                for (Positions positions : byExpiry.subMap(fromMillis, true, toMillis, false).values())
+                {
+                    readAll(positions, found);
+                }
+            }
+
+            return found;
+        }
+        catch (IOException e)
+        {
+            throw readFailed(e);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the certificates that have not expired but will within a time, e.g. 7 days
+     *
+     * @param millis the time from now
+     * @return the records in the order they expire
+     * @throws CertdogException if the file cannot be read
+     */
+    public List<IssuanceRecord> findExpiringWithin(long millis) throws CertdogException
+    {
+        long now = System.currentTimeMillis();
+        return findExpiring(now, now + millis);
+    }
+
+    /**
+     * @return the number of records
+     */
+    public int size()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return byId.size();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forces the records written so far to the disk. Not needed if the index was opened with syncWrites
+     *
+     * @throws CertdogException if the file cannot be written
+     */
+    public void sync() throws CertdogException
+    {
+        lock.writeLock().lock();
+        try
+        {
+            checkOpen();
+            channel.force(false);
+        }
+        catch (IOException e)
+        {
+            throw new CertdogException("Unable to sync the issuance index " + file + ". " + e.getMessage(), e);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the file with only the current records, dropping those replaced or removed. The new file
+     * replaces the old one atomically where the file system allows. Lookups wait until it is done, and the
+     * lock file stays locked throughout so no other process can open the log part way through
+     *
+     * @throws CertdogException if the file cannot be rewritten
+     */
+    public void compact() throws CertdogException
+    {
+        lock.writeLock().lock();
+        try
+        {
+            checkOpen();
+            Path tmp = file.resolveSibling(file.getFileName() + ".compact");
+            try
+            {
+                writeLive(tmp);
+            }
+            catch (IOException e)
+            {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+
+            closeChannel();
+            IOException moveFailed = null;
+            try
+            {
+                AtomicFile.Move(tmp, file);
+            }
+            catch (IOException e)
+            {
+                moveFailed = e;
+                Files.deleteIfExists(tmp);
+            }
+
+            try
+            {
+                load();
+            }
+            catch (IOException e)
+            {
+                closed = true;
+                closeChannel();
+                unlockFile();
+                throw e;
+            }
+            if (moveFailed != null)
+                throw moveFailed;
+        }
+        catch (IOException e)
+        {
+            throw new CertdogException("Unable to compact the issuance index " + file + ". " + e.getMessage(), e);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the file. The index cannot be used after this is called
+     */
+    @Override
+    public void close()
+    {
+        lock.writeLock().lock();
+        try
+        {
+            closed = true;
+            closeChannel();
+            unlockFile();
+            clear();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Locks the lock file, so no other IssuanceIndex can open the log until close. The log itself is not
+     * locked, as compact replaces it
+     */
+    private void lockFile() throws IOException
+    {
+        lockChannel = FileChannel.open(file.resolveSibling(file.getFileName() + ".lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        try
+        {
+            fileLock = lockChannel.tryLock();
+        }
+        catch (OverlappingFileLockException e)
+        {
+            fileLock = null;
+        }
+        if (fileLock == null)
+            throw new IOException("The file is in use by another IssuanceIndex");
+    }
+
+    /**
+     * Opens the file and rebuilds the indexes from it
+     */
+    private void load() throws IOException
+    {
+        clear();
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_SIZE)
+        {
+            // New, or the header was never completed
+            channel.truncate(0);
+            WriteFully(channel, Header(), 0);
+            channel.force(true);
+            end = HEADER_SIZE;
+            return;
+        }
+
+        ByteBuffer header = ReadFully(channel, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC)
+            throw new IOException("The file is not an issuance index");
+        int version = header.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported issuance index version " + version);
+
+        replay();
+    }
+
+    /**
+     * Reads every record in order, applying each to the indexes
+     */
+    private void replay() throws IOException
+    {
+        long size = channel.size();
+        long position = HEADER_SIZE;
+        channel.position(position);
+        // Not closed: that would close the channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        CRC32 crc = new CRC32();
+        byte[] payload = new byte[512];
+
+        while (position + FRAME_SIZE <= size)
+        {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            long next = position + FRAME_SIZE + length;
+            if (length <= 0 || length > MAX_RECORD_SIZE)
+            {
+                // A crash can leave the end of the file extended but not yet written, reading as zeros. A bad
+                // length anywhere else is damage, and truncating there would lose the records after it
+                if (length != 0 || checksum != 0 || !ZerosToEnd(in, size - position - FRAME_SIZE))
+                    throw new IOException("The record at position " + position + " has an invalid length " + length);
+                break;
+            }
+            // The last record, left partly written
+            if (next > size)
+                break;
+
+            if (payload.length < length)
+                payload = new byte[Math.max(length, payload.length * 2)];
+            in.readFully(payload, 0, length);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum)
+            {
+                // Only the last record can have been left partly written. Anything else is damage
+                if (next < size)
+                    throw new IOException("The record at position " + position + " is corrupt");
+                break;
+            }
+
+            apply(payload, length, position);
+            position = next;
+        }
+
+        if (position < size)
+            channel.truncate(position);
+        end = position;
+    }
+
+    private void apply(byte[] payload, int length, long position) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+        byte type = in.readByte();
+        String id = in.readUTF();
+        unindex(id);
+        if (type == RECORD)
+            index(ReadFields(id, in), position);
+        else if (type != REMOVED)
+            throw new IOException("Unknown record type " + type + " at position " + position);
+    }
+
+    /**
+     * Writes the current records to a new file
+     */
+    private void writeLive(Path tmp) throws IOException
+    {
+        List<Long> live = new ArrayList<>(byId.values());
+        live.sort(null);
+
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE))
+        {
+            WriteFully(out, Header(), 0);
+            long outPosition = HEADER_SIZE;
+            for (long position : live)
+            {
+                long count = FRAME_SIZE + ReadFully(channel, position, FRAME_SIZE).getInt();
+                for (long copied = 0; copied < count; )
+                {
+                    copied += channel.transferTo(position + copied, count - copied, out.position(outPosition + copied));
+                }
+                outPosition += count;
+            }
+            out.force(true);
+        }
+    }
+
+    /**
+     * Appends a record to the file
+     *
+     * @return the position of the record
+     */
+    private long append(byte[] payload) throws IOException
+    {
+        // Anything larger would be taken for damage when the file is read back
+        if (payload.length > MAX_RECORD_SIZE)
+            throw new IOException("The record is " + payload.length + " bytes, more than the limit of " + MAX_RECORD_SIZE);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(FRAME_SIZE + payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        // Through Buffer, as a release built on JDK 9+ would otherwise call ByteBuffer.flip(), missing on Java 8
+        ((Buffer) buffer).flip();
+
+        long position = end;
+        try
+        {
+            WriteFully(channel, buffer, position);
+            if (syncWrites)
+                channel.force(false);
+        }
+        catch (IOException e)
+        {
+            // Remove any part written so the next record follows the last complete one
+            try
+            {
+                channel.truncate(position);
+            }
+            catch (IOException ignored)
+            {
+            }
+            throw e;
+        }
+
+        end = position + FRAME_SIZE + payload.length;
+        return position;
+    }
+
+    private IssuanceRecord read(long position) throws IOException
+    {
+        int length = ReadFully(channel, position, FRAME_SIZE).getInt();
+        ByteBuffer payload = ReadFully(channel, position + FRAME_SIZE, length);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload.array()));
+        in.readByte();
+        return ReadFields(in.readUTF(), in);
+    }
+
+    private void readAll(Positions positions, List<IssuanceRecord> found) throws IOException
+    {
+        for (int i = 0; i < positions.size; i++)
+        {
+            found.add(read(positions.values[i]));
+        }
+    }
+
+    private List<IssuanceRecord> find(Map<String, Positions> index, String key) throws CertdogException
+    {
+        lock.readLock().lock();
+        try
+        {
+            checkOpen();
+            List<IssuanceRecord> found = new ArrayList<>();
+            Positions positions = key != null ? index.get(key) : null;
+            if (positions != null)
+                readAll(positions, found);
+
+            return found;
+        }
+        catch (IOException e)
+        {
+            throw readFailed(e);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void index(IssuanceRecord record, long position)
+    {
+        byId.put(record.getId(), position);
+        bySerial.computeIfAbsent(SerialKey(record.getSerialNumber()), k -> new Positions()).add(position);
+        byDn.computeIfAbsent(DnKey(record.getDn()), k -> new Positions()).add(position);
+        byExpiry.computeIfAbsent(record.getNotAfterMillis(), k -> new Positions()).add(position);
+    }
+
+    /**
+     * Removes the record with an id from the indexes, reading its keys from the file
+     */
+    private void unindex(String id) throws IOException
+    {
+        Long position = byId.remove(id);
+        if (position == null)
+            return;
+
+        IssuanceRecord record = read(position);
+        Remove(bySerial, SerialKey(record.getSerialNumber()), position);
+        Remove(byDn, DnKey(record.getDn()), position);
+        Remove(byExpiry, record.getNotAfterMillis(), position);
+    }
+
+    private static <K> void Remove(Map<K, Positions> index, K key, long position)
+    {
+        Positions positions = index.get(key);
+        if (positions == null)
+            return;
+
+        positions.remove(position);
+        if (positions.size == 0)
+            index.remove(key);
+    }
+
+    private void clear()
+    {
+        byId.clear();
+        bySerial.clear();
+        byDn.clear();
+        byExpiry.clear();
+    }
+
+    private void checkOpen()
+    {
+        if (closed)
+            throw new IllegalStateException("The issuance index is closed");
+    }
+
+    private void closeChannel()
+    {
+        try
+        {
+            if (channel != null)
+                channel.close();
+        }
+        catch (IOException ignored)
+        {
+        }
+        channel = null;
+    }
+
+    private void unlockFile()
+    {
+        try
+        {
+            if (fileLock != null)
+                fileLock.release();
+            if (lockChannel != null)
+                lockChannel.close();
+        }
+        catch (IOException ignored)
+        {
+        }
+        fileLock = null;
+        lockChannel = null;
+    }
+
+    private CertdogException readFailed(IOException e)
+    {
+        return new CertdogException("Unable to read the issuance index " + file + ". " + e.getMessage(), e);
+    }
+
+    /**
+     * @return the serial number as lower case HEX with no leading zeros, or null if it is not HEX
+     */
+    static String SerialKey(String serialNumber)
+    {
+        if (serialNumber == null)
+            return null;
+
+        try
+        {
+            return new BigInteger(serialNumber.trim(), 16).toString(16);
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return the canonical form of each RDN in the DN, sorted, so equal names match however they are written
+     * and in either order
+     */
+    static String DnKey(String dn)
+    {
+        if (dn == null)
+            return null;
+
+        try
+        {
+            List<String> rdns = new ArrayList<>();
+            for (Rdn rdn : new LdapName(new X500Principal(dn).getName(X500Principal.CANONICAL)).getRdns())
+            {
+                rdns.add(rdn.toString());
+            }
+            Collections.sort(rdns);
+
+            return String.join(",", rdns);
+        }
+        catch (IllegalArgumentException | InvalidNameException e)
+        {
+            return dn.trim().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static byte[] Encode(IssuanceRecord record) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD);
+        out.writeUTF(record.getId());
+        out.writeUTF(record.getSerialNumber());
+        out.writeUTF(record.getDn());
+        out.writeInt(record.getSans().size());
+        for (String san : record.getSans())
+        {
+            out.writeUTF(san);
+        }
+        WriteOptional(out, record.getIssuerName());
+        WriteOptional(out, record.getTeamName());
+        out.writeLong(record.getNotBeforeMillis());
+        out.writeLong(record.getNotAfterMillis());
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    private static byte[] EncodeRemoved(String id) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(REMOVED);
+        out.writeUTF(id);
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    private static IssuanceRecord ReadFields(String id, DataInputStream in) throws IOException
+    {
+        String serialNumber = in.readUTF();
+        String dn = in.readUTF();
+        int count = in.readInt();
+        if (count < 0)
+            throw new EOFException("Invalid SAN count " + count);
+        List<String> sans = new ArrayList<>(Math.min(count, 64));
+        for (int i = 0; i < count; i++)
+        {
+            sans.add(in.readUTF());
+        }
+        String issuerName = ReadOptional(in);
+        String teamName = ReadOptional(in);
+        long notBefore = in.readLong();
+        long notAfter = in.readLong();
+
+        return new IssuanceRecord(id, serialNumber, dn, sans, issuerName, teamName, notBefore, notAfter);
+    }
+
+    private static void WriteOptional(DataOutputStream out, String value) throws IOException
+    {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static String ReadOptional(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * @return true if the next count bytes are all zero
+     */
+    private static boolean ZerosToEnd(DataInputStream in, long count) throws IOException
+    {
+        byte[] buffer = new byte[8192];
+        while (count > 0)
+        {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (n < 0)
+                return true;
+            for (int i = 0; i < n; i++)
+            {
+                if (buffer[i] != 0)
+                    return false;
+            }
+            count -= n;
+        }
+
+        return true;
+    }
+
+    private static ByteBuffer Header()
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION);
+        ((Buffer) header).flip();
+
+        return header;
+    }
+
+    private static ByteBuffer ReadFully(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Unexpected end of file at position " + position);
+        }
+        ((Buffer) buffer).flip();
+
+        return buffer;
+    }
+
+    private static void WriteFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
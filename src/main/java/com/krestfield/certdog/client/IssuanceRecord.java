@@ -0,0 +1,171 @@
+package com.krestfield.certdog.client;
+
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * IssuanceRecord
+ *
+ * A certificate issued by certdog, as held in an IssuanceIndex
+ */
+public class IssuanceRecord
+{
+    private final String id;
+    private final String serialNumber;
+    private final String dn;
+    private final List<String> sans;
+    private final String issuerName;
+    private final String teamName;
+    private final long notBefore;
+    private final long notAfter;
+
+    /**
+     * Constructor
+     *
+     * @param id the certdog id of the certificate, as returned in GetCertResponse
+     * @param serialNumber the serial number in ASCII HEX format
+     * @param dn the subject DN
+     * @param sans Subject Alternative Names, or null. In the form DNS:[dns name],EMAIL:[email],IP:[ip address]
+     * @param issuerName the cert issuer that issued the certificate
+     * @param teamName the team the certificate is associated with
+     * @param notBefore the start of the validity period
+     * @param notAfter the end of the validity period
+     */
+    public IssuanceRecord(String id, String serialNumber, String dn, List<String> sans, String issuerName,
+                          String teamName, Date notBefore, Date notAfter)
+    {
+        this(id, serialNumber, dn, sans, issuerName, teamName, notBefore.getTime(), notAfter.getTime());
+    }
+
+    IssuanceRecord(String id, String serialNumber, String dn, List<String> sans, String issuerName,
+                   String teamName, long notBefore, long notAfter)
+    {
+        if (id == null || serialNumber == null || dn == null)
+            throw new IllegalArgumentException("The id, serial number and DN must be provided");
+
+        this.id = id;
+        this.serialNumber = serialNumber;
+        this.dn = dn;
+        this.sans = sans != null ? Collections.unmodifiableList(new ArrayList<>(sans)) : Collections.emptyList();
+        this.issuerName = issuerName;
+        this.teamName = teamName;
+        this.notBefore = notBefore;
+        this.notAfter = notAfter;
+    }
+
+    /**
+     * Creates the record for an issued certificate
+     *
+     * @param id the certdog id of the certificate, as returned in GetCertResponse
+     * @param cert the certificate
+     * @param issuerName the cert issuer that issued the certificate
+     * @param teamName the team the certificate is associated with
+     * @return the record
+     */
+    public static IssuanceRecord from(String id, X509Certificate cert, String issuerName, String teamName)
+    {
+        return new IssuanceRecord(id, cert.getSerialNumber().toString(16), cert.getSubjectX500Principal().getName(),
+                GetSans(cert), issuerName, teamName, cert.getNotBefore().getTime(), cert.getNotAfter().getTime());
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return the serial number in ASCII HEX format
+     */
+    public String getSerialNumber()
+    {
+        return serialNumber;
+    }
+
+    public String getDn()
+    {
+        return dn;
+    }
+
+    /**
+     * @return the Subject Alternative Names, in the form DNS:[dns name],EMAIL:[email],IP:[ip address]
+     */
+    public List<String> getSans()
+    {
+        return sans;
+    }
+
+    public String getIssuerName()
+    {
+        return issuerName;
+    }
+
+    public String getTeamName()
+    {
+        return teamName;
+    }
+
+    public Date getNotBefore()
+    {
+        return new Date(notBefore);
+    }
+
+    public Date getNotAfter()
+    {
+        return new Date(notAfter);
+    }
+
+    long getNotBeforeMillis()
+    {
+        return notBefore;
+    }
+
+    long getNotAfterMillis()
+    {
+        return notAfter;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "IssuanceRecord{id=" + id + ", serialNumber=" + serialNumber + ", dn=" + dn + ", sans=" + sans
+                + ", issuerName=" + issuerName + ", teamName=" + teamName + ", notBefore=" + getNotBefore()
+                + ", notAfter=" + getNotAfter() + "}";
+    }
+
+    /**
+     * Reads the DNS, email and IP Subject Alternative Names from a certificate
+     */
+    private static List<String> GetSans(X509Certificate cert)
+    {
+        List<String> sans = new ArrayList<>();
+        Collection<List<?>> names;
+        try
+        {
+            names = cert.getSubjectAlternativeNames();
+        }
+        catch (CertificateParsingException e)
+        {
+            return sans;
+        }
+        if (names == null)
+            return sans;
+
+        for (List<?> name : names)
+        {
+            int type = (Integer) name.get(0);
+            if (type == 1)
+                sans.add("EMAIL:" + name.get(1));
+            else if (type == 2)
+                sans.add("DNS:" + name.get(1));
+            else if (type == 7)
+                sans.add("IP:" + name.get(1));
+        }
+
+        return sans;
+    }
+}
@@ -0,0 +1,41 @@
+package com.krestfield.certdog.client;
+
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+/**
+ * IssuedCredential
+ *
+ * A certificate issued for a locally generated key, as returned from CertdogClient.requestCertWithLocalKey
+ */
+public class IssuedCredential
+{
+    private final PrivateKey privateKey;
+    private final X509Certificate certificate;
+    private final String csr;
+
+    IssuedCredential(PrivateKey privateKey, X509Certificate certificate, String csr)
+    {
+        this.privateKey = privateKey;
+        this.certificate = certificate;
+        this.csr = csr;
+    }
+
+    public PrivateKey getPrivateKey()
+    {
+        return privateKey;
+    }
+
+    public X509Certificate getCertificate()
+    {
+        return certificate;
+    }
+
+    /**
+     * @return the PEM encoded CSR that was sent to certdog
+     */
+    public String getCsr()
+    {
+        return csr;
+    }
+}
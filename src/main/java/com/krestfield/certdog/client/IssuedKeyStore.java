@@ -0,0 +1,47 @@
+package com.krestfield.certdog.client;
+
+import java.security.cert.X509Certificate;
+
+/**
+ * IssuedKeyStore
+ *
+ * A certificate issued by certdog with its key, as returned from CertdogClient.requestCertBinary and
+ * requestCertTo. The PKCS12 data is decoded as the response is read, so it is never held as a base64 String
+ */
+public class IssuedKeyStore
+{
+    private final String id;
+    private final X509Certificate certificate;
+    private final byte[] data;
+
+    IssuedKeyStore(String id, X509Certificate certificate, byte[] data)
+    {
+        this.id = id;
+        this.certificate = certificate;
+        this.data = data;
+    }
+
+    /**
+     * @return the certdog id of the certificate
+     */
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return the issued certificate, or null if certdog did not return it apart from the PKCS12 data
+     */
+    public X509Certificate getCertificate()
+    {
+        return certificate;
+    }
+
+    /**
+     * @return the PKCS12 data, or null if it was written to an OutputStream
+     */
+    public byte[] getData()
+    {
+        return data;
+    }
+}
@@ -0,0 +1,137 @@
+package com.krestfield.certdog.client;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * IssuerChainCache
+ *
+ * Caches the parsed certificate chain for each issuer
+ *
+ * An entry expires at the earliest notAfter of the certificates in the chain, or after the maximum
+ * age if that is sooner. When the cache is full the least recently used issuer is evicted
+ */
+class IssuerChainCache
+{
+    private static class Entry
+    {
+        final List<X509Certificate> chain;
+        final long expiresAtMillis;
+
+        Entry(List<X509Certificate> chain, long expiresAtMillis)
+        {
+            this.chain = chain;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxAgeMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * @param maxEntries the maximum number of issuers held
+     * @param maxAgeMillis the maximum time an entry is held, or 0 to hold until the chain expires
+     */
+    IssuerChainCache(int maxEntries, long maxAgeMillis)
+    {
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAgeMillis;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                return size() > IssuerChainCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param issuerName the issuer name
+     * @return a copy of the cached chain, or null if there is no unexpired entry
+     */
+    List<X509Certificate> get(String issuerName)
+    {
+        lock.lock();
+        try
+        {
+            Entry entry = entries.get(issuerName);
+            if (entry == null)
+                return null;
+
+            if (System.currentTimeMillis() >= entry.expiresAtMillis)
+            {
+                entries.remove(issuerName);
+                return null;
+            }
+
+            return new ArrayList<>(entry.chain);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param issuerName the issuer name
+     * @param chain the parsed chain
+     */
+    void put(String issuerName, List<X509Certificate> chain)
+    {
+        long now = System.currentTimeMillis();
+        long expiresAt = maxAgeMillis > 0 ? now + maxAgeMillis : Long.MAX_VALUE;
+        for (X509Certificate cert : chain)
+        {
+            expiresAt = Math.min(expiresAt, cert.getNotAfter().getTime());
+        }
+
+        // Already expired - nothing to gain from holding it
+        if (expiresAt <= now)
+            return;
+
+        Entry entry = new Entry(Collections.unmodifiableList(new ArrayList<>(chain)), expiresAt);
+        lock.lock();
+        try
+        {
+            entries.put(issuerName, entry);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    void invalidate()
+    {
+        lock.lock();
+        try
+        {
+            entries.clear();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    void invalidate(String issuerName)
+    {
+        lock.lock();
+        try
+        {
+            entries.remove(issuerName);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+}
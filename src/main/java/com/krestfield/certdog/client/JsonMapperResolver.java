@@ -0,0 +1,39 @@
+package com.krestfield.certdog.client;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+
+import javax.ws.rs.ext.ContextResolver;
+
+/**
+ * Gives Jersey's Jackson provider the one ObjectMapper shared by every client, rather than the default it
+ * would otherwise create for each client
+ *
+ * Fields certdog returns that the model classes do not have are ignored, and null fields are left out of
+ * request bodies. On Java 8 the Afterburner module generates bytecode to get and set the model properties
+ * in place of reflection. Later JDKs restrict the class definition it relies on, so they use reflection
+ */
+class JsonMapperResolver implements ContextResolver<ObjectMapper>
+{
+    static final ObjectMapper MAPPER = CreateMapper();
+
+    static ObjectMapper CreateMapper()
+    {
+        ObjectMapper mapper = new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+        if ("1.8".equals(System.getProperty("java.specification.version")))
+            mapper.registerModule(new AfterburnerModule());
+
+        return mapper;
+    }
+
+    @Override
+    public ObjectMapper getContext(Class<?> type)
+    {
+        return MAPPER;
+    }
+}
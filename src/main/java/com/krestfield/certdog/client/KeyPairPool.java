@@ -0,0 +1,249 @@
+package com.krestfield.certdog.client;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * KeyPairPool
+ *
+ * Holds key pairs generated ahead of time on low priority background threads, so that generating a
+ * key is not part of the time taken to request a certificate. Create with KeyPairPool.builder()
+ *
+ * Each key type has a configured depth. As keys are taken the background threads generate
+ * replacements. If the pool for a type is empty the key is generated on the calling thread
+ */
+public class KeyPairPool implements AutoCloseable
+{
+    private final Map<KeyType, BlockingQueue<KeyPair>> pools = new EnumMap<>(KeyType.class);
+    private final Map<KeyType, AtomicInteger> generating = new EnumMap<>(KeyType.class);
+    private final Map<KeyType, Integer> depths = new ConcurrentHashMap<>();
+    private final Semaphore demand = new Semaphore(0);
+    private final ExecutorService generators;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile boolean closed = false;
+
+    private KeyPairPool(Builder builder)
+    {
+        this.depths.putAll(builder.depths);
+
+        int total = 0;
+        for (Map.Entry<KeyType, Integer> e : depths.entrySet())
+        {
+            pools.put(e.getKey(), new ArrayBlockingQueue<>(e.getValue()));
+            generating.put(e.getKey(), new AtomicInteger());
+            total += e.getValue();
+        }
+
+        this.generators = Executors.newFixedThreadPool(builder.threads, r ->
+        {
+            Thread t = new Thread(r, "certdog-keygen");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        for (int i = 0; i < builder.threads; i++)
+        {
+            generators.execute(this::generateLoop);
+        }
+
+        demand.release(total);
+    }
+
+    /**
+     * @return a builder with no key types configured
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Takes a key pair from the pool, generating one on the calling thread if none is available
+     *
+     * @param keyType the key type
+     * @return a key pair that has not been returned before
+     * @throws CertdogException if the key cannot be generated
+     */
+    public KeyPair take(KeyType keyType) throws CertdogException
+    {
+        BlockingQueue<KeyPair> pool = pools.get(keyType);
+        KeyPair kp = pool != null ? pool.poll() : null;
+        if (kp != null)
+        {
+            hits.incrementAndGet();
+            demand.release();
+            return kp;
+        }
+
+        misses.incrementAndGet();
+        try
+        {
+            return keyType.generate();
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new CertdogException("Unable to generate a " + keyType + " key pair. " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param keyType the key type
+     * @return the number of keys of the type ready to be taken
+     */
+    public int available(KeyType keyType)
+    {
+        BlockingQueue<KeyPair> pool = pools.get(keyType);
+        return pool != null ? pool.size() : 0;
+    }
+
+    /**
+     * @return the number of keys taken from the pool
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of keys generated on the calling thread because the pool was empty
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Stops the background threads. Keys can still be taken, but are generated on the calling thread
+     * once the pool is empty
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        generators.shutdownNow();
+    }
+
+    private void generateLoop()
+    {
+        while (!closed)
+        {
+            try
+            {
+                demand.acquire();
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+
+            KeyType keyType = mostNeeded();
+            if (keyType == null)
+                continue;
+
+            try
+            {
+                KeyPair kp = keyType.generate();
+                if (!pools.get(keyType).offer(kp))
+                    demand.release();
+            }
+            catch (GeneralSecurityException e)
+            {
+                // The key type is not supported - stop generating it
+                pools.get(keyType).clear();
+                depths.put(keyType, 0);
+            }
+            finally
+            {
+                generating.get(keyType).decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Picks the key type that is furthest below its depth, reserving one generation for it
+     */
+    private KeyType mostNeeded()
+    {
+        while (true)
+        {
+            KeyType best = null;
+            int bestDeficit = 0;
+            for (Map.Entry<KeyType, Integer> e : depths.entrySet())
+            {
+                KeyType type = e.getKey();
+                int deficit = e.getValue() - pools.get(type).size() - generating.get(type).get();
+                if (deficit > bestDeficit)
+                {
+                    best = type;
+                    bestDeficit = deficit;
+                }
+            }
+
+            if (best == null)
+                return null;
+
+            AtomicInteger inProgress = generating.get(best);
+            int current = inProgress.get();
+            if (depths.get(best) - pools.get(best).size() - current > 0 && inProgress.compareAndSet(current, current + 1))
+                return best;
+        }
+    }
+
+    /**
+     * Builder for KeyPairPool
+     */
+    public static class Builder
+    {
+        private final Map<KeyType, Integer> depths = new EnumMap<>(KeyType.class);
+        private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+        private Builder()
+        {
+        }
+
+        /**
+         * @param keyType the key type to pre-generate
+         * @param depth the number of keys of the type to hold ready
+         * @return this builder
+         */
+        public Builder depth(KeyType keyType, int depth)
+        {
+            this.depths.put(keyType, depth);
+            return this;
+        }
+
+        /**
+         * @param threads the number of background threads generating keys. Defaults to half the available processors
+         * @return this builder
+         */
+        public Builder threads(int threads)
+        {
+            this.threads = threads;
+            return this;
+        }
+
+        public KeyPairPool build()
+        {
+            if (threads < 1)
+                throw new IllegalArgumentException("At least one thread is required");
+            for (Integer depth : depths.values())
+            {
+                if (depth < 1)
+                    throw new IllegalArgumentException("The pool depth must be at least 1");
+            }
+
+            return new KeyPairPool(this);
+        }
+    }
+}
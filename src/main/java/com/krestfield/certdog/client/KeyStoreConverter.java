@@ -0,0 +1,232 @@
+package com.krestfield.certdog.client;
+
+import javax.crypto.Cipher;
+import javax.crypto.EncryptedPrivateKeyInfo;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.PBEParameterSpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.AlgorithmParameters;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Enumeration;
+
+/**
+ * KeyStoreConverter
+ *
+ * Converts the PKCS12 data returned when a certificate is requested to JKS or PEM locally, so the
+ * data does not have to be fetched from certdog again in the required format
+ */
+public class KeyStoreConverter
+{
+    // PKCS#12 PBE algorithm used to protect PEM private keys. Readable by openssl and the JDK
+    private static final String PEM_KEY_ALGORITHM = "PBEWithSHA1AndDESede";
+    private static final int PEM_KEY_ITERATIONS = 10000;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private KeyStoreConverter()
+    {
+    }
+
+    /**
+     * Converts PKCS12 data to the requested format
+     *
+     * @param p12B64Data the base64 PKCS12 data as returned from certdog
+     * @param password the PKCS12 password, which also protects the output
+     * @param format the required format
+     * @return the data as requestCert would return it for the format
+     * @throws CertdogException if the data cannot be converted
+     */
+    public static String Convert(String p12B64Data, String password, CertdogClient.ResponseFormat format) throws CertdogException
+    {
+        switch (format)
+        {
+            case JKS:
+                return ToJks(p12B64Data, password);
+            case PEM:
+                return ToPem(p12B64Data, password);
+            default:
+                return p12B64Data;
+        }
+    }
+
+    /**
+     * Converts PKCS12 data to a JKS
+     *
+     * @param p12B64Data the base64 PKCS12 data
+     * @param password the PKCS12 password, which is also used for the JKS and its key
+     * @return the base64 JKS data
+     * @throws CertdogException if the data cannot be converted
+     */
+    public static String ToJks(String p12B64Data, String password) throws CertdogException
+    {
+        try
+        {
+            char[] pw = password.toCharArray();
+            KeyStore p12 = LoadP12(p12B64Data, pw);
+
+            KeyStore jks = KeyStore.getInstance("JKS");
+            jks.load(null, null);
+
+            Enumeration<String> aliases = p12.aliases();
+            while (aliases.hasMoreElements())
+            {
+                String alias = aliases.nextElement();
+                if (p12.isKeyEntry(alias))
+                    jks.setKeyEntry(alias, p12.getKey(alias, pw), pw, p12.getCertificateChain(alias));
+                else if (p12.isCertificateEntry(alias))
+                    jks.setCertificateEntry(alias, p12.getCertificate(alias));
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            jks.store(out, pw);
+
+            return Base64.getEncoder().encodeToString(out.toByteArray());
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Unable to convert the PKCS12 data to JKS. " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Converts PKCS12 data to PEM: the password protected PKCS#8 private key followed by the
+     * certificate and its chain
+     *
+     * @param p12B64Data the base64 PKCS12 data
+     * @param password the PKCS12 password, which is also used to protect the private key
+     * @return the PEM data
+     * @throws CertdogException if the data cannot be converted
+     */
+    public static String ToPem(String p12B64Data, String password) throws CertdogException
+    {
+        try
+        {
+            char[] pw = password.toCharArray();
+            KeyStore p12 = LoadP12(p12B64Data, pw);
+
+            StringBuilder pem = new StringBuilder(8192);
+            Enumeration<String> aliases = p12.aliases();
+            while (aliases.hasMoreElements())
+            {
+                String alias = aliases.nextElement();
+                if (!p12.isKeyEntry(alias))
+                    continue;
+
+                Key key = p12.getKey(alias, pw);
+                if (key instanceof PrivateKey)
+                    Pem.Encode(Pem.ENCRYPTED_PRIVATE_KEY, EncryptKey((PrivateKey) key, pw), pem);
+
+                for (Certificate cert : p12.getCertificateChain(alias))
+                {
+                    Pem.Encode(Pem.CERTIFICATE, cert.getEncoded(), pem);
+                }
+
+                return pem.toString();
+            }
+
+            throw new CertdogException("The PKCS12 data does not contain a private key");
+        }
+        catch (CertdogException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Unable to convert the PKCS12 data to PEM. " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the issued certificate from the data returned by requestCert
+     *
+     * @param data the data, in the format requested
+     * @param password the password the data was requested with
+     * @param format the format of the data
+     * @return the end entity certificate
+     * @throws CertdogException if the data cannot be read
+     */
+    public static X509Certificate GetCertificate(String data, String password, CertdogClient.ResponseFormat format) throws CertdogException
+    {
+        try
+        {
+            // The PEM holds the key, then the certificate followed by its chain
+            if (format == CertdogClient.ResponseFormat.PEM)
+                return Pem.DecodeCertificate(data);
+
+            return GetCertificate(Base64.getMimeDecoder().decode(data), password, format);
+        }
+        catch (CertdogException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Unable to read the certificate from the " + format + " data. " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the issued certificate from decoded PKCS12 or JKS data
+     */
+    static X509Certificate GetCertificate(byte[] data, String password, CertdogClient.ResponseFormat format) throws CertdogException
+    {
+        try
+        {
+            char[] pw = password.toCharArray();
+            KeyStore ks = format == CertdogClient.ResponseFormat.JKS ? KeyStore.getInstance("JKS") : KeyStore.getInstance("PKCS12");
+            ks.load(new ByteArrayInputStream(data), pw);
+
+            Enumeration<String> aliases = ks.aliases();
+            while (aliases.hasMoreElements())
+            {
+                String alias = aliases.nextElement();
+                if (ks.isKeyEntry(alias) && ks.getCertificate(alias) instanceof X509Certificate)
+                    return (X509Certificate) ks.getCertificate(alias);
+            }
+
+            throw new CertdogException("The " + format + " data does not contain a private key and certificate");
+        }
+        catch (CertdogException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Unable to read the certificate from the " + format + " data. " + e.getMessage(), e);
+        }
+    }
+
+    private static KeyStore LoadP12(String p12B64Data, char[] password) throws Exception
+    {
+        KeyStore p12 = KeyStore.getInstance("PKCS12");
+        p12.load(new ByteArrayInputStream(Base64.getMimeDecoder().decode(p12B64Data)), password);
+
+        return p12;
+    }
+
+    private static byte[] EncryptKey(PrivateKey key, char[] password) throws Exception
+    {
+        byte[] salt = new byte[16];
+        RANDOM.nextBytes(salt);
+        PBEParameterSpec spec = new PBEParameterSpec(salt, PEM_KEY_ITERATIONS);
+
+        SecretKey pbeKey = SecretKeyFactory.getInstance(PEM_KEY_ALGORITHM).generateSecret(new PBEKeySpec(password));
+        Cipher cipher = Cipher.getInstance(PEM_KEY_ALGORITHM);
+        cipher.init(Cipher.ENCRYPT_MODE, pbeKey, spec);
+        byte[] encrypted = cipher.doFinal(key.getEncoded());
+
+        AlgorithmParameters params = AlgorithmParameters.getInstance(PEM_KEY_ALGORITHM);
+        params.init(spec);
+
+        return new EncryptedPrivateKeyInfo(params, encrypted).getEncoded();
+    }
+}
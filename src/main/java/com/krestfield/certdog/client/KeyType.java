@@ -0,0 +1,56 @@
+package com.krestfield.certdog.client;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+
+/**
+ * The key types that can be generated locally for a CSR
+ */
+public enum KeyType
+{
+    RSA_2048("RSA", 2048, null, "SHA256withRSA"),
+    RSA_3072("RSA", 3072, null, "SHA256withRSA"),
+    RSA_4096("RSA", 4096, null, "SHA256withRSA"),
+    EC_P256("EC", 0, "secp256r1", "SHA256withECDSA"),
+    EC_P384("EC", 0, "secp384r1", "SHA384withECDSA");
+
+    private final String algorithm;
+    private final int keySize;
+    private final String curve;
+    private final String signatureAlgorithm;
+
+    KeyType(String algorithm, int keySize, String curve, String signatureAlgorithm)
+    {
+        this.algorithm = algorithm;
+        this.keySize = keySize;
+        this.curve = curve;
+        this.signatureAlgorithm = signatureAlgorithm;
+    }
+
+    /**
+     * @return the algorithm used to sign a CSR with a key of this type
+     */
+    public String getSignatureAlgorithm()
+    {
+        return signatureAlgorithm;
+    }
+
+    /**
+     * Generates a new key pair of this type
+     *
+     * @return the key pair
+     * @throws GeneralSecurityException if the key type is not supported by the installed providers
+     */
+    public KeyPair generate() throws GeneralSecurityException
+    {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance(algorithm);
+        if (curve != null)
+            kpg.initialize(new ECGenParameterSpec(curve));
+        else
+            kpg.initialize(keySize);
+
+        return kpg.generateKeyPair();
+    }
+}
@@ -0,0 +1,151 @@
+package com.krestfield.certdog.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram
+ *
+ * Records latencies, in microseconds, into log-linear buckets in the manner of HdrHistogram: values
+ * below 128 are held exactly and larger values to within 1/64 (about 1.6%) of their true value.
+ * Recording is lock free and may be done from any number of threads
+ */
+public class LatencyHistogram
+{
+    // Values below 2^SUB_BITS are held exactly, above that each power of two is split into 2^(SUB_BITS - 1) buckets
+    private static final int SUB_BITS = 7;
+    private static final int LINEAR = 1 << SUB_BITS;
+    private static final int HALF = LINEAR / 2;
+    private static final int BUCKETS = LINEAR + (63 - SUB_BITS) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param micros the latency in microseconds. Negative values are recorded as 0
+     */
+    public void record(long micros)
+    {
+        if (micros < 0)
+            micros = 0;
+
+        counts.incrementAndGet(IndexOf(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+
+        long m = max.get();
+        while (micros > m && !max.compareAndSet(m, micros))
+            m = max.get();
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * @return the largest value recorded, in microseconds
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the values recorded, in microseconds
+     */
+    public double getMean()
+    {
+        long n = count.get();
+        return n > 0 ? (double) sum.get() / n : 0;
+    }
+
+    /**
+     * Returns the value at a percentile. The value returned is the upper bound of the bucket
+     * holding the percentile, so is never less than the true value
+     *
+     * @param percentile the percentile, from 0 to 100 e.g. 99.9
+     * @return the value in microseconds, or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(n * Math.min(percentile, 100) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= target)
+                return Math.min(UpperBound(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Adds the values recorded in another histogram to this one
+     *
+     * @param other the histogram to add
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            long c = other.counts.get(i);
+            if (c > 0)
+                counts.addAndGet(i, c);
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+
+        long otherMax = other.max.get();
+        long m = max.get();
+        while (otherMax > m && !max.compareAndSet(m, otherMax))
+            m = max.get();
+    }
+
+    /**
+     * Clears all recorded values
+     */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    private static int IndexOf(long value)
+    {
+        if (value < LINEAR)
+            return (int) value;
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - (SUB_BITS - 1);
+
+        return LINEAR + (magnitude - SUB_BITS) * HALF + (int) ((value >>> shift) - HALF);
+    }
+
+    private static long UpperBound(int index)
+    {
+        if (index < LINEAR)
+            return index;
+
+        int magnitude = (index - LINEAR) / HALF + SUB_BITS;
+        int shift = magnitude - (SUB_BITS - 1);
+        long sub = (index - LINEAR) % HALF + HALF;
+
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,228 @@
+package com.krestfield.certdog.client;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MetadataCache
+ *
+ * Caches the team, issuer and generator names for the logged in session
+ *
+ * An entry older than the refresh-ahead point is returned immediately and reloaded on a background
+ * thread. An entry older than the TTL is reloaded and the caller waits for the new value for up to
+ * the stale wait time, after which (or if the reload fails) the old value is returned as long as it
+ * is not older than the maximum staleness
+ */
+class MetadataCache
+{
+    /**
+     * Loads the value for a key from certdog
+     */
+    interface Loader
+    {
+        List<String> load() throws CertdogException;
+    }
+
+    private static class Entry
+    {
+        final List<String> value;
+        final long loadedAtMillis;
+
+        Entry(List<String> value, long loadedAtMillis)
+        {
+            this.value = value;
+            this.loadedAtMillis = loadedAtMillis;
+        }
+    }
+
+    private final long ttlMillis;
+    private final long refreshAfterMillis;
+    private final long staleWaitMillis;
+    private final long maxStaleMillis;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private final ExecutorService refresher;
+
+    // Incremented on invalidation so that loads started before it do not repopulate the cache
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param ttlMillis how long an entry is fresh for
+     * @param refreshAheadFraction the fraction of the TTL after which an entry is reloaded in the background
+     * @param staleWaitMillis how long a caller waits for an expired entry to be reloaded
+     * @param maxStaleMillis how long past its TTL an entry may still be returned
+     */
+    MetadataCache(long ttlMillis, double refreshAheadFraction, long staleWaitMillis, long maxStaleMillis)
+    {
+        this.ttlMillis = ttlMillis;
+        this.refreshAfterMillis = (long) (ttlMillis * refreshAheadFraction);
+        this.staleWaitMillis = staleWaitMillis;
+        this.maxStaleMillis = maxStaleMillis;
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r ->
+        {
+            Thread t = new Thread(r, "certdog-metadata-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        this.refresher = executor;
+    }
+
+    /**
+     * Returns the cached value for the key, loading it if required
+     *
+     * @param key the cache key
+     * @param loader loads the value from certdog
+     * @return the value
+     * @throws CertdogException if there is no usable cached value and the load fails
+     */
+    List<String> get(String key, Loader loader) throws CertdogException
+    {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return await(load(key, loader)).value;
+
+        long age = System.currentTimeMillis() - entry.loadedAtMillis;
+        if (age < refreshAfterMillis)
+            return entry.value;
+
+        if (age < ttlMillis)
+        {
+            refreshInBackground(key, loader);
+            return entry.value;
+        }
+
+        // Expired - wait a short time for the new value, otherwise serve the stale one
+        CompletableFuture<Entry> pending = refreshInBackground(key, loader);
+        try
+        {
+            return pending.get(staleWaitMillis, TimeUnit.MILLISECONDS).value;
+        }
+        catch (TimeoutException | ExecutionException e)
+        {
+            if (age < ttlMillis + maxStaleMillis)
+                return entry.value;
+
+            return await(pending).value;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CertdogException("Interrupted waiting for " + key, e);
+        }
+    }
+
+    /**
+     * Removes all entries
+     */
+    void invalidate()
+    {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Removes a single entry
+     *
+     * @param key the cache key
+     */
+    void invalidate(String key)
+    {
+        generation.incrementAndGet();
+        entries.remove(key);
+    }
+
+    void close()
+    {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * Loads the value on the calling thread, or joins a load of the same key already in progress
+     */
+    private CompletableFuture<Entry> load(String key, Loader loader)
+    {
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = loading.putIfAbsent(key, mine);
+        if (existing != null)
+            return existing;
+
+        runLoad(key, loader, mine);
+        return mine;
+    }
+
+    /**
+     * Starts a load on the background thread unless one is already in progress
+     */
+    private CompletableFuture<Entry> refreshInBackground(String key, Loader loader)
+    {
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = loading.putIfAbsent(key, mine);
+        if (existing != null)
+            return existing;
+
+        try
+        {
+            refresher.execute(() -> runLoad(key, loader, mine));
+        }
+        catch (Exception e)
+        {
+            loading.remove(key, mine);
+            mine.completeExceptionally(e);
+        }
+
+        return mine;
+    }
+
+    private void runLoad(String key, Loader loader, CompletableFuture<Entry> result)
+    {
+        long gen = generation.get();
+        try
+        {
+            Entry entry = new Entry(Collections.unmodifiableList(loader.load()), System.currentTimeMillis());
+            if (gen == generation.get())
+                entries.put(key, entry);
+
+            result.complete(entry);
+        }
+        catch (Exception e)
+        {
+            result.completeExceptionally(e);
+        }
+        finally
+        {
+            loading.remove(key, result);
+        }
+    }
+
+    private static Entry await(CompletableFuture<Entry> pending) throws CertdogException
+    {
+        try
+        {
+            return pending.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CertdogException("Interrupted waiting for certdog", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof CertdogException)
+                throw (CertdogException) e.getCause();
+
+            throw new CertdogException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.krestfield.certdog.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * MicrometerMetrics
+ *
+ * Publishes the calls made by CertdogClient to a Micrometer MeterRegistry. For each endpoint and issuer
+ * it registers
+ *     [prefix].requests   a timer of the calls
+ *     [prefix].responses  a counter for each HTTP status, tagged with outcome=success or failure.
+ *                         Status 0 is used for calls that received no response
+ *     [prefix].inflight   a gauge of the calls in progress
+ *
+ * The meters are tagged with endpoint (the CertdogEndpoints constant) and issuer ("none" for calls not
+ * made for an issuer). The prefix defaults to certdog.client
+ *
+ * Requires micrometer-core on the classpath
+ */
+public class MicrometerMetrics implements CertdogMetrics
+{
+    private static final String NO_ISSUER = "none";
+    private static final int MAX_STATUS = 600;
+
+    /**
+     * The meters for one endpoint and issuer, looked up once and then held
+     */
+    private class Meters
+    {
+        final Tags tags;
+        final Timer timer;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicReferenceArray<Counter> responses = new AtomicReferenceArray<>(MAX_STATUS);
+
+        Meters(String endpoint, String issuerName)
+        {
+            this.tags = Tags.of("endpoint", endpoint, "issuer", issuerName);
+            this.timer = Timer.builder(prefix + ".requests")
+                    .description("Calls made to certdog")
+                    .tags(tags)
+                    .register(registry);
+            Gauge.builder(prefix + ".inflight", inFlight, AtomicInteger::get)
+                    .description("Calls to certdog in progress")
+                    .tags(tags)
+                    .register(registry);
+        }
+
+        Counter responses(int status)
+        {
+            if (status < 0 || status >= MAX_STATUS)
+                return newCounter(status);
+
+            Counter counter = responses.get(status);
+            if (counter == null)
+            {
+                counter = newCounter(status);
+                responses.set(status, counter);
+            }
+
+            return counter;
+        }
+
+        private Counter newCounter(int status)
+        {
+            // Registering an existing meter returns it, so a race here is harmless
+            return Counter.builder(prefix + ".responses")
+                    .description("Responses from certdog by status")
+                    .tags(tags)
+                    .tag("status", String.valueOf(status))
+                    .tag("outcome", status >= 200 && status < 300 ? "success" : "failure")
+                    .register(registry);
+        }
+    }
+
+    private final MeterRegistry registry;
+    private final String prefix;
+    private final ConcurrentMap<String, ConcurrentMap<String, Meters>> meters = new ConcurrentHashMap<>();
+
+    /**
+     * @param registry the registry to publish to
+     */
+    public MicrometerMetrics(MeterRegistry registry)
+    {
+        this(registry, "certdog.client");
+    }
+
+    /**
+     * @param registry the registry to publish to
+     * @param prefix the start of the meter names
+     */
+    public MicrometerMetrics(MeterRegistry registry, String prefix)
+    {
+        this.registry = registry;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public void requestStarted(String endpoint, String issuerName)
+    {
+        metersFor(endpoint, issuerName).inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void requestCompleted(String endpoint, String issuerName, int status, long durationNanos)
+    {
+        Meters m = metersFor(endpoint, issuerName);
+        m.inFlight.decrementAndGet();
+        m.timer.record(durationNanos, TimeUnit.NANOSECONDS);
+        m.responses(status).increment();
+    }
+
+    private Meters metersFor(String endpoint, String issuerName)
+    {
+        String issuer = issuerName != null ? issuerName : NO_ISSUER;
+
+        ConcurrentMap<String, Meters> byIssuer = meters.get(endpoint);
+        if (byIssuer == null)
+            byIssuer = meters.computeIfAbsent(endpoint, e -> new ConcurrentHashMap<>());
+
+        Meters m = byIssuer.get(issuer);
+        if (m == null)
+            m = byIssuer.computeIfAbsent(issuer, i -> new Meters(endpoint, i));
+
+        return m;
+    }
+}
@@ -0,0 +1,258 @@
+package com.krestfield.certdog.client;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * PEM encoding and decoding helpers
+ *
+ * Certificates are decoded in a single pass over the PEM text: the base64 characters between the
+ * BEGIN and END lines are decoded straight into a per-thread buffer, skipping whitespace, and the
+ * DER is parsed with a per-thread CertificateFactory
+ */
+class Pem
+{
+    static final String CERTIFICATE = "CERTIFICATE";
+    static final String ENCRYPTED_PRIVATE_KEY = "ENCRYPTED PRIVATE KEY";
+    static final String PRIVATE_KEY = "PRIVATE KEY";
+
+    private static final String BEGIN = "-----BEGIN ";
+    private static final String END = "-----END ";
+    private static final String DASHES = "-----";
+
+    private static final Base64.Encoder ENCODER = Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII));
+
+    // Base64 character values. -1 for characters that are not base64 or whitespace, -2 for whitespace
+    private static final byte[] DECODE = new byte[128];
+    private static final byte WHITESPACE = -2;
+
+    static
+    {
+        Arrays.fill(DECODE, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++)
+        {
+            DECODE[alphabet.charAt(i)] = (byte) i;
+        }
+        DECODE[' '] = WHITESPACE;
+        DECODE['\t'] = WHITESPACE;
+        DECODE['\r'] = WHITESPACE;
+        DECODE['\n'] = WHITESPACE;
+    }
+
+    private static final ThreadLocal<CertificateFactory> FACTORY = ThreadLocal.withInitial(() ->
+    {
+        try
+        {
+            return CertificateFactory.getInstance("X.509");
+        }
+        catch (CertificateException e)
+        {
+            throw new IllegalStateException("X.509 certificates are not supported", e);
+        }
+    });
+
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[4096]);
+
+    // Buffers larger than this are not retained between calls
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private Pem()
+    {
+    }
+
+    /**
+     * Appends a PEM block, with the base64 data wrapped at 64 characters and lines ending in \n
+     *
+     * @param type the block type e.g. CERTIFICATE
+     * @param der the DER data
+     * @param out the builder to append to
+     */
+    static void Encode(String type, byte[] der, StringBuilder out)
+    {
+        out.append(BEGIN).append(type).append(DASHES).append('\n');
+        out.append(ENCODER.encodeToString(der));
+        out.append('\n').append(END).append(type).append(DASHES).append('\n');
+    }
+
+    /**
+     * Appends a PEM block, with the base64 data wrapped at 64 characters
+     *
+     * @param type the block type e.g. CERTIFICATE
+     * @param der the DER data
+     * @param out the builder to append to
+     * @param lineSeparator the line separator
+     */
+    static void Encode(String type, byte[] der, StringBuilder out, String lineSeparator)
+    {
+        if ("\n".equals(lineSeparator))
+        {
+            Encode(type, der, out);
+            return;
+        }
+
+        Base64.Encoder encoder = Base64.getMimeEncoder(64, lineSeparator.getBytes(StandardCharsets.US_ASCII));
+        out.append(BEGIN).append(type).append(DASHES).append(lineSeparator);
+        out.append(encoder.encodeToString(der));
+        out.append(lineSeparator).append(END).append(type).append(DASHES).append(lineSeparator);
+    }
+
+    /**
+     * Decodes the first certificate in the data
+     *
+     * @param data a PEM certificate, a PEM bundle, or the base64 certificate data with no BEGIN/END lines
+     * @return the certificate
+     * @throws CertificateException if the data does not contain a valid certificate
+     */
+    static X509Certificate DecodeCertificate(String data) throws CertificateException
+    {
+        List<X509Certificate> certs = new ArrayList<>(1);
+        Decode(data, certs, true);
+
+        return certs.get(0);
+    }
+
+    /**
+     * Decodes all the certificates in the data
+     *
+     * @param data a PEM certificate, a PEM bundle, or the base64 certificate data with no BEGIN/END lines
+     * @return the certificates, in the order they appear
+     * @throws CertificateException if the data does not contain a valid certificate
+     */
+    static List<X509Certificate> DecodeCertificates(String data) throws CertificateException
+    {
+        List<X509Certificate> certs = new ArrayList<>();
+        Decode(data, certs, false);
+
+        return certs;
+    }
+
+    /**
+     * Decodes the first block of a type, such as a key, from a PEM bundle
+     *
+     * @param data the PEM data
+     * @param type the type, as on the BEGIN line
+     * @return the DER data, or null if there is no block of the type
+     */
+    static byte[] DecodeBlock(String data, String type)
+    {
+        String begin = BEGIN + type + DASHES;
+        int start = data.indexOf(begin);
+        if (start < 0)
+            return null;
+
+        int end = data.indexOf(END + type + DASHES, start);
+        if (end < 0)
+            throw new IllegalArgumentException("No END line for the " + type);
+
+        return Base64.getMimeDecoder().decode(data.substring(start + begin.length(), end));
+    }
+
+    private static void Decode(String data, List<X509Certificate> certs, boolean firstOnly) throws CertificateException
+    {
+        int pos = data.indexOf(BEGIN);
+        if (pos < 0)
+        {
+            // No BEGIN line - the data is just the base64
+            certs.add(Parse(data, 0, data.length()));
+            return;
+        }
+
+        while (pos >= 0)
+        {
+            int typeStart = pos + BEGIN.length();
+            int typeEnd = data.indexOf(DASHES, typeStart);
+            if (typeEnd < 0)
+                throw new CertificateException("Unterminated BEGIN line");
+
+            int bodyStart = typeEnd + DASHES.length();
+            int bodyEnd = data.indexOf(END, bodyStart);
+            if (bodyEnd < 0)
+                throw new CertificateException("No END line");
+
+            // Other blocks in a bundle (e.g. keys) are skipped
+            if (data.regionMatches(typeStart, CERTIFICATE, 0, CERTIFICATE.length()) && typeEnd - typeStart == CERTIFICATE.length())
+            {
+                certs.add(Parse(data, bodyStart, bodyEnd));
+                if (firstOnly)
+                    return;
+            }
+
+            int endLineEnd = data.indexOf(DASHES, bodyEnd + END.length());
+            if (endLineEnd < 0)
+                throw new CertificateException("Unterminated END line");
+
+            pos = data.indexOf(BEGIN, endLineEnd + DASHES.length());
+        }
+
+        if (certs.isEmpty())
+            throw new CertificateException("No certificate found in the PEM data");
+    }
+
+    /**
+     * Decodes the base64 characters in the range and parses the result as a certificate
+     */
+    private static X509Certificate Parse(String data, int start, int end) throws CertificateException
+    {
+        // Each 4 base64 characters decode to 3 bytes
+        int maxLength = (end - start) / 4 * 3 + 3;
+        byte[] buf = BUFFER.get();
+        if (buf.length < maxLength)
+        {
+            buf = new byte[Math.max(maxLength, buf.length * 2)];
+            if (buf.length <= MAX_RETAINED_BUFFER)
+                BUFFER.set(buf);
+        }
+
+        int len = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = start; i < end; i++)
+        {
+            char c = data.charAt(i);
+            if (c == '=')
+                break;
+
+            int v = c < 128 ? DECODE[c] : -1;
+            if (v == WHITESPACE)
+                continue;
+            if (v < 0)
+                throw new CertificateException("Invalid character in base64 data: '" + c + "'");
+
+            bits = (bits << 6) | v;
+            if (++count == 4)
+            {
+                buf[len++] = (byte) (bits >> 16);
+                buf[len++] = (byte) (bits >> 8);
+                buf[len++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+
+        // Trailing partial group
+        if (count == 3)
+        {
+            buf[len++] = (byte) (bits >> 10);
+            buf[len++] = (byte) (bits >> 2);
+        }
+        else if (count == 2)
+        {
+            buf[len++] = (byte) (bits >> 4);
+        }
+        else if (count == 1)
+        {
+            throw new CertificateException("Truncated base64 data");
+        }
+
+        // The factory copies the bytes it needs so the buffer can be reused
+        return (X509Certificate) FACTORY.get().generateCertificate(new ByteArrayInputStream(buf, 0, len));
+    }
+}
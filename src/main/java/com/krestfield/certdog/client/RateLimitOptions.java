@@ -0,0 +1,194 @@
+package com.krestfield.certdog.client;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * RateLimitOptions
+ *
+ * Client side rate limits for CertdogClient, set with CertdogClientConfig.Builder.rateLimit().
+ * Create with RateLimitOptions.builder()
+ *
+ * The limits apply to the calls that reach the issuing CA: certificate requests (from a generator or a CSR)
+ * and revocations. Each is a token bucket: permits are added at a steady rate up to the burst size and each
+ * call takes one. A call must get a permit from its issuer's bucket, if the issuer has a limit, and from the
+ * global bucket, if there is one
+ *
+ * When no permit is available a blocking client waits for one, up to the maximum wait, while a fail fast
+ * client does not wait. Either way a call that cannot get a permit fails with Kind.RATE_LIMITED. Async calls
+ * never block a thread: they are sent once their permit is due
+ */
+public class RateLimitOptions
+{
+    /**
+     * The rate and burst size of one bucket
+     */
+    public static class Limit
+    {
+        private final double permitsPerSecond;
+        private final int burst;
+
+        Limit(double permitsPerSecond, int burst)
+        {
+            if (permitsPerSecond <= 0)
+                throw new IllegalArgumentException("The permits per second must be greater than 0");
+            if (burst < 1)
+                throw new IllegalArgumentException("The burst must be at least 1");
+
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+        }
+
+        public double getPermitsPerSecond()
+        {
+            return permitsPerSecond;
+        }
+
+        public int getBurst()
+        {
+            return burst;
+        }
+    }
+
+    private final Limit globalLimit;
+    private final Limit defaultIssuerLimit;
+    private final Map<String, Limit> issuerLimits;
+    private final boolean failFast;
+    private final long maxWaitMillis;
+
+    private RateLimitOptions(Builder builder)
+    {
+        this.globalLimit = builder.globalLimit;
+        this.defaultIssuerLimit = builder.defaultIssuerLimit;
+        this.issuerLimits = Collections.unmodifiableMap(new HashMap<>(builder.issuerLimits));
+        this.failFast = builder.failFast;
+        this.maxWaitMillis = builder.maxWaitMillis;
+    }
+
+    /**
+     * @return a builder with no limits set
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * @return the limit across all issuers, or null if there is none
+     */
+    public Limit getGlobalLimit()
+    {
+        return globalLimit;
+    }
+
+    /**
+     * @return the limit for issuers that do not have their own, or null if there is none
+     */
+    public Limit getDefaultIssuerLimit()
+    {
+        return defaultIssuerLimit;
+    }
+
+    /**
+     * @param issuerName the issuer
+     * @return the limit for the issuer, or null if it has none
+     */
+    public Limit getIssuerLimit(String issuerName)
+    {
+        Limit limit = issuerLimits.get(issuerName);
+        return limit != null ? limit : defaultIssuerLimit;
+    }
+
+    public boolean isFailFast()
+    {
+        return failFast;
+    }
+
+    public long getMaxWaitMillis()
+    {
+        return maxWaitMillis;
+    }
+
+    /**
+     * Builder for RateLimitOptions
+     */
+    public static class Builder
+    {
+        private Limit globalLimit = null;
+        private Limit defaultIssuerLimit = null;
+        private final Map<String, Limit> issuerLimits = new HashMap<>();
+        private boolean failFast = false;
+        private long maxWaitMillis = 30000;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * @param permitsPerSecond the sustained rate of calls across all issuers
+         * @param burst the number of calls that may be made at once after a quiet period
+         * @return this builder
+         */
+        public Builder global(double permitsPerSecond, int burst)
+        {
+            this.globalLimit = new Limit(permitsPerSecond, burst);
+            return this;
+        }
+
+        /**
+         * Sets the limit for each issuer that is not given its own with issuer()
+         *
+         * @param permitsPerSecond the sustained rate of calls to each issuer
+         * @param burst the number of calls that may be made at once after a quiet period
+         * @return this builder
+         */
+        public Builder perIssuer(double permitsPerSecond, int burst)
+        {
+            this.defaultIssuerLimit = new Limit(permitsPerSecond, burst);
+            return this;
+        }
+
+        /**
+         * @param issuerName the issuer, as passed to requestCert
+         * @param permitsPerSecond the sustained rate of calls to the issuer
+         * @param burst the number of calls that may be made at once after a quiet period
+         * @return this builder
+         */
+        public Builder issuer(String issuerName, double permitsPerSecond, int burst)
+        {
+            this.issuerLimits.put(issuerName, new Limit(permitsPerSecond, burst));
+            return this;
+        }
+
+        /**
+         * @param failFast true to fail calls at once when no permit is available, false (the default) to wait
+         * @return this builder
+         */
+        public Builder failFast(boolean failFast)
+        {
+            this.failFast = failFast;
+            return this;
+        }
+
+        /**
+         * @param maxWaitMillis the longest a blocking call waits for a permit. Default 30000
+         * @return this builder
+         */
+        public Builder maxWait(long maxWaitMillis)
+        {
+            this.maxWaitMillis = maxWaitMillis;
+            return this;
+        }
+
+        public RateLimitOptions build()
+        {
+            if (globalLimit == null && defaultIssuerLimit == null && issuerLimits.isEmpty())
+                throw new IllegalArgumentException("At least one limit must be set");
+            if (maxWaitMillis < 0)
+                throw new IllegalArgumentException("The maximum wait must be at least 0");
+
+            return new RateLimitOptions(this);
+        }
+    }
+}
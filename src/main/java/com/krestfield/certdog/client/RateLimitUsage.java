@@ -0,0 +1,96 @@
+package com.krestfield.certdog.client;
+
+/**
+ * RateLimitUsage
+ *
+ * A snapshot of one rate limit bucket, from CertdogClient.getRateLimitUsage()
+ */
+public class RateLimitUsage
+{
+    private final String issuerName;
+    private final double permitsPerSecond;
+    private final int burst;
+    private final int availablePermits;
+    private final int waiting;
+    private final long granted;
+    private final long rejected;
+    private final long totalWaitMillis;
+
+    RateLimitUsage(String issuerName, double permitsPerSecond, int burst, int availablePermits, int waiting,
+                   long granted, long rejected, long totalWaitMillis)
+    {
+        this.issuerName = issuerName;
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.availablePermits = availablePermits;
+        this.waiting = waiting;
+        this.granted = granted;
+        this.rejected = rejected;
+        this.totalWaitMillis = totalWaitMillis;
+    }
+
+    /**
+     * @return the issuer, or null for the global limit
+     */
+    public String getIssuerName()
+    {
+        return issuerName;
+    }
+
+    public double getPermitsPerSecond()
+    {
+        return permitsPerSecond;
+    }
+
+    public int getBurst()
+    {
+        return burst;
+    }
+
+    /**
+     * @return the permits that could be taken now without waiting
+     */
+    public int getAvailablePermits()
+    {
+        return availablePermits;
+    }
+
+    /**
+     * @return the calls that have been given a permit that is not yet due, so are waiting to be sent
+     */
+    public int getWaiting()
+    {
+        return waiting;
+    }
+
+    /**
+     * @return the permits given out, including those waited for
+     */
+    public long getGranted()
+    {
+        return granted;
+    }
+
+    /**
+     * @return the calls failed with Kind.RATE_LIMITED because of this bucket
+     */
+    public long getRejected()
+    {
+        return rejected;
+    }
+
+    /**
+     * @return the total time calls have waited for permits from this bucket
+     */
+    public long getTotalWaitMillis()
+    {
+        return totalWaitMillis;
+    }
+
+    @Override
+    public String toString()
+    {
+        return (issuerName != null ? issuerName : "global") + ": " + availablePermits + "/" + burst + " available, "
+                + waiting + " waiting, " + granted + " granted, " + rejected + " rejected, " + totalWaitMillis + " ms waited";
+    }
+}
@@ -0,0 +1,33 @@
+package com.krestfield.certdog.client;
+
+/**
+ * Thrown in place of a call to certdog when a permit could not be taken from the client side rate limit:
+ * at once in fail fast mode, or after the maximum wait when blocking. The client methods wrap it, so check
+ * for it with CertdogException.getKind() == Kind.RATE_LIMITED
+ */
+public class RateLimitedException extends CertdogException
+{
+    private final String issuerName;
+
+    public RateLimitedException(String issuerName)
+    {
+        super(issuerName != null
+                ? "The rate limit for issuer " + issuerName + " has been reached"
+                : "The global rate limit has been reached");
+        this.issuerName = issuerName;
+    }
+
+    /**
+     * @return the issuer whose limit was reached, or null if it was the global limit
+     */
+    public String getIssuerName()
+    {
+        return issuerName;
+    }
+
+    @Override
+    public Kind getKind()
+    {
+        return Kind.RATE_LIMITED;
+    }
+}
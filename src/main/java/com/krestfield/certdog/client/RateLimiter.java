@@ -0,0 +1,280 @@
+package com.krestfield.certdog.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The client side rate limits of a CertdogClient. See RateLimitOptions
+ *
+ * Permits are reserved: a call that has to wait takes its permit at once, leaving the bucket below zero,
+ * and is told how long to wait. Later calls then queue behind it in order. A call that is not sent after
+ * all (e.g. is cancelled while waiting) gives its permit back with refund
+ */
+class RateLimiter
+{
+    /**
+     * One token bucket. Guarded by the RateLimiter
+     */
+    private static class TokenBucket
+    {
+        final String issuerName;
+        final RateLimitOptions.Limit limit;
+        double tokens;
+        long lastNanos;
+        long granted = 0;
+        long rejected = 0;
+        long waitedNanos = 0;
+
+        TokenBucket(String issuerName, RateLimitOptions.Limit limit, long now)
+        {
+            this.issuerName = issuerName;
+            this.limit = limit;
+            this.tokens = limit.getBurst();
+            this.lastNanos = now;
+        }
+
+        /**
+         * @return the time until a permit is due
+         */
+        long waitNanos(long now)
+        {
+            tokens = Math.min(limit.getBurst(), tokens + (now - lastNanos) * limit.getPermitsPerSecond() / 1e9);
+            lastNanos = now;
+
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * 1e9 / limit.getPermitsPerSecond());
+        }
+
+        /**
+         * @param waitNanos the time the caller waits for this bucket's permit
+         */
+        void take(long waitNanos)
+        {
+            tokens -= 1;
+            granted++;
+            waitedNanos += waitNanos;
+        }
+
+        /**
+         * @param waitNanos the wait recorded when the permit was taken
+         */
+        void giveBack(long waitNanos)
+        {
+            tokens = Math.min(limit.getBurst(), tokens + 1);
+            granted--;
+            waitedNanos -= waitNanos;
+        }
+
+        RateLimitUsage usage(long now)
+        {
+            waitNanos(now);
+            return new RateLimitUsage(issuerName, limit.getPermitsPerSecond(), limit.getBurst(),
+                    (int) Math.max(0, tokens), tokens < 0 ? (int) Math.ceil(-tokens) : 0,
+                    granted, rejected, waitedNanos / 1000000);
+        }
+    }
+
+    /**
+     * A permit taken by reserve
+     */
+    static class Reservation
+    {
+        private final TokenBucket issuer;
+        private final TokenBucket global;
+        private final long issuerWait;
+        private final long globalWait;
+
+        private Reservation(TokenBucket issuer, TokenBucket global, long issuerWait, long globalWait)
+        {
+            this.issuer = issuer;
+            this.global = global;
+            this.issuerWait = issuerWait;
+            this.globalWait = globalWait;
+        }
+
+        /**
+         * @return the time to wait before sending the call, 0 to send it now
+         */
+        long getWaitNanos()
+        {
+            return Math.max(issuerWait, globalWait);
+        }
+    }
+
+    private final RateLimitOptions options;
+    private final TokenBucket global;
+    private final Map<String, TokenBucket> issuers = new HashMap<>();
+    private ScheduledExecutorService scheduler = null;
+
+    RateLimiter(RateLimitOptions options)
+    {
+        this.options = options;
+        this.global = options.getGlobalLimit() != null
+                ? new TokenBucket(null, options.getGlobalLimit(), System.nanoTime())
+                : null;
+    }
+
+    /**
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @return true if calls to the endpoint need a permit: those that reach the issuing CA
+     */
+    static boolean IsLimited(String endpoint)
+    {
+        return CertdogEndpoints.CERT_REQ.equals(endpoint)
+                || CertdogEndpoints.CERT_REQ_CSR.equals(endpoint)
+                || CertdogEndpoints.REVOKE_CERT.equals(endpoint);
+    }
+
+    /**
+     * Reserves a permit from the issuer's bucket and the global bucket
+     *
+     * @param issuerName the issuer the call is for
+     * @return the permit, with the time to wait before sending the call
+     * @throws RateLimitedException if the permit is not available within the time allowed
+     */
+    synchronized Reservation reserve(String issuerName) throws RateLimitedException
+    {
+        long now = System.nanoTime();
+        TokenBucket issuer = issuerBucket(issuerName, now);
+
+        long issuerWait = issuer != null ? issuer.waitNanos(now) : 0;
+        long globalWait = global != null ? global.waitNanos(now) : 0;
+        long allowed = options.isFailFast() ? 0 : options.getMaxWaitMillis() * 1000000L;
+
+        if (issuerWait > allowed)
+        {
+            issuer.rejected++;
+            throw new RateLimitedException(issuerName);
+        }
+        if (globalWait > allowed)
+        {
+            global.rejected++;
+            throw new RateLimitedException(null);
+        }
+
+        if (issuer != null)
+            issuer.take(issuerWait);
+        if (global != null)
+            global.take(globalWait);
+
+        return new Reservation(issuer, global, issuerWait, globalWait);
+    }
+
+    /**
+     * Gives back a permit for a call that was not sent, so it is not counted against the limits
+     *
+     * @param permit the permit from reserve
+     */
+    synchronized void refund(Reservation permit)
+    {
+        long now = System.nanoTime();
+        if (permit.issuer != null)
+        {
+            permit.issuer.waitNanos(now);
+            permit.issuer.giveBack(permit.issuerWait);
+        }
+        if (permit.global != null)
+        {
+            permit.global.waitNanos(now);
+            permit.global.giveBack(permit.globalWait);
+        }
+    }
+
+    /**
+     * Takes a permit, blocking until it is due
+     *
+     * @param issuerName the issuer the call is for
+     * @throws RateLimitedException if the permit is not available within the time allowed
+     * @throws InterruptedException if interrupted while waiting, when the permit is given back
+     */
+    void acquire(String issuerName) throws RateLimitedException, InterruptedException
+    {
+        Reservation permit = reserve(issuerName);
+        if (permit.getWaitNanos() == 0)
+            return;
+
+        try
+        {
+            TimeUnit.NANOSECONDS.sleep(permit.getWaitNanos());
+        }
+        catch (InterruptedException e)
+        {
+            refund(permit);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends an async call once its permit is due
+     */
+    synchronized ScheduledFuture<?> schedule(Runnable send, long delayNanos)
+    {
+        if (scheduler == null)
+        {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r ->
+            {
+                Thread t = new Thread(r, "certdog-rate-limit");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        return scheduler.schedule(send, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    synchronized void close()
+    {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+    }
+
+    /**
+     * @param issuerName the issuer, or null for the global limit
+     * @return the usage of the bucket, or null if there is no such limit
+     */
+    synchronized RateLimitUsage getUsage(String issuerName)
+    {
+        long now = System.nanoTime();
+        TokenBucket bucket = issuerName != null ? issuerBucket(issuerName, now) : global;
+
+        return bucket != null ? bucket.usage(now) : null;
+    }
+
+    /**
+     * @return the usage of the global bucket, if any, then each issuer's bucket that has been used
+     */
+    synchronized List<RateLimitUsage> getUsage()
+    {
+        long now = System.nanoTime();
+        List<RateLimitUsage> usage = new ArrayList<>();
+        if (global != null)
+            usage.add(global.usage(now));
+        for (TokenBucket bucket : issuers.values())
+        {
+            usage.add(bucket.usage(now));
+        }
+
+        return usage;
+    }
+
+    private TokenBucket issuerBucket(String issuerName, long now)
+    {
+        TokenBucket bucket = issuers.get(issuerName);
+        if (bucket == null)
+        {
+            RateLimitOptions.Limit limit = options.getIssuerLimit(issuerName);
+            if (limit == null)
+                return null;
+
+            bucket = new TokenBucket(issuerName, limit, now);
+            issuers.put(issuerName, bucket);
+        }
+
+        return bucket;
+    }
+}
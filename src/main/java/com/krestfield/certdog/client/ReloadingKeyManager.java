@@ -0,0 +1,230 @@
+package com.krestfield.certdog.client;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.net.Socket;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ReloadingKeyManager
+ *
+ * A key manager whose credential can be replaced while it is in use, so a server picks up a renewed
+ * certificate without a restart and without dropping its connections. Connections already established
+ * carry on with the credential they were made with and new handshakes use the new one
+ *
+ * Each credential is presented under its own aliases, so a handshake that chose the previous credential
+ * just before it was replaced still gets that key and chain
+ *
+ * Use as the key manager of an SSLContext, e.g. from toSslContext, and call update when the credential
+ * is renewed, such as from a RenewalListener
+ */
+public class ReloadingKeyManager extends X509ExtendedKeyManager
+{
+    /**
+     * A credential and the key manager that presents it. Its aliases are those of the delegate with a prefix
+     */
+    private static class Generation
+    {
+        final String prefix;
+        final TlsCredential credential;
+        final X509ExtendedKeyManager delegate;
+
+        Generation(long number, TlsCredential credential) throws CertdogException
+        {
+            this.prefix = number + ":";
+            this.credential = credential;
+            this.delegate = credential.toKeyManager();
+        }
+
+        String wrap(String alias)
+        {
+            return alias != null ? prefix + alias : null;
+        }
+
+        String[] wrap(String[] aliases)
+        {
+            if (aliases == null)
+                return null;
+
+            String[] wrapped = new String[aliases.length];
+            for (int i = 0; i < aliases.length; i++)
+            {
+                wrapped[i] = prefix + aliases[i];
+            }
+            return wrapped;
+        }
+    }
+
+    private volatile Generation current;
+    private volatile Generation previous = null;
+    private long generations = 0;
+
+    /**
+     * Constructor
+     *
+     * @param credential the credential to present
+     * @throws CertdogException if a key manager cannot be created for the credential
+     */
+    public ReloadingKeyManager(TlsCredential credential) throws CertdogException
+    {
+        this.current = new Generation(generations++, credential);
+    }
+
+    /**
+     * Replaces the credential. New handshakes present it as soon as this returns
+     *
+     * @param credential the new credential
+     * @throws CertdogException if a key manager cannot be created for the credential. The current one is kept
+     */
+    public synchronized void update(TlsCredential credential) throws CertdogException
+    {
+        Generation next = new Generation(generations++, credential);
+        previous = current;
+        current = next;
+    }
+
+    /**
+     * Replaces the credential with one renewed by a RenewalScheduler. The issuer chain of the current
+     * credential is kept unless the renewed data includes one. A certificate renewed from the same CSR
+     * (RenewalRequest.fromCsr) is presented with the current key
+     *
+     * @param result the renewal
+     * @throws CertdogException if the renewal cannot be read, or is for a different key with none provided
+     */
+    public void update(RenewalResult result) throws CertdogException
+    {
+        TlsCredential now = current.credential;
+        List<X509Certificate> issuerChain = now.getChain().subList(1, now.getChain().size());
+
+        TlsCredential renewed;
+        if (result.getPrivateKey() != null)
+        {
+            List<X509Certificate> chain = new ArrayList<>();
+            chain.add(result.getCertificate());
+            renewed = new TlsCredential(result.getPrivateKey(), chain).withIssuerChain(issuerChain);
+        }
+        else if (result.getData() != null)
+        {
+            renewed = TlsCredential.fromData(result.getData(), result.getPassword(), result.getFormat());
+            if (renewed.getChain().size() == 1)
+                renewed = renewed.withIssuerChain(issuerChain);
+        }
+        else if (result.getCertificate().getPublicKey().equals(now.getCertificate().getPublicKey()))
+        {
+            List<X509Certificate> chain = new ArrayList<>();
+            chain.add(result.getCertificate());
+            renewed = new TlsCredential(now.getPrivateKey(), chain).withIssuerChain(issuerChain);
+        }
+        else
+        {
+            throw new CertdogException("The renewed certificate '" + result.getId() + "' is for a different key, which was not provided");
+        }
+
+        update(renewed);
+    }
+
+    /**
+     * @return the credential presented to new handshakes
+     */
+    public TlsCredential getCredential()
+    {
+        return current.credential;
+    }
+
+    /**
+     * @return a TLS SSLContext that presents the current credential and trusts the JVM's default CAs
+     * @throws CertdogException if the SSLContext cannot be created
+     */
+    public SSLContext toSslContext() throws CertdogException
+    {
+        return toSslContext(null);
+    }
+
+    /**
+     * @param trustManagers the trust managers, or null for the JVM's default CAs
+     * @return a TLS SSLContext that presents the current credential
+     * @throws CertdogException if the SSLContext cannot be created
+     */
+    public SSLContext toSslContext(TrustManager[] trustManagers) throws CertdogException
+    {
+        return TlsCredential.CreateSslContext(this, trustManagers);
+    }
+
+    @Override
+    public String[] getClientAliases(String keyType, Principal[] issuers)
+    {
+        Generation g = current;
+        return g.wrap(g.delegate.getClientAliases(keyType, issuers));
+    }
+
+    @Override
+    public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket)
+    {
+        Generation g = current;
+        return g.wrap(g.delegate.chooseClientAlias(keyType, issuers, socket));
+    }
+
+    @Override
+    public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine engine)
+    {
+        Generation g = current;
+        return g.wrap(g.delegate.chooseEngineClientAlias(keyType, issuers, engine));
+    }
+
+    @Override
+    public String[] getServerAliases(String keyType, Principal[] issuers)
+    {
+        Generation g = current;
+        return g.wrap(g.delegate.getServerAliases(keyType, issuers));
+    }
+
+    @Override
+    public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket)
+    {
+        Generation g = current;
+        return g.wrap(g.delegate.chooseServerAlias(keyType, issuers, socket));
+    }
+
+    @Override
+    public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine)
+    {
+        Generation g = current;
+        return g.wrap(g.delegate.chooseEngineServerAlias(keyType, issuers, engine));
+    }
+
+    @Override
+    public X509Certificate[] getCertificateChain(String alias)
+    {
+        Generation g = find(alias);
+        return g != null ? g.delegate.getCertificateChain(alias.substring(g.prefix.length())) : null;
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(String alias)
+    {
+        Generation g = find(alias);
+        return g != null ? g.delegate.getPrivateKey(alias.substring(g.prefix.length())) : null;
+    }
+
+    /**
+     * @return the generation an alias belongs to, or null if it is older than the previous one
+     */
+    private Generation find(String alias)
+    {
+        if (alias == null)
+            return null;
+
+        Generation g = current;
+        if (alias.startsWith(g.prefix))
+            return g;
+
+        g = previous;
+        return g != null && alias.startsWith(g.prefix) ? g : null;
+    }
+}
@@ -0,0 +1,41 @@
+package com.krestfield.certdog.client;
+
+import java.security.cert.X509Certificate;
+
+/**
+ * Receives the outcome of renewals made by a RenewalScheduler
+ *
+ * Called from the scheduler's renewal threads, so implementations must be thread safe
+ */
+public interface RenewalListener
+{
+    /**
+     * Called with the new material once a certificate has been renewed. The scheduler records the
+     * renewal only after this returns, so if it throws, or the process stops first, the certificate
+     * is renewed again later
+     *
+     * @param result the new material
+     */
+    void onRenewed(RenewalResult result);
+
+    /**
+     * Called when a renewal fails. It is tried again after the retry delay
+     *
+     * @param id the id the certificate was registered with
+     * @param current the certificate that could not be renewed
+     * @param error the failure
+     * @param failures the number of times in a row the renewal has failed
+     */
+    default void onRenewalFailed(String id, X509Certificate current, CertdogException error, int failures)
+    {
+    }
+
+    /**
+     * Called when the state file cannot be written. The scheduler tries again at the next change
+     *
+     * @param error the failure
+     */
+    default void onStateSaveFailed(CertdogException error)
+    {
+    }
+}
@@ -0,0 +1,162 @@
+package com.krestfield.certdog.client;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * RenewalRequest
+ *
+ * How a certificate registered with a RenewalScheduler is renewed. Create with one of the static methods:
+ *
+ * fromCsr sends the same CSR again, so the new certificate is for the same key. withLocalKey generates a
+ * new key locally (see requestCertWithLocalKey) and fromGenerator has certdog generate it (see requestCert).
+ * The DN of the new certificate is taken from the one it replaces
+ *
+ * Nothing secret is held: the CSR is public and new keys and passwords are only passed to the
+ * RenewalListener
+ */
+public class RenewalRequest
+{
+    enum Method
+    {
+        CSR,
+        LOCAL_KEY,
+        GENERATOR
+    }
+
+    private final Method method;
+    private final String issuerName;
+    private final String teamName;
+    private final String csr;
+    private final KeyType keyType;
+    private final String generatorName;
+    private final CertdogClient.ResponseFormat format;
+    private final List<String> sans;
+
+    RenewalRequest(Method method, String issuerName, String teamName, String csr, KeyType keyType,
+                   String generatorName, CertdogClient.ResponseFormat format, List<String> sans)
+    {
+        this.method = method;
+        this.issuerName = issuerName;
+        this.teamName = teamName;
+        this.csr = csr;
+        this.keyType = keyType;
+        this.generatorName = generatorName;
+        this.format = format;
+        this.sans = sans != null ? Collections.unmodifiableList(new ArrayList<>(sans)) : Collections.emptyList();
+    }
+
+    /**
+     * Renews by sending the CSR the certificate was issued for, as with requestCertFromCsr
+     *
+     * @param issuerName the cert issuer to process the request
+     * @param teamName the team the certificate will be associated with
+     * @param csrData the PEM CSR
+     * @return the request
+     */
+    public static RenewalRequest fromCsr(String issuerName, String teamName, String csrData)
+    {
+        return new RenewalRequest(Method.CSR, issuerName, teamName, csrData, null, null, null, null);
+    }
+
+    /**
+     * Renews with a new key generated locally, as with requestCertWithLocalKey
+     *
+     * @param issuerName the cert issuer to process the request
+     * @param teamName the team the certificate will be associated with
+     * @param sans Subject Alternative Names, or null. In the form DNS:[dns name],EMAIL:[email],IP:[ip address]
+     * @param keyType the type of key to generate
+     * @return the request
+     */
+    public static RenewalRequest withLocalKey(String issuerName, String teamName, List<String> sans, KeyType keyType)
+    {
+        return new RenewalRequest(Method.LOCAL_KEY, issuerName, teamName, null, keyType, null, null, sans);
+    }
+
+    /**
+     * Renews with a new key generated by certdog, as with requestCert
+     *
+     * @param issuerName the cert issuer to process the request
+     * @param generatorName the CSR generator to create the CSR
+     * @param teamName the team the certificate will be associated with
+     * @param sans Subject Alternative Names, or null. In the form DNS:[dns name],EMAIL:[email],IP:[ip address]
+     * @param format the format of the renewed data - PKCS12/JKS or PEM
+     * @return the request
+     */
+    public static RenewalRequest fromGenerator(String issuerName, String generatorName, String teamName,
+                                               List<String> sans, CertdogClient.ResponseFormat format)
+    {
+        return new RenewalRequest(Method.GENERATOR, issuerName, teamName, null, null, generatorName, format, sans);
+    }
+
+    Method getMethod()
+    {
+        return method;
+    }
+
+    public String getIssuerName()
+    {
+        return issuerName;
+    }
+
+    public String getTeamName()
+    {
+        return teamName;
+    }
+
+    public String getCsr()
+    {
+        return csr;
+    }
+
+    public KeyType getKeyType()
+    {
+        return keyType;
+    }
+
+    public String getGeneratorName()
+    {
+        return generatorName;
+    }
+
+    public CertdogClient.ResponseFormat getFormat()
+    {
+        return format;
+    }
+
+    public List<String> getSans()
+    {
+        return sans;
+    }
+
+    /**
+     * Requests the new certificate
+     *
+     * @param client the client to request it with
+     * @param id the id the certificate was registered with
+     * @param current the certificate being renewed
+     * @param password the password for the data, used only by fromGenerator
+     * @return the new material
+     * @throws CertdogException if the request fails
+     */
+    RenewalResult renew(CertdogClient client, String id, X509Certificate current, String password) throws CertdogException
+    {
+        String dn = current.getSubjectX500Principal().getName();
+        switch (method)
+        {
+            case CSR:
+                return new RenewalResult(id, current, client.requestCertFromCsr(issuerName, teamName, csr),
+                        null, null, null, null);
+            case LOCAL_KEY:
+                IssuedCredential credential = client.requestCertWithLocalKey(issuerName, teamName, dn, sans, keyType);
+                return new RenewalResult(id, current, credential.getCertificate(), credential.getPrivateKey(),
+                        null, null, null);
+            default:
+                String data = client.requestCert(issuerName, generatorName, teamName, dn, password, sans, format);
+                return new RenewalResult(id, current, KeyStoreConverter.GetCertificate(data, password, format),
+                        null, data, password, format);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.krestfield.certdog.client;
+
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+/**
+ * RenewalResult
+ *
+ * The new material for a certificate renewed by a RenewalScheduler, passed to the RenewalListener
+ */
+public class RenewalResult
+{
+    private final String id;
+    private final X509Certificate previous;
+    private final X509Certificate certificate;
+    private final PrivateKey privateKey;
+    private final String data;
+    private final String password;
+    private final CertdogClient.ResponseFormat format;
+
+    RenewalResult(String id, X509Certificate previous, X509Certificate certificate, PrivateKey privateKey,
+                  String data, String password, CertdogClient.ResponseFormat format)
+    {
+        this.id = id;
+        this.previous = previous;
+        this.certificate = certificate;
+        this.privateKey = privateKey;
+        this.data = data;
+        this.password = password;
+        this.format = format;
+    }
+
+    /**
+     * @return the id the certificate was registered with
+     */
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return the certificate that was renewed
+     */
+    public X509Certificate getPrevious()
+    {
+        return previous;
+    }
+
+    /**
+     * @return the new certificate
+     */
+    public X509Certificate getCertificate()
+    {
+        return certificate;
+    }
+
+    /**
+     * @return the new private key if it was generated locally (RenewalRequest.withLocalKey), otherwise null
+     */
+    public PrivateKey getPrivateKey()
+    {
+        return privateKey;
+    }
+
+    /**
+     * @return the data as returned by requestCert if certdog generated the key (RenewalRequest.fromGenerator),
+     * otherwise null
+     */
+    public String getData()
+    {
+        return data;
+    }
+
+    /**
+     * @return the password protecting getData(), or null
+     */
+    public String getPassword()
+    {
+        return password;
+    }
+
+    /**
+     * @return the format of getData(), or null
+     */
+    public CertdogClient.ResponseFormat getFormat()
+    {
+        return format;
+    }
+}
@@ -0,0 +1,596 @@
+package com.krestfield.certdog.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * RenewalScheduler
+ *
+ * Renews registered certificates before they expire. Create with RenewalScheduler.builder()
+ *
+ * Each certificate is renewed at a fraction of its lifetime (from notBefore to notAfter), moved earlier or
+ * later by a random jitter so that certificates issued together are not all renewed together. The
+ * certificates are held in a priority queue ordered by renewal time, and a single thread waits for the
+ * head of the queue to fall due and hands it to a small pool of renewal threads. The new material is passed
+ * to the RenewalListener and the new certificate takes the old one's place in the queue. Failed renewals
+ * are retried with exponential backoff
+ *
+ * If a state file is set the registered certificates and their renewal times are written to it after every
+ * change, and read back when the scheduler is built, so the schedule survives restarts. The file holds no
+ * private keys or passwords
+ */
+public class RenewalScheduler implements AutoCloseable
+{
+    private static final int STATE_VERSION = 1;
+    private static final long CLOSE_WAIT_MILLIS = 30000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * A registered certificate. Guarded by the scheduler
+     */
+    private static class Entry
+    {
+        final String id;
+        final RenewalRequest request;
+        X509Certificate certificate;
+        long renewAt;
+        int failures = 0;
+
+        Entry(String id, RenewalRequest request, X509Certificate certificate, long renewAt)
+        {
+            this.id = id;
+            this.request = request;
+            this.certificate = certificate;
+            this.renewAt = renewAt;
+        }
+    }
+
+    private final CertdogClient client;
+    private final double renewAtFraction;
+    private final double jitterFraction;
+    private final long retryDelayMillis;
+    private final long maxRetryDelayMillis;
+    private final Path stateFile;
+    private final SaveOptions.Durability stateDurability;
+    // Not a monitor, so a virtual thread saving the state does not pin its carrier thread during the write
+    private final ReentrantLock saveLock = new ReentrantLock();
+    private final RenewalListener listener;
+    private final Function<String, String> passwords;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparingLong((Entry e) -> e.renewAt));
+    private final ExecutorService renewers;
+    private final Thread dispatcher;
+    private boolean closed = false;
+
+    private RenewalScheduler(Builder builder) throws CertdogException
+    {
+        this.client = builder.client;
+        this.renewAtFraction = builder.renewAtFraction;
+        this.jitterFraction = builder.jitterFraction;
+        this.retryDelayMillis = builder.retryDelayMillis;
+        this.maxRetryDelayMillis = builder.maxRetryDelayMillis;
+        this.stateFile = builder.stateFile;
+        this.stateDurability = builder.stateDurability;
+        this.listener = builder.listener;
+        this.passwords = builder.passwords;
+
+        if (stateFile != null && Files.exists(stateFile))
+            load();
+
+        this.renewers = Executors.newFixedThreadPool(builder.concurrency, r ->
+        {
+            Thread t = new Thread(r, "certdog-renewal");
+            t.setDaemon(true);
+            return t;
+        });
+        this.dispatcher = new Thread(this::dispatchLoop, "certdog-renewal-scheduler");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * @param client the client to renew certificates with. Must stay open while the scheduler runs
+     * @param listener receives the renewed material
+     * @return a builder with the default options
+     */
+    public static Builder builder(CertdogClient client, RenewalListener listener)
+    {
+        return new Builder(client, listener);
+    }
+
+    /**
+     * Registers a certificate for renewal, replacing any registered with the same id
+     *
+     * @param id identifies the certificate to the listener e.g. the name of the service that uses it
+     * @param certificate the certificate, e.g. as returned by requestCertFromCsr
+     * @param request how to renew it
+     * @return the time the certificate will be renewed, in milliseconds since the epoch
+     * @throws CertdogException if the state file cannot be written
+     */
+    public long register(String id, X509Certificate certificate, RenewalRequest request) throws CertdogException
+    {
+        Entry entry = new Entry(id, request, certificate, renewalTime(certificate));
+        synchronized (this)
+        {
+            Entry previous = entries.put(id, entry);
+            if (previous != null)
+                queue.remove(previous);
+            queue.add(entry);
+            notifyAll();
+        }
+        save();
+
+        return entry.renewAt;
+    }
+
+    /**
+     * Registers the output of requestCert for renewal, replacing any registered with the same id
+     *
+     * @param id identifies the certificate to the listener e.g. the name of the service that uses it
+     * @param data the data returned by requestCert
+     * @param password the password the data was requested with
+     * @param format the format of the data
+     * @param request how to renew it
+     * @return the time the certificate will be renewed, in milliseconds since the epoch
+     * @throws CertdogException if the certificate cannot be read from the data or the state file cannot be written
+     */
+    public long register(String id, String data, String password, CertdogClient.ResponseFormat format,
+                         RenewalRequest request) throws CertdogException
+    {
+        return register(id, KeyStoreConverter.GetCertificate(data, password, format), request);
+    }
+
+    /**
+     * Stops renewing a certificate. A renewal already in progress still completes and is passed to the listener
+     *
+     * @param id the id the certificate was registered with
+     * @return true if it was registered
+     * @throws CertdogException if the state file cannot be written
+     */
+    public boolean unregister(String id) throws CertdogException
+    {
+        synchronized (this)
+        {
+            Entry entry = entries.remove(id);
+            if (entry == null)
+                return false;
+            queue.remove(entry);
+        }
+        save();
+
+        return true;
+    }
+
+    /**
+     * @param id the id the certificate was registered with
+     * @return the time the certificate will next be renewed, in milliseconds since the epoch, or -1 if it
+     * is not registered. A certificate being renewed now returns the time it fell due
+     */
+    public synchronized long getRenewalTime(String id)
+    {
+        Entry entry = entries.get(id);
+        return entry != null ? entry.renewAt : -1;
+    }
+
+    /**
+     * @param id the id the certificate was registered with
+     * @return the current certificate, or null if it is not registered
+     */
+    public synchronized X509Certificate getCertificate(String id)
+    {
+        Entry entry = entries.get(id);
+        return entry != null ? entry.certificate : null;
+    }
+
+    /**
+     * @return the registered ids, in the order they fall due
+     */
+    public synchronized List<String> getSchedule()
+    {
+        List<Entry> ordered = new ArrayList<>(entries.values());
+        ordered.sort(queue.comparator());
+
+        List<String> ids = new ArrayList<>(ordered.size());
+        for (Entry entry : ordered)
+        {
+            ids.add(entry.id);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Stops the scheduler. Renewals in progress are given up to 30 seconds to finish, so their outcome is
+     * recorded, and are then interrupted. The client is not closed
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            closed = true;
+            notifyAll();
+        }
+
+        renewers.shutdown();
+        try
+        {
+            if (!renewers.awaitTermination(CLOSE_WAIT_MILLIS, TimeUnit.MILLISECONDS))
+                renewers.shutdownNow();
+        }
+        catch (InterruptedException e)
+        {
+            renewers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the head of the queue to fall due, then hands it to the renewal threads
+     */
+    private void dispatchLoop()
+    {
+        try
+        {
+            synchronized (this)
+            {
+                while (!closed)
+                {
+                    Entry head = queue.peek();
+                    long wait = head != null ? head.renewAt - System.currentTimeMillis() : 0;
+                    if (head == null)
+                    {
+                        wait();
+                    }
+                    else if (wait > 0)
+                    {
+                        wait(wait);
+                    }
+                    else
+                    {
+                        queue.poll();
+                        renewers.execute(() -> renew(head));
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // Closed
+        }
+    }
+
+    private void renew(Entry entry)
+    {
+        X509Certificate current;
+        synchronized (this)
+        {
+            current = entry.certificate;
+        }
+
+        RenewalResult result = null;
+        CertdogException error = null;
+        try
+        {
+            result = entry.request.renew(client, entry.id, current, passwords.apply(entry.id));
+            listener.onRenewed(result);
+        }
+        catch (CertdogException e)
+        {
+            error = e;
+        }
+        catch (RuntimeException e)
+        {
+            error = new CertdogException("The renewal of " + entry.id + " failed. " + e.getMessage(), e);
+        }
+
+        int failures;
+        synchronized (this)
+        {
+            if (error == null)
+            {
+                entry.certificate = result.getCertificate();
+                entry.renewAt = renewalTime(entry.certificate);
+                entry.failures = 0;
+            }
+            else
+            {
+                entry.failures++;
+                entry.renewAt = System.currentTimeMillis() + retryDelay(entry.failures);
+            }
+            failures = entry.failures;
+
+            // Unregistered while it was being renewed
+            if (entries.get(entry.id) != entry)
+                return;
+            if (!closed)
+            {
+                queue.add(entry);
+                notifyAll();
+            }
+        }
+
+        try
+        {
+            save();
+        }
+        catch (CertdogException e)
+        {
+            listener.onStateSaveFailed(e);
+        }
+
+        if (error != null)
+            listener.onRenewalFailed(entry.id, current, error, failures);
+    }
+
+    /**
+     * @return the time to renew a certificate: the fraction of its lifetime, plus or minus the jitter,
+     * but no earlier than now
+     */
+    private long renewalTime(X509Certificate certificate)
+    {
+        long notBefore = certificate.getNotBefore().getTime();
+        long lifetime = certificate.getNotAfter().getTime() - notBefore;
+        double jitter = (ThreadLocalRandom.current().nextDouble() * 2 - 1) * jitterFraction;
+
+        return Math.max(System.currentTimeMillis(), notBefore + (long) (lifetime * (renewAtFraction + jitter)));
+    }
+
+    private long retryDelay(int failures)
+    {
+        return Math.min(maxRetryDelayMillis, retryDelayMillis << Math.min(failures - 1, 20));
+    }
+
+    /**
+     * Writes the state file, if there is one, to a temporary file then moves it into place, so a crash
+     * leaves either the previous state or the new one, unless the durability is NONE. Unless it is
+     * DATA_AND_DIRECTORY the rename is not forced to the disk: if a system crash loses it, the renewals since
+     * the previous state are made again
+     */
+    private void save() throws CertdogException
+    {
+        if (stateFile == null)
+            return;
+
+        try
+        {
+            // Held while writing so that an older state is never written over a newer one
+            saveLock.lock();
+            try
+            {
+                byte[] state;
+                synchronized (this)
+                {
+                    state = mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(toJson());
+                }
+
+                AtomicFile.Write(stateFile, state, stateDurability);
+            }
+            finally
+            {
+                saveLock.unlock();
+            }
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Unable to save the renewal state to " + stateFile + ". " + e.getMessage(), e);
+        }
+    }
+
+    private ObjectNode toJson() throws Exception
+    {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("version", STATE_VERSION);
+        ArrayNode list = root.putArray("entries");
+        for (Entry entry : entries.values())
+        {
+            RenewalRequest request = entry.request;
+            ObjectNode node = list.addObject();
+            node.put("id", entry.id);
+            node.put("method", request.getMethod().name());
+            node.put("issuerName", request.getIssuerName());
+            node.put("teamName", request.getTeamName());
+            if (request.getCsr() != null)
+                node.put("csr", request.getCsr());
+            if (request.getKeyType() != null)
+                node.put("keyType", request.getKeyType().name());
+            if (request.getGeneratorName() != null)
+                node.put("generatorName", request.getGeneratorName());
+            if (request.getFormat() != null)
+                node.put("format", request.getFormat().name());
+            ArrayNode sans = node.putArray("sans");
+            request.getSans().forEach(sans::add);
+            node.put("certificate", Base64.getEncoder().encodeToString(entry.certificate.getEncoded()));
+            node.put("renewAt", entry.renewAt);
+            node.put("failures", entry.failures);
+        }
+
+        return root;
+    }
+
+    private void load() throws CertdogException
+    {
+        try
+        {
+            JsonNode root = mapper.readTree(stateFile.toFile());
+            for (JsonNode node : root.path("entries"))
+            {
+                List<String> sans = new ArrayList<>();
+                node.path("sans").forEach(s -> sans.add(s.asText()));
+
+                RenewalRequest request = new RenewalRequest(
+                        RenewalRequest.Method.valueOf(node.path("method").asText()),
+                        Text(node, "issuerName"),
+                        Text(node, "teamName"),
+                        Text(node, "csr"),
+                        node.hasNonNull("keyType") ? KeyType.valueOf(node.get("keyType").asText()) : null,
+                        Text(node, "generatorName"),
+                        node.hasNonNull("format") ? CertdogClient.ResponseFormat.valueOf(node.get("format").asText()) : null,
+                        sans);
+
+                Entry entry = new Entry(Text(node, "id"), request, Pem.DecodeCertificate(Text(node, "certificate")),
+                        node.path("renewAt").asLong());
+                entry.failures = node.path("failures").asInt();
+                entries.put(entry.id, entry);
+                queue.add(entry);
+            }
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Unable to read the renewal state from " + stateFile + ". " + e.getMessage(), e);
+        }
+    }
+
+    private static String Text(JsonNode node, String field)
+    {
+        return node.hasNonNull(field) ? node.get(field).asText() : null;
+    }
+
+    /**
+     * @return a random password for data renewed with RenewalRequest.fromGenerator
+     */
+    private static String RandomPassword(String id)
+    {
+        byte[] bytes = new byte[18];
+        RANDOM.nextBytes(bytes);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Builder for RenewalScheduler
+     */
+    public static class Builder
+    {
+        private final CertdogClient client;
+        private final RenewalListener listener;
+        private double renewAtFraction = 2.0 / 3;
+        private double jitterFraction = 0.05;
+        private long retryDelayMillis = 60000;
+        private long maxRetryDelayMillis = 60 * 60 * 1000;
+        private int concurrency = 2;
+        private Path stateFile = null;
+        private SaveOptions.Durability stateDurability = SaveOptions.Durability.DATA;
+        private Function<String, String> passwords = RenewalScheduler::RandomPassword;
+
+        private Builder(CertdogClient client, RenewalListener listener)
+        {
+            this.client = client;
+            this.listener = listener;
+        }
+
+        /**
+         * @param renewAtFraction how far through its lifetime a certificate is renewed, e.g. 0.66 for two
+         *                        thirds. Default 2/3
+         * @param jitterFraction the most the renewal time is moved earlier or later, as a fraction of the
+         *                       lifetime. Default 0.05
+         * @return this builder
+         */
+        public Builder renewAt(double renewAtFraction, double jitterFraction)
+        {
+            this.renewAtFraction = renewAtFraction;
+            this.jitterFraction = jitterFraction;
+            return this;
+        }
+
+        /**
+         * @param retryDelayMillis the delay before retrying a failed renewal, doubled after each further
+         *                         failure. Default 60000
+         * @param maxRetryDelayMillis the longest delay between retries. Default one hour
+         * @return this builder
+         */
+        public Builder retryDelay(long retryDelayMillis, long maxRetryDelayMillis)
+        {
+            this.retryDelayMillis = retryDelayMillis;
+            this.maxRetryDelayMillis = maxRetryDelayMillis;
+            return this;
+        }
+
+        /**
+         * @param concurrency the most renewals in progress at once. Default 2
+         * @return this builder
+         */
+        public Builder concurrency(int concurrency)
+        {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * @param stateFile the file the schedule is kept in. It is read when the scheduler is built if it
+         *                  exists. Default is null: the schedule is held in memory only
+         * @return this builder
+         */
+        public Builder stateFile(Path stateFile)
+        {
+            this.stateFile = stateFile;
+            return this;
+        }
+
+        /**
+         * @param stateFile the file the schedule is kept in, as for stateFile(Path)
+         * @param durability how much of each save of the file is forced to the disk. Default DATA
+         * @return this builder
+         */
+        public Builder stateFile(Path stateFile, SaveOptions.Durability durability)
+        {
+            this.stateFile = stateFile;
+            this.stateDurability = durability;
+            return this;
+        }
+
+        /**
+         * @param passwords gives the password to protect data renewed with RenewalRequest.fromGenerator,
+         *                  from the id. Default is a new random password for each renewal, passed to the
+         *                  listener with the data
+         * @return this builder
+         */
+        public Builder passwords(Function<String, String> passwords)
+        {
+            this.passwords = passwords;
+            return this;
+        }
+
+        /**
+         * @return the scheduler, started
+         * @throws CertdogException if the state file exists but cannot be read
+         */
+        public RenewalScheduler build() throws CertdogException
+        {
+            if (client == null || listener == null)
+                throw new IllegalArgumentException("The client and listener must be provided");
+            if (jitterFraction < 0 || renewAtFraction - jitterFraction <= 0 || renewAtFraction + jitterFraction >= 1)
+                throw new IllegalArgumentException("The renewal time, plus or minus the jitter, must be within the lifetime");
+            if (retryDelayMillis < 1 || maxRetryDelayMillis < retryDelayMillis)
+                throw new IllegalArgumentException("The retry delay must be at least 1 and the maximum no less than it");
+            if (concurrency < 1)
+                throw new IllegalArgumentException("The concurrency must be at least 1");
+            if (stateDurability == null)
+                throw new IllegalArgumentException("The state file durability must be provided");
+
+            return new RenewalScheduler(this);
+        }
+    }
+}
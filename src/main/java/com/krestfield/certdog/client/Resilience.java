@@ -0,0 +1,132 @@
+package com.krestfield.certdog.client;
+
+import javax.ws.rs.HttpMethod;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The retry and circuit breaker state of a CertdogClient. See ResilienceOptions
+ */
+class Resilience
+{
+    private final ResilienceOptions options;
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler = null;
+
+    Resilience(ResilienceOptions options)
+    {
+        this.options = options;
+    }
+
+    /**
+     * Takes permission to call an endpoint from its circuit breaker
+     *
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @return the breaker, to pass the outcome of the call to, or null if circuit breakers are disabled
+     * @throws CircuitOpenException if the breaker is open
+     */
+    CircuitBreaker acquire(String endpoint) throws CircuitOpenException
+    {
+        if (!options.isCircuitBreaker())
+            return null;
+
+        CircuitBreaker breaker = breakers.computeIfAbsent(endpoint, e -> new CircuitBreaker(options));
+        if (!breaker.tryAcquire())
+            throw new CircuitOpenException(endpoint);
+
+        return breaker;
+    }
+
+    /**
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @return the state of the endpoint's circuit breaker
+     */
+    CircuitBreaker.State getState(String endpoint)
+    {
+        CircuitBreaker breaker = breakers.get(endpoint);
+        return breaker != null ? breaker.getState() : CircuitBreaker.State.CLOSED;
+    }
+
+    /**
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @param method the HTTP method
+     * @return the number of attempts to make at the call: more than 1 only for idempotent calls
+     */
+    int maxAttempts(String endpoint, String method)
+    {
+        if (HttpMethod.GET.equals(method) || CertdogEndpoints.LOGIN.equals(endpoint))
+            return options.getMaxAttempts();
+
+        return 1;
+    }
+
+    /**
+     * Decorrelated jitter: a random delay between the base and three times the previous delay, capped
+     *
+     * @param previousMillis the previous delay, or 0 before the first retry
+     * @return the delay before the next retry
+     */
+    long backoff(long previousMillis)
+    {
+        long base = options.getBaseBackoffMillis();
+        long upper = Math.max(base, Math.min(previousMillis, options.getMaxBackoffMillis()) * 3);
+
+        return Math.min(options.getMaxBackoffMillis(), base + ThreadLocalRandom.current().nextLong(upper - base + 1));
+    }
+
+    /**
+     * Runs an async retry after a delay
+     */
+    synchronized ScheduledFuture<?> schedule(Runnable retry, long delayMillis)
+    {
+        if (scheduler == null)
+        {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r ->
+            {
+                Thread t = new Thread(r, "certdog-retry");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        return scheduler.schedule(retry, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void close()
+    {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+    }
+
+    /**
+     * @param status the HTTP status of a response
+     * @return true if the call may succeed if repeated
+     */
+    static boolean IsRetryable(int status)
+    {
+        return CertdogException.KindOf(status) == CertdogException.Kind.TRANSIENT;
+    }
+
+    /**
+     * @param error the exception from a call that received no response
+     * @return true if the call may succeed if repeated
+     */
+    static boolean IsRetryable(Throwable error)
+    {
+        return CertdogException.KindOfCause(error) == CertdogException.Kind.TRANSIENT;
+    }
+
+    /**
+     * @param status the HTTP status of a response
+     * @return true if the response counts against the circuit breaker: transient errors and other 5xx
+     */
+    static boolean IsFailure(int status)
+    {
+        return IsRetryable(status) || status >= 500;
+    }
+}
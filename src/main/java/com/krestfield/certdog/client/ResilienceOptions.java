@@ -0,0 +1,191 @@
+package com.krestfield.certdog.client;
+
+/**
+ * ResilienceOptions
+ *
+ * Retry and circuit breaker settings for CertdogClient, set with CertdogClientConfig.Builder.resilience().
+ * Create with ResilienceOptions.builder()
+ *
+ * Idempotent calls (login and the GETs: teams, issuers, generators, issuer chains and the PEM/JKS fetch)
+ * that fail with a transient error are retried with decorrelated jitter backoff: each delay is a random
+ * time between the base delay and three times the previous delay, up to the maximum. Certificate
+ * requests and revocations are never retried, as repeating them is not safe
+ *
+ * Each endpoint has its own circuit breaker that tracks the outcome of recent calls. Transient failures
+ * count against it, other responses (including 4xx) do not. When the failure rate over the window reaches
+ * the threshold the breaker opens and calls to the endpoint fail at once with Kind.CIRCUIT_OPEN. After the
+ * open time a few trial calls are let through: if they succeed the breaker closes, otherwise it opens again
+ */
+public class ResilienceOptions
+{
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final boolean circuitBreaker;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openMillis;
+    private final int halfOpenCalls;
+
+    private ResilienceOptions(Builder builder)
+    {
+        this.maxAttempts = builder.maxAttempts;
+        this.baseBackoffMillis = builder.baseBackoffMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
+        this.circuitBreaker = builder.circuitBreaker;
+        this.windowSize = builder.windowSize;
+        this.minimumCalls = builder.minimumCalls;
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.openMillis = builder.openMillis;
+        this.halfOpenCalls = builder.halfOpenCalls;
+    }
+
+    /**
+     * @return a builder with the default options
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    public long getBaseBackoffMillis()
+    {
+        return baseBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis()
+    {
+        return maxBackoffMillis;
+    }
+
+    public boolean isCircuitBreaker()
+    {
+        return circuitBreaker;
+    }
+
+    public int getWindowSize()
+    {
+        return windowSize;
+    }
+
+    public int getMinimumCalls()
+    {
+        return minimumCalls;
+    }
+
+    public double getFailureRateThreshold()
+    {
+        return failureRateThreshold;
+    }
+
+    public long getOpenMillis()
+    {
+        return openMillis;
+    }
+
+    public int getHalfOpenCalls()
+    {
+        return halfOpenCalls;
+    }
+
+    /**
+     * Builder for ResilienceOptions
+     */
+    public static class Builder
+    {
+        private int maxAttempts = 3;
+        private long baseBackoffMillis = 100;
+        private long maxBackoffMillis = 5000;
+        private boolean circuitBreaker = true;
+        private int windowSize = 20;
+        private int minimumCalls = 10;
+        private double failureRateThreshold = 0.5;
+        private long openMillis = 30000;
+        private int halfOpenCalls = 2;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * @param maxAttempts the number of times an idempotent call that fails with a transient error is
+         *                    attempted. 1 disables retries. Default 3
+         * @return this builder
+         */
+        public Builder maxAttempts(int maxAttempts)
+        {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param baseBackoffMillis the shortest delay before a retry. Default 100
+         * @param maxBackoffMillis the longest delay before a retry. Default 5000
+         * @return this builder
+         */
+        public Builder backoff(long baseBackoffMillis, long maxBackoffMillis)
+        {
+            this.baseBackoffMillis = baseBackoffMillis;
+            this.maxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+
+        /**
+         * @param circuitBreaker true (the default) to use a circuit breaker per endpoint
+         * @return this builder
+         */
+        public Builder circuitBreaker(boolean circuitBreaker)
+        {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * @param windowSize the number of recent calls to each endpoint the failure rate is taken from. Default 20
+         * @param minimumCalls the calls needed in the window before the breaker can open. Default 10
+         * @param failureRateThreshold the fraction of calls in the window that must fail to open the breaker. Default 0.5
+         * @return this builder
+         */
+        public Builder failureRate(int windowSize, int minimumCalls, double failureRateThreshold)
+        {
+            this.windowSize = windowSize;
+            this.minimumCalls = minimumCalls;
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * @param openMillis how long the breaker stays open before trial calls are let through. Default 30000
+         * @param halfOpenCalls the number of trial calls that must succeed to close the breaker. Default 2
+         * @return this builder
+         */
+        public Builder openFor(long openMillis, int halfOpenCalls)
+        {
+            this.openMillis = openMillis;
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        public ResilienceOptions build()
+        {
+            if (maxAttempts < 1)
+                throw new IllegalArgumentException("The maximum attempts must be at least 1");
+            if (baseBackoffMillis < 0 || maxBackoffMillis < baseBackoffMillis)
+                throw new IllegalArgumentException("The backoff must be at least 0 and the maximum no less than the base");
+            if (minimumCalls < 1 || windowSize < minimumCalls)
+                throw new IllegalArgumentException("The minimum calls must be at least 1 and no more than the window size");
+            if (failureRateThreshold <= 0 || failureRateThreshold > 1)
+                throw new IllegalArgumentException("The failure rate threshold must be greater than 0 and at most 1");
+            if (openMillis < 0 || halfOpenCalls < 1)
+                throw new IllegalArgumentException("The open time must be at least 0 and the half open calls at least 1");
+
+            return new ResilienceOptions(this);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.krestfield.certdog.client;
+
+import java.security.cert.X509Certificate;
+
+/**
+ * RevocationEntry
+ *
+ * A certificate to revoke with CertdogClient.revokeCerts
+ */
+public class RevocationEntry
+{
+    private final String issuerName;
+    private final String serialNumber;
+    private final CertdogClient.RevocationReason reason;
+
+    /**
+     * @param issuerName the cert issuer name - must be the same as the cert was issued from
+     * @param serialNumber the serial number in ASCII HEX format
+     * @param reason the revocation reason
+     */
+    public RevocationEntry(String issuerName, String serialNumber, CertdogClient.RevocationReason reason)
+    {
+        this.issuerName = issuerName;
+        this.serialNumber = serialNumber;
+        this.reason = reason;
+    }
+
+    /**
+     * @param issuerName the cert issuer name - must be the same as the cert was issued from
+     * @param cert the certificate
+     * @param reason the revocation reason
+     */
+    public RevocationEntry(String issuerName, X509Certificate cert, CertdogClient.RevocationReason reason)
+    {
+        this(issuerName, cert.getSerialNumber().toString(16), reason);
+    }
+
+    public String getIssuerName()
+    {
+        return issuerName;
+    }
+
+    public String getSerialNumber()
+    {
+        return serialNumber;
+    }
+
+    public CertdogClient.RevocationReason getReason()
+    {
+        return reason;
+    }
+}
@@ -0,0 +1,78 @@
+package com.krestfield.certdog.client;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * RevocationReport
+ *
+ * The results of CertdogClient.revokeCerts
+ */
+public class RevocationReport
+{
+    private final List<RevocationResult> results;
+    private final long elapsedMillis;
+
+    RevocationReport(List<RevocationResult> results, long elapsedMillis)
+    {
+        this.results = Collections.unmodifiableList(results);
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return a result for each entry, in the order the entries were provided
+     */
+    public List<RevocationResult> getResults()
+    {
+        return results;
+    }
+
+    /**
+     * @return the results of the entries that could not be revoked
+     */
+    public List<RevocationResult> getFailures()
+    {
+        return results.stream().filter(r -> !r.isSuccess()).collect(Collectors.toList());
+    }
+
+    public int getSuccessCount()
+    {
+        return (int) results.stream().filter(RevocationResult::isSuccess).count();
+    }
+
+    public int getFailureCount()
+    {
+        return results.size() - getSuccessCount();
+    }
+
+    /**
+     * @return the total number of retries made across all entries
+     */
+    public int getRetryCount()
+    {
+        return results.stream().mapToInt(r -> r.getAttempts() - 1).sum();
+    }
+
+    public long getElapsedMillis()
+    {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Revoked ").append(getSuccessCount()).append(" of ").append(results.size())
+                .append(" certificates in ").append(elapsedMillis).append("ms with ")
+                .append(getRetryCount()).append(" retries");
+        for (RevocationResult r : getFailures())
+        {
+            sb.append(System.lineSeparator())
+                    .append("  ").append(r.getEntry().getIssuerName()).append(" ").append(r.getEntry().getSerialNumber())
+                    .append(": ").append(r.getError().getMessage());
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,46 @@
+package com.krestfield.certdog.client;
+
+/**
+ * RevocationResult
+ *
+ * The outcome of revoking one entry with CertdogClient.revokeCerts
+ */
+public class RevocationResult
+{
+    private final RevocationEntry entry;
+    private final CertdogException error;
+    private final int attempts;
+
+    RevocationResult(RevocationEntry entry, CertdogException error, int attempts)
+    {
+        this.entry = entry;
+        this.error = error;
+        this.attempts = attempts;
+    }
+
+    public RevocationEntry getEntry()
+    {
+        return entry;
+    }
+
+    /**
+     * @return the reason the revocation failed, or null if it succeeded
+     */
+    public CertdogException getError()
+    {
+        return error;
+    }
+
+    /**
+     * @return the number of times the revocation was attempted
+     */
+    public int getAttempts()
+    {
+        return attempts;
+    }
+
+    public boolean isSuccess()
+    {
+        return error == null;
+    }
+}
@@ -0,0 +1,100 @@
+package com.krestfield.certdog.client;
+
+/**
+ * SaveOptions
+ *
+ * Options for CertdogClient.SaveP12, SaveJks and SaveKeyStores. Create with SaveOptions.builder()
+ *
+ * Files are always written to a temporary file beside the target and then renamed over it, so a reader
+ * sees either the old file or the complete new one
+ */
+public class SaveOptions
+{
+    static final SaveOptions DEFAULT = builder().build();
+
+    /**
+     * How much of a save is forced to the disk before it returns
+     */
+    public enum Durability
+    {
+        // Nothing is forced. After a system crash the file may be empty or partly written
+        NONE,
+        // The data is forced before the rename, so a system crash leaves the old file or the new one
+        DATA,
+        // The rename is forced too, so the new file survives a system crash once the save has returned
+        DATA_AND_DIRECTORY
+    }
+
+    private final Durability durability;
+    private final int concurrency;
+
+    private SaveOptions(Builder builder)
+    {
+        this.durability = builder.durability;
+        this.concurrency = builder.concurrency;
+    }
+
+    /**
+     * @return a builder with the default options
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public Durability getDurability()
+    {
+        return durability;
+    }
+
+    public int getConcurrency()
+    {
+        return concurrency;
+    }
+
+    /**
+     * Builder for SaveOptions
+     */
+    public static class Builder
+    {
+        private Durability durability = Durability.DATA;
+        private int concurrency = 4;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * @param durability how much of each save is forced to the disk before it returns. NONE is fastest,
+         *                   but a system crash may leave a partly written file. DATA never leaves a partly
+         *                   written file, though the previous file may be found in its place.
+         *                   DATA_AND_DIRECTORY also keeps the new file. Default DATA
+         * @return this builder
+         */
+        public Builder durability(Durability durability)
+        {
+            this.durability = durability;
+            return this;
+        }
+
+        /**
+         * @param concurrency the maximum number of files SaveKeyStores writes at once. Default 4
+         * @return this builder
+         */
+        public Builder concurrency(int concurrency)
+        {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        public SaveOptions build()
+        {
+            if (durability == null)
+                throw new IllegalArgumentException("The durability must be provided");
+            if (concurrency < 1)
+                throw new IllegalArgumentException("The concurrency must be at least 1");
+
+            return new SaveOptions(this);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.krestfield.certdog.client;
+
+import javax.crypto.EncryptedPrivateKeyInfo;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.io.ByteArrayInputStream;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * TlsCredential
+ *
+ * A private key and its certificate chain, held in memory. Create one from the data returned by requestCert,
+ * or with CertdogClient.toTlsCredential to attach the issuer's chain, then use it as a KeyStore, key manager
+ * or SSLContext without saving it to a file. See ReloadingKeyManager to replace it when it is renewed
+ */
+public class TlsCredential
+{
+    static final String ALIAS = "certdog";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final PrivateKey privateKey;
+    private final List<X509Certificate> chain;
+
+    /**
+     * Constructor
+     *
+     * @param privateKey the private key
+     * @param chain the certificate for the key followed by the certificates of its issuers
+     */
+    public TlsCredential(PrivateKey privateKey, List<X509Certificate> chain)
+    {
+        if (privateKey == null || chain == null || chain.isEmpty())
+            throw new IllegalArgumentException("The private key and its certificate must be provided");
+
+        this.privateKey = privateKey;
+        this.chain = Collections.unmodifiableList(new ArrayList<>(chain));
+    }
+
+    /**
+     * Reads the key and chain from the data returned by requestCert
+     *
+     * @param data the data, in the format requested
+     * @param password the password the data was requested with
+     * @param format the format of the data
+     * @return the credential
+     * @throws CertdogException if the data cannot be read
+     */
+    public static TlsCredential fromData(String data, String password, CertdogClient.ResponseFormat format) throws CertdogException
+    {
+        try
+        {
+            if (format == CertdogClient.ResponseFormat.PEM)
+                return FromPem(data, password);
+
+            char[] pw = password.toCharArray();
+            KeyStore ks = KeyStore.getInstance(format == CertdogClient.ResponseFormat.JKS ? "JKS" : "PKCS12");
+            ks.load(new ByteArrayInputStream(Base64.getMimeDecoder().decode(data)), pw);
+
+            Enumeration<String> aliases = ks.aliases();
+            while (aliases.hasMoreElements())
+            {
+                String alias = aliases.nextElement();
+                if (!ks.isKeyEntry(alias))
+                    continue;
+
+                Key key = ks.getKey(alias, pw);
+                Certificate[] certs = ks.getCertificateChain(alias);
+                if (key instanceof PrivateKey && certs != null && certs.length > 0)
+                {
+                    List<X509Certificate> chain = new ArrayList<>(certs.length);
+                    for (Certificate cert : certs)
+                    {
+                        chain.add((X509Certificate) cert);
+                    }
+                    return new TlsCredential((PrivateKey) key, chain);
+                }
+            }
+
+            throw new CertdogException("The " + format + " data does not contain a private key and certificate");
+        }
+        catch (CertdogException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Unable to read the key and certificate from the " + format + " data. " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param issued a certificate issued for a locally generated key, as returned from requestCertWithLocalKey
+     * @return the credential, with only the issued certificate in its chain
+     */
+    public static TlsCredential fromIssued(IssuedCredential issued)
+    {
+        return new TlsCredential(issued.getPrivateKey(), Collections.singletonList(issued.getCertificate()));
+    }
+
+    public PrivateKey getPrivateKey()
+    {
+        return privateKey;
+    }
+
+    /**
+     * @return the certificate for the key
+     */
+    public X509Certificate getCertificate()
+    {
+        return chain.get(0);
+    }
+
+    /**
+     * @return the certificate for the key followed by the certificates of its issuers
+     */
+    public List<X509Certificate> getChain()
+    {
+        return chain;
+    }
+
+    /**
+     * Returns a credential with the same key and certificate and a new issuer chain, e.g. from getIssuerChain
+     *
+     * @param issuerChain the certificates of the issuers, starting with the one that issued this certificate.
+     *                    This certificate is skipped if it is included
+     * @return the credential
+     */
+    public TlsCredential withIssuerChain(List<X509Certificate> issuerChain)
+    {
+        List<X509Certificate> newChain = new ArrayList<>(issuerChain.size() + 1);
+        newChain.add(getCertificate());
+        for (X509Certificate cert : issuerChain)
+        {
+            if (!cert.equals(getCertificate()))
+                newChain.add(cert);
+        }
+
+        return new TlsCredential(privateKey, newChain);
+    }
+
+    /**
+     * @param password the password to protect the key entry with
+     * @return an in-memory PKCS12 KeyStore holding the key and chain under the alias "certdog"
+     * @throws CertdogException if the KeyStore cannot be created
+     */
+    public KeyStore toKeyStore(char[] password) throws CertdogException
+    {
+        try
+        {
+            KeyStore ks = KeyStore.getInstance("PKCS12");
+            ks.load(null, null);
+            ks.setKeyEntry(ALIAS, privateKey, password, chain.toArray(new X509Certificate[0]));
+
+            return ks;
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Unable to create a KeyStore for the credential. " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return a key manager that presents this credential
+     * @throws CertdogException if the key manager cannot be created
+     */
+    public X509ExtendedKeyManager toKeyManager() throws CertdogException
+    {
+        try
+        {
+            char[] password = new char[16];
+            for (int i = 0; i < password.length; i++)
+            {
+                password[i] = (char) ('a' + RANDOM.nextInt(26));
+            }
+
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(toKeyStore(password), password);
+            for (KeyManager km : kmf.getKeyManagers())
+            {
+                if (km instanceof X509ExtendedKeyManager)
+                    return (X509ExtendedKeyManager) km;
+            }
+
+            throw new CertdogException("No X509 key manager is available");
+        }
+        catch (CertdogException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Unable to create a key manager for the credential. " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return a TLS SSLContext that presents this credential and trusts the JVM's default CAs
+     * @throws CertdogException if the SSLContext cannot be created
+     */
+    public SSLContext toSslContext() throws CertdogException
+    {
+        return toSslContext(null);
+    }
+
+    /**
+     * @param trustManagers the trust managers, or null for the JVM's default CAs
+     * @return a TLS SSLContext that presents this credential
+     * @throws CertdogException if the SSLContext cannot be created
+     */
+    public SSLContext toSslContext(TrustManager[] trustManagers) throws CertdogException
+    {
+        return CreateSslContext(toKeyManager(), trustManagers);
+    }
+
+    static SSLContext CreateSslContext(KeyManager keyManager, TrustManager[] trustManagers) throws CertdogException
+    {
+        try
+        {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(new KeyManager[] { keyManager }, trustManagers, null);
+
+            return context;
+        }
+        catch (Exception e)
+        {
+            throw new CertdogException("Unable to create an SSLContext. " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the key and chain from the PEM returned by requestCert: the key, encrypted with the password,
+     * then the certificate and its chain
+     */
+    private static TlsCredential FromPem(String data, String password) throws Exception
+    {
+        List<X509Certificate> chain = Pem.DecodeCertificates(data);
+
+        PKCS8EncodedKeySpec keySpec;
+        byte[] der = Pem.DecodeBlock(data, Pem.ENCRYPTED_PRIVATE_KEY);
+        if (der != null)
+        {
+            EncryptedPrivateKeyInfo info = new EncryptedPrivateKeyInfo(der);
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(info.getAlgName());
+            keySpec = info.getKeySpec(factory.generateSecret(new PBEKeySpec(password.toCharArray())));
+        }
+        else
+        {
+            der = Pem.DecodeBlock(data, Pem.PRIVATE_KEY);
+            if (der == null)
+                throw new CertdogException("The PEM data does not contain a PKCS#8 private key");
+            keySpec = new PKCS8EncodedKeySpec(der);
+        }
+
+        PrivateKey key = KeyFactory.getInstance(chain.get(0).getPublicKey().getAlgorithm()).generatePrivate(keySpec);
+        return new TlsCredential(key, chain);
+    }
+}
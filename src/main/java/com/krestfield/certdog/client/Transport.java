@@ -0,0 +1,67 @@
+package com.krestfield.certdog.client;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import javax.ws.rs.client.Client;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Jersey client used by CertdogClient along with, for pooled connectors, the connection pool
+ * and the task that evicts idle connections from it
+ */
+class Transport
+{
+    private final Client client;
+    private final PoolingHttpClientConnectionManager pool;
+    private final ScheduledExecutorService evictor;
+
+    Transport(Client client, PoolingHttpClientConnectionManager pool, long idleEvictionMillis)
+    {
+        this.client = client;
+        this.pool = pool;
+
+        if (pool != null && idleEvictionMillis > 0)
+        {
+            this.evictor = Executors.newSingleThreadScheduledExecutor(r ->
+            {
+                Thread t = new Thread(r, "certdog-idle-evictor");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = Math.max(idleEvictionMillis / 2, 1000);
+            this.evictor.scheduleWithFixedDelay(() ->
+            {
+                pool.closeExpiredConnections();
+                pool.closeIdleConnections(idleEvictionMillis, TimeUnit.MILLISECONDS);
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            this.evictor = null;
+        }
+    }
+
+    Client getClient()
+    {
+        return client;
+    }
+
+    /**
+     * @return the connection pool or null if the connector does not pool connections
+     */
+    PoolingHttpClientConnectionManager getPool()
+    {
+        return pool;
+    }
+
+    void close()
+    {
+        if (evictor != null)
+            evictor.shutdownNow();
+
+        // Closing the client also closes the connection pool
+        client.close();
+    }
+}
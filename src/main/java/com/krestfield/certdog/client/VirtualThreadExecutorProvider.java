@@ -0,0 +1,27 @@
+package com.krestfield.certdog.client;
+
+import org.glassfish.jersey.client.ClientAsyncExecutor;
+import org.glassfish.jersey.spi.ExecutorServiceProvider;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Replaces Jersey's pool of async threads with a new virtual thread for each call, so the Async methods and
+ * batches can have thousands of calls in flight on a few carrier threads. Registered for
+ * CertdogClientConfig.AsyncExecutor.VIRTUAL
+ */
+@ClientAsyncExecutor
+class VirtualThreadExecutorProvider implements ExecutorServiceProvider
+{
+    @Override
+    public ExecutorService getExecutorService()
+    {
+        return VirtualThreads.NewExecutor("certdog-virtual-");
+    }
+
+    @Override
+    public void dispose(ExecutorService executorService)
+    {
+        executorService.shutdown();
+    }
+}
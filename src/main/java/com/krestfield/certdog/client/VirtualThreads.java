@@ -0,0 +1,32 @@
+package com.krestfield.certdog.client;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates virtual threads, which need Java 21. This is the version used on earlier JDKs, which has none.
+ * The multi-release jar holds a Java 21 version, built from src/main/java21, that replaces it on Java 21+
+ */
+final class VirtualThreads
+{
+    private VirtualThreads()
+    {
+    }
+
+    /**
+     * @return true if virtual threads can be created
+     */
+    static boolean IsSupported()
+    {
+        return false;
+    }
+
+    /**
+     * @param namePrefix the prefix of the thread names, followed by a number
+     * @return an executor that starts a new virtual thread for each task
+     * @throws IllegalStateException always, as this JDK has no virtual threads
+     */
+    static ExecutorService NewExecutor(String namePrefix)
+    {
+        throw new IllegalStateException("Virtual threads require Java 21 or later");
+    }
+}
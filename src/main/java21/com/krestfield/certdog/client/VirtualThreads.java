@@ -0,0 +1,32 @@
+package com.krestfield.certdog.client;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates virtual threads. This is the Java 21 version, placed in META-INF/versions/21 of the multi-release
+ * jar, that replaces the one in src/main/java
+ */
+final class VirtualThreads
+{
+    private VirtualThreads()
+    {
+    }
+
+    /**
+     * @return true if virtual threads can be created
+     */
+    static boolean IsSupported()
+    {
+        return true;
+    }
+
+    /**
+     * @param namePrefix the prefix of the thread names, followed by a number
+     * @return an executor that starts a new virtual thread for each task
+     */
+    static ExecutorService NewExecutor(String namePrefix)
+    {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory());
+    }
+}
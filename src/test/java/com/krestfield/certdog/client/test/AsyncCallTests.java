@@ -0,0 +1,110 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import com.krestfield.certdog.client.CertdogClient.RevocationReason;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import com.krestfield.certdog.client.CertdogException;
+import com.krestfield.certdog.client.CsrBuilder;
+import com.krestfield.certdog.client.KeyType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The CompletableFuture variants of the client calls
+ */
+public class AsyncCallTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.setLatency(0, 0);
+    }
+
+    @Test
+    public void asyncCallsComplete() throws Exception
+    {
+        try (CertdogClient client = server.newClient())
+        {
+            String p12 = client.requestCertAsync(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0),
+                    CertdogTestServer.TEAM, "CN=async", "password", null, null, null, ResponseFormat.PKCS12).get();
+            assertNotNull(p12);
+
+            String csr = new CsrBuilder("CN=async csr").build(KeyType.EC_P256.generate(), KeyType.EC_P256);
+            X509Certificate cert = client.requestCertFromCsrAsync(CertdogTestServer.ISSUER, CertdogTestServer.TEAM,
+                    csr, null, null).get();
+            assertEquals("CN=async csr", cert.getSubjectX500Principal().getName());
+
+            assertFalse(client.getIssuerChainAsync(CertdogTestServer.ISSUER).get().isEmpty());
+
+            client.revokeCertAsync(CertdogTestServer.ISSUER, cert, RevocationReason.Superseded).get();
+            assertTrue(server.isRevoked(cert.getSerialNumber()));
+        }
+    }
+
+    @Test
+    public void asyncFailuresAreCertdogExceptions() throws Exception
+    {
+        try (CertdogClient client = server.newClient())
+        {
+            CompletableFuture<String> f = client.requestCertAsync("No Such Issuer", CertdogTestServer.GENERATORS.get(0),
+                    CertdogTestServer.TEAM, "CN=async", "password", null, null, null, ResponseFormat.PKCS12);
+            ExecutionException e = assertThrows(ExecutionException.class, f::get);
+            assertTrue(e.getCause() instanceof CertdogException, () -> String.valueOf(e.getCause()));
+            assertEquals(400, ((CertdogException) e.getCause()).getStatusCode());
+        }
+    }
+
+    @Test
+    public void cancellingStopsTheNextCall() throws Exception
+    {
+        try (CertdogClient client = new CertdogClient(server.clientConfig().localFormatConversion(false).build()))
+        {
+            client.login(CertdogTestServer.USERNAME, CertdogTestServer.PASSWORD);
+            server.setLatency(300, 300);
+            int pemRequests = server.getRequestCount(CertdogEndpoints.CERT_PEM_DATA);
+
+            // Cancelled while the certificate request is in flight, so the PEM is never fetched
+            CompletableFuture<String> f = client.requestCertAsync(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0),
+                    CertdogTestServer.TEAM, "CN=cancelled", "password", null, null, null, ResponseFormat.PEM);
+            Thread.sleep(100);
+            assertTrue(f.cancel(true));
+            assertThrows(CancellationException.class, f::get);
+
+            Thread.sleep(700);
+            assertEquals(pemRequests, server.getRequestCount(CertdogEndpoints.CERT_PEM_DATA));
+
+            // The client is still usable
+            server.setLatency(0, 0);
+            assertNotNull(client.requestCertAsync(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0),
+                    CertdogTestServer.TEAM, "CN=after cancel", "password", null, null, null, ResponseFormat.PEM).get());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.BatchOptions;
+import com.krestfield.certdog.client.BatchResult;
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import com.krestfield.certdog.client.CertdogException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Batch issuance with requestCerts
+ */
+public class BatchTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.clearErrors();
+        server.setLatency(0, 0);
+    }
+
+    @Test
+    public void batchIssuanceThroughput() throws Exception
+    {
+        server.setLatency(5, 20);
+        try (CertdogClient client = server.newClient())
+        {
+            int count = 50;
+            long start = System.nanoTime();
+            List<BatchResult> results = client.requestCerts(CertdogTestServer.NewRequests(count), BatchOptions.builder()
+                    .concurrency(16)
+                    .build());
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+            assertEquals(count, results.size());
+            for (int i = 0; i < count; i++)
+            {
+                BatchResult result = results.get(i);
+                assertTrue(result.isSuccess(), () -> "Request failed: " + result.getError());
+                assertEquals(i, result.getIndex());
+                assertEquals("CN=test " + i, result.getRequest().getDn());
+            }
+            System.out.println("\nIssued " + count + " certs in " + elapsedMillis + "ms ("
+                    + (count * 1000L / Math.max(elapsedMillis, 1)) + "/s)");
+        }
+    }
+
+    @Test
+    public void boundsTheRequestsInFlight() throws Exception
+    {
+        server.setLatency(50, 50);
+        try (CertdogClient client = server.newClient())
+        {
+            int concurrency = 4;
+            int count = 20;
+            server.resetPeakInFlight();
+            AtomicInteger calls = new AtomicInteger();
+            Set<Integer> completed = ConcurrentHashMap.newKeySet();
+            Set<Integer> totals = ConcurrentHashMap.newKeySet();
+            List<BatchResult> results = client.requestCerts(CertdogTestServer.NewRequests(count), BatchOptions.builder()
+                    .concurrency(concurrency)
+                    .progressListener((result, completedCount, failed, total) ->
+                    {
+                        calls.incrementAndGet();
+                        completed.add(completedCount);
+                        totals.add(total);
+                    })
+                    .build());
+
+            for (BatchResult result : results)
+            {
+                assertTrue(result.isSuccess(), () -> "Request failed: " + result.getError());
+            }
+            assertEquals(concurrency, server.getPeakInFlight(CertdogEndpoints.CERT_REQ));
+            assertEquals(count, calls.get());
+            assertEquals(count, completed.size());
+            assertEquals(Collections.singleton(count), totals);
+        }
+    }
+
+    @Test
+    public void batchReportsInjectedErrors() throws Exception
+    {
+        server.failNext(CertdogEndpoints.CERT_REQ, 10, 503);
+        try (CertdogClient client = server.newClient())
+        {
+            AtomicInteger lastFailed = new AtomicInteger();
+            List<BatchResult> results = client.requestCerts(CertdogTestServer.NewRequests(40), BatchOptions.builder()
+                    .concurrency(8)
+                    .progressListener((result, completed, failed, total) -> lastFailed.accumulateAndGet(failed, Math::max))
+                    .build());
+
+            int failed = 0;
+            for (BatchResult result : results)
+            {
+                if (!result.isSuccess())
+                {
+                    failed++;
+                    assertEquals(503, result.getError().getStatusCode(), () -> String.valueOf(result.getError()));
+                    assertTrue(result.getError().isTransient());
+                }
+            }
+            assertEquals(10, failed);
+            assertEquals(10, lastFailed.get());
+        }
+    }
+
+    @Test
+    public void interruptCancelsTheBatch() throws Exception
+    {
+        server.setLatency(300, 300);
+        try (CertdogClient client = server.newClient())
+        {
+            int before = server.getRequestCount(CertdogEndpoints.CERT_REQ);
+            AtomicReference<Exception> error = new AtomicReference<>();
+            AtomicReference<Boolean> interrupted = new AtomicReference<>();
+            Thread batch = new Thread(() ->
+            {
+                try
+                {
+                    client.requestCerts(CertdogTestServer.NewRequests(20), BatchOptions.builder().concurrency(4).build());
+                }
+                catch (Exception e)
+                {
+                    error.set(e);
+                }
+                interrupted.set(Thread.currentThread().isInterrupted());
+            });
+            batch.start();
+            Thread.sleep(100);
+            batch.interrupt();
+            batch.join(5000);
+
+            assertTrue(error.get() instanceof CertdogException, () -> String.valueOf(error.get()));
+            assertTrue(interrupted.get());
+
+            // Only the first requests were sent
+            Thread.sleep(500);
+            assertEquals(before + 4, server.getRequestCount(CertdogEndpoints.CERT_REQ));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidOptions()
+    {
+        assertThrows(IllegalArgumentException.class, () -> BatchOptions.builder().concurrency(0).build());
+        assertThrows(IllegalArgumentException.class, () -> BatchOptions.builder().format(null).build());
+    }
+}
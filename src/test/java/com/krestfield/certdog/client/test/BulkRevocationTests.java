@@ -0,0 +1,203 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.BulkRevocationOptions;
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.RevocationReason;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import com.krestfield.certdog.client.CertdogException;
+import com.krestfield.certdog.client.KeyType;
+import com.krestfield.certdog.client.RevocationEntry;
+import com.krestfield.certdog.client.RevocationReport;
+import com.krestfield.certdog.client.RevocationResult;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Bulk revocation with revokeCerts
+ */
+public class BulkRevocationTests
+{
+    private static final String SECOND_ISSUER = "Second Test Issuer";
+
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true, CertdogTestServer.ISSUER, SECOND_ISSUER);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.clearErrors();
+        server.setLatency(0, 0);
+    }
+
+    @Test
+    public void retriesTransientFailures() throws Exception
+    {
+        try (CertdogClient client = server.newClient())
+        {
+            List<RevocationEntry> entries = IssueCerts(client, CertdogTestServer.ISSUER, 10);
+
+            server.failNext(CertdogEndpoints.REVOKE_CERT, 5, 503);
+            RevocationReport report = client.revokeCerts(entries, BulkRevocationOptions.builder()
+                    .maxAttempts(8)
+                    .retryBackoff(10)
+                    .build());
+
+            assertEquals(entries.size(), report.getSuccessCount());
+            assertEquals(5, report.getRetryCount());
+            for (RevocationEntry entry : entries)
+            {
+                assertTrue(server.isRevoked(new BigInteger(entry.getSerialNumber(), 16)));
+            }
+
+            // Failures that are not transient are not retried
+            RevocationReport unknown = client.revokeCerts(Collections.singletonList(new RevocationEntry(
+                    CertdogTestServer.ISSUER, "ABCDEF", RevocationReason.KeyCompromise)), BulkRevocationOptions.builder()
+                    .maxAttempts(2)
+                    .retryBackoff(10)
+                    .build());
+            assertEquals(1, unknown.getFailureCount());
+            assertEquals(1, unknown.getResults().get(0).getAttempts());
+            assertEquals(404, unknown.getResults().get(0).getError().getStatusCode());
+
+            // Nor are those still failing after the last attempt
+            server.failNext(CertdogEndpoints.REVOKE_CERT, 2, 503);
+            RevocationReport exhausted = client.revokeCerts(entries.subList(0, 1), BulkRevocationOptions.builder()
+                    .maxAttempts(2)
+                    .retryBackoff(10)
+                    .build());
+            assertEquals(1, exhausted.getFailureCount());
+            assertEquals(2, exhausted.getResults().get(0).getAttempts());
+            assertEquals(503, exhausted.getResults().get(0).getError().getStatusCode());
+        }
+    }
+
+    @Test
+    public void eachIssuerHasItsOwnLanes() throws Exception
+    {
+        try (CertdogClient client = server.newClient())
+        {
+            List<RevocationEntry> entries = IssueCerts(client, CertdogTestServer.ISSUER, 8);
+            entries.addAll(IssueCerts(client, SECOND_ISSUER, 8));
+
+            server.setLatency(50, 50);
+            server.resetPeakInFlight();
+            RevocationReport report = client.revokeCerts(entries, BulkRevocationOptions.builder()
+                    .perIssuerConcurrency(2)
+                    .build());
+
+            assertEquals(entries.size(), report.getSuccessCount());
+            assertEquals(4, server.getPeakInFlight(CertdogEndpoints.REVOKE_CERT));
+            for (int i = 0; i < entries.size(); i++)
+            {
+                assertSame(entries.get(i), report.getResults().get(i).getEntry());
+            }
+        }
+    }
+
+    @Test
+    public void synchronousFailuresDoNotGrowTheStack() throws Exception
+    {
+        // The client is not logged in, so every revocation fails before it is sent
+        try (CertdogClient client = new CertdogClient(server.clientConfig().build()))
+        {
+            List<RevocationEntry> entries = new ArrayList<>();
+            for (int i = 0; i < 20000; i++)
+            {
+                entries.add(new RevocationEntry(CertdogTestServer.ISSUER, Integer.toHexString(0x100000 + i), RevocationReason.Superseded));
+            }
+
+            RevocationReport report = assertTimeoutPreemptively(Duration.ofSeconds(30), () ->
+                    client.revokeCerts(entries, BulkRevocationOptions.builder().perIssuerConcurrency(1).build()));
+
+            assertEquals(entries.size(), report.getFailureCount());
+            for (RevocationResult result : report.getResults())
+            {
+                assertEquals(1, result.getAttempts());
+            }
+        }
+    }
+
+    @Test
+    public void interruptCancelsTheRevocationsInFlight() throws Exception
+    {
+        try (CertdogClient client = server.newClient())
+        {
+            List<RevocationEntry> entries = IssueCerts(client, CertdogTestServer.ISSUER, 10);
+
+            server.setLatency(300, 300);
+            int before = server.getRequestCount(CertdogEndpoints.REVOKE_CERT);
+            AtomicReference<Exception> error = new AtomicReference<>();
+            Thread revoker = new Thread(() ->
+            {
+                try
+                {
+                    client.revokeCerts(entries, BulkRevocationOptions.builder().perIssuerConcurrency(2).build());
+                }
+                catch (Exception e)
+                {
+                    error.set(e);
+                }
+            });
+            revoker.start();
+            Thread.sleep(100);
+            revoker.interrupt();
+            revoker.join(5000);
+            assertFalse(revoker.isAlive());
+            assertTrue(error.get() instanceof CertdogException, () -> String.valueOf(error.get()));
+
+            // The two in flight were cancelled and no more were started
+            Thread.sleep(700);
+            assertEquals(before + 2, server.getRequestCount(CertdogEndpoints.REVOKE_CERT));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidOptions()
+    {
+        assertThrows(IllegalArgumentException.class, () -> BulkRevocationOptions.builder().perIssuerConcurrency(0).build());
+        assertThrows(IllegalArgumentException.class, () -> BulkRevocationOptions.builder().maxAttempts(0).build());
+        assertThrows(IllegalArgumentException.class, () -> BulkRevocationOptions.builder().retryBackoff(-1).build());
+        assertEquals(0, BulkRevocationOptions.builder().retryBackoff(0).build().getRetryBackoffMillis());
+    }
+
+    private static List<RevocationEntry> IssueCerts(CertdogClient client, String issuerName, int count) throws Exception
+    {
+        List<RevocationEntry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            X509Certificate cert = client.requestCertWithLocalKey(issuerName, CertdogTestServer.TEAM,
+                    "CN=revoke test " + i, null, KeyType.EC_P256).getCertificate();
+            entries.add(new RevocationEntry(issuerName, cert, RevocationReason.KeyCompromise));
+        }
+
+        return entries;
+    }
+}
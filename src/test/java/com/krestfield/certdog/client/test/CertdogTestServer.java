@@ -0,0 +1,853 @@
+package com.krestfield.certdog.client.test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClientConfig;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import com.krestfield.certdog.client.CertdogException;
+import com.krestfield.certdog.client.KeyStoreConverter;
+import com.krestfield.certdog.client.KeyType;
+import com.krestfield.certdog.client.model.GeneratorsResponse;
+import com.krestfield.certdog.client.model.GetCertFromCsrRequest;
+import com.krestfield.certdog.client.model.GetCertRequest;
+import com.krestfield.certdog.client.model.GetCertResponse;
+import com.krestfield.certdog.client.model.LoginRequest;
+import com.krestfield.certdog.client.model.LoginResponse;
+import com.krestfield.certdog.client.model.RevokeCertRequest;
+import com.krestfield.certdog.client.model.TeamsResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CertdogTestServer
+ *
+ * An embedded stand-in for the certdog API so that the client can be tested without a network.
+ * Every route in CertdogEndpoints is served and certificates are really issued, by an in-memory
+ * CA per issuer. Latency and errors can be injected while the server is running
+ *
+ * Each CSR generator uses one key pair for every certificate it issues so that issuance is not
+ * dominated by key generation
+ */
+public class CertdogTestServer implements AutoCloseable
+{
+    public static final String USERNAME = "certdogtest";
+    public static final String PASSWORD = "password";
+    public static final String TEAM = "Test Team";
+    public static final String ISSUER = "Certdog Test Issuer";
+    public static final List<String> GENERATORS = Arrays.asList("RSA2048", "ECC P256");
+
+    private static final String BASE_PATH = "/api/";
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    static
+    {
+        // Without this the server's separate header and body writes stall on delayed ACKs
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    /**
+     * An issued certificate and, for requests from a DN, its P12
+     */
+    private static class Issued
+    {
+        final String issuerName;
+        final X509Certificate cert;
+        final String p12B64;
+        final String password;
+
+        Issued(String issuerName, X509Certificate cert, String p12B64, String password)
+        {
+            this.issuerName = issuerName;
+            this.cert = cert;
+            this.p12B64 = p12B64;
+            this.password = password;
+        }
+    }
+
+    /**
+     * Errors returned in place of a response
+     */
+    private static class ErrorRule
+    {
+        final double rate;
+        final int status;
+
+        ErrorRule(double rate, int status)
+        {
+            this.rate = rate;
+            this.status = status;
+        }
+    }
+
+    /**
+     * Errors returned in place of the next responses
+     */
+    private static class FailureRule
+    {
+        final AtomicInteger remaining;
+        final int status;
+
+        FailureRule(int count, int status)
+        {
+            this.remaining = new AtomicInteger(count);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Delays added to some responses: either a proportion of them, or the next count
+     */
+    private static class StallRule
+    {
+        final double rate;
+        final AtomicInteger remaining;
+        final long millis;
+
+        StallRule(double rate, long millis)
+        {
+            this.rate = rate;
+            this.remaining = null;
+            this.millis = millis;
+        }
+
+        StallRule(int count, long millis)
+        {
+            this.rate = 0;
+            this.remaining = new AtomicInteger(count);
+            this.millis = millis;
+        }
+    }
+
+    private static class HttpError extends Exception
+    {
+        final int status;
+
+        HttpError(int status, String message)
+        {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, TestCa> issuers = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, KeyPair> generatorKeys = new LinkedHashMap<>();
+    private final Map<String, Long> tokens = new ConcurrentHashMap<>();
+    private final Map<String, Issued> issuedById = new ConcurrentHashMap<>();
+    private final Map<BigInteger, Issued> issuedBySerial = new ConcurrentHashMap<>();
+    private final Map<BigInteger, String> revoked = new ConcurrentHashMap<>();
+    private final Map<String, ErrorRule> errors = new ConcurrentHashMap<>();
+    private final Map<String, FailureRule> failures = new ConcurrentHashMap<>();
+    private final Map<String, StallRule> stalls = new ConcurrentHashMap<>();
+    private final Map<String, StallRule> stallsNext = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> peakInFlight = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> lastBodies = new ConcurrentHashMap<>();
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor = Executors.newCachedThreadPool(r ->
+    {
+        Thread t = new Thread(r, "certdog-test-server");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final HttpServer server;
+    private final SSLContext clientSslContext;
+
+    private volatile long minLatencyMillis = 0;
+    private volatile long maxLatencyMillis = 0;
+    private volatile long certLifetimeMillis = 365 * DAY;
+    private volatile long tokenLifetimeMillis = 60 * 60 * 1000;
+    private volatile boolean returnPemCert = true;
+
+    /**
+     * Starts a server on a free port
+     *
+     * @param https true to serve HTTPS, with a certificate trusted by getClientSslContext()
+     * @param issuerNames the names of the issuers to create, each with its own CA
+     * @throws Exception if the server cannot be started
+     */
+    public CertdogTestServer(boolean https, String... issuerNames) throws Exception
+    {
+        if (issuerNames.length == 0)
+            issuerNames = new String[] { ISSUER };
+        for (String name : issuerNames)
+        {
+            issuers.put(name, new TestCa("CN=" + name + ",O=Certdog Test"));
+        }
+
+        generatorKeys.put("RSA2048", KeyType.RSA_2048.generate());
+        generatorKeys.put("ECC P256", KeyType.EC_P256.generate());
+
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 0);
+        if (https)
+        {
+            TestCa tlsCa = new TestCa("CN=Certdog Test TLS CA");
+            KeyPair tlsKeys = KeyType.RSA_2048.generate();
+            X509Certificate tlsCert = tlsCa.issue("CN=localhost", tlsKeys.getPublic(),
+                    Arrays.asList("DNS:localhost", "IP:127.0.0.1"), 365 * DAY);
+
+            KeyStore ks = KeyStore.getInstance("JKS");
+            ks.load(null, null);
+            ks.setKeyEntry("tls", tlsKeys.getPrivate(), PASSWORD.toCharArray(), new Certificate[] { tlsCert, tlsCa.getCert() });
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(ks, PASSWORD.toCharArray());
+            SSLContext serverContext = SSLContext.getInstance("TLS");
+            serverContext.init(kmf.getKeyManagers(), null, null);
+
+            KeyStore trust = KeyStore.getInstance("JKS");
+            trust.load(null, null);
+            trust.setCertificateEntry("ca", tlsCa.getCert());
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(trust);
+            clientSslContext = SSLContext.getInstance("TLS");
+            clientSslContext.init(null, tmf.getTrustManagers(), null);
+
+            HttpsServer s = HttpsServer.create(address, 0);
+            s.setHttpsConfigurator(new HttpsConfigurator(serverContext));
+            server = s;
+        }
+        else
+        {
+            clientSslContext = null;
+            server = HttpServer.create(address, 0);
+        }
+
+        server.createContext(BASE_PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return the API URL to pass to CertdogClient
+     */
+    public String getApiUrl()
+    {
+        String scheme = server instanceof HttpsServer ? "https" : "http";
+        return scheme + "://127.0.0.1:" + server.getAddress().getPort() + "/api";
+    }
+
+    /**
+     * @return an SSLContext trusting the server's certificate, or null if the server is not HTTPS
+     */
+    public SSLContext getClientSslContext()
+    {
+        return clientSslContext;
+    }
+
+    /**
+     * @return a config builder for a client of this server, with a pool of 32 connections
+     */
+    public CertdogClientConfig.Builder clientConfig()
+    {
+        return CertdogClientConfig.builder(getApiUrl())
+                .pooled(32, 32)
+                .sslContext(clientSslContext);
+    }
+
+    /**
+     * @return a client with the config from clientConfig(), logged in
+     * @throws CertdogException if the login fails
+     */
+    public CertdogClient newClient() throws CertdogException
+    {
+        return newClient(clientConfig().build());
+    }
+
+    /**
+     * @param config the client config
+     * @return a client, logged in
+     * @throws CertdogException if the login fails
+     */
+    public CertdogClient newClient(CertdogClientConfig config) throws CertdogException
+    {
+        CertdogClient client = new CertdogClient(config);
+        client.login(USERNAME, PASSWORD);
+
+        return client;
+    }
+
+    /**
+     * @param count the number of requests
+     * @return requests to the test issuer and team from the first generator, with the DNs "CN=test 0", "CN=test 1"...
+     * and the P12 password "password"
+     */
+    public static List<GetCertRequest> NewRequests(int count)
+    {
+        List<GetCertRequest> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            GetCertRequest req = new GetCertRequest();
+            req.setCaName(ISSUER);
+            req.setCsrGeneratorName(GENERATORS.get(0));
+            req.setTeamName(TEAM);
+            req.setDn("CN=test " + i);
+            req.setP12Password(PASSWORD);
+            requests.add(req);
+        }
+
+        return requests;
+    }
+
+    /**
+     * @param issuerName the issuer name
+     * @return the CA for the issuer, or null if there is no such issuer
+     */
+    public TestCa getCa(String issuerName)
+    {
+        return issuers.get(issuerName);
+    }
+
+    /**
+     * Replaces the CA of an issuer with a new one, as when a CA is renewed
+     *
+     * @param issuerName the issuer name
+     * @param lifetimeMillis how long the new CA certificate is valid for
+     * @throws Exception if the CA cannot be created
+     */
+    public void renewCa(String issuerName, long lifetimeMillis) throws Exception
+    {
+        setCa(issuerName, new TestCa("CN=" + issuerName + ",O=Certdog Test", lifetimeMillis));
+    }
+
+    /**
+     * Replaces the CA of an issuer, as when restoring one replaced by renewCa
+     *
+     * @param issuerName the issuer name
+     * @param ca the CA
+     */
+    public void setCa(String issuerName, TestCa ca)
+    {
+        issuers.put(issuerName, ca);
+    }
+
+    /**
+     * Delays every response by a random time in the range given
+     *
+     * @param minMillis the minimum delay
+     * @param maxMillis the maximum delay
+     */
+    public void setLatency(long minMillis, long maxMillis)
+    {
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = Math.max(minMillis, maxMillis);
+    }
+
+    /**
+     * Returns an error status in place of the response for a proportion of the calls to an endpoint
+     *
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants, or null for all endpoints
+     * @param rate the proportion of calls that fail, from 0 to 1
+     * @param status the HTTP status to return
+     */
+    public void injectErrors(String endpoint, double rate, int status)
+    {
+        errors.put(endpoint != null ? endpoint : "", new ErrorRule(rate, status));
+    }
+
+    /**
+     * Returns an error status in place of the response for the next calls to an endpoint
+     *
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @param count the number of calls that fail
+     * @param status the HTTP status to return
+     */
+    public void failNext(String endpoint, int count, int status)
+    {
+        failures.put(endpoint, new FailureRule(count, status));
+    }
+
+    /**
+     * Removes all injected errors and stalls
+     */
+    public void clearErrors()
+    {
+        errors.clear();
+        failures.clear();
+        stalls.clear();
+        stallsNext.clear();
+    }
+
+    /**
+     * Rejects every login token issued so far, as if they had all expired
+     */
+    public void expireTokens()
+    {
+        tokens.clear();
+    }
+
+    /**
+     * Delays the next calls to an endpoint by a fixed time, on top of any latency set
+     *
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @param count the number of calls that are delayed
+     * @param millis the delay
+     */
+    public void stallNext(String endpoint, int count, long millis)
+    {
+        stallsNext.put(endpoint, new StallRule(count, millis));
+    }
+
+    /**
+     * Delays a proportion of the calls to an endpoint by a fixed time, on top of any latency set
+     *
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @param rate the proportion of calls that are delayed, from 0 to 1. 0 removes the delay
+     * @param millis the delay
+     */
+    public void injectStalls(String endpoint, double rate, long millis)
+    {
+        if (rate > 0)
+            stalls.put(endpoint, new StallRule(rate, millis));
+        else
+            stalls.remove(endpoint);
+    }
+
+    /**
+     * @param certLifetimeMillis how long issued certificates are valid for
+     */
+    public void setCertLifetime(long certLifetimeMillis)
+    {
+        this.certLifetimeMillis = certLifetimeMillis;
+    }
+
+    /**
+     * @param returnPemCert false to leave the pemCert out of certificate responses, as some certdog versions do
+     */
+    public void setReturnPemCert(boolean returnPemCert)
+    {
+        this.returnPemCert = returnPemCert;
+    }
+
+    /**
+     * @param tokenLifetimeMillis how long login tokens are valid for
+     */
+    public void setTokenLifetime(long tokenLifetimeMillis)
+    {
+        this.tokenLifetimeMillis = tokenLifetimeMillis;
+    }
+
+    /**
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @return the number of calls made to the endpoint, including those that failed
+     */
+    public int getRequestCount(String endpoint)
+    {
+        AtomicInteger count = requestCounts.get(endpoint);
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @return the most calls to the endpoint that have been in progress at once since the last reset
+     */
+    public int getPeakInFlight(String endpoint)
+    {
+        AtomicInteger peak = peakInFlight.get(endpoint);
+        return peak != null ? peak.get() : 0;
+    }
+
+    /**
+     * Resets the peak number of calls in progress for every endpoint
+     */
+    public void resetPeakInFlight()
+    {
+        peakInFlight.clear();
+    }
+
+    /**
+     * @return the number of connections clients have made to the server
+     */
+    public int getConnectionCount()
+    {
+        return connections.size();
+    }
+
+    /**
+     * @param endpoint the endpoint, as one of the CertdogEndpoints constants
+     * @return the body of the last request to the endpoint, or null if there has been none
+     */
+    public String getLastRequestBody(String endpoint)
+    {
+        byte[] body = lastBodies.get(endpoint);
+        return body != null ? new String(body, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * @return the number of certificates issued
+     */
+    public int getIssuedCount()
+    {
+        return issuedById.size();
+    }
+
+    /**
+     * @param serial the certificate serial number
+     * @return true if the certificate has been revoked
+     */
+    public boolean isRevoked(BigInteger serial)
+    {
+        return revoked.containsKey(serial);
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            connections.add(exchange.getRemoteAddress());
+            byte[] body = ReadAll(exchange.getRequestBody());
+            String path = exchange.getRequestURI().getPath().substring(BASE_PATH.length());
+
+            String[] route = route(path);
+            if (route == null)
+                throw new HttpError(404, "Not found: " + path);
+
+            String endpoint = route[0];
+            requestCounts.computeIfAbsent(endpoint, k -> new AtomicInteger()).incrementAndGet();
+            lastBodies.put(endpoint, body);
+
+            // Counted out before the response is written, as the client may send its next call as soon as it is read
+            AtomicInteger current = inFlight.computeIfAbsent(endpoint, k -> new AtomicInteger());
+            peakInFlight.computeIfAbsent(endpoint, k -> new AtomicInteger()).accumulateAndGet(current.incrementAndGet(), Math::max);
+            Object result;
+            try
+            {
+                delay(endpoint);
+                injectError(endpoint);
+
+                if (!CertdogEndpoints.LOGIN.equals(endpoint))
+                    authenticate(exchange);
+
+                result = dispatch(endpoint, route[1], body, exchange);
+            }
+            finally
+            {
+                current.decrementAndGet();
+            }
+
+            if (result instanceof String)
+                respond(exchange, 200, "text/plain", ((String) result).getBytes(StandardCharsets.UTF_8));
+            else
+                respond(exchange, 200, "application/json", mapper.writeValueAsBytes(result));
+        }
+        catch (HttpError e)
+        {
+            respond(exchange, e.status, "text/plain", e.getMessage().getBytes(StandardCharsets.UTF_8));
+        }
+        catch (Exception e)
+        {
+            respond(exchange, 500, "text/plain", String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return the endpoint constant and the path parameter (or null), or null if no endpoint matches
+     */
+    private static String[] route(String path)
+    {
+        switch (path)
+        {
+            case CertdogEndpoints.LOGIN:
+            case CertdogEndpoints.LOGOUT:
+            case CertdogEndpoints.MY_TEAMS:
+            case CertdogEndpoints.MY_ISSUERS:
+            case CertdogEndpoints.CSR_GENERATORS:
+            case CertdogEndpoints.CERT_REQ:
+            case CertdogEndpoints.CERT_REQ_CSR:
+            case CertdogEndpoints.REVOKE_CERT:
+                return new String[] { path, null };
+        }
+
+        String chainPrefix = CertdogEndpoints.ISSUER_CHAIN.replace("%s", "");
+        if (path.startsWith(chainPrefix))
+            return new String[] { CertdogEndpoints.ISSUER_CHAIN, path.substring(chainPrefix.length()) };
+
+        if (path.startsWith("certs/") && path.endsWith("/pem"))
+            return new String[] { CertdogEndpoints.CERT_PEM_DATA, path.substring(6, path.length() - 4) };
+        if (path.startsWith("certs/") && path.endsWith("/jks"))
+            return new String[] { CertdogEndpoints.CERT_JKS_DATA, path.substring(6, path.length() - 4) };
+
+        return null;
+    }
+
+    private Object dispatch(String endpoint, String param, byte[] body, HttpExchange exchange) throws Exception
+    {
+        switch (endpoint)
+        {
+            case CertdogEndpoints.LOGIN:
+                return login(mapper.readValue(body, LoginRequest.class));
+            case CertdogEndpoints.LOGOUT:
+                tokens.remove(BearerToken(exchange));
+                return "";
+            case CertdogEndpoints.MY_TEAMS:
+                TeamsResponse team = new TeamsResponse();
+                team.setId("1");
+                team.setName(TEAM);
+                // certdog returns more than the client models
+                ObjectNode teamNode = mapper.valueToTree(team);
+                teamNode.put("description", "Created by the test server");
+                return Arrays.asList(teamNode);
+            case CertdogEndpoints.MY_ISSUERS:
+                return new ArrayList<>(issuers.keySet());
+            case CertdogEndpoints.CSR_GENERATORS:
+                List<GeneratorsResponse> generators = new ArrayList<>();
+                for (String name : GENERATORS)
+                {
+                    GeneratorsResponse generator = new GeneratorsResponse();
+                    generator.setName(name);
+                    generators.add(generator);
+                }
+                return generators;
+            case CertdogEndpoints.CERT_REQ:
+                return requestCert(mapper.readValue(body, GetCertRequest.class));
+            case CertdogEndpoints.CERT_REQ_CSR:
+                return requestCertFromCsr(mapper.readValue(body, GetCertFromCsrRequest.class));
+            case CertdogEndpoints.CERT_PEM_DATA:
+                Issued pem = getIssued(param);
+                return KeyStoreConverter.ToPem(pem.p12B64, pem.password);
+            case CertdogEndpoints.CERT_JKS_DATA:
+                Issued jks = getIssued(param);
+                return KeyStoreConverter.ToJks(jks.p12B64, jks.password);
+            case CertdogEndpoints.REVOKE_CERT:
+                revoke(mapper.readValue(body, RevokeCertRequest.class));
+                return "";
+            case CertdogEndpoints.ISSUER_CHAIN:
+                return Arrays.asList(ToPem(getCa(param, 404).getCert()));
+            default:
+                throw new HttpError(404, "Not found: " + endpoint);
+        }
+    }
+
+    private LoginResponse login(LoginRequest req) throws HttpError
+    {
+        if (!USERNAME.equals(req.getUsername()) || !PASSWORD.equals(req.getPassword()))
+            throw new HttpError(401, "Invalid username or password");
+
+        long expiresAt = System.currentTimeMillis() + tokenLifetimeMillis;
+        Base64.Encoder b64 = Base64.getUrlEncoder().withoutPadding();
+        String jwt = b64.encodeToString("{\"alg\":\"none\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8)) + "."
+                + b64.encodeToString(("{\"sub\":\"" + req.getUsername() + "\",\"exp\":" + (expiresAt / 1000)
+                        + ",\"jti\":\"" + UUID.randomUUID() + "\"}").getBytes(StandardCharsets.UTF_8)) + ".test";
+        tokens.put(jwt, expiresAt);
+
+        LoginResponse resp = new LoginResponse();
+        resp.setUsername(req.getUsername());
+        resp.setToken(jwt);
+
+        return resp;
+    }
+
+    private GetCertResponse requestCert(GetCertRequest req) throws Exception
+    {
+        TestCa ca = getCa(req.getCaName(), 400);
+        KeyPair keys = generatorKeys.get(req.getCsrGeneratorName());
+        if (keys == null)
+            throw new HttpError(400, "Unknown CSR generator: " + req.getCsrGeneratorName());
+        if (req.getP12Password() == null || req.getP12Password().isEmpty())
+            throw new HttpError(400, "A password is required");
+
+        List<String> sans = req.getSubjectAltNames() != null ? Arrays.asList(req.getSubjectAltNames()) : null;
+        X509Certificate cert = ca.issue(req.getDn(), keys.getPublic(), sans, certLifetimeMillis);
+
+        KeyStore p12 = KeyStore.getInstance("PKCS12");
+        p12.load(null, null);
+        p12.setKeyEntry("certdog", keys.getPrivate(), req.getP12Password().toCharArray(), new Certificate[] { cert, ca.getCert() });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        p12.store(out, req.getP12Password().toCharArray());
+        String p12B64 = Base64.getEncoder().encodeToString(out.toByteArray());
+
+        return store(new Issued(req.getCaName(), cert, p12B64, req.getP12Password()));
+    }
+
+    private GetCertResponse requestCertFromCsr(GetCertFromCsrRequest req) throws Exception
+    {
+        TestCa ca = getCa(req.getCaName(), 400);
+        X509Certificate cert;
+        try
+        {
+            cert = ca.issueFromCsr(req.getCsr(), certLifetimeMillis);
+        }
+        catch (Exception e)
+        {
+            throw new HttpError(400, "Invalid CSR: " + e.getMessage());
+        }
+
+        return store(new Issued(req.getCaName(), cert, null, null));
+    }
+
+    private GetCertResponse store(Issued issued) throws Exception
+    {
+        String id = UUID.randomUUID().toString().replace("-", "");
+        issuedById.put(id, issued);
+        issuedBySerial.put(issued.cert.getSerialNumber(), issued);
+
+        GetCertResponse resp = new GetCertResponse();
+        resp.setId(id);
+        if (returnPemCert)
+            resp.setPemCert(ToPem(issued.cert));
+        resp.setP12Data(issued.p12B64);
+
+        return resp;
+    }
+
+    private void revoke(RevokeCertRequest req) throws HttpError
+    {
+        getCa(req.getCaName(), 400);
+
+        BigInteger serial;
+        try
+        {
+            serial = new BigInteger(req.getSerialNumber(), 16);
+        }
+        catch (Exception e)
+        {
+            throw new HttpError(400, "Invalid serial number: " + req.getSerialNumber());
+        }
+
+        Issued issued = issuedBySerial.get(serial);
+        if (issued == null || !issued.issuerName.equals(req.getCaName()))
+            throw new HttpError(404, "Certificate not found: " + req.getSerialNumber());
+
+        revoked.put(serial, String.valueOf(req.getReason()));
+    }
+
+    private Issued getIssued(String id) throws HttpError
+    {
+        Issued issued = issuedById.get(id);
+        if (issued == null || issued.p12B64 == null)
+            throw new HttpError(404, "Certificate not found: " + id);
+
+        return issued;
+    }
+
+    private TestCa getCa(String issuerName, int status) throws HttpError
+    {
+        TestCa ca = issuerName != null ? issuers.get(issuerName) : null;
+        if (ca == null)
+            throw new HttpError(status, "Unknown issuer: " + issuerName);
+
+        return ca;
+    }
+
+    private void authenticate(HttpExchange exchange) throws HttpError
+    {
+        String token = BearerToken(exchange);
+        Long expiresAt = token != null ? tokens.get(token) : null;
+        if (expiresAt == null || System.currentTimeMillis() >= expiresAt)
+            throw new HttpError(401, "Not authenticated");
+    }
+
+    private void delay(String endpoint) throws InterruptedException
+    {
+        long min = minLatencyMillis;
+        long max = maxLatencyMillis;
+        if (max > 0)
+            Thread.sleep(max > min ? ThreadLocalRandom.current().nextLong(min, max + 1) : min);
+
+        StallRule next = stallsNext.get(endpoint);
+        if (next != null && next.remaining.getAndDecrement() > 0)
+            Thread.sleep(next.millis);
+
+        StallRule stall = stalls.get(endpoint);
+        if (stall != null && ThreadLocalRandom.current().nextDouble() < stall.rate)
+            Thread.sleep(stall.millis);
+    }
+
+    private void injectError(String endpoint) throws HttpError
+    {
+        FailureRule failure = failures.get(endpoint);
+        if (failure != null && failure.remaining.getAndDecrement() > 0)
+            throw new HttpError(failure.status, "Injected error");
+
+        ErrorRule rule = errors.get(endpoint);
+        if (rule == null)
+            rule = errors.get("");
+        if (rule != null && ThreadLocalRandom.current().nextDouble() < rule.rate)
+            throw new HttpError(rule.status, "Injected error");
+    }
+
+    private static String BearerToken(HttpExchange exchange)
+    {
+        String auth = exchange.getRequestHeaders().getFirst("Authorization");
+        if (auth == null || !auth.startsWith("Bearer "))
+            return null;
+
+        return auth.substring(7);
+    }
+
+    private static String ToPem(X509Certificate cert) throws Exception
+    {
+        String b64 = Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(cert.getEncoded());
+        return "-----BEGIN CERTIFICATE-----\n" + b64 + "\n-----END CERTIFICATE-----\n";
+    }
+
+    private static byte[] ReadAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) >= 0)
+        {
+            out.write(buf, 0, n);
+        }
+
+        return out.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+        if (body.length > 0)
+        {
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        }
+    }
+}
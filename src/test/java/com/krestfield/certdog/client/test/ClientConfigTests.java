@@ -0,0 +1,105 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClientConfig;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import com.krestfield.certdog.client.CertdogException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The connectors, pool size and timeouts set in CertdogClientConfig
+ */
+public class ClientConfigTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.setLatency(0, 0);
+    }
+
+    @Test
+    public void bothConnectorsCallCertdog() throws Exception
+    {
+        for (CertdogClientConfig.Connector connector : CertdogClientConfig.Connector.values())
+        {
+            try (CertdogClient client = server.newClient(server.clientConfig().connector(connector).build()))
+            {
+                assertEquals(CertdogTestServer.TEAM, client.getTeams().get(0), connector::toString);
+                assertFalse(client.getIssuerChainAsync(CertdogTestServer.ISSUER).get().isEmpty(), connector::toString);
+            }
+        }
+    }
+
+    @Test
+    public void poolBoundsTheConnections() throws Exception
+    {
+        try (CertdogClient client = server.newClient(server.clientConfig().pooled(2, 2).build()))
+        {
+            server.setLatency(100, 100);
+            server.resetPeakInFlight();
+            List<CompletableFuture<List<X509Certificate>>> chains = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+            {
+                chains.add(client.getIssuerChainAsync(CertdogTestServer.ISSUER));
+            }
+            for (CompletableFuture<List<X509Certificate>> chain : chains)
+            {
+                assertFalse(chain.get().isEmpty());
+            }
+
+            assertEquals(2, server.getPeakInFlight(CertdogEndpoints.ISSUER_CHAIN));
+        }
+    }
+
+    @Test
+    public void readTimeoutIsTransient() throws Exception
+    {
+        for (CertdogClientConfig.Connector connector : CertdogClientConfig.Connector.values())
+        {
+            try (CertdogClient client = server.newClient(server.clientConfig().connector(connector).readTimeout(200).build()))
+            {
+                server.setLatency(1000, 1000);
+                long start = System.nanoTime();
+                CertdogException e = assertThrows(CertdogException.class, client::getIssuers);
+                assertTrue(System.nanoTime() - start < 900000000L, connector::toString);
+                assertEquals(CertdogException.Kind.TRANSIENT, e.getKind(), () -> connector + ": " + e);
+                server.setLatency(0, 0);
+            }
+        }
+    }
+
+    @Test
+    public void rejectsInvalidSettings()
+    {
+        assertThrows(IllegalArgumentException.class, () -> CertdogClientConfig.builder(null).build());
+        assertThrows(IllegalArgumentException.class, () -> CertdogClientConfig.builder(server.getApiUrl()).pooled(0, 0).build());
+        assertThrows(IllegalArgumentException.class, () -> CertdogClientConfig.builder(server.getApiUrl()).asyncExecutor(null).build());
+    }
+}
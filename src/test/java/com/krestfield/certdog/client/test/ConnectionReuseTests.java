@@ -0,0 +1,50 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Reuse of the pooled connections
+ */
+public class ConnectionReuseTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @Test
+    public void pooledConnectionsAreReused() throws Exception
+    {
+        try (CertdogClient client = server.newClient(server.clientConfig().pooled(1, 1).build()))
+        {
+            int before = server.getConnectionCount();
+            for (int i = 0; i < 10; i++)
+            {
+                assertEquals(CertdogTestServer.TEAM, client.getTeams().get(0));
+                assertFalse(client.getIssuerChain(CertdogTestServer.ISSUER).isEmpty());
+                assertNotNull(client.requestCert(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(1),
+                        CertdogTestServer.TEAM, "CN=reused " + i, CertdogTestServer.PASSWORD, null, ResponseFormat.PEM));
+            }
+
+            // Every call after the login went over the connection it opened
+            assertEquals(before, server.getConnectionCount());
+        }
+    }
+}
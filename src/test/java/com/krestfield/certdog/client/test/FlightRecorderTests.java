@@ -0,0 +1,150 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import com.krestfield.certdog.client.CertdogException;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The Flight Recorder event for each call
+ */
+public class FlightRecorderTests
+{
+    private static final String EVENT = "com.krestfield.certdog.Call";
+
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.clearErrors();
+        server.setLatency(0, 0);
+    }
+
+    @Test
+    public void recordsEachCall() throws Exception
+    {
+        List<RecordedEvent> events = Record(null, () ->
+        {
+            try (CertdogClient client = server.newClient(server.clientConfig().localFormatConversion(false).build()))
+            {
+                client.requestCert(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0), CertdogTestServer.TEAM,
+                        "CN=jfr test", CertdogTestServer.PASSWORD, null, ResponseFormat.PEM);
+            }
+        });
+
+        List<String> endpoints = events.stream().map(e -> e.getString("endpoint")).collect(Collectors.toList());
+        assertEquals(3, events.size(), endpoints::toString);
+        assertEquals(CertdogEndpoints.LOGIN, endpoints.get(0));
+        assertEquals(CertdogEndpoints.CERT_REQ, endpoints.get(1));
+        assertEquals(CertdogEndpoints.CERT_PEM_DATA, endpoints.get(2));
+
+        RecordedEvent issue = events.get(1);
+        assertEquals(CertdogTestServer.ISSUER, issue.getString("issuer"));
+        assertEquals(CertdogTestServer.TEAM, issue.getString("team"));
+        assertEquals(200, issue.getInt("status"));
+        assertEquals("success", issue.getString("outcome"));
+        assertTrue(issue.getLong("responseSize") > 0);
+    }
+
+    @Test
+    public void recordsFailuresAndCallsWithNoResponse() throws Exception
+    {
+        List<RecordedEvent> events = Record(null, () ->
+        {
+            try (CertdogClient client = server.newClient(server.clientConfig().readTimeout(300).build()))
+            {
+                server.failNext(CertdogEndpoints.MY_TEAMS, 1, 503);
+                assertThrows(CertdogException.class, client::getTeams);
+
+                server.setLatency(1000, 1000);
+                assertThrows(CertdogException.class, client::getIssuers);
+            }
+        });
+
+        assertEquals(3, events.size());
+        assertEquals(CertdogEndpoints.MY_TEAMS, events.get(1).getString("endpoint"));
+        assertEquals(503, events.get(1).getInt("status"));
+        assertEquals("failure", events.get(1).getString("outcome"));
+        assertEquals(CertdogEndpoints.MY_ISSUERS, events.get(2).getString("endpoint"));
+        assertEquals(0, events.get(2).getInt("status"));
+        assertEquals("no response", events.get(2).getString("outcome"));
+    }
+
+    @Test
+    public void callsUnderTheThresholdAreNotRecorded() throws Exception
+    {
+        List<RecordedEvent> events = Record(Duration.ofMillis(200), () ->
+        {
+            try (CertdogClient client = server.newClient())
+            {
+                client.getTeams();
+
+                server.setLatency(300, 300);
+                client.getIssuers();
+            }
+        });
+
+        assertEquals(1, events.size());
+        assertEquals(CertdogEndpoints.MY_ISSUERS, events.get(0).getString("endpoint"));
+    }
+
+    private interface Calls
+    {
+        void run() throws Exception;
+    }
+
+    /**
+     * @return the certdog events recorded while the calls were made, in the order they started
+     */
+    private static List<RecordedEvent> Record(Duration threshold, Calls calls) throws Exception
+    {
+        Path file = Files.createTempFile("certdog", ".jfr");
+        try (Recording recording = new Recording())
+        {
+            recording.enable(EVENT).withThreshold(threshold != null ? threshold : Duration.ZERO);
+            recording.start();
+            calls.run();
+            recording.stop();
+            recording.dump(file);
+
+            return RecordingFile.readAllEvents(file).stream()
+                    .filter(e -> e.getEventType().getName().equals(EVENT))
+                    .sorted((a, b) -> a.getStartTime().compareTo(b.getStartTime()))
+                    .collect(Collectors.toList());
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+}
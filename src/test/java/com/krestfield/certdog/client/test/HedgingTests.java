@@ -0,0 +1,181 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import com.krestfield.certdog.client.CertdogException;
+import com.krestfield.certdog.client.HedgingOptions;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hedging slow reads
+ */
+public class HedgingTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.clearErrors();
+        server.setLatency(0, 0);
+    }
+
+    @Test
+    public void hedgesSlowReads() throws Exception
+    {
+        try (CertdogClient client = NewClient(HedgingOptions.builder()
+                .percentile(90)
+                .minDelay(20)
+                .maxExtraLoad(0.2)
+                .samples(20, 1000)
+                .build()))
+        {
+            int before = server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN);
+            for (int i = 0; i < 20; i++)
+            {
+                assertFalse(client.getIssuerChain(CertdogTestServer.ISSUER).isEmpty());
+            }
+
+            // One in ten responses takes a second. Without hedging about ten of these calls would be slow
+            server.injectStalls(CertdogEndpoints.ISSUER_CHAIN, 0.1, 1000);
+            int calls = 100;
+            int slow = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < calls; i++)
+            {
+                long t = System.nanoTime();
+                if (i % 2 == 0)
+                    assertFalse(client.getIssuerChain(CertdogTestServer.ISSUER).isEmpty());
+                else
+                    assertFalse(client.getIssuerChainAsync(CertdogTestServer.ISSUER).get().isEmpty());
+                if (System.nanoTime() - t > 500000000L)
+                    slow++;
+            }
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+            int extra = server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN) - before - 20 - calls;
+            System.out.println("\n" + calls + " chain fetches took " + elapsedMillis + " ms with " + extra
+                    + " hedges, " + slow + " slow");
+
+            // A hedge can be slow too, but rarely
+            assertTrue(slow <= 4);
+            assertTrue(extra > 0);
+            assertTrue(extra <= 0.2 * (20 + calls));
+        }
+    }
+
+    @Test
+    public void aSlowResponseIsHedgedOnce() throws Exception
+    {
+        try (CertdogClient client = NewClient(HedgingOptions.builder()
+                .percentile(50)
+                .minDelay(20)
+                .maxExtraLoad(0.5)
+                .samples(10, 1000)
+                .build()))
+        {
+            // No hedges until the delay is known
+            server.stallNext(CertdogEndpoints.ISSUER_CHAIN, 1, 300);
+            int before = server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN);
+            assertTrue(Time(() -> client.getIssuerChain(CertdogTestServer.ISSUER)) >= 300);
+            for (int i = 0; i < 9; i++)
+            {
+                client.getIssuerChain(CertdogTestServer.ISSUER);
+            }
+            assertEquals(before + 10, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+
+            // Then the hedge returns first
+            server.stallNext(CertdogEndpoints.ISSUER_CHAIN, 1, 1000);
+            assertTrue(Time(() -> client.getIssuerChain(CertdogTestServer.ISSUER)) < 500);
+            assertEquals(before + 12, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+
+            server.stallNext(CertdogEndpoints.ISSUER_CHAIN, 1, 1000);
+            assertTrue(Time(() -> client.getIssuerChainAsync(CertdogTestServer.ISSUER).get()) < 500);
+            assertEquals(before + 14, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+
+            // Certificate requests are never hedged
+            server.stallNext(CertdogEndpoints.CERT_REQ, 1, 300);
+            int requests = server.getRequestCount(CertdogEndpoints.CERT_REQ);
+            assertTrue(Time(() -> client.requestCert(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0),
+                    CertdogTestServer.TEAM, "CN=hedge test", CertdogTestServer.PASSWORD, null, ResponseFormat.PKCS12)) >= 300);
+            assertEquals(requests + 1, server.getRequestCount(CertdogEndpoints.CERT_REQ));
+        }
+    }
+
+    @Test
+    public void hedgesAreLimitedByTheBudget() throws Exception
+    {
+        try (CertdogClient client = NewClient(HedgingOptions.builder()
+                .minDelay(20)
+                .maxExtraLoad(0.1)
+                .samples(10, 1000)
+                .build()))
+        {
+            for (int i = 0; i < 10; i++)
+            {
+                client.getIssuerChain(CertdogTestServer.ISSUER);
+            }
+
+            // Every call is slow, so each would be hedged if the budget allowed. A tenth of a hedge is earned per
+            // call, so only the first is
+            server.injectStalls(CertdogEndpoints.ISSUER_CHAIN, 1, 300);
+            int before = server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN);
+            for (int i = 0; i < 5; i++)
+            {
+                client.getIssuerChain(CertdogTestServer.ISSUER);
+            }
+            assertEquals(before + 6, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidOptions()
+    {
+        assertThrows(IllegalArgumentException.class, () -> HedgingOptions.builder().percentile(0).build());
+        assertThrows(IllegalArgumentException.class, () -> HedgingOptions.builder().minDelay(-1).build());
+        assertThrows(IllegalArgumentException.class, () -> HedgingOptions.builder().maxExtraLoad(0).build());
+        assertThrows(IllegalArgumentException.class, () -> HedgingOptions.builder().samples(10, 5).build());
+    }
+
+    private interface Call
+    {
+        Object run() throws Exception;
+    }
+
+    /**
+     * @return how long the call took in milliseconds
+     */
+    private static long Time(Call call) throws Exception
+    {
+        long start = System.nanoTime();
+        assertFalse(call.run() == null);
+
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static CertdogClient NewClient(HedgingOptions hedging) throws CertdogException
+    {
+        return server.newClient(server.clientConfig().hedging(hedging).build());
+    }
+}
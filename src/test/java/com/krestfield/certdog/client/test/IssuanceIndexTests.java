@@ -0,0 +1,332 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.BatchOptions;
+import com.krestfield.certdog.client.BatchResult;
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import com.krestfield.certdog.client.CertdogException;
+import com.krestfield.certdog.client.IssuanceIndex;
+import com.krestfield.certdog.client.IssuanceRecord;
+import com.krestfield.certdog.client.IssuedCredential;
+import com.krestfield.certdog.client.KeyType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recording and finding issued certificates with IssuanceIndex
+ */
+public class IssuanceIndexTests
+{
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @Test
+    public void findsIssuedCerts() throws Exception
+    {
+        Path indexFile = Files.createTempFile("certdog-issued", ".log");
+        Files.delete(indexFile);
+
+        try (IssuanceIndex index = IssuanceIndex.open(indexFile))
+        {
+            CertdogClient client = server.newClient(server.clientConfig().issuanceIndex(index).build());
+            try
+            {
+                server.setCertLifetime(3 * DAY);
+                List<BatchResult> results = client.requestCerts(CertdogTestServer.NewRequests(20), BatchOptions.builder().concurrency(8).build());
+                for (BatchResult result : results)
+                {
+                    assertTrue(result.isSuccess(), () -> "Request failed: " + result.getError());
+                }
+                server.setCertLifetime(365L * DAY);
+                client.requestCert(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(1), CertdogTestServer.TEAM,
+                        "CN=indexed,O=Krestfield", CertdogTestServer.PASSWORD, Collections.singletonList("DNS:indexed.krestfield.com"),
+                        ResponseFormat.PEM);
+                IssuedCredential local = client.requestCertWithLocalKey(CertdogTestServer.ISSUER, CertdogTestServer.TEAM,
+                        "CN=indexed local", null, KeyType.EC_P256);
+
+                // Many more records, as a long lived index would hold
+                long now = System.currentTimeMillis();
+                int count = 200000;
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++)
+                {
+                    index.record(new IssuanceRecord("bulk" + i, Integer.toHexString(0x1000000 + i), "CN=bulk " + i,
+                            null, CertdogTestServer.ISSUER, CertdogTestServer.TEAM, new Date(now - DAY),
+                            new Date(now + (30 + i % 300) * DAY)));
+                }
+                System.out.println("\nRecorded " + count + " certs in " + (System.nanoTime() - start) / 1000000 + "ms");
+                assertEquals(count + 22, index.size());
+
+                start = System.nanoTime();
+                List<IssuanceRecord> bySerial = index.findBySerial(local.getCertificate().getSerialNumber().toString(16).toUpperCase());
+                List<IssuanceRecord> byDn = index.findByDn("cn=Indexed, o=krestfield");
+                List<IssuanceRecord> expiring = index.findExpiringWithin(7 * DAY);
+                System.out.println("Lookups took " + (System.nanoTime() - start) / 1000 + "us");
+
+                assertEquals(1, bySerial.size());
+                assertEquals(CertdogTestServer.ISSUER, bySerial.get(0).getIssuerName());
+                assertEquals(local.getCertificate().getNotAfter(), bySerial.get(0).getNotAfter());
+                assertEquals(1, byDn.size());
+                assertEquals(Collections.singletonList("DNS:indexed.krestfield.com"), byDn.get(0).getSans());
+                assertEquals(CertdogTestServer.TEAM, byDn.get(0).getTeamName());
+                assertEquals(20, expiring.size());
+                for (int i = 1; i < expiring.size(); i++)
+                {
+                    assertFalse(expiring.get(i).getNotAfter().before(expiring.get(i - 1).getNotAfter()));
+                }
+                assertEquals(expiring.get(0).getSerialNumber(), index.findById(expiring.get(0).getId()).getSerialNumber());
+
+                // Replaced and removed records are no longer found
+                index.record(new IssuanceRecord("bulk0", "abc", "CN=bulk replaced", null, null, null,
+                        new Date(now), new Date(now + DAY)));
+                assertTrue(index.findByDn("CN=bulk 0").isEmpty());
+                assertEquals("CN=bulk replaced", index.findBySerial("0ABC").get(0).getDn());
+                assertTrue(index.remove("bulk1"));
+                assertFalse(index.remove("bulk1"));
+                assertTrue(index.findBySerial(Integer.toHexString(0x1000001)).isEmpty());
+            }
+            finally
+            {
+                server.setCertLifetime(365L * 24 * 60 * 60 * 1000);
+                client.close();
+            }
+        }
+
+        try
+        {
+            // A frame header left partly written is dropped when the log is read back
+            Files.write(indexFile, new byte[] { 0, 0, 1, 0, 1, 2, 3 }, StandardOpenOption.APPEND);
+            long size;
+            try (IssuanceIndex index = IssuanceIndex.open(indexFile))
+            {
+                assertEquals(200021, index.size());
+                // The 20 from the batch and the replaced bulk0
+                assertEquals(21, index.findExpiringWithin(7 * DAY).size());
+                assertEquals(1, index.findBySerial("abc").size());
+                assertNull(index.findById("bulk1"));
+
+                size = Files.size(indexFile);
+                index.compact();
+                assertTrue(Files.size(indexFile) < size);
+                assertEquals(200021, index.size());
+                assertEquals("CN=bulk replaced", index.findById("bulk0").getDn());
+            }
+
+            try (IssuanceIndex index = IssuanceIndex.open(indexFile))
+            {
+                assertEquals(200021, index.size());
+                assertEquals(1, index.findByDn("CN=indexed local").size());
+            }
+        }
+        finally
+        {
+            Delete(indexFile);
+        }
+    }
+
+    @Test
+    public void dropsARecordLeftPartlyWritten() throws Exception
+    {
+        Path indexFile = NewIndex(10);
+        try
+        {
+            long size = Files.size(indexFile);
+
+            // A payload cut short
+            Append(indexFile, 0, 0, 0, 100, 1, 2, 3, 4, 0, 0, 0, 0, 0);
+            AssertRecords(indexFile, 10);
+            assertEquals(size, Files.size(indexFile));
+
+            // A file extended, but not written, before a crash
+            Files.write(indexFile, new byte[4096], StandardOpenOption.APPEND);
+            AssertRecords(indexFile, 10);
+            assertEquals(size, Files.size(indexFile));
+        }
+        finally
+        {
+            Delete(indexFile);
+        }
+    }
+
+    @Test
+    public void damageBeforeTheEndFailsTheOpen() throws Exception
+    {
+        Path indexFile = NewIndex(10);
+        try
+        {
+            long size = Files.size(indexFile);
+            byte[] original = Files.readAllBytes(indexFile);
+
+            // The first record's length, zero, too large or negative
+            for (int length : new int[] { 0, 1 << 24, -1 })
+            {
+                Overwrite(indexFile, 8, length);
+                assertThrows(CertdogException.class, () -> IssuanceIndex.open(indexFile));
+                assertEquals(size, Files.size(indexFile));
+            }
+
+            // Its checksum
+            Files.write(indexFile, original);
+            Overwrite(indexFile, 12, 0x12345678);
+            assertThrows(CertdogException.class, () -> IssuanceIndex.open(indexFile));
+            assertEquals(size, Files.size(indexFile));
+
+            // A bad length at the end that is not all zeros
+            Files.write(indexFile, original);
+            Append(indexFile, 0x7f, 0, 0, 0, 0, 0, 0, 0, 1);
+            assertThrows(CertdogException.class, () -> IssuanceIndex.open(indexFile));
+
+            Files.write(indexFile, original);
+            AssertRecords(indexFile, 10);
+        }
+        finally
+        {
+            Delete(indexFile);
+        }
+    }
+
+    @Test
+    public void rejectsOversizedRecords() throws Exception
+    {
+        Path indexFile = NewIndex(1);
+        try
+        {
+            List<String> sans = new ArrayList<>();
+            for (int i = 0; i < 20000; i++)
+            {
+                sans.add("DNS:host" + i + ".a-long-domain-name-for-the-test.krestfield.com");
+            }
+            try (IssuanceIndex index = IssuanceIndex.open(indexFile))
+            {
+                long size = Files.size(indexFile);
+                long now = System.currentTimeMillis();
+                assertThrows(CertdogException.class, () -> index.record(new IssuanceRecord("big", "1234", "CN=big", sans,
+                        null, null, new Date(now), new Date(now + DAY))));
+                assertEquals(1, index.size());
+                assertEquals(size, Files.size(indexFile));
+                index.record(new IssuanceRecord("small", "1235", "CN=small", null, null, null, new Date(now),
+                        new Date(now + DAY)));
+            }
+
+            AssertRecords(indexFile, 2);
+        }
+        finally
+        {
+            Delete(indexFile);
+        }
+    }
+
+    @Test
+    public void onlyOneIndexCanOpenTheFile() throws Exception
+    {
+        Path indexFile = NewIndex(1);
+        try
+        {
+            try (IssuanceIndex index = IssuanceIndex.open(indexFile))
+            {
+                assertThrows(CertdogException.class, () -> IssuanceIndex.open(indexFile));
+
+                // The lock is on a file beside the log, so is kept while compact replaces the log
+                assertTrue(Files.exists(indexFile.resolveSibling(indexFile.getFileName() + ".lock")));
+                index.compact();
+                assertThrows(CertdogException.class, () -> IssuanceIndex.open(indexFile));
+            }
+            AssertRecords(indexFile, 1);
+
+            IssuanceIndex closed = IssuanceIndex.open(indexFile);
+            closed.close();
+            assertThrows(IllegalStateException.class, () -> closed.findById("record0"));
+        }
+        finally
+        {
+            Delete(indexFile);
+        }
+    }
+
+    /**
+     * @return a new index file holding count records
+     */
+    private static Path NewIndex(int count) throws Exception
+    {
+        Path indexFile = Files.createTempFile("certdog-issued", ".log");
+        Files.delete(indexFile);
+        long now = System.currentTimeMillis();
+        try (IssuanceIndex index = IssuanceIndex.open(indexFile))
+        {
+            for (int i = 0; i < count; i++)
+            {
+                index.record(new IssuanceRecord("record" + i, Integer.toHexString(0x1000 + i), "CN=record " + i, null,
+                        CertdogTestServer.ISSUER, CertdogTestServer.TEAM, new Date(now), new Date(now + DAY)));
+            }
+        }
+
+        return indexFile;
+    }
+
+    /**
+     * Deletes the index file and its lock file
+     */
+    private static void Delete(Path indexFile) throws Exception
+    {
+        Files.deleteIfExists(indexFile);
+        Files.deleteIfExists(indexFile.resolveSibling(indexFile.getFileName() + ".lock"));
+    }
+
+    private static void AssertRecords(Path indexFile, int count) throws Exception
+    {
+        try (IssuanceIndex index = IssuanceIndex.open(indexFile))
+        {
+            assertEquals(count, index.size());
+            if (count > 0)
+                assertEquals("CN=record 0", index.findById("record0").getDn());
+        }
+    }
+
+    private static void Append(Path file, int... bytes) throws Exception
+    {
+        byte[] data = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            data[i] = (byte) bytes[i];
+        }
+        Files.write(file, data, StandardOpenOption.APPEND);
+    }
+
+    private static void Overwrite(Path file, long position, int value) throws Exception
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE))
+        {
+            channel.write(ByteBuffer.allocate(4).putInt(0, value), position);
+        }
+    }
+}
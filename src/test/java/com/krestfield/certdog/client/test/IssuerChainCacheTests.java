@@ -0,0 +1,108 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * The cache of parsed issuer chains
+ */
+public class IssuerChainCacheTests
+{
+    private static final String SECOND_ISSUER = "Second Test Issuer";
+    private static final String THIRD_ISSUER = "Third Test Issuer";
+
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true, CertdogTestServer.ISSUER, SECOND_ISSUER, THIRD_ISSUER);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @Test
+    public void cachesUntilTheChainExpires() throws Exception
+    {
+        // notAfter is held in whole seconds, so the CA is given a few to be sure it is cached before it expires
+        TestCa original = server.getCa(THIRD_ISSUER);
+        server.renewCa(THIRD_ISSUER, 5000);
+        try (CertdogClient client = server.newClient(server.clientConfig().issuerChainCache(10, 0).build()))
+        {
+            int before = server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN);
+            List<X509Certificate> chain = client.getIssuerChain(THIRD_ISSUER);
+            assertEquals(chain, client.getIssuerChain(THIRD_ISSUER));
+            assertEquals(chain, client.getIssuerChainAsync(THIRD_ISSUER).get());
+            assertEquals(before + 1, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+
+            // Once the CA certificate has expired its renewed chain is fetched
+            server.renewCa(THIRD_ISSUER, 10L * 365 * 24 * 60 * 60 * 1000);
+            Thread.sleep(Math.max(0, chain.get(0).getNotAfter().getTime() - System.currentTimeMillis() + 50));
+            List<X509Certificate> renewed = client.getIssuerChain(THIRD_ISSUER);
+            assertNotEquals(chain, renewed);
+            assertEquals(before + 2, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+        }
+        finally
+        {
+            server.setCa(THIRD_ISSUER, original);
+        }
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedAndAgedChains() throws Exception
+    {
+        try (CertdogClient client = server.newClient(server.clientConfig().issuerChainCache(2, 1500).build()))
+        {
+            int before = server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN);
+            client.getIssuerChain(CertdogTestServer.ISSUER);
+            client.getIssuerChain(SECOND_ISSUER);
+            client.getIssuerChain(CertdogTestServer.ISSUER);
+            assertEquals(before + 2, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+
+            // The second issuer was used least recently, so is evicted to make room for the third
+            client.getIssuerChain(THIRD_ISSUER);
+            client.getIssuerChain(CertdogTestServer.ISSUER);
+            assertEquals(before + 3, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+            client.getIssuerChain(SECOND_ISSUER);
+            assertEquals(before + 4, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+
+            // Past the maximum age
+            Thread.sleep(1600);
+            client.getIssuerChain(SECOND_ISSUER);
+            assertEquals(before + 5, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+        }
+    }
+
+    @Test
+    public void prefetchesEveryIssuer() throws Exception
+    {
+        try (CertdogClient client = server.newClient(server.clientConfig().issuerChainCache(10, 0).build()))
+        {
+            assertEquals(3, client.prefetchIssuerChains());
+
+            int before = server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN);
+            for (String issuer : client.getIssuers())
+            {
+                assertEquals(server.getCa(issuer).getCert(), client.getIssuerChain(issuer).get(0));
+            }
+            assertEquals(before, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+
+            client.invalidateIssuerChainCache(SECOND_ISSUER);
+            client.getIssuerChain(SECOND_ISSUER);
+            assertEquals(before + 1, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.krestfield.certdog.client.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * The ObjectMapper shared by the clients to write requests and read responses
+ */
+public class JsonMapperTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @Test
+    public void sharedMapperSkipsNullsAndUnknownFields() throws Exception
+    {
+        try (CertdogClient client = server.newClient())
+        {
+            // The test server's teams have a description, which TeamsResponse does not
+            assertEquals(Collections.singletonList(CertdogTestServer.TEAM), client.getTeams());
+
+            client.requestCert(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0), CertdogTestServer.TEAM,
+                    "CN=no nulls", CertdogTestServer.PASSWORD, null, ResponseFormat.PKCS12);
+            JsonNode body = new ObjectMapper().readTree(server.getLastRequestBody(CertdogEndpoints.CERT_REQ));
+            assertEquals("CN=no nulls", body.get("dn").asText());
+            assertFalse(body.has("extraInfo"));
+            assertFalse(body.has("subjectAltNames"));
+        }
+    }
+
+    @Test
+    public void fieldsThatAreSetAreWritten() throws Exception
+    {
+        try (CertdogClient client = server.newClient())
+        {
+            client.requestCert(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0), CertdogTestServer.TEAM,
+                    "CN=all fields", CertdogTestServer.PASSWORD, Arrays.asList("DNS:mapper.krestfield.com", "IP:10.0.0.2"),
+                    "Written by the mapper", Collections.singletonList("mapper@krestfield.com"), ResponseFormat.PKCS12);
+            JsonNode body = new ObjectMapper().readTree(server.getLastRequestBody(CertdogEndpoints.CERT_REQ));
+            assertEquals("CN=all fields", body.get("dn").asText());
+            assertEquals(CertdogTestServer.TEAM, body.get("teamName").asText());
+            assertEquals("Written by the mapper", body.get("extraInfo").asText());
+            assertEquals(2, body.get("subjectAltNames").size());
+            assertEquals("IP:10.0.0.2", body.get("subjectAltNames").get(1).asText());
+        }
+    }
+}
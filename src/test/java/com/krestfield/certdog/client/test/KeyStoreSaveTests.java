@@ -0,0 +1,192 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.BatchOptions;
+import com.krestfield.certdog.client.BatchResult;
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import com.krestfield.certdog.client.CertdogException;
+import com.krestfield.certdog.client.SaveOptions;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Saving key stores and PEM files through a temporary file
+ */
+public class KeyStoreSaveTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @Test
+    public void savesKeyStoresAtomically() throws Exception
+    {
+        Path dir = Files.createTempDirectory("certdog-save");
+        try (CertdogClient client = server.newClient())
+        {
+            List<BatchResult> results = client.requestCerts(CertdogTestServer.NewRequests(40), BatchOptions.builder().concurrency(16).build());
+            Map<String, String> keyStores = new LinkedHashMap<>();
+            for (BatchResult result : results)
+            {
+                assertTrue(result.isSuccess(), () -> "Request failed: " + result.getError());
+                keyStores.put(dir.resolve("cert" + result.getIndex() + ".p12").toString(), result.getData());
+            }
+
+            long start = System.nanoTime();
+            CertdogClient.SaveKeyStores(keyStores, SaveOptions.builder()
+                    .durability(SaveOptions.Durability.DATA_AND_DIRECTORY)
+                    .concurrency(4)
+                    .build());
+            System.out.println("\nSaved " + keyStores.size() + " key stores in " + (System.nanoTime() - start) / 1000000 + "ms");
+
+            for (int i = 0; i < results.size(); i++)
+            {
+                KeyStore p12 = KeyStore.getInstance("PKCS12");
+                try (InputStream in = Files.newInputStream(dir.resolve("cert" + i + ".p12")))
+                {
+                    p12.load(in, CertdogTestServer.PASSWORD.toCharArray());
+                }
+                X509Certificate cert = (X509Certificate) p12.getCertificate(p12.aliases().nextElement());
+                assertEquals("CN=test " + i, cert.getSubjectX500Principal().getName());
+            }
+
+            // A failed save leaves the file it would have replaced as it was
+            byte[] before = Files.readAllBytes(dir.resolve("cert0.p12"));
+            Map<String, String> bad = new LinkedHashMap<>();
+            bad.put(dir.resolve("cert0.p12").toString(), results.get(0).getData().substring(0, 1000) + "!" + results.get(0).getData());
+            bad.put(dir.resolve("cert1.p12").toString(), results.get(1).getData());
+            CertdogException e = assertThrows(CertdogException.class, () -> CertdogClient.SaveKeyStores(bad, SaveOptions.builder().build()));
+            assertTrue(e.getMessage().contains("cert0.p12"));
+            assertEquals(1, e.getSuppressed().length);
+            assertTrue(Arrays.equals(before, Files.readAllBytes(dir.resolve("cert0.p12"))));
+
+            // And no temporary files
+            assertEquals(results.size(), Count(dir));
+        }
+        finally
+        {
+            Delete(dir);
+        }
+    }
+
+    @Test
+    public void replacesFilesAndKeepsTheirPermissions() throws Exception
+    {
+        Path dir = Files.createTempDirectory("certdog-save");
+        try (CertdogClient client = server.newClient())
+        {
+            Path p12File = dir.resolve("cert.p12");
+            Path pemFile = dir.resolve("cert.pem");
+            Files.write(p12File, new byte[] { 1, 2, 3 });
+            boolean posix = Files.getFileAttributeView(p12File, PosixFileAttributeView.class) != null;
+            Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rw-------");
+            if (posix)
+                Files.setPosixFilePermissions(p12File, ownerOnly);
+
+            String p12Data = client.requestCert(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0),
+                    CertdogTestServer.TEAM, "CN=save test", CertdogTestServer.PASSWORD, null, ResponseFormat.PKCS12);
+            CertdogClient.SaveP12(p12Data, p12File.toString(), SaveOptions.builder().durability(SaveOptions.Durability.DATA_AND_DIRECTORY).build());
+            KeyStore p12 = KeyStore.getInstance("PKCS12");
+            try (InputStream in = Files.newInputStream(p12File))
+            {
+                p12.load(in, CertdogTestServer.PASSWORD.toCharArray());
+            }
+            X509Certificate cert = (X509Certificate) p12.getCertificate(p12.aliases().nextElement());
+            assertEquals("CN=save test", cert.getSubjectX500Principal().getName());
+            if (posix)
+                assertEquals(ownerOnly, Files.getPosixFilePermissions(p12File));
+
+            String pem = client.requestCert(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0),
+                    CertdogTestServer.TEAM, "CN=save test pem", CertdogTestServer.PASSWORD, null, ResponseFormat.PEM);
+            CertdogClient.SavePem(pem, pemFile.toString());
+            assertEquals(pem, new String(Files.readAllBytes(pemFile), StandardCharsets.UTF_8));
+
+            // Without forcing anything to disk the file is still replaced whole
+            CertdogClient.SavePem(pem + pem, pemFile.toString(), SaveOptions.builder().durability(SaveOptions.Durability.NONE).build());
+            assertEquals(pem + pem, new String(Files.readAllBytes(pemFile), StandardCharsets.UTF_8));
+
+            assertEquals(2, Count(dir));
+        }
+        finally
+        {
+            Delete(dir);
+        }
+    }
+
+    @Test
+    public void invalidDataLeavesTheFileUnchanged() throws Exception
+    {
+        Path dir = Files.createTempDirectory("certdog-save");
+        try
+        {
+            Path file = dir.resolve("cert.p12");
+            Files.write(file, new byte[] { 1, 2, 3 });
+
+            assertThrows(CertdogException.class, () -> CertdogClient.SaveP12("AAAA!AAA", file.toString()));
+            assertThrows(CertdogException.class, () -> CertdogClient.SaveJks("AAAA\u00e9", file.toString()));
+            assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, Files.readAllBytes(file)));
+            assertEquals(1, Count(dir));
+
+            // Nor can a file be saved to a directory that does not exist
+            assertThrows(CertdogException.class, () -> CertdogClient.SaveP12("AAAA", dir.resolve("missing").resolve("cert.p12").toString()));
+
+            assertThrows(IllegalArgumentException.class, () -> SaveOptions.builder().durability(null).build());
+        }
+        finally
+        {
+            Delete(dir);
+        }
+    }
+
+    private static long Count(Path dir) throws Exception
+    {
+        try (Stream<Path> files = Files.list(dir))
+        {
+            return files.count();
+        }
+    }
+
+    private static void Delete(Path dir) throws Exception
+    {
+        try (Stream<Path> files = Files.list(dir))
+        {
+            for (Path file : files.collect(Collectors.toList()))
+            {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,558 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClientConfig;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import com.krestfield.certdog.client.CertdogException;
+import com.krestfield.certdog.client.CsrBuilder;
+import com.krestfield.certdog.client.KeyType;
+import com.krestfield.certdog.client.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LoadGenerator
+ *
+ * Drives certificate requests through a CertdogClient for a fixed time and reports the throughput and
+ * latency percentiles for each endpoint
+ *
+ * In closed-loop mode a fixed number of threads each send a request as soon as their last one completes,
+ * which measures the rate the deployment can sustain. In open-loop mode requests are started at a fixed
+ * rate whether or not earlier ones have completed, up to the concurrency limit, and latency is measured
+ * from when each request was due to start, so queueing behind slow requests is included
+ *
+ * It is part of the test sources rather than the client jar. Run from the command line with
+ *     mvn test-compile exec:java -Dexec.classpathScope=test
+ *         -Dexec.mainClass=com.krestfield.certdog.client.test.LoadGenerator -Dexec.args="--url [api url]
+ *         --user [username] --password [password] --issuer [issuer] --team [team] --generator [csr generator]
+ *         [--operations request,csr] [--mode open|closed] [--rate 50] [--concurrency 16] [--duration 60]
+ *         [--warmup 5] [--json results.json]"
+ */
+public class LoadGenerator
+{
+    public enum Mode
+    {
+        OPEN,
+        CLOSED
+    }
+
+    public enum Operation
+    {
+        // requestCert - certdog generates the key and CSR
+        REQUEST_CERT(CertdogEndpoints.CERT_REQ),
+        // requestCertFromCsr - a CSR generated up front is sent with every request
+        REQUEST_CERT_FROM_CSR(CertdogEndpoints.CERT_REQ_CSR);
+
+        private final String endpoint;
+
+        Operation(String endpoint)
+        {
+            this.endpoint = endpoint;
+        }
+
+        public String getEndpoint()
+        {
+            return endpoint;
+        }
+    }
+
+    /**
+     * The latencies and errors recorded for one operation
+     */
+    private static class Stats
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        final Map<Integer, AtomicLong> errorsByStatus = new ConcurrentHashMap<>();
+
+        void record(long micros, Throwable error)
+        {
+            histogram.record(micros);
+            if (error != null)
+            {
+                errors.incrementAndGet();
+                int status = StatusOf(error);
+                errorsByStatus.computeIfAbsent(status, s -> new AtomicLong()).incrementAndGet();
+            }
+        }
+    }
+
+    private final CertdogClient client;
+    private final Mode mode;
+    private final List<Operation> operations;
+    private final String issuerName;
+    private final String teamName;
+    private final String generatorName;
+    private final String password;
+    private final String dnPrefix;
+    private final double rate;
+    private final int concurrency;
+    private final long durationMillis;
+    private final long warmupMillis;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private String csr;
+
+    private LoadGenerator(Builder builder)
+    {
+        this.client = builder.client;
+        this.mode = builder.mode;
+        this.operations = builder.operations;
+        this.issuerName = builder.issuerName;
+        this.teamName = builder.teamName;
+        this.generatorName = builder.generatorName;
+        this.password = builder.password;
+        this.dnPrefix = builder.dnPrefix;
+        this.rate = builder.rate;
+        this.concurrency = builder.concurrency;
+        this.durationMillis = builder.durationMillis;
+        this.warmupMillis = builder.warmupMillis;
+    }
+
+    /**
+     * @param client the client to drive. It must be logged in
+     * @return a builder for the load generator
+     */
+    public static Builder builder(CertdogClient client)
+    {
+        return new Builder(client);
+    }
+
+    /**
+     * Runs the load for the warm up time and then the duration, blocking until all requests have completed
+     *
+     * @return the results measured after the warm up
+     * @throws CertdogException if a CSR cannot be generated, or if interrupted
+     */
+    public LoadReport run() throws CertdogException
+    {
+        if (operations.contains(Operation.REQUEST_CERT_FROM_CSR))
+        {
+            try
+            {
+                csr = new CsrBuilder(dnPrefix + "csr").build(KeyType.RSA_2048.generate(), KeyType.RSA_2048);
+            }
+            catch (GeneralSecurityException e)
+            {
+                throw new CertdogException("Unable to generate the key for the CSR. " + e.getMessage(), e);
+            }
+        }
+
+        Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+        for (Operation op : operations)
+        {
+            stats.put(op, new Stats());
+        }
+
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        long end = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+
+        try
+        {
+            if (mode == Mode.CLOSED)
+                runClosed(stats, measureFrom, end);
+            else
+                runOpen(stats, start, measureFrom, end);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CertdogException("Interrupted running the load", e);
+        }
+
+        double seconds = durationMillis / 1000.0;
+        List<LoadReport.EndpointResult> results = new ArrayList<>();
+        for (Map.Entry<Operation, Stats> entry : stats.entrySet())
+        {
+            Stats s = entry.getValue();
+            Map<Integer, Long> byStatus = new TreeMap<>();
+            s.errorsByStatus.forEach((status, count) -> byStatus.put(status, count.get()));
+            results.add(new LoadReport.EndpointResult(entry.getKey().getEndpoint(), s.errors.get(), byStatus,
+                    seconds, s.histogram));
+        }
+
+        return new LoadReport(mode.name(), mode == Mode.OPEN ? rate : 0, concurrency, durationMillis, results);
+    }
+
+    private void runClosed(Map<Operation, Stats> stats, long measureFrom, long end) throws InterruptedException
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, r ->
+        {
+            Thread t = new Thread(r, "certdog-load");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try
+        {
+            for (int i = 0; i < concurrency; i++)
+            {
+                workers.execute(() ->
+                {
+                    while (System.nanoTime() < end && !Thread.currentThread().isInterrupted())
+                    {
+                        Operation op = nextOperation();
+                        long t0 = System.nanoTime();
+                        Throwable error = null;
+                        try
+                        {
+                            call(op);
+                        }
+                        catch (Exception e)
+                        {
+                            error = e;
+                        }
+
+                        long t1 = System.nanoTime();
+                        if (t0 >= measureFrom)
+                            stats.get(op).record((t1 - t0) / 1000, error);
+                    }
+                });
+            }
+
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        finally
+        {
+            workers.shutdownNow();
+        }
+    }
+
+    private void runOpen(Map<Operation, Stats> stats, long start, long measureFrom, long end) throws InterruptedException
+    {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        Semaphore inFlight = new Semaphore(concurrency);
+
+        try
+        {
+            for (long i = 0; ; i++)
+            {
+                long intended = start + i * intervalNanos;
+                if (intended >= end)
+                    break;
+
+                long wait = intended - System.nanoTime();
+                if (wait > 0)
+                    LockSupport.parkNanos(wait);
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+
+                // At the limit the schedule falls behind. Latency is still measured from the intended start
+                inFlight.acquire();
+
+                Operation op = nextOperation();
+                CompletableFuture<?> f;
+                try
+                {
+                    f = callAsync(op);
+                }
+                catch (RuntimeException e)
+                {
+                    CompletableFuture<Object> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(e);
+                    f = failed;
+                }
+
+                f.whenComplete((result, error) ->
+                {
+                    long done = System.nanoTime();
+                    if (intended >= measureFrom)
+                        stats.get(op).record((done - intended) / 1000, error);
+
+                    inFlight.release();
+                });
+            }
+        }
+        finally
+        {
+            // Wait for the requests still in flight so they do not run into the next test
+            inFlight.acquire(concurrency);
+            inFlight.release(concurrency);
+        }
+    }
+
+    private Operation nextOperation()
+    {
+        return operations.get((int) (sequence.getAndIncrement() % operations.size()));
+    }
+
+    private String nextDn()
+    {
+        return dnPrefix + sequence.get();
+    }
+
+    private void call(Operation op) throws CertdogException
+    {
+        if (op == Operation.REQUEST_CERT)
+            client.requestCert(issuerName, generatorName, teamName, nextDn(), password, null, null, null, CertdogClient.ResponseFormat.PKCS12);
+        else
+            client.requestCertFromCsr(issuerName, teamName, csr, null, null);
+    }
+
+    private CompletableFuture<?> callAsync(Operation op)
+    {
+        if (op == Operation.REQUEST_CERT)
+            return client.requestCertAsync(issuerName, generatorName, teamName, nextDn(), password, null, null, null, CertdogClient.ResponseFormat.PKCS12);
+
+        return client.requestCertFromCsrAsync(issuerName, teamName, csr, null, null);
+    }
+
+    /**
+     * Builder for LoadGenerator
+     */
+    public static class Builder
+    {
+        private final CertdogClient client;
+        private Mode mode = Mode.CLOSED;
+        private List<Operation> operations = Arrays.asList(Operation.REQUEST_CERT);
+        private String issuerName = null;
+        private String teamName = null;
+        private String generatorName = null;
+        private String password = "password";
+        private String dnPrefix = "CN=certdog-load-";
+        private double rate = 10;
+        private int concurrency = 8;
+        private long durationMillis = 60000;
+        private long warmupMillis = 0;
+
+        private Builder(CertdogClient client)
+        {
+            this.client = client;
+        }
+
+        /**
+         * @param mode OPEN to send at a fixed rate, or CLOSED for a fixed number of concurrent requests. Default is CLOSED
+         * @return this builder
+         */
+        public Builder mode(Mode mode)
+        {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * @param operations the operations to run, in turn. Default is REQUEST_CERT
+         * @return this builder
+         */
+        public Builder operations(Operation... operations)
+        {
+            this.operations = Arrays.asList(operations);
+            return this;
+        }
+
+        /**
+         * @param issuerName the cert issuer to process the requests
+         * @param teamName the team the certificates will be associated with
+         * @return this builder
+         */
+        public Builder issuer(String issuerName, String teamName)
+        {
+            this.issuerName = issuerName;
+            this.teamName = teamName;
+            return this;
+        }
+
+        /**
+         * @param generatorName the CSR generator for REQUEST_CERT
+         * @return this builder
+         */
+        public Builder generator(String generatorName)
+        {
+            this.generatorName = generatorName;
+            return this;
+        }
+
+        /**
+         * @param password the password for the P12 returned by REQUEST_CERT
+         * @return this builder
+         */
+        public Builder password(String password)
+        {
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * @param dnPrefix the start of the requested DNs. A sequence number is appended. Default is CN=certdog-load-
+         * @return this builder
+         */
+        public Builder dnPrefix(String dnPrefix)
+        {
+            this.dnPrefix = dnPrefix;
+            return this;
+        }
+
+        /**
+         * @param requestsPerSecond the rate requests are started at in OPEN mode. Default is 10
+         * @return this builder
+         */
+        public Builder rate(double requestsPerSecond)
+        {
+            this.rate = requestsPerSecond;
+            return this;
+        }
+
+        /**
+         * @param concurrency the number of threads in CLOSED mode, or the maximum requests in flight in OPEN mode. Default is 8
+         * @return this builder
+         */
+        public Builder concurrency(int concurrency)
+        {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * @param durationMillis how long to measure for. Default is 60000
+         * @return this builder
+         */
+        public Builder duration(long durationMillis)
+        {
+            this.durationMillis = durationMillis;
+            return this;
+        }
+
+        /**
+         * @param warmupMillis how long to run before measuring, e.g. to fill the connection pool. Default is 0
+         * @return this builder
+         */
+        public Builder warmup(long warmupMillis)
+        {
+            this.warmupMillis = warmupMillis;
+            return this;
+        }
+
+        public LoadGenerator build()
+        {
+            if (issuerName == null || teamName == null)
+                throw new IllegalArgumentException("issuer must be set");
+            if (operations.isEmpty())
+                throw new IllegalArgumentException("at least one operation must be set");
+            if (operations.contains(Operation.REQUEST_CERT) && generatorName == null)
+                throw new IllegalArgumentException("generator must be set for REQUEST_CERT");
+            if (rate <= 0)
+                throw new IllegalArgumentException("rate must be greater than 0");
+            if (concurrency < 1)
+                throw new IllegalArgumentException("concurrency must be at least 1");
+            if (durationMillis <= 0)
+                throw new IllegalArgumentException("duration must be greater than 0");
+            if (warmupMillis < 0)
+                throw new IllegalArgumentException("warmup must not be negative");
+
+            return new LoadGenerator(this);
+        }
+    }
+
+    /**
+     * Runs the load generator from the command line. See the class description for the arguments
+     *
+     * @param args the arguments
+     */
+    public static void main(String[] args)
+    {
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            if (!args[i].startsWith("--"))
+                Usage("Unexpected argument: " + args[i]);
+            opts.put(args[i].substring(2), args[i + 1]);
+        }
+        if (args.length % 2 != 0)
+            Usage("Missing value for " + args[args.length - 1]);
+
+        for (String required : Arrays.asList("url", "user", "password", "issuer", "team"))
+        {
+            if (!opts.containsKey(required))
+                Usage("--" + required + " is required");
+        }
+
+        List<Operation> operations = new ArrayList<>();
+        for (String op : opts.getOrDefault("operations", "request").split(","))
+        {
+            if (op.trim().equals("request"))
+                operations.add(Operation.REQUEST_CERT);
+            else if (op.trim().equals("csr"))
+                operations.add(Operation.REQUEST_CERT_FROM_CSR);
+            else
+                Usage("Unknown operation: " + op);
+        }
+
+        int concurrency = Integer.parseInt(opts.getOrDefault("concurrency", "8"));
+        CertdogClientConfig config = CertdogClientConfig.builder(opts.get("url"))
+                .pooled(Math.max(concurrency, 20), Math.max(concurrency, 20))
+                .build();
+
+        try (CertdogClient client = new CertdogClient(config))
+        {
+            client.login(opts.get("user"), opts.get("password"));
+
+            LoadReport report = builder(client)
+                    .mode(Mode.valueOf(opts.getOrDefault("mode", "closed").toUpperCase()))
+                    .operations(operations.toArray(new Operation[0]))
+                    .issuer(opts.get("issuer"), opts.get("team"))
+                    .generator(opts.get("generator"))
+                    .rate(Double.parseDouble(opts.getOrDefault("rate", "10")))
+                    .concurrency(concurrency)
+                    .duration(Long.parseLong(opts.getOrDefault("duration", "60")) * 1000)
+                    .warmup(Long.parseLong(opts.getOrDefault("warmup", "0")) * 1000)
+                    .build()
+                    .run();
+
+            System.out.println(report);
+
+            String json = opts.get("json");
+            if ("-".equals(json))
+                System.out.println(report.toJson());
+            else if (json != null)
+                Files.write(Paths.get(json), report.toJson().getBytes(StandardCharsets.UTF_8));
+        }
+        catch (CertdogException | IOException | IllegalArgumentException e)
+        {
+            System.err.println("Load generator failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return the HTTP status of a failed call, or 0 if it failed without one
+     */
+    private static int StatusOf(Throwable error)
+    {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null)
+            error = error.getCause();
+
+        return error instanceof CertdogException ? ((CertdogException) error).getStatusCode() : 0;
+    }
+
+    private static void Usage(String error)
+    {
+        System.err.println(error);
+        System.err.println("Usage: LoadGenerator --url [api url] --user [username] --password [password] "
+                + "--issuer [issuer] --team [team] --generator [csr generator] [--operations request,csr] "
+                + "[--mode open|closed] [--rate 10] [--concurrency 8] [--duration 60] [--warmup 0] [--json file|-]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,135 @@
+package com.krestfield.certdog.client.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import com.krestfield.certdog.client.LatencyHistogram;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The load generator and its latency histograms
+ */
+public class LoadGeneratorTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.clearErrors();
+        server.setLatency(0, 0);
+    }
+
+    @Test
+    public void openLoopReportsEachEndpoint() throws Exception
+    {
+        server.setLatency(5, 10);
+        try (CertdogClient client = server.newClient())
+        {
+            LoadReport report = LoadGenerator.builder(client)
+                    .mode(LoadGenerator.Mode.OPEN)
+                    .operations(LoadGenerator.Operation.REQUEST_CERT, LoadGenerator.Operation.REQUEST_CERT_FROM_CSR)
+                    .issuer(CertdogTestServer.ISSUER, CertdogTestServer.TEAM)
+                    .generator(CertdogTestServer.GENERATORS.get(0))
+                    .rate(10)
+                    .concurrency(4)
+                    .warmup(500)
+                    .duration(2000)
+                    .build()
+                    .run();
+            System.out.println("\n" + report);
+
+            assertEquals(2, report.getEndpoints().size());
+            for (LoadReport.EndpointResult result : report.getEndpoints())
+            {
+                assertTrue(result.getRequests() > 0);
+                assertEquals(0, result.getErrors());
+                assertTrue(result.getP50() <= result.getP99() && result.getP99() <= result.getMax());
+            }
+
+            JsonNode json = new ObjectMapper().readTree(report.toJson());
+            assertEquals("OPEN", json.get("mode").asText());
+            assertEquals(CertdogEndpoints.CERT_REQ, json.get("endpoints").get(0).get("endpoint").asText());
+        }
+    }
+
+    @Test
+    public void closedLoopCountsErrorsByStatus() throws Exception
+    {
+        server.setLatency(20, 20);
+        server.injectErrors(CertdogEndpoints.CERT_REQ, 1, 503);
+        try (CertdogClient client = server.newClient())
+        {
+            LoadReport report = LoadGenerator.builder(client)
+                    .mode(LoadGenerator.Mode.CLOSED)
+                    .issuer(CertdogTestServer.ISSUER, CertdogTestServer.TEAM)
+                    .generator(CertdogTestServer.GENERATORS.get(1))
+                    .concurrency(2)
+                    .duration(1000)
+                    .build()
+                    .run();
+
+            LoadReport.EndpointResult result = report.getEndpoints().get(0);
+            assertEquals(CertdogEndpoints.CERT_REQ, result.getEndpoint());
+            assertTrue(result.getRequests() > 2);
+            assertEquals(result.getRequests(), result.getErrors());
+            assertEquals(Long.valueOf(result.getErrors()), result.getErrorsByStatus().get(503));
+
+            // Each of the two threads waits for its last request, so about 50 complete a second
+            assertTrue(result.getThroughput() <= 2 * 1000 / 20 + 10, () -> String.valueOf(result.getThroughput()));
+        }
+    }
+
+    @Test
+    public void histogramPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100000; i++)
+        {
+            histogram.record(i);
+        }
+
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000.5, histogram.getMean(), 0.001);
+        for (double percentile : new double[] { 50, 90, 99, 99.9 })
+        {
+            long expected = (long) (percentile * 1000);
+            long actual = histogram.getPercentile(percentile);
+            assertTrue(Math.abs(actual - expected) <= expected / 64 + 1, () -> percentile + ": " + actual);
+        }
+
+        // Small values are held exactly
+        LatencyHistogram small = new LatencyHistogram();
+        for (int i = 0; i < 100; i++)
+        {
+            small.record(i % 10);
+        }
+        assertEquals(4, small.getPercentile(50));
+        assertEquals(9, small.getPercentile(100));
+
+        histogram.add(small);
+        assertEquals(100100, histogram.getCount());
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+}
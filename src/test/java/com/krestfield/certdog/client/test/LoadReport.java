@@ -0,0 +1,206 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.LatencyHistogram;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LoadReport
+ *
+ * The results of a LoadGenerator run. Latencies are in milliseconds
+ */
+public class LoadReport
+{
+    /**
+     * The results for one endpoint
+     */
+    public static class EndpointResult
+    {
+        private final String endpoint;
+        private final long requests;
+        private final long errors;
+        private final Map<Integer, Long> errorsByStatus;
+        private final double throughput;
+        private final double mean;
+        private final double p50;
+        private final double p90;
+        private final double p99;
+        private final double p999;
+        private final double max;
+
+        EndpointResult(String endpoint, long errors, Map<Integer, Long> errorsByStatus, double durationSeconds,
+                       LatencyHistogram histogram)
+        {
+            this.endpoint = endpoint;
+            this.requests = histogram.getCount();
+            this.errors = errors;
+            this.errorsByStatus = Collections.unmodifiableMap(errorsByStatus);
+            this.throughput = durationSeconds > 0 ? requests / durationSeconds : 0;
+            this.mean = histogram.getMean() / 1000;
+            this.p50 = histogram.getPercentile(50) / 1000.0;
+            this.p90 = histogram.getPercentile(90) / 1000.0;
+            this.p99 = histogram.getPercentile(99) / 1000.0;
+            this.p999 = histogram.getPercentile(99.9) / 1000.0;
+            this.max = histogram.getMax() / 1000.0;
+        }
+
+        /**
+         * @return the endpoint, as one of the CertdogEndpoints constants
+         */
+        public String getEndpoint()
+        {
+            return endpoint;
+        }
+
+        /**
+         * @return the number of requests completed, including those that failed
+         */
+        public long getRequests()
+        {
+            return requests;
+        }
+
+        public long getErrors()
+        {
+            return errors;
+        }
+
+        /**
+         * @return the number of errors for each HTTP status. Status 0 is used for errors with no HTTP response
+         */
+        public Map<Integer, Long> getErrorsByStatus()
+        {
+            return errorsByStatus;
+        }
+
+        /**
+         * @return the requests completed per second
+         */
+        public double getThroughput()
+        {
+            return throughput;
+        }
+
+        public double getMean()
+        {
+            return mean;
+        }
+
+        public double getP50()
+        {
+            return p50;
+        }
+
+        public double getP90()
+        {
+            return p90;
+        }
+
+        public double getP99()
+        {
+            return p99;
+        }
+
+        public double getP999()
+        {
+            return p999;
+        }
+
+        public double getMax()
+        {
+            return max;
+        }
+    }
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final String mode;
+    private final double targetRate;
+    private final int concurrency;
+    private final long durationMillis;
+    private final List<EndpointResult> endpoints;
+
+    LoadReport(String mode, double targetRate, int concurrency, long durationMillis, List<EndpointResult> endpoints)
+    {
+        this.mode = mode;
+        this.targetRate = targetRate;
+        this.concurrency = concurrency;
+        this.durationMillis = durationMillis;
+        this.endpoints = Collections.unmodifiableList(endpoints);
+    }
+
+    /**
+     * @return OPEN or CLOSED
+     */
+    public String getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * @return the requests per second attempted in open-loop mode, or 0 in closed-loop mode
+     */
+    public double getTargetRate()
+    {
+        return targetRate;
+    }
+
+    public int getConcurrency()
+    {
+        return concurrency;
+    }
+
+    /**
+     * @return the measured duration, excluding any warm up
+     */
+    public long getDurationMillis()
+    {
+        return durationMillis;
+    }
+
+    public List<EndpointResult> getEndpoints()
+    {
+        return endpoints;
+    }
+
+    /**
+     * @return the report as JSON, to compare between runs
+     */
+    public String toJson()
+    {
+        try
+        {
+            return MAPPER.writeValueAsString(this);
+        }
+        catch (JsonProcessingException e)
+        {
+            throw new IllegalStateException("Unable to write the load report as JSON", e);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(mode).append(" loop, ");
+        if (targetRate > 0)
+            sb.append(String.format("target %.1f/s, ", targetRate));
+        sb.append("concurrency ").append(concurrency).append(", ").append(durationMillis).append("ms\n");
+        sb.append(String.format("%-20s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p999 ms", "max ms"));
+        for (EndpointResult r : endpoints)
+        {
+            sb.append(String.format("%-20s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    r.endpoint, r.requests, r.errors, r.throughput, r.p50, r.p90, r.p99, r.p999, r.max));
+            if (!r.errorsByStatus.isEmpty())
+                sb.append("  errors by status: ").append(r.errorsByStatus).append('\n');
+        }
+
+        return sb.toString();
+    }
+}
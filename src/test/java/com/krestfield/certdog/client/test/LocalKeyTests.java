@@ -0,0 +1,159 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogException;
+import com.krestfield.certdog.client.CsrBuilder;
+import com.krestfield.certdog.client.IssuedCredential;
+import com.krestfield.certdog.client.KeyPairPool;
+import com.krestfield.certdog.client.KeyType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPair;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Requesting certificates for keys generated locally, and the pool of pre-generated keys
+ */
+public class LocalKeyTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @Test
+    public void issuesForALocalKey() throws Exception
+    {
+        List<String> sans = Arrays.asList("DNS:local.krestfield.com", "IP:10.0.0.1", "EMAIL:local@krestfield.com");
+        try (CertdogClient client = server.newClient())
+        {
+            for (KeyType keyType : new KeyType[] { KeyType.EC_P256, KeyType.EC_P384, KeyType.RSA_2048 })
+            {
+                IssuedCredential cred = client.requestCertWithLocalKey(CertdogTestServer.ISSUER, CertdogTestServer.TEAM,
+                        "CN=local " + keyType, sans, keyType);
+                AssertMatches(cred, keyType, "CN=local " + keyType);
+                assertTrue(cred.getCsr().startsWith("-----BEGIN " + CsrBuilder.CSR_TYPE + "-----"));
+
+                List<String> names = new ArrayList<>();
+                for (List<?> name : cred.getCertificate().getSubjectAlternativeNames())
+                {
+                    names.add(name.get(1).toString());
+                }
+                assertEquals(Arrays.asList("local.krestfield.com", "10.0.0.1", "local@krestfield.com"), names);
+            }
+
+            IssuedCredential async = client.requestCertWithLocalKeyAsync(CertdogTestServer.ISSUER, CertdogTestServer.TEAM,
+                    "CN=local async", null, KeyType.EC_P256).get();
+            AssertMatches(async, KeyType.EC_P256, "CN=local async");
+            assertEquals(null, async.getCertificate().getSubjectAlternativeNames());
+        }
+    }
+
+    @Test
+    public void invalidSansAreRejected() throws Exception
+    {
+        KeyPair keyPair = KeyType.EC_P256.generate();
+        assertThrows(CertdogException.class, () -> new CsrBuilder("CN=bad san")
+                .sans(Arrays.asList("URI:https://krestfield.com")).build(keyPair, KeyType.EC_P256));
+        assertThrows(CertdogException.class, () -> new CsrBuilder("CN=bad san")
+                .sans(Arrays.asList("krestfield.com")).build(keyPair, KeyType.EC_P256));
+        assertThrows(CertdogException.class, () -> new CsrBuilder("not a dn").build(keyPair, KeyType.EC_P256));
+    }
+
+    @Test
+    public void poolServesPregeneratedKeys() throws Exception
+    {
+        try (KeyPairPool pool = KeyPairPool.builder().depth(KeyType.EC_P256, 4).threads(1).build())
+        {
+            WaitForKeys(pool, KeyType.EC_P256, 4);
+            pool.close();
+
+            // Once the pool is empty, and not being refilled, keys are generated on the calling thread
+            Set<KeyPair> taken = new HashSet<>();
+            for (int i = 0; i < 5; i++)
+            {
+                taken.add(pool.take(KeyType.EC_P256));
+            }
+            assertEquals(5, taken.size());
+            assertEquals(4, pool.getHits());
+            assertEquals(1, pool.getMisses());
+
+            // As are keys of types the pool does not hold
+            pool.take(KeyType.RSA_2048);
+            assertEquals(2, pool.getMisses());
+        }
+    }
+
+    @Test
+    public void poolIsRefilledAndUsedByTheClient() throws Exception
+    {
+        try (KeyPairPool pool = KeyPairPool.builder().depth(KeyType.EC_P256, 3).depth(KeyType.RSA_2048, 1).threads(2).build();
+             CertdogClient client = server.newClient(server.clientConfig().keyPairPool(pool).build()))
+        {
+            WaitForKeys(pool, KeyType.EC_P256, 3);
+            WaitForKeys(pool, KeyType.RSA_2048, 1);
+
+            for (int i = 0; i < 3; i++)
+            {
+                AssertMatches(client.requestCertWithLocalKey(CertdogTestServer.ISSUER, CertdogTestServer.TEAM,
+                        "CN=pooled " + i, null, KeyType.EC_P256), KeyType.EC_P256, "CN=pooled " + i);
+            }
+            assertEquals(3, pool.getHits());
+            assertEquals(0, pool.getMisses());
+
+            // The keys taken are replaced in the background
+            WaitForKeys(pool, KeyType.EC_P256, 3);
+            assertEquals(1, pool.available(KeyType.RSA_2048));
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> KeyPairPool.builder().depth(KeyType.EC_P256, 0).build());
+        assertThrows(IllegalArgumentException.class, () -> KeyPairPool.builder().threads(0).build());
+    }
+
+    private static void AssertMatches(IssuedCredential cred, KeyType keyType, String dn) throws Exception
+    {
+        X509Certificate cert = cred.getCertificate();
+        assertEquals(dn, cert.getSubjectX500Principal().getName());
+
+        // The private key signs for the certificate's public key
+        byte[] data = dn.getBytes("UTF-8");
+        Signature signer = Signature.getInstance(keyType.getSignatureAlgorithm());
+        signer.initSign(cred.getPrivateKey());
+        signer.update(data);
+        Signature verifier = Signature.getInstance(keyType.getSignatureAlgorithm());
+        verifier.initVerify(cert);
+        verifier.update(data);
+        assertTrue(verifier.verify(signer.sign()));
+    }
+
+    private static void WaitForKeys(KeyPairPool pool, KeyType keyType, int count) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pool.available(keyType) < count && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(count, pool.available(keyType));
+    }
+}
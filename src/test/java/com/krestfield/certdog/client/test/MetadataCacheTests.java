@@ -0,0 +1,121 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClientConfig;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The TTL cache for getTeams, getIssuers and getGenerators
+ */
+public class MetadataCacheTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.clearErrors();
+        server.setLatency(0, 0);
+    }
+
+    @Test
+    public void refreshesAheadOfExpiry() throws Exception
+    {
+        try (CertdogClient client = server.newClient(server.clientConfig()
+                .metadataCache(1000)
+                .metadataRefreshAhead(0.3)
+                .build()))
+        {
+            int before = server.getRequestCount(CertdogEndpoints.MY_TEAMS);
+            for (int i = 0; i < 5; i++)
+            {
+                assertEquals(Collections.singletonList(CertdogTestServer.TEAM), client.getTeams());
+            }
+            assertEquals(before + 1, server.getRequestCount(CertdogEndpoints.MY_TEAMS));
+
+            // Past the refresh-ahead point the cached names are returned while they are reloaded
+            Thread.sleep(400);
+            server.setLatency(300, 300);
+            long start = System.nanoTime();
+            assertEquals(Collections.singletonList(CertdogTestServer.TEAM), client.getTeams());
+            assertTrue(System.nanoTime() - start < 200000000L);
+            WaitForRequests(CertdogEndpoints.MY_TEAMS, before + 2);
+
+            // Once the reload is done, invalidating makes the next call load the names again
+            Thread.sleep(400);
+            server.setLatency(0, 0);
+            client.invalidateMetadataCache();
+            assertEquals(Collections.singletonList(CertdogTestServer.TEAM), client.getTeams());
+            assertEquals(before + 3, server.getRequestCount(CertdogEndpoints.MY_TEAMS));
+        }
+    }
+
+    @Test
+    public void servesStaleWhileRevalidating() throws Exception
+    {
+        try (CertdogClient client = server.newClient(server.clientConfig()
+                .metadataCache(200)
+                .metadataStaleWhileRevalidate(50, 5000)
+                .build()))
+        {
+            int before = server.getRequestCount(CertdogEndpoints.MY_ISSUERS);
+            assertEquals(Collections.singletonList(CertdogTestServer.ISSUER), client.getIssuers());
+
+            // Expired, and the reload takes longer than the stale wait
+            Thread.sleep(250);
+            server.setLatency(500, 500);
+            long start = System.nanoTime();
+            assertEquals(Collections.singletonList(CertdogTestServer.ISSUER), client.getIssuers());
+            assertTrue(System.nanoTime() - start < 400000000L);
+            WaitForRequests(CertdogEndpoints.MY_ISSUERS, before + 2);
+
+            // A failed reload serves the expired names too
+            Thread.sleep(800);
+            server.setLatency(0, 0);
+            server.injectErrors(CertdogEndpoints.MY_ISSUERS, 1, 503);
+            assertEquals(Collections.singletonList(CertdogTestServer.ISSUER), client.getIssuers());
+        }
+    }
+
+    @Test
+    public void maxStaleDefaultsToTheTtl()
+    {
+        CertdogClientConfig.Builder builder = CertdogClientConfig.builder(server.getApiUrl()).metadataCache(1000);
+        assertEquals(1000, builder.build().getMetadataMaxStaleMillis());
+
+        // The builder can be changed and built again
+        assertEquals(5000, builder.metadataCache(5000).build().getMetadataMaxStaleMillis());
+        assertEquals(200, builder.metadataStaleWhileRevalidate(100, 200).build().getMetadataMaxStaleMillis());
+    }
+
+    private static void WaitForRequests(String endpoint, int count) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getRequestCount(endpoint) < count && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(count, server.getRequestCount(endpoint));
+    }
+}
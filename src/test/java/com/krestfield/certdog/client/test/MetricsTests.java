@@ -0,0 +1,150 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import com.krestfield.certdog.client.CertdogException;
+import com.krestfield.certdog.client.CertdogMetrics;
+import com.krestfield.certdog.client.MicrometerMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The per-endpoint metrics SPI and the Micrometer adapter
+ */
+public class MetricsTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.clearErrors();
+        server.setLatency(0, 0);
+    }
+
+    @Test
+    public void micrometerRecordsEachEndpoint() throws Exception
+    {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        try (CertdogClient client = server.newClient(server.clientConfig()
+                .localFormatConversion(false)
+                .metrics(new MicrometerMetrics(registry))
+                .build()))
+        {
+            client.getTeams();
+            client.requestCert(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0), CertdogTestServer.TEAM,
+                    "CN=metrics test", CertdogTestServer.PASSWORD, null, ResponseFormat.PEM);
+            client.requestCertAsync(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0), CertdogTestServer.TEAM,
+                    "CN=metrics test async", CertdogTestServer.PASSWORD, null, null, null, ResponseFormat.PKCS12).get();
+
+            server.failNext(CertdogEndpoints.ISSUER_CHAIN, 1, 503);
+            assertThrows(CertdogException.class, () -> client.getIssuerChain(CertdogTestServer.ISSUER));
+        }
+
+        assertEquals(1, registry.get("certdog.client.requests").tags("endpoint", CertdogEndpoints.LOGIN, "issuer", "none")
+                .timer().count());
+        assertEquals(2, registry.get("certdog.client.requests").tags("endpoint", CertdogEndpoints.CERT_REQ,
+                "issuer", CertdogTestServer.ISSUER).timer().count());
+        assertEquals(1, registry.get("certdog.client.responses").tags("endpoint", CertdogEndpoints.CERT_PEM_DATA,
+                "status", "200", "outcome", "success").counter().count());
+        assertEquals(1, registry.get("certdog.client.responses").tags("endpoint", CertdogEndpoints.ISSUER_CHAIN,
+                "status", "503", "outcome", "failure").counter().count());
+        registry.get("certdog.client.inflight").gauges().forEach(g -> assertEquals(0, g.value()));
+    }
+
+    @Test
+    public void everyStartedCallIsCompleted() throws Exception
+    {
+        Map<String, AtomicInteger> started = new ConcurrentHashMap<>();
+        Map<String, List<Integer>> statuses = new ConcurrentHashMap<>();
+        List<Long> durations = new CopyOnWriteArrayList<>();
+        CertdogMetrics metrics = new CertdogMetrics()
+        {
+            @Override
+            public void requestStarted(String endpoint, String issuerName)
+            {
+                started.computeIfAbsent(endpoint, k -> new AtomicInteger()).incrementAndGet();
+            }
+
+            @Override
+            public void requestCompleted(String endpoint, String issuerName, int status, long durationNanos)
+            {
+                statuses.computeIfAbsent(endpoint, k -> new CopyOnWriteArrayList<>()).add(status);
+                durations.add(durationNanos);
+            }
+        };
+
+        try (CertdogClient client = server.newClient(server.clientConfig().metrics(metrics).readTimeout(300).build()))
+        {
+            client.getIssuerChain(CertdogTestServer.ISSUER);
+            server.failNext(CertdogEndpoints.MY_TEAMS, 1, 503);
+            assertThrows(CertdogException.class, client::getTeams);
+
+            // A call with no response, here a read timeout, completes with a status of 0
+            server.setLatency(1000, 1000);
+            assertThrows(CertdogException.class, client::getIssuers);
+        }
+
+        assertEquals(started.keySet(), statuses.keySet());
+        for (String endpoint : started.keySet())
+        {
+            assertEquals(started.get(endpoint).get(), statuses.get(endpoint).size(), endpoint);
+        }
+        assertEquals(Collections.singletonList(200), statuses.get(CertdogEndpoints.LOGIN));
+        assertEquals(Collections.singletonList(200), statuses.get(CertdogEndpoints.ISSUER_CHAIN));
+        assertEquals(Collections.singletonList(503), statuses.get(CertdogEndpoints.MY_TEAMS));
+        assertEquals(Collections.singletonList(0), statuses.get(CertdogEndpoints.MY_ISSUERS));
+        durations.forEach(d -> assertTrue(d >= 0));
+    }
+
+    @Test
+    public void failingMetricsDoNotFailTheCall() throws Exception
+    {
+        CertdogMetrics metrics = new CertdogMetrics()
+        {
+            @Override
+            public void requestStarted(String endpoint, String issuerName)
+            {
+                throw new IllegalStateException("started");
+            }
+
+            @Override
+            public void requestCompleted(String endpoint, String issuerName, int status, long durationNanos)
+            {
+                throw new IllegalStateException("completed");
+            }
+        };
+
+        try (CertdogClient client = server.newClient(server.clientConfig().metrics(metrics).build()))
+        {
+            assertEquals(CertdogTestServer.TEAM, client.getTeams().get(0));
+        }
+    }
+}
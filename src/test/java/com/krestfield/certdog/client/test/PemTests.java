@@ -0,0 +1,185 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import com.krestfield.certdog.client.CertdogException;
+import com.krestfield.certdog.client.KeyStoreConverter;
+import com.krestfield.certdog.client.KeyType;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Decoding and encoding PEM certificates
+ */
+public class PemTests
+{
+    private static TestCa ca;
+    private static X509Certificate cert;
+    private static KeyPair keyPair;
+
+    @BeforeAll
+    public static void createCerts() throws Exception
+    {
+        ca = new TestCa("CN=Pem Test CA");
+        keyPair = KeyType.EC_P256.generate();
+        cert = ca.issue("CN=pem test", keyPair.getPublic(), Collections.singletonList("DNS:pem.krestfield.com"), 60000);
+    }
+
+    @Test
+    public void decodesBundles() throws Exception
+    {
+        X509Certificate second = ca.issue("CN=pem test 2", keyPair.getPublic(), null, 60000);
+        List<X509Certificate> expected = Arrays.asList(cert, second, ca.getCert());
+
+        // Keys and text around the blocks are skipped, and CRLF line endings are allowed
+        String bundle = "Bag Attributes\r\n"
+                + Block("ENCRYPTED PRIVATE KEY", keyPair.getPrivate().getEncoded(), "\r\n")
+                + Block("CERTIFICATE", cert.getEncoded(), "\r\n")
+                + "subject=CN=pem test 2\r\n"
+                + Block("CERTIFICATE", second.getEncoded(), "\n")
+                + Block("CERTIFICATE", ca.getCert().getEncoded(), "\n");
+        assertEquals(expected, CertdogClient.GetCertsFromPem(bundle));
+        assertEquals(expected, Parse(bundle));
+        assertEquals(cert, KeyStoreConverter.GetCertificate(bundle, null, ResponseFormat.PEM));
+    }
+
+    @Test
+    public void decodesBase64WithoutBeginAndEndLines() throws Exception
+    {
+        assertEquals(Collections.singletonList(cert), CertdogClient.GetCertsFromPem(Base64.getEncoder().encodeToString(cert.getEncoded())));
+        assertEquals(Collections.singletonList(cert), CertdogClient.GetCertsFromPem(
+                Base64.getMimeEncoder().encodeToString(cert.getEncoded()) + "\r\n"));
+    }
+
+    @Test
+    public void decodesCertificatesOfAnySize() throws Exception
+    {
+        // Past the retained per-thread buffer, then small again to check the buffer is reused correctly
+        for (int sanCount : new int[] { 0, 200, 4000, 1 })
+        {
+            List<String> sans = new ArrayList<>();
+            for (int i = 0; i < sanCount; i++)
+            {
+                sans.add("DNS:host" + i + ".pem.krestfield.com");
+            }
+            X509Certificate big = ca.issue("CN=pem size " + sanCount, keyPair.getPublic(), sans.isEmpty() ? null : sans, 60000);
+            String pem = Block("CERTIFICATE", big.getEncoded(), "\n");
+            assertEquals(Collections.singletonList(big), CertdogClient.GetCertsFromPem(pem));
+        }
+    }
+
+    @Test
+    public void decodesOnManyThreads() throws Exception
+    {
+        List<X509Certificate> certs = new ArrayList<>();
+        StringBuilder bundle = new StringBuilder();
+        for (int i = 0; i < 10; i++)
+        {
+            certs.add(ca.issue("CN=pem thread " + i, keyPair.getPublic(), null, 60000));
+            bundle.append(Block("CERTIFICATE", certs.get(i).getEncoded(), "\n"));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Future<List<X509Certificate>>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++)
+            {
+                results.add(executor.submit(() -> CertdogClient.GetCertsFromPem(bundle.toString())));
+            }
+            for (Future<List<X509Certificate>> result : results)
+            {
+                assertEquals(certs, result.get());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectsInvalidData() throws Exception
+    {
+        String pem = Block("CERTIFICATE", cert.getEncoded(), "\n");
+        assertThrows(CertdogException.class, () -> CertdogClient.GetCertsFromPem(pem.substring(0, pem.indexOf("-----END"))));
+        assertThrows(CertdogException.class, () -> CertdogClient.GetCertsFromPem(pem.replaceFirst("\n[A-Za-z]", "\n!")));
+        assertThrows(CertdogException.class, () -> CertdogClient.GetCertsFromPem(pem.replace(pem.substring(100, 180), "")));
+        assertThrows(CertdogException.class, () -> CertdogClient.GetCertsFromPem(
+                Block("PRIVATE KEY", keyPair.getPrivate().getEncoded(), "\n")));
+        assertThrows(CertdogException.class, () -> CertdogClient.GetCertsFromPem(""));
+    }
+
+    @Test
+    public void savesCertificates() throws Exception
+    {
+        Path file = Files.createTempFile("certdog", ".pem");
+        try
+        {
+            CertdogClient.SaveCert(cert, file.toString());
+            String saved = new String(Files.readAllBytes(file), StandardCharsets.US_ASCII);
+            assertTrue(saved.startsWith("-----BEGIN CERTIFICATE-----" + System.lineSeparator()), saved);
+            for (String line : saved.split(System.lineSeparator()))
+            {
+                assertTrue(line.length() <= 64, line);
+            }
+            assertEquals(Collections.singletonList(cert), CertdogClient.GetCertsFromPem(saved));
+            assertEquals(Collections.singletonList(cert), Parse(saved));
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static String Block(String type, byte[] der, String lineSeparator)
+    {
+        return "-----BEGIN " + type + "-----" + lineSeparator
+                + Base64.getMimeEncoder(64, lineSeparator.getBytes(StandardCharsets.US_ASCII)).encodeToString(der)
+                + lineSeparator + "-----END " + type + "-----" + lineSeparator;
+    }
+
+    /**
+     * Decodes the certificates with the JDK's own PEM support
+     */
+    private static List<X509Certificate> Parse(String pem) throws Exception
+    {
+        List<X509Certificate> certs = new ArrayList<>();
+        StringBuilder certsOnly = new StringBuilder();
+        int pos = 0;
+        while ((pos = pem.indexOf("-----BEGIN CERTIFICATE-----", pos)) >= 0)
+        {
+            int end = pem.indexOf("-----END CERTIFICATE-----", pos) + "-----END CERTIFICATE-----".length();
+            certsOnly.append(pem, pos, end).append('\n');
+            pos = end;
+        }
+        for (Certificate c : CertificateFactory.getInstance("X.509").generateCertificates(
+                new ByteArrayInputStream(certsOnly.toString().getBytes(StandardCharsets.US_ASCII))))
+        {
+            certs.add((X509Certificate) c);
+        }
+
+        return certs;
+    }
+}
@@ -0,0 +1,239 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import com.krestfield.certdog.client.CertdogException;
+import com.krestfield.certdog.client.RateLimitOptions;
+import com.krestfield.certdog.client.RateLimitUsage;
+import com.krestfield.certdog.client.ResilienceOptions;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Client-side rate limits on certificate requests
+ */
+public class RateLimiterTests
+{
+    private static final String SECOND_ISSUER = "Second Test Issuer";
+
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true, CertdogTestServer.ISSUER, SECOND_ISSUER);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.clearErrors();
+    }
+
+    @Test
+    public void failsFast() throws Exception
+    {
+        try (CertdogClient client = NewClient(RateLimitOptions.builder()
+                .perIssuer(0.1, 2)
+                .failFast(true)
+                .build()))
+        {
+            for (int i = 0; i < 2; i++)
+            {
+                assertNotNull(Request(client, CertdogTestServer.ISSUER, "CN=rate limit " + i));
+            }
+
+            int before = server.getRequestCount(CertdogEndpoints.CERT_REQ);
+            CertdogException e = assertThrows(CertdogException.class, () -> Request(client, CertdogTestServer.ISSUER,
+                    "CN=rate limit 2"));
+            assertEquals(CertdogException.Kind.RATE_LIMITED, e.getKind());
+            ExecutionException async = assertThrows(ExecutionException.class, () -> client.requestCertAsync(
+                    CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(1), CertdogTestServer.TEAM,
+                    "CN=rate limit async", CertdogTestServer.PASSWORD, null, null, null, ResponseFormat.PEM).get());
+            assertEquals(CertdogException.Kind.RATE_LIMITED, ((CertdogException) async.getCause()).getKind());
+            assertEquals(before, server.getRequestCount(CertdogEndpoints.CERT_REQ));
+
+            // Lookups do not reach the CA so are not limited
+            assertFalse(client.getIssuerChain(CertdogTestServer.ISSUER).isEmpty());
+
+            RateLimitUsage usage = client.getRateLimitUsage(CertdogTestServer.ISSUER);
+            assertEquals(0, usage.getAvailablePermits());
+            assertEquals(2, usage.getGranted());
+            assertEquals(2, usage.getRejected());
+            assertEquals(null, client.getRateLimitUsage(null));
+        }
+    }
+
+    @Test
+    public void blocksUntilAPermitIsDue() throws Exception
+    {
+        try (CertdogClient client = NewClient(RateLimitOptions.builder()
+                .issuer(CertdogTestServer.ISSUER, 20, 1)
+                .global(100, 10)
+                .build()))
+        {
+            // The first permit is available at once, the other nine are due every 50 ms
+            long start = System.nanoTime();
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++)
+            {
+                futures.add(client.requestCertAsync(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(1),
+                        CertdogTestServer.TEAM, "CN=rate limit async " + i, CertdogTestServer.PASSWORD, null, null, null,
+                        ResponseFormat.PEM));
+            }
+            for (int i = 0; i < 5; i++)
+            {
+                assertNotNull(Request(client, CertdogTestServer.ISSUER, "CN=rate limit " + i));
+            }
+            for (CompletableFuture<String> f : futures)
+            {
+                assertNotNull(f.get());
+            }
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+            RateLimitUsage usage = client.getRateLimitUsage(CertdogTestServer.ISSUER);
+            System.out.println("\n10 requests took " + elapsedMillis + " ms. " + client.getRateLimitUsage());
+            assertTrue(elapsedMillis >= 400);
+            assertEquals(10, usage.getGranted());
+            assertEquals(0, usage.getRejected());
+            assertEquals(0, usage.getWaiting());
+            assertEquals(10, client.getRateLimitUsage(null).getGranted());
+        }
+    }
+
+    @Test
+    public void waitsNoLongerThanTheMaximum() throws Exception
+    {
+        try (CertdogClient client = NewClient(RateLimitOptions.builder()
+                .perIssuer(1, 1)
+                .maxWait(100)
+                .build()))
+        {
+            assertNotNull(Request(client, CertdogTestServer.ISSUER, "CN=max wait 0"));
+
+            // The next permit is a second away, so the call is rejected without waiting
+            long start = System.nanoTime();
+            CertdogException e = assertThrows(CertdogException.class, () -> Request(client, CertdogTestServer.ISSUER,
+                    "CN=max wait 1"));
+            assertEquals(CertdogException.Kind.RATE_LIMITED, e.getKind());
+            assertTrue(System.nanoTime() - start < 100000000L);
+        }
+    }
+
+    @Test
+    public void eachIssuerHasItsOwnLimit() throws Exception
+    {
+        try (CertdogClient client = NewClient(RateLimitOptions.builder()
+                .perIssuer(0.1, 1)
+                .issuer(SECOND_ISSUER, 0.1, 2)
+                .failFast(true)
+                .build()))
+        {
+            assertNotNull(Request(client, CertdogTestServer.ISSUER, "CN=first issuer"));
+            assertThrows(CertdogException.class, () -> Request(client, CertdogTestServer.ISSUER, "CN=first issuer"));
+
+            assertNotNull(Request(client, SECOND_ISSUER, "CN=second issuer 0"));
+            assertNotNull(Request(client, SECOND_ISSUER, "CN=second issuer 1"));
+            assertThrows(CertdogException.class, () -> Request(client, SECOND_ISSUER, "CN=second issuer 2"));
+
+            assertEquals(1, client.getRateLimitUsage(CertdogTestServer.ISSUER).getGranted());
+            assertEquals(2, client.getRateLimitUsage(SECOND_ISSUER).getGranted());
+        }
+    }
+
+    @Test
+    public void openBreakerTakesNoPermits() throws Exception
+    {
+        try (CertdogClient client = server.newClient(server.clientConfig()
+                .rateLimit(RateLimitOptions.builder().perIssuer(0.1, 5).failFast(true).build())
+                .resilience(ResilienceOptions.builder().maxAttempts(1).failureRate(2, 2, 0.5).openFor(60000, 1).build())
+                .build()))
+        {
+            server.failNext(CertdogEndpoints.CERT_REQ, 2, 503);
+            for (int i = 0; i < 2; i++)
+            {
+                String dn = "CN=open breaker " + i;
+                assertThrows(CertdogException.class, () -> Request(client, CertdogTestServer.ISSUER, dn));
+            }
+            assertTrue(client.isCircuitOpen(CertdogEndpoints.CERT_REQ));
+
+            CertdogException e = assertThrows(CertdogException.class, () -> Request(client, CertdogTestServer.ISSUER,
+                    "CN=open breaker 2"));
+            assertEquals(CertdogException.Kind.CIRCUIT_OPEN, e.getKind());
+            ExecutionException async = assertThrows(ExecutionException.class, () -> client.requestCertAsync(
+                    CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(1), CertdogTestServer.TEAM,
+                    "CN=open breaker async", CertdogTestServer.PASSWORD, null, null, null, ResponseFormat.PEM).get());
+            assertEquals(CertdogException.Kind.CIRCUIT_OPEN, ((CertdogException) async.getCause()).getKind());
+
+            RateLimitUsage usage = client.getRateLimitUsage(CertdogTestServer.ISSUER);
+            assertEquals(2, usage.getGranted());
+            assertEquals(3, usage.getAvailablePermits());
+        }
+    }
+
+    @Test
+    public void cancelledCallsGiveBackTheirPermits() throws Exception
+    {
+        try (CertdogClient client = NewClient(RateLimitOptions.builder()
+                .perIssuer(0.5, 1)
+                .maxWait(5000)
+                .build()))
+        {
+            assertNotNull(Request(client, CertdogTestServer.ISSUER, "CN=cancelled 0"));
+
+            // The next permit is two seconds away, so the call waits for it
+            int before = server.getRequestCount(CertdogEndpoints.CERT_REQ);
+            CompletableFuture<String> waiting = client.requestCertAsync(CertdogTestServer.ISSUER,
+                    CertdogTestServer.GENERATORS.get(1), CertdogTestServer.TEAM, "CN=cancelled 1",
+                    CertdogTestServer.PASSWORD, null, null, null, ResponseFormat.PEM);
+            assertEquals(1, client.getRateLimitUsage(CertdogTestServer.ISSUER).getWaiting());
+            assertTrue(waiting.cancel(true));
+
+            RateLimitUsage usage = client.getRateLimitUsage(CertdogTestServer.ISSUER);
+            assertEquals(1, usage.getGranted());
+            assertEquals(0, usage.getWaiting());
+            Thread.sleep(2500);
+            assertEquals(before, server.getRequestCount(CertdogEndpoints.CERT_REQ));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidOptions()
+    {
+        assertThrows(IllegalArgumentException.class, () -> RateLimitOptions.builder().build());
+        assertThrows(IllegalArgumentException.class, () -> RateLimitOptions.builder().global(0, 1).build());
+        assertThrows(IllegalArgumentException.class, () -> RateLimitOptions.builder().perIssuer(1, 0).build());
+        assertThrows(IllegalArgumentException.class, () -> RateLimitOptions.builder().global(1, 1).maxWait(-1).build());
+    }
+
+    private static String Request(CertdogClient client, String issuerName, String dn) throws CertdogException
+    {
+        return client.requestCert(issuerName, CertdogTestServer.GENERATORS.get(1), CertdogTestServer.TEAM, dn,
+                CertdogTestServer.PASSWORD, null, ResponseFormat.PEM);
+    }
+
+    private static CertdogClient NewClient(RateLimitOptions rateLimit) throws CertdogException
+    {
+        return server.newClient(server.clientConfig().rateLimit(rateLimit).build());
+    }
+}
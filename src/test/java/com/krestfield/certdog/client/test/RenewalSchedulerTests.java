@@ -0,0 +1,284 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import com.krestfield.certdog.client.CertdogException;
+import com.krestfield.certdog.client.IssuedCredential;
+import com.krestfield.certdog.client.KeyType;
+import com.krestfield.certdog.client.RenewalListener;
+import com.krestfield.certdog.client.RenewalRequest;
+import com.krestfield.certdog.client.RenewalResult;
+import com.krestfield.certdog.client.RenewalScheduler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Renewing certificates with RenewalScheduler
+ */
+public class RenewalSchedulerTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.clearErrors();
+        server.setCertLifetime(365L * 24 * 60 * 60 * 1000);
+    }
+
+    @Test
+    public void renewsBeforeExpiry() throws Exception
+    {
+        Path stateFile = Files.createTempFile("certdog-renewals", ".json");
+        Files.delete(stateFile);
+        BlockingQueue<RenewalResult> renewed = new LinkedBlockingQueue<>();
+        RenewalListener listener = renewed::add;
+
+        try (CertdogClient client = server.newClient())
+        {
+            // Test certificates are valid from a minute ago, so these are renewed about 2.4s from now
+            server.setCertLifetime(4000);
+            String password = CertdogTestServer.PASSWORD;
+            String pem = client.requestCert(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(1),
+                    CertdogTestServer.TEAM, "CN=renewal pem", password, null, ResponseFormat.PEM);
+            IssuedCredential local = client.requestCertWithLocalKey(CertdogTestServer.ISSUER, CertdogTestServer.TEAM,
+                    "CN=renewal local", null, KeyType.EC_P256);
+            server.setCertLifetime(365L * 24 * 60 * 60 * 1000);
+
+            X509Certificate pemCert = CertdogClient.GetCertsFromPem(pem).get(0);
+            long renewedAt;
+            try (RenewalScheduler scheduler = RenewalScheduler.builder(client, listener)
+                    .renewAt(0.975, 0.005)
+                    .stateFile(stateFile)
+                    .build())
+            {
+                scheduler.register("pem", pem, password, ResponseFormat.PEM, RenewalRequest.fromGenerator(
+                        CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(1), CertdogTestServer.TEAM, null,
+                        ResponseFormat.PEM));
+                scheduler.register("local", local.getCertificate(), RenewalRequest.withLocalKey(CertdogTestServer.ISSUER,
+                        CertdogTestServer.TEAM, null, KeyType.EC_P256));
+                assertEquals(2, scheduler.getSchedule().size());
+
+                for (int i = 0; i < 2; i++)
+                {
+                    RenewalResult result = renewed.poll(10, TimeUnit.SECONDS);
+                    assertNotNull(result);
+                    assertFalse(result.getPrevious().getSerialNumber().equals(result.getCertificate().getSerialNumber()));
+                    assertEquals(result.getPrevious().getSubjectX500Principal(), result.getCertificate().getSubjectX500Principal());
+                    if (result.getId().equals("pem"))
+                    {
+                        assertEquals(pemCert, result.getPrevious());
+                        assertEquals(result.getCertificate(), CertdogClient.GetCertsFromPem(result.getData()).get(0));
+                        assertNotNull(result.getPassword());
+                    }
+                    else
+                    {
+                        assertEquals(local.getCertificate(), result.getPrevious());
+                        assertNotNull(result.getPrivateKey());
+                    }
+                }
+
+                // Wait for the renewals to be recorded
+                long deadline = System.currentTimeMillis() + 5000;
+                while (scheduler.getRenewalTime("pem") < System.currentTimeMillis() + 100L * 24 * 60 * 60 * 1000
+                        && System.currentTimeMillis() < deadline)
+                {
+                    Thread.sleep(10);
+                }
+                renewedAt = scheduler.getRenewalTime("pem");
+                assertTrue(renewedAt > System.currentTimeMillis() + 100L * 24 * 60 * 60 * 1000);
+            }
+
+            // The schedule is read back from the state file, which holds no passwords
+            try (RenewalScheduler restarted = RenewalScheduler.builder(client, listener).stateFile(stateFile).build())
+            {
+                assertEquals(2, restarted.getSchedule().size());
+                assertEquals(renewedAt, restarted.getRenewalTime("pem"));
+                assertFalse(new String(Files.readAllBytes(stateFile), "UTF-8").contains(password));
+            }
+        }
+        finally
+        {
+            server.setCertLifetime(365L * 24 * 60 * 60 * 1000);
+            Files.deleteIfExists(stateFile);
+        }
+    }
+
+    @Test
+    public void retriesFailedRenewals() throws Exception
+    {
+        BlockingQueue<RenewalResult> renewed = new LinkedBlockingQueue<>();
+        List<Integer> failures = new CopyOnWriteArrayList<>();
+        List<Integer> statuses = new CopyOnWriteArrayList<>();
+        RenewalListener listener = new RenewalListener()
+        {
+            @Override
+            public void onRenewed(RenewalResult result)
+            {
+                renewed.add(result);
+            }
+
+            @Override
+            public void onRenewalFailed(String id, X509Certificate current, CertdogException error, int failureCount)
+            {
+                failures.add(failureCount);
+                statuses.add(error.getStatusCode());
+            }
+        };
+
+        try (CertdogClient client = server.newClient())
+        {
+            X509Certificate cert = IssueShortLived(client, "CN=renewal retry");
+
+            // Already past the renewal time, so renewed at once
+            server.failNext(CertdogEndpoints.CERT_REQ_CSR, 2, 503);
+            try (RenewalScheduler scheduler = RenewalScheduler.builder(client, listener)
+                    .renewAt(0.5, 0.1)
+                    .retryDelay(50, 1000)
+                    .build())
+            {
+                scheduler.register("retry", cert, RenewalRequest.withLocalKey(CertdogTestServer.ISSUER,
+                        CertdogTestServer.TEAM, null, KeyType.EC_P256));
+
+                RenewalResult result = renewed.poll(10, TimeUnit.SECONDS);
+                assertNotNull(result);
+                assertEquals(cert, result.getPrevious());
+                assertEquals(Arrays.asList(1, 2), failures);
+                assertEquals(Arrays.asList(503, 503), statuses);
+            }
+        }
+    }
+
+    @Test
+    public void renewsAgainIfTheListenerFails() throws Exception
+    {
+        BlockingQueue<RenewalResult> renewed = new LinkedBlockingQueue<>();
+        List<Integer> failures = new CopyOnWriteArrayList<>();
+        AtomicBoolean thrown = new AtomicBoolean();
+        RenewalListener listener = new RenewalListener()
+        {
+            @Override
+            public void onRenewed(RenewalResult result)
+            {
+                if (thrown.compareAndSet(false, true))
+                    throw new IllegalStateException("Not installed");
+                renewed.add(result);
+            }
+
+            @Override
+            public void onRenewalFailed(String id, X509Certificate current, CertdogException error, int failureCount)
+            {
+                failures.add(failureCount);
+            }
+        };
+
+        try (CertdogClient client = server.newClient())
+        {
+            X509Certificate cert = IssueShortLived(client, "CN=renewal listener");
+            try (RenewalScheduler scheduler = RenewalScheduler.builder(client, listener)
+                    .renewAt(0.5, 0.1)
+                    .retryDelay(50, 1000)
+                    .build())
+            {
+                scheduler.register("listener", cert, RenewalRequest.withLocalKey(CertdogTestServer.ISSUER,
+                        CertdogTestServer.TEAM, null, KeyType.EC_P256));
+
+                // The renewal that was not installed is not recorded, so the original certificate is renewed again
+                RenewalResult result = renewed.poll(10, TimeUnit.SECONDS);
+                assertNotNull(result);
+                assertEquals(cert, result.getPrevious());
+                assertEquals(Arrays.asList(1), failures);
+            }
+        }
+    }
+
+    @Test
+    public void unregisteredCertificatesAreNotRenewed() throws Exception
+    {
+        try (CertdogClient client = server.newClient();
+             RenewalScheduler scheduler = RenewalScheduler.builder(client, result -> { }).build())
+        {
+            X509Certificate cert = client.requestCertWithLocalKey(CertdogTestServer.ISSUER, CertdogTestServer.TEAM,
+                    "CN=renewal unregister", null, KeyType.EC_P256).getCertificate();
+            long renewAt = scheduler.register("unregister", cert, RenewalRequest.withLocalKey(CertdogTestServer.ISSUER,
+                    CertdogTestServer.TEAM, null, KeyType.EC_P256));
+
+            // Two thirds of the way through the lifetime, give or take the jitter
+            long lifetime = cert.getNotAfter().getTime() - cert.getNotBefore().getTime();
+            long expected = cert.getNotBefore().getTime() + lifetime * 2 / 3;
+            assertTrue(Math.abs(renewAt - expected) <= lifetime * 0.05 + 1000);
+            assertEquals(renewAt, scheduler.getRenewalTime("unregister"));
+            assertEquals(cert, scheduler.getCertificate("unregister"));
+
+            assertTrue(scheduler.unregister("unregister"));
+            assertFalse(scheduler.unregister("unregister"));
+            assertTrue(scheduler.getSchedule().isEmpty());
+            assertNull(scheduler.getCertificate("unregister"));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidOptions() throws Exception
+    {
+        try (CertdogClient client = server.newClient())
+        {
+            assertThrows(IllegalArgumentException.class, () -> RenewalScheduler.builder(client, null).build());
+            assertThrows(IllegalArgumentException.class, () -> RenewalScheduler.builder(client, result -> { })
+                    .renewAt(0.9, 0.1).build());
+            assertThrows(IllegalArgumentException.class, () -> RenewalScheduler.builder(client, result -> { })
+                    .retryDelay(100, 10).build());
+            assertThrows(IllegalArgumentException.class, () -> RenewalScheduler.builder(client, result -> { })
+                    .concurrency(0).build());
+        }
+    }
+
+    /**
+     * @return a certificate that expires in a few seconds, and so is already half way through its lifetime
+     */
+    private static X509Certificate IssueShortLived(CertdogClient client, String dn) throws Exception
+    {
+        server.setCertLifetime(4000);
+        try
+        {
+            return client.requestCertWithLocalKey(CertdogTestServer.ISSUER, CertdogTestServer.TEAM, dn, null,
+                    KeyType.EC_P256).getCertificate();
+        }
+        finally
+        {
+            server.setCertLifetime(365L * 24 * 60 * 60 * 1000);
+        }
+    }
+}
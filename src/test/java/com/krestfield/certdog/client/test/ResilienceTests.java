@@ -0,0 +1,148 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import com.krestfield.certdog.client.CertdogException;
+import com.krestfield.certdog.client.ResilienceOptions;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Retries and circuit breakers
+ */
+public class ResilienceTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.clearErrors();
+        server.setLatency(0, 0);
+    }
+
+    @Test
+    public void retriesIdempotentCalls() throws Exception
+    {
+        try (CertdogClient client = NewClient(ResilienceOptions.builder()
+                .maxAttempts(4)
+                .backoff(1, 20)
+                .circuitBreaker(false)
+                .build()))
+        {
+            int before = server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN);
+            server.failNext(CertdogEndpoints.ISSUER_CHAIN, 3, 503);
+            assertFalse(client.getIssuerChain(CertdogTestServer.ISSUER).isEmpty());
+            assertEquals(before + 4, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+
+            server.failNext(CertdogEndpoints.ISSUER_CHAIN, 3, 503);
+            assertFalse(client.getIssuerChainAsync(CertdogTestServer.ISSUER).get().isEmpty());
+            assertEquals(before + 8, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+
+            // Still failing after the last attempt
+            server.failNext(CertdogEndpoints.ISSUER_CHAIN, 4, 503);
+            CertdogException e = assertThrows(CertdogException.class, () -> client.getIssuerChain(CertdogTestServer.ISSUER));
+            assertEquals(CertdogException.Kind.TRANSIENT, e.getKind());
+            assertEquals(before + 12, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+        }
+    }
+
+    @Test
+    public void retriesOnlyTransientFailuresOfIdempotentCalls() throws Exception
+    {
+        try (CertdogClient client = NewClient(ResilienceOptions.builder()
+                .maxAttempts(4)
+                .backoff(1, 20)
+                .circuitBreaker(false)
+                .build()))
+        {
+            int before = server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN);
+            server.failNext(CertdogEndpoints.ISSUER_CHAIN, 1, 400);
+            CertdogException e = assertThrows(CertdogException.class, () -> client.getIssuerChain(CertdogTestServer.ISSUER));
+            assertEquals(CertdogException.Kind.REJECTED, e.getKind());
+            assertEquals(before + 1, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+
+            server.failNext(CertdogEndpoints.ISSUER_CHAIN, 1, 403);
+            ExecutionException async = assertThrows(ExecutionException.class,
+                    () -> client.getIssuerChainAsync(CertdogTestServer.ISSUER).get());
+            assertEquals(CertdogException.Kind.AUTHENTICATION, ((CertdogException) async.getCause()).getKind());
+            assertEquals(before + 2, server.getRequestCount(CertdogEndpoints.ISSUER_CHAIN));
+
+            // Certificate requests are not idempotent, so are sent once only
+            server.failNext(CertdogEndpoints.CERT_REQ, 1, 503);
+            before = server.getRequestCount(CertdogEndpoints.CERT_REQ);
+            e = assertThrows(CertdogException.class, () -> client.requestCert(CertdogTestServer.ISSUER,
+                    CertdogTestServer.GENERATORS.get(0), CertdogTestServer.TEAM, "CN=retry test", CertdogTestServer.PASSWORD,
+                    null, ResponseFormat.PKCS12));
+            assertEquals(CertdogException.Kind.TRANSIENT, e.getKind());
+            assertEquals(before + 1, server.getRequestCount(CertdogEndpoints.CERT_REQ));
+        }
+    }
+
+    @Test
+    public void circuitBreakerFailsFast() throws Exception
+    {
+        server.failNext(CertdogEndpoints.MY_ISSUERS, 5, 503);
+        try (CertdogClient client = NewClient(ResilienceOptions.builder()
+                .maxAttempts(1)
+                .failureRate(10, 5, 0.5)
+                .openFor(300, 1)
+                .build()))
+        {
+            for (int i = 0; i < 5; i++)
+            {
+                CertdogException e = assertThrows(CertdogException.class, client::getIssuers);
+                assertEquals(CertdogException.Kind.TRANSIENT, e.getKind());
+            }
+            assertTrue(client.isCircuitOpen(CertdogEndpoints.MY_ISSUERS));
+
+            // Rejected without calling certdog, and other endpoints are not affected
+            int before = server.getRequestCount(CertdogEndpoints.MY_ISSUERS);
+            CertdogException e = assertThrows(CertdogException.class, client::getIssuers);
+            assertEquals(CertdogException.Kind.CIRCUIT_OPEN, e.getKind());
+            assertFalse(e.isTransient());
+            assertEquals(before, server.getRequestCount(CertdogEndpoints.MY_ISSUERS));
+            assertFalse(client.getTeams().isEmpty());
+
+            // After the open time a trial call is let through, and opens the breaker again if it fails
+            server.failNext(CertdogEndpoints.MY_ISSUERS, 1, 503);
+            Thread.sleep(400);
+            e = assertThrows(CertdogException.class, client::getIssuers);
+            assertEquals(CertdogException.Kind.TRANSIENT, e.getKind());
+            assertTrue(client.isCircuitOpen(CertdogEndpoints.MY_ISSUERS));
+            assertEquals(before + 1, server.getRequestCount(CertdogEndpoints.MY_ISSUERS));
+
+            // Or closes it if it succeeds
+            Thread.sleep(400);
+            assertFalse(client.getIssuers().isEmpty());
+            assertFalse(client.isCircuitOpen(CertdogEndpoints.MY_ISSUERS));
+        }
+    }
+
+    private static CertdogClient NewClient(ResilienceOptions resilience) throws CertdogException
+    {
+        return server.newClient(server.clientConfig().resilience(resilience).build());
+    }
+}
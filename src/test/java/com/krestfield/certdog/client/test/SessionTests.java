@@ -0,0 +1,136 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import com.krestfield.certdog.client.CertdogEndpoints;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The login token shared by the threads using a client
+ */
+public class SessionTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.clearErrors();
+    }
+
+    @Test
+    public void rejectedTokenIsRefreshedOnce() throws Exception
+    {
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (CertdogClient client = server.newClient())
+        {
+            server.expireTokens();
+            int logins = server.getRequestCount(CertdogEndpoints.LOGIN);
+
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++)
+            {
+                results.add(executor.submit(() ->
+                {
+                    start.await();
+                    return client.getTeams();
+                }));
+            }
+            start.countDown();
+            for (Future<List<String>> result : results)
+            {
+                assertEquals(CertdogTestServer.TEAM, result.get().get(0));
+            }
+
+            // Every thread was rejected, but only one logged in again
+            assertEquals(logins + 1, server.getRequestCount(CertdogEndpoints.LOGIN));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectedFetchDoesNotRequestAgain() throws Exception
+    {
+        try (CertdogClient client = server.newClient(server.clientConfig().localFormatConversion(false).build()))
+        {
+            for (int i = 0; i < 2; i++)
+            {
+                int logins = server.getRequestCount(CertdogEndpoints.LOGIN);
+                int requests = server.getRequestCount(CertdogEndpoints.CERT_REQ);
+                int fetches = server.getRequestCount(CertdogEndpoints.CERT_PEM_DATA);
+                int issued = server.getIssuedCount();
+
+                // The certificate is issued, then fetching its PEM is rejected once
+                server.failNext(CertdogEndpoints.CERT_PEM_DATA, 1, 401);
+                String pem = i == 0
+                        ? client.requestCert(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0), CertdogTestServer.TEAM,
+                                "CN=refetched", "password", null, ResponseFormat.PEM)
+                        : client.requestCertAsync(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0), CertdogTestServer.TEAM,
+                                "CN=refetched async", "password", null, null, null, ResponseFormat.PEM).get();
+                assertNotNull(CertdogClient.GetCertsFromPem(pem).get(0));
+
+                assertEquals(logins + 1, server.getRequestCount(CertdogEndpoints.LOGIN));
+                assertEquals(requests + 1, server.getRequestCount(CertdogEndpoints.CERT_REQ));
+                assertEquals(fetches + 2, server.getRequestCount(CertdogEndpoints.CERT_PEM_DATA));
+                assertEquals(issued + 1, server.getIssuedCount());
+            }
+        }
+    }
+
+    @Test
+    public void asyncLoginDoesNotHoldTheAsyncThreads() throws Exception
+    {
+        // With one async thread, a login made on it would hold up every other async call until it completed
+        try (CertdogClient client = server.newClient(server.clientConfig().asyncThreadPoolSize(1).build()))
+        {
+            server.expireTokens();
+            server.stallNext(CertdogEndpoints.LOGIN, 1, 1000);
+            int logins = server.getRequestCount(CertdogEndpoints.LOGIN);
+            CompletableFuture<List<X509Certificate>> rejected = client.getIssuerChainAsync(CertdogTestServer.ISSUER);
+            Thread.sleep(200);
+
+            // Fails before the token is checked, so needs no login of its own
+            server.failNext(CertdogEndpoints.ISSUER_CHAIN, 1, 503);
+            CompletableFuture<List<X509Certificate>> failed = client.getIssuerChainAsync(CertdogTestServer.ISSUER);
+            assertThrows(ExecutionException.class, () -> failed.get(500, TimeUnit.MILLISECONDS));
+
+            assertEquals(server.getCa(CertdogTestServer.ISSUER).getCert(), rejected.get().get(0));
+            assertEquals(logins + 1, server.getRequestCount(CertdogEndpoints.LOGIN));
+        }
+    }
+}
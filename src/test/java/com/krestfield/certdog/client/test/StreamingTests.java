@@ -0,0 +1,132 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.BatchOptions;
+import com.krestfield.certdog.client.BatchResult;
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import com.krestfield.certdog.client.IssuanceIndex;
+import com.krestfield.certdog.client.IssuanceRecord;
+import com.krestfield.certdog.client.IssuedKeyStore;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Binary key stores, and streaming them to an OutputStream with requestCertTo
+ */
+public class StreamingTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.setReturnPemCert(true);
+    }
+
+    @Test
+    public void streamsBinaryKeyStores() throws Exception
+    {
+        try (CertdogClient client = server.newClient())
+        {
+            long start = System.nanoTime();
+            List<BatchResult> results = client.requestCerts(CertdogTestServer.NewRequests(40), BatchOptions.builder()
+                    .concurrency(16)
+                    .binary(true)
+                    .build());
+            System.out.println("\nIssued " + results.size() + " binary key stores in " + (System.nanoTime() - start) / 1000000 + "ms");
+
+            for (BatchResult result : results)
+            {
+                assertTrue(result.isSuccess(), () -> "Request failed: " + result.getError());
+                assertNull(result.getData());
+                assertEquals("CN=test " + result.getIndex(), LoadP12(result.getBinaryData()).getSubjectX500Principal().getName());
+            }
+
+            IssuedKeyStore issued = client.requestCertBinary(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0),
+                    CertdogTestServer.TEAM, "CN=binary", CertdogTestServer.PASSWORD, null, null, null);
+            assertNotNull(issued.getId());
+            assertEquals(issued.getCertificate(), LoadP12(issued.getData()));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IssuedKeyStore streamed = client.requestCertTo(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0),
+                    CertdogTestServer.TEAM, "CN=streamed", CertdogTestServer.PASSWORD, null, null, null, out);
+            assertNull(streamed.getData());
+            assertEquals(streamed.getCertificate(), LoadP12(out.toByteArray()));
+            assertEquals("CN=streamed", streamed.getCertificate().getSubjectX500Principal().getName());
+
+            assertThrows(IllegalArgumentException.class, () -> BatchOptions.builder().binary(true).format(ResponseFormat.PEM).build());
+        }
+    }
+
+    @Test
+    public void streamedKeyStoresAreIndexed() throws Exception
+    {
+        Path indexFile = Files.createTempFile("certdog-streamed", ".log");
+        Files.delete(indexFile);
+
+        try (IssuanceIndex index = IssuanceIndex.open(indexFile);
+             CertdogClient client = server.newClient(server.clientConfig().issuanceIndex(index).build()))
+        {
+            for (boolean returnPemCert : new boolean[] { true, false })
+            {
+                // Without a pemCert the certificate to record is read from the data streamed
+                server.setReturnPemCert(returnPemCert);
+                String dn = "CN=streamed " + returnPemCert;
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                IssuedKeyStore streamed = client.requestCertTo(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(0),
+                        CertdogTestServer.TEAM, dn, CertdogTestServer.PASSWORD, null, null, null, out);
+                assertNull(streamed.getData());
+                assertEquals(returnPemCert, streamed.getCertificate() != null);
+
+                X509Certificate cert = LoadP12(out.toByteArray());
+                assertEquals(dn, cert.getSubjectX500Principal().getName());
+                IssuanceRecord record = index.findById(streamed.getId());
+                assertNotNull(record);
+                assertEquals(cert.getSerialNumber(), new BigInteger(record.getSerialNumber(), 16));
+                assertEquals(cert.getNotAfter(), record.getNotAfter());
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(indexFile);
+            Files.deleteIfExists(indexFile.resolveSibling(indexFile.getFileName() + ".lock"));
+        }
+    }
+
+    private static X509Certificate LoadP12(byte[] data) throws Exception
+    {
+        KeyStore p12 = KeyStore.getInstance("PKCS12");
+        p12.load(new ByteArrayInputStream(data), CertdogTestServer.PASSWORD.toCharArray());
+
+        return (X509Certificate) p12.getCertificate(p12.aliases().nextElement());
+    }
+}
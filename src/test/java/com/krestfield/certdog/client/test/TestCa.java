@@ -0,0 +1,169 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.KeyType;
+import org.bouncycastle.asn1.ASN1Set;
+import org.bouncycastle.asn1.pkcs.Attribute;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequest;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * TestCa
+ *
+ * A self-signed CA, held in memory, that signs certificates for the embedded test server
+ */
+public class TestCa
+{
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final KeyPair keys;
+    private final X509Certificate cert;
+
+    /**
+     * @param dn the DN of the CA
+     * @throws Exception if the CA cannot be created
+     */
+    public TestCa(String dn) throws Exception
+    {
+        this(dn, 10L * 365 * 24 * 60 * 60 * 1000);
+    }
+
+    /**
+     * @param dn the DN of the CA
+     * @param lifetimeMillis how long the CA certificate is valid for
+     * @throws Exception if the CA cannot be created
+     */
+    public TestCa(String dn, long lifetimeMillis) throws Exception
+    {
+        keys = KeyType.RSA_2048.generate();
+
+        long now = System.currentTimeMillis();
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(new X500Name(dn), newSerial(),
+                new Date(now - 60000), new Date(now + lifetimeMillis), new X500Name(dn), keys.getPublic());
+        builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+        builder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+
+        cert = sign(builder);
+    }
+
+    public X509Certificate getCert()
+    {
+        return cert;
+    }
+
+    /**
+     * Issues a certificate
+     *
+     * @param dn the subject DN
+     * @param publicKey the subject's public key
+     * @param sans Subject Alternative Names in the form DNS:[dns name],EMAIL:[email],IP:[ip address], or null
+     * @param lifetimeMillis how long the certificate is valid for
+     * @return the certificate
+     * @throws Exception if the certificate cannot be issued
+     */
+    public X509Certificate issue(String dn, PublicKey publicKey, List<String> sans, long lifetimeMillis) throws Exception
+    {
+        GeneralNames names = null;
+        if (sans != null && !sans.isEmpty())
+            names = ToGeneralNames(sans);
+
+        return issue(new X500Name(dn), publicKey, names, lifetimeMillis);
+    }
+
+    /**
+     * Issues a certificate from a PKCS#10 request, copying its subject and any Subject Alternative Names
+     *
+     * @param csrPem the PEM encoded request. Line breaks are optional
+     * @param lifetimeMillis how long the certificate is valid for
+     * @return the certificate
+     * @throws Exception if the request cannot be read or the certificate cannot be issued
+     */
+    public X509Certificate issueFromCsr(String csrPem, long lifetimeMillis) throws Exception
+    {
+        String b64 = csrPem
+                .replace("-----BEGIN CERTIFICATE REQUEST-----", "")
+                .replace("-----END CERTIFICATE REQUEST-----", "")
+                .replaceAll("\\s", "");
+        JcaPKCS10CertificationRequest csr = new JcaPKCS10CertificationRequest(Base64.getDecoder().decode(b64));
+
+        GeneralNames names = null;
+        for (Attribute attr : csr.getAttributes(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest))
+        {
+            ASN1Set values = attr.getAttrValues();
+            if (values.size() > 0)
+                names = GeneralNames.fromExtensions(Extensions.getInstance(values.getObjectAt(0)), Extension.subjectAlternativeName);
+        }
+
+        return issue(csr.getSubject(), csr.getPublicKey(), names, lifetimeMillis);
+    }
+
+    private X509Certificate issue(X500Name subject, PublicKey publicKey, GeneralNames sans, long lifetimeMillis) throws Exception
+    {
+        long now = System.currentTimeMillis();
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(cert, newSerial(),
+                new Date(now - 60000), new Date(now + lifetimeMillis), subject, publicKey);
+        builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(false));
+        if (sans != null)
+            builder.addExtension(Extension.subjectAlternativeName, false, sans);
+
+        return sign(builder);
+    }
+
+    private X509Certificate sign(X509v3CertificateBuilder builder) throws Exception
+    {
+        return new JcaX509CertificateConverter().getCertificate(
+                builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keys.getPrivate())));
+    }
+
+    private static BigInteger newSerial()
+    {
+        return new BigInteger(64, RANDOM).add(BigInteger.ONE);
+    }
+
+    private static GeneralNames ToGeneralNames(List<String> sans)
+    {
+        List<GeneralName> names = new ArrayList<>();
+        for (String san : sans)
+        {
+            int sep = san.indexOf(':');
+            String type = san.substring(0, sep).trim().toUpperCase();
+            String value = san.substring(sep + 1).trim();
+            switch (type)
+            {
+                case "DNS":
+                    names.add(new GeneralName(GeneralName.dNSName, value));
+                    break;
+                case "IP":
+                    names.add(new GeneralName(GeneralName.iPAddress, value));
+                    break;
+                case "EMAIL":
+                    names.add(new GeneralName(GeneralName.rfc822Name, value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid Subject Alternative Name '" + san + "'");
+            }
+        }
+
+        return new GeneralNames(names.toArray(new GeneralName[0]));
+    }
+}
@@ -3,20 +3,49 @@ package com.krestfield.certdog.client.test;
 import com.krestfield.certdog.client.CertdogClient;
 import com.krestfield.certdog.client.CertdogClient.RevocationReason;
 import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Runs against the embedded CertdogTestServer unless a certdog API URL is given with
+ * -Dcertdog.apiUrl e.g. -Dcertdog.apiUrl=https://certdog.net/certdog/api
+ */
 public class Tests
 {
     //public static final String APIURL = "http://127.0.0.1:8081/api";
-    public static final String APIURL = "https://certdog.net/certdog/api";
+    //public static final String APIURL = "https://certdog.net/certdog/api";
+    public static String APIURL;
     //public static final String APIUSER = "admin";
-    public static final String APIUSER = "certdogtest";
-    public static final String APIPASS = "password";
-    public static final String SAVEFOLDER = "C:/temp/";
+    public static final String APIUSER = System.getProperty("certdog.apiUser", CertdogTestServer.USERNAME);
+    public static final String APIPASS = System.getProperty("certdog.apiPass", CertdogTestServer.PASSWORD);
+    public static final String SAVEFOLDER = System.getProperty("certdog.saveFolder",
+            System.getProperty("java.io.tmpdir") + File.separator);
+
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        APIURL = System.getProperty("certdog.apiUrl");
+        if (APIURL == null)
+        {
+            server = new CertdogTestServer(false);
+            APIURL = server.getApiUrl();
+        }
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        if (server != null)
+            server.close();
+    }
 
     @Test
     public void login() throws Exception
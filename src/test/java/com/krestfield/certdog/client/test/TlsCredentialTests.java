@@ -0,0 +1,248 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClient.ResponseFormat;
+import com.krestfield.certdog.client.CertdogException;
+import com.krestfield.certdog.client.IssuedCredential;
+import com.krestfield.certdog.client.KeyType;
+import com.krestfield.certdog.client.ReloadingKeyManager;
+import com.krestfield.certdog.client.RenewalRequest;
+import com.krestfield.certdog.client.RenewalResult;
+import com.krestfield.certdog.client.RenewalScheduler;
+import com.krestfield.certdog.client.TlsCredential;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * In-memory TLS credentials and the reloading key manager
+ */
+public class TlsCredentialTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.setCertLifetime(365L * 24 * 60 * 60 * 1000);
+    }
+
+    @Test
+    public void readsEachFormat() throws Exception
+    {
+        try (CertdogClient client = server.newClient())
+        {
+            List<X509Certificate> issuerChain = client.getIssuerChain(CertdogTestServer.ISSUER);
+            for (ResponseFormat format : ResponseFormat.values())
+            {
+                String data = client.requestCert(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(1),
+                        CertdogTestServer.TEAM, "CN=in memory " + format, CertdogTestServer.PASSWORD, null, format);
+                TlsCredential credential = client.toTlsCredential(CertdogTestServer.ISSUER, data, CertdogTestServer.PASSWORD, format);
+                assertEquals("CN=in memory " + format, credential.getCertificate().getSubjectX500Principal().getName());
+
+                // The key in the KeyStore signs for the certificate
+                char[] pw = "pw".toCharArray();
+                Signature signer = Signature.getInstance("SHA256withECDSA");
+                signer.initSign((PrivateKey) credential.toKeyStore(pw).getKey("certdog", pw));
+                signer.update(data.getBytes("UTF-8"));
+                Signature verifier = Signature.getInstance("SHA256withECDSA");
+                verifier.initVerify(credential.getCertificate());
+                verifier.update(data.getBytes("UTF-8"));
+                assertTrue(verifier.verify(signer.sign()));
+
+                // Followed by the issuer chain
+                assertEquals(issuerChain, credential.getChain().subList(1, credential.getChain().size()));
+            }
+
+            IssuedCredential local = client.requestCertWithLocalKey(CertdogTestServer.ISSUER, CertdogTestServer.TEAM,
+                    "CN=in memory local", null, KeyType.EC_P256);
+            TlsCredential credential = client.toTlsCredential(CertdogTestServer.ISSUER, local);
+            assertEquals(local.getPrivateKey(), credential.getPrivateKey());
+            assertEquals(local.getCertificate(), credential.getCertificate());
+            assertEquals(issuerChain, credential.getChain().subList(1, credential.getChain().size()));
+            assertEquals(Collections.singletonList(local.getCertificate()), TlsCredential.fromIssued(local).getChain());
+
+            String p12Data = client.requestCert(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(1),
+                    CertdogTestServer.TEAM, "CN=in memory wrong password", CertdogTestServer.PASSWORD, null, ResponseFormat.PKCS12);
+            assertThrows(CertdogException.class, () -> TlsCredential.fromData(p12Data, "wrong", ResponseFormat.PKCS12));
+            assertThrows(IllegalArgumentException.class, () -> new TlsCredential(null, issuerChain));
+        }
+    }
+
+    @Test
+    public void reloadsKeyManagerWithoutRestart() throws Exception
+    {
+        try (CertdogClient client = server.newClient())
+        {
+            List<X509Certificate> issuerChain = client.getIssuerChain(CertdogTestServer.ISSUER);
+            KeyStore trusted = KeyStore.getInstance("PKCS12");
+            trusted.load(null, null);
+            for (int i = 0; i < issuerChain.size(); i++)
+            {
+                trusted.setCertificateEntry("ca" + i, issuerChain.get(i));
+            }
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(trusted);
+
+            IssuedCredential first = client.requestCertWithLocalKey(CertdogTestServer.ISSUER, CertdogTestServer.TEAM,
+                    "CN=localhost", null, KeyType.EC_P256);
+            ReloadingKeyManager keyManager = new ReloadingKeyManager(client.toTlsCredential(CertdogTestServer.ISSUER, first));
+
+            try (SSLServerSocket listener = (SSLServerSocket) keyManager.toSslContext().getServerSocketFactory()
+                    .createServerSocket(0, 50, InetAddress.getLoopbackAddress()))
+            {
+                Thread acceptor = new Thread(() -> Echo(listener), "echo-server");
+                acceptor.setDaemon(true);
+                acceptor.start();
+
+                try (SSLSocket before = Connect(tmf, listener.getLocalPort()))
+                {
+                    assertEquals(first.getCertificate(), before.getSession().getPeerCertificates()[0]);
+                    assertEquals(1 + issuerChain.size(), before.getSession().getPeerCertificates().length);
+
+                    IssuedCredential second = client.requestCertWithLocalKey(CertdogTestServer.ISSUER, CertdogTestServer.TEAM,
+                            "CN=localhost", null, KeyType.EC_P256);
+                    keyManager.update(client.toTlsCredential(CertdogTestServer.ISSUER, second));
+
+                    try (SSLSocket after = Connect(tmf, listener.getLocalPort()))
+                    {
+                        assertEquals(second.getCertificate(), after.getSession().getPeerCertificates()[0]);
+                    }
+
+                    // The connection made before the update carries on
+                    for (int i = 0; i < 3; i++)
+                    {
+                        before.getOutputStream().write(i);
+                        before.getOutputStream().flush();
+                        assertEquals(i, before.getInputStream().read());
+                    }
+                }
+            }
+        }
+    }
+
+    private static SSLSocket Connect(TrustManagerFactory tmf, int port) throws Exception
+    {
+        // A new context each time, so the session is not resumed
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, tmf.getTrustManagers(), null);
+        SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(InetAddress.getLoopbackAddress(), port);
+        socket.startHandshake();
+
+        return socket;
+    }
+
+    private static void Echo(SSLServerSocket listener)
+    {
+        while (!listener.isClosed())
+        {
+            try
+            {
+                SSLSocket socket = (SSLSocket) listener.accept();
+                Thread echo = new Thread(() ->
+                {
+                    try (SSLSocket s = socket)
+                    {
+                        OutputStream out = s.getOutputStream();
+                        int b;
+                        while ((b = s.getInputStream().read()) >= 0)
+                        {
+                            out.write(b);
+                            out.flush();
+                        }
+                    }
+                    catch (Exception ignored)
+                    {
+                    }
+                }, "echo");
+                echo.setDaemon(true);
+                echo.start();
+            }
+            catch (Exception e)
+            {
+                return;
+            }
+        }
+    }
+
+
+    @Test
+    public void updatesFromRenewals() throws Exception
+    {
+        BlockingQueue<RenewalResult> renewed = new LinkedBlockingQueue<>();
+        try (CertdogClient client = server.newClient())
+        {
+            List<X509Certificate> issuerChain = client.getIssuerChain(CertdogTestServer.ISSUER);
+
+            // Already half way through their lifetimes, so renewed at once
+            server.setCertLifetime(4000);
+            String pem = client.requestCert(CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(1),
+                    CertdogTestServer.TEAM, "CN=reload pem", CertdogTestServer.PASSWORD, null, ResponseFormat.PEM);
+            IssuedCredential local = client.requestCertWithLocalKey(CertdogTestServer.ISSUER, CertdogTestServer.TEAM,
+                    "CN=reload local", null, KeyType.EC_P256);
+            server.setCertLifetime(365L * 24 * 60 * 60 * 1000);
+
+            ReloadingKeyManager pemKeyManager = new ReloadingKeyManager(
+                    client.toTlsCredential(CertdogTestServer.ISSUER, pem, CertdogTestServer.PASSWORD, ResponseFormat.PEM));
+            ReloadingKeyManager localKeyManager = new ReloadingKeyManager(client.toTlsCredential(CertdogTestServer.ISSUER, local));
+
+            try (RenewalScheduler scheduler = RenewalScheduler.builder(client, renewed::add).renewAt(0.5, 0.1).build())
+            {
+                scheduler.register("pem", pem, CertdogTestServer.PASSWORD, ResponseFormat.PEM, RenewalRequest.fromGenerator(
+                        CertdogTestServer.ISSUER, CertdogTestServer.GENERATORS.get(1), CertdogTestServer.TEAM, null,
+                        ResponseFormat.PEM));
+                scheduler.register("local", local.getCertificate(), RenewalRequest.withLocalKey(CertdogTestServer.ISSUER,
+                        CertdogTestServer.TEAM, null, KeyType.EC_P256));
+
+                for (int i = 0; i < 2; i++)
+                {
+                    RenewalResult result = renewed.poll(10, TimeUnit.SECONDS);
+                    assertNotNull(result);
+                    ReloadingKeyManager keyManager = result.getId().equals("pem") ? pemKeyManager : localKeyManager;
+                    keyManager.update(result);
+
+                    // The new key and certificate, with the issuer chain kept
+                    TlsCredential credential = keyManager.getCredential();
+                    assertEquals(result.getCertificate(), credential.getCertificate());
+                    assertEquals(issuerChain, credential.getChain().subList(1, credential.getChain().size()));
+                    assertEquals(result.getCertificate().getPublicKey(),
+                            keyManager.getCertificateChain(keyManager.chooseServerAlias("EC", null, null))[0].getPublicKey());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.krestfield.certdog.client.test;
+
+import com.krestfield.certdog.client.BatchOptions;
+import com.krestfield.certdog.client.BatchResult;
+import com.krestfield.certdog.client.CertdogClient;
+import com.krestfield.certdog.client.CertdogClientConfig;
+import com.krestfield.certdog.client.CertdogClientConfig.AsyncExecutor;
+import com.krestfield.certdog.client.model.GetCertRequest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Running async calls and batches on virtual threads
+ */
+public class VirtualThreadTests
+{
+    private static CertdogTestServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception
+    {
+        server = new CertdogTestServer(true);
+    }
+
+    @AfterAll
+    public static void stopServer()
+    {
+        server.close();
+    }
+
+    @AfterEach
+    public void reset()
+    {
+        server.setLatency(0, 0);
+    }
+
+    @Test
+    public void runsBatchesOnVirtualThreads() throws Exception
+    {
+        CertdogClientConfig.Builder builder = CertdogClientConfig.builder(server.getApiUrl())
+                .sslContext(server.getClientSslContext())
+                .asyncExecutor(AsyncExecutor.VIRTUAL);
+        if (!IsJava21())
+        {
+            assertThrows(IllegalArgumentException.class, builder::build);
+            return;
+        }
+
+        server.setLatency(20, 20);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        try (CertdogClient client = server.newClient(builder.build()))
+        {
+            List<GetCertRequest> requests = CertdogTestServer.NewRequests(100);
+            requests.forEach(req -> req.setCsrGeneratorName(CertdogTestServer.GENERATORS.get(1)));
+            List<BatchResult> results = client.requestCerts(requests, BatchOptions.builder()
+                    .concurrency(requests.size())
+                    .progressListener((result, completed, failed, total) -> threads.add(Thread.currentThread().getName()))
+                    .build());
+
+            for (BatchResult result : results)
+            {
+                assertTrue(result.isSuccess(), () -> "Request failed: " + result.getError());
+            }
+            assertTrue(threads.stream().allMatch(name -> name.startsWith("certdog-virtual-")), threads::toString);
+        }
+    }
+
+    @Test
+    public void virtualThreadsNeedTheDefaultConnector()
+    {
+        // The POOLED connector pins the carrier threads, on any JDK
+        assertThrows(IllegalArgumentException.class, () -> server.clientConfig().asyncExecutor(AsyncExecutor.VIRTUAL).build());
+        assertThrows(IllegalArgumentException.class, () -> CertdogClientConfig.builder(server.getApiUrl())
+                .asyncExecutor(AsyncExecutor.VIRTUAL)
+                .pooled(8, 8)
+                .build());
+    }
+
+    private static boolean IsJava21()
+    {
+        String version = System.getProperty("java.specification.version");
+
+        return !version.startsWith("1.") && Integer.parseInt(version) >= 21;
+    }
+}